@@ -0,0 +1,21 @@
+package com.bloodreport.analyzer.cluster;
+
+/**
+ * Endpoint classes with separate rate limit quotas, so that polling a job or
+ * reading stats does not use up a client's upload quota
+ */
+public enum EndpointClass {
+
+    /** Report uploads; charged a base token plus the document's cost */
+    UPLOAD,
+
+    /** Job status polling and job event streams */
+    JOBS,
+
+    /** Everything else */
+    GENERAL;
+
+    public String key() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,88 @@
+package com.bloodreport.analyzer.cluster;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leases held in this JVM; enough while the backend runs as a single node
+ */
+public class InProcessLeaseStore implements LeaseStore {
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    @Override
+    public boolean tryAcquire(String key, String owner, Duration ttl) {
+        long now = System.nanoTime();
+        Lease lease = new Lease(owner, now + ttl.toNanos());
+        Lease current = leases.compute(key, (k, existing) -> {
+            if (existing == null) {
+                return lease;
+            }
+            if (existing.isExpired(now)) {
+                expired.incrementAndGet();
+                return lease;
+            }
+            return existing;
+        });
+        boolean granted = current == lease;
+        (granted ? acquired : rejected).incrementAndGet();
+        return granted;
+    }
+
+    @Override
+    public void release(String key, String owner) {
+        leases.computeIfPresent(key, (k, existing) -> existing.owner.equals(owner) ? null : existing);
+    }
+
+    @Override
+    public void forceRelease(String key) {
+        leases.remove(key);
+    }
+
+    @Override
+    public String owner(String key) {
+        Lease lease = leases.get(key);
+        if (lease == null) {
+            return null;
+        }
+        if (lease.isExpired(System.nanoTime())) {
+            if (leases.remove(key, lease)) {
+                expired.incrementAndGet();
+            }
+            return null;
+        }
+        return lease.owner;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("backend", "in-process");
+        stats.put("held", leases.size());
+        stats.put("acquired", acquired.get());
+        stats.put("rejected", rejected.get());
+        stats.put("expired", expired.get());
+        return stats;
+    }
+
+    private static class Lease {
+        private final String owner;
+        private final long expiresAt;
+
+        Lease(String owner, long expiresAt) {
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
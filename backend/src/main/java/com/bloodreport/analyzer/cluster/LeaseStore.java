@@ -0,0 +1,35 @@
+package com.bloodreport.analyzer.cluster;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Exclusive, expiring leases on a key, e.g. "one upload per client at a time".
+ * A lease that is never released (crashed node, lost request) expires after
+ * its TTL. Implementations: {@link InProcessLeaseStore} for a single node,
+ * {@link RedisLeaseStore} for leases shared by all backend nodes.
+ */
+public interface LeaseStore {
+
+    /**
+     * @return true if the key was free (or its lease expired) and is now held by owner
+     */
+    boolean tryAcquire(String key, String owner, Duration ttl);
+
+    /**
+     * Releases the lease if owner still holds it
+     */
+    void release(String key, String owner);
+
+    /**
+     * Releases the lease whoever holds it
+     */
+    void forceRelease(String key);
+
+    /**
+     * @return The current holder, or null if the key is free
+     */
+    String owner(String key);
+
+    Map<String, Object> getStats();
+}
@@ -0,0 +1,32 @@
+package com.bloodreport.analyzer.cluster;
+
+/**
+ * Outcome of taking tokens from a client's rate limit quota
+ */
+public class RateLimitResult {
+
+    private final boolean consumed;
+    private final long remainingTokens;
+    private final long nanosToWaitForRefill;
+
+    public RateLimitResult(boolean consumed, long remainingTokens, long nanosToWaitForRefill) {
+        this.consumed = consumed;
+        this.remainingTokens = remainingTokens;
+        this.nanosToWaitForRefill = nanosToWaitForRefill;
+    }
+
+    public boolean isConsumed() {
+        return consumed;
+    }
+
+    public long getRemainingTokens() {
+        return remainingTokens;
+    }
+
+    /**
+     * Time until the quota has room again; 0 if the tokens were consumed
+     */
+    public long getNanosToWaitForRefill() {
+        return nanosToWaitForRefill;
+    }
+}
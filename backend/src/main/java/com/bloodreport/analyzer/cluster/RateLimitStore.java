@@ -0,0 +1,19 @@
+package com.bloodreport.analyzer.cluster;
+
+import java.util.Map;
+
+/**
+ * Where rate limit quotas live: in this JVM
+ * ({@link com.bloodreport.analyzer.config.RateLimitConfig}) or shared by all
+ * backend nodes ({@link RedisRateLimitStore}), selected with cluster.backend
+ */
+public interface RateLimitStore {
+
+    /**
+     * Takes tokens from the client's quota for the endpoint class if it has
+     * enough left
+     */
+    RateLimitResult tryConsume(EndpointClass endpoint, String client, long tokens);
+
+    Map<String, Object> getStats();
+}
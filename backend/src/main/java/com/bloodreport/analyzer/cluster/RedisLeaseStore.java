@@ -0,0 +1,120 @@
+package com.bloodreport.analyzer.cluster;
+
+import io.lettuce.core.RedisException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leases shared by all backend nodes through Redis, one round trip per call.
+ *
+ * A lease is a key set with NX and a PX expiry, whose value is the owner.
+ * Release compares and deletes in a server-side script, so a node whose lease
+ * expired cannot release a lease another node has taken since.
+ *
+ * If Redis is unreachable the node falls back to in-process leases, which only
+ * exclude uploads on the same node until Redis is back.
+ */
+public class RedisLeaseStore implements LeaseStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisLeaseStore.class);
+
+    static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    private static final long WARN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final SharedRedisConnection redis;
+    private final LeaseStore fallback;
+    private final String prefix;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastWarn = System.nanoTime() - WARN_INTERVAL_NANOS;
+
+    public RedisLeaseStore(SharedRedisConnection redis, String prefix) {
+        this(redis, new InProcessLeaseStore(), prefix);
+    }
+
+    public RedisLeaseStore(SharedRedisConnection redis, LeaseStore fallback, String prefix) {
+        this.redis = redis;
+        this.fallback = fallback;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public boolean tryAcquire(String key, String owner, Duration ttl) {
+        try {
+            boolean granted = "OK".equals(redis.sync().set(prefix + key, owner,
+                    SetArgs.Builder.nx().px(Math.max(1, ttl.toMillis()))));
+            (granted ? acquired : rejected).incrementAndGet();
+            return granted;
+        } catch (RedisException e) {
+            failed(e);
+            return fallback.tryAcquire(key, owner, ttl);
+        }
+    }
+
+    @Override
+    public void release(String key, String owner) {
+        try {
+            redis.sync().<Long>eval(RELEASE_SCRIPT, ScriptOutputType.INTEGER, new String[] { prefix + key }, owner);
+        } catch (RedisException e) {
+            // The lease expires on its own if it was taken in Redis
+            failed(e);
+        }
+        fallback.release(key, owner);
+    }
+
+    @Override
+    public void forceRelease(String key) {
+        try {
+            redis.sync().del(prefix + key);
+        } catch (RedisException e) {
+            failed(e);
+        }
+        fallback.forceRelease(key);
+    }
+
+    @Override
+    public String owner(String key) {
+        try {
+            String owner = redis.sync().get(prefix + key);
+            return owner != null ? owner : fallback.owner(key);
+        } catch (RedisException e) {
+            failed(e);
+            return fallback.owner(key);
+        }
+    }
+
+    private void failed(RedisException e) {
+        failures.incrementAndGet();
+        long now = System.nanoTime();
+        if (now - lastWarn >= WARN_INTERVAL_NANOS) {
+            lastWarn = now;
+            log.warn("Redis lease store at {} unavailable, using per-node leases ({} failures so far): {}",
+                    redis.getAddress(), failures.get(), e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("backend", "redis");
+        stats.put("address", redis.getAddress());
+        stats.put("acquired", acquired.get());
+        stats.put("rejected", rejected.get());
+        stats.put("failures", failures.get());
+        stats.put("connection", redis.getStats());
+        stats.put("fallback", fallback.getStats());
+        return stats;
+    }
+}
@@ -0,0 +1,143 @@
+package com.bloodreport.analyzer.cluster;
+
+import com.bloodreport.analyzer.config.RateLimitConfig;
+import io.lettuce.core.ScriptOutputType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limit quotas shared by all backend nodes through Redis.
+ *
+ * Each client gets a fixed-window counter per endpoint class (key prefix +
+ * class + client + window number) with the same capacity and period as the
+ * in-process buckets.
+ * Taking tokens runs INCRBY and PEXPIRE in one server-side script, so an
+ * admitted request costs one round trip. Once a client's window is used up on
+ * this node it is remembered locally until the window ends, so further
+ * requests from a rejected client cost none. A request that would overdraw a window that still had tokens left
+ * is refunded, so it cannot lock out a cheaper one.
+ *
+ * If Redis is unreachable the node falls back to its own in-process buckets:
+ * limits are then per node rather than cluster-wide, but requests are not
+ * turned away because of the outage.
+ */
+public class RedisRateLimitStore implements RateLimitStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisRateLimitStore.class);
+
+    private static final long WARN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_DENIED = 10_000;
+
+    static final String CONSUME_SCRIPT = "local used = redis.call('incrby', KEYS[1], ARGV[1]) "
+            + "redis.call('pexpire', KEYS[1], ARGV[2]) return used";
+
+    private final SharedRedisConnection redis;
+    private final RateLimitConfig fallback;
+    private final String prefix;
+    private final long windowMillis;
+
+    // class + client -> end of the window it has used up, in epoch millis
+    private final Map<String, Long> deniedUntil = new ConcurrentHashMap<>();
+
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rejectedLocally = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+    private volatile long lastWarn = System.nanoTime() - WARN_INTERVAL_NANOS;
+
+    public RedisRateLimitStore(SharedRedisConnection redis, RateLimitConfig fallback, String prefix) {
+        this(redis, fallback, prefix, fallback.getRefillPeriod());
+    }
+
+    public RedisRateLimitStore(SharedRedisConnection redis, RateLimitConfig fallback, String prefix,
+            Duration window) {
+        this.redis = redis;
+        this.fallback = fallback;
+        this.prefix = prefix;
+        this.windowMillis = window.toMillis();
+    }
+
+    @Override
+    public RateLimitResult tryConsume(EndpointClass endpoint, String client, long tokens) {
+        long capacity = fallback.getCapacity(endpoint);
+        String key = endpoint.key() + ":" + client;
+        long now = System.currentTimeMillis();
+        long window = now / windowMillis;
+        long windowEnd = (window + 1) * windowMillis;
+
+        Long denied = deniedUntil.get(key);
+        if (denied != null) {
+            if (denied > now) {
+                rejectedLocally.incrementAndGet();
+                return new RateLimitResult(false, 0, TimeUnit.MILLISECONDS.toNanos(denied - now));
+            }
+            deniedUntil.remove(key, denied);
+        }
+
+        String counter = prefix + key + ":" + window;
+        try {
+            roundTrips.incrementAndGet();
+            long used = redis.sync().<Long>eval(CONSUME_SCRIPT, ScriptOutputType.INTEGER, new String[] { counter },
+                    Long.toString(tokens), Long.toString(2 * windowMillis));
+            if (used <= capacity) {
+                consumed.incrementAndGet();
+                return new RateLimitResult(true, capacity - used, 0);
+            }
+
+            rejected.incrementAndGet();
+            if (used - tokens >= capacity) {
+                rememberDenied(key, windowEnd, now);
+            } else {
+                roundTrips.incrementAndGet();
+                redis.sync().decrby(counter, tokens);
+            }
+            return new RateLimitResult(false, Math.max(0, capacity - (used - tokens)),
+                    TimeUnit.MILLISECONDS.toNanos(windowEnd - now));
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            warn(e);
+            return fallback.tryConsume(endpoint, client, tokens);
+        }
+    }
+
+    private void rememberDenied(String key, long windowEnd, long now) {
+        if (deniedUntil.size() >= MAX_DENIED) {
+            deniedUntil.values().removeIf(until -> until <= now);
+            if (deniedUntil.size() >= MAX_DENIED) {
+                return;
+            }
+        }
+        deniedUntil.put(key, windowEnd);
+    }
+
+    private void warn(Exception e) {
+        long now = System.nanoTime();
+        if (now - lastWarn >= WARN_INTERVAL_NANOS) {
+            lastWarn = now;
+            log.warn("Redis rate limit store at {} unavailable, limiting per node ({} failures so far): {}",
+                    redis.getAddress(), failures.get(), e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("backend", "redis");
+        stats.put("address", redis.getAddress());
+        stats.put("consumed", consumed.get());
+        stats.put("rejected", rejected.get());
+        stats.put("rejectedLocally", rejectedLocally.get());
+        stats.put("failures", failures.get());
+        stats.put("roundTrips", roundTrips.get());
+        stats.put("fallback", fallback.getStats());
+        return stats;
+    }
+}
@@ -0,0 +1,155 @@
+package com.bloodreport.analyzer.cluster;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.protocol.ProtocolVersion;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One Lettuce connection to Redis, shared by the cluster stores.
+ *
+ * Lettuce connections are thread-safe and pipeline the commands of
+ * concurrent callers, so a single connection serves every request. It is
+ * opened on first use rather than at startup, so a node starts (and falls
+ * back to per-node limits) while Redis is down. Once connected, Lettuce
+ * reconnects by itself and rejects commands while disconnected instead of
+ * queueing them, so callers fail fast and can fall back.
+ *
+ * Until then, one caller at a time tries to connect; callers arriving while
+ * it does, and for reconnectBackoff after it failed, fail at once rather than
+ * each waiting out the connect timeout in turn.
+ */
+public class SharedRedisConnection implements Closeable {
+
+    private final RedisClient client;
+    private final String address;
+    private final long backoffNanos;
+
+    // Not synchronized: connecting blocks, which would pin a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock for writes
+    private volatile StatefulRedisConnection<String, String> connection;
+    private volatile boolean closed;
+    private volatile long retryAt;
+    private volatile RedisException lastFailure;
+
+    private final AtomicLong connectAttempts = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong failedFast = new AtomicLong();
+
+    public SharedRedisConnection(String host, int port, Duration timeout) {
+        this(host, port, timeout, Duration.ofSeconds(1));
+    }
+
+    /**
+     * @param reconnectBackoff How long after a failed connect callers fail
+     *                         fast before the next one tries again
+     */
+    public SharedRedisConnection(String host, int port, Duration timeout, Duration reconnectBackoff) {
+        this.address = host + ":" + port;
+        this.backoffNanos = reconnectBackoff.toNanos();
+        this.client = RedisClient.create(RedisURI.builder()
+                .withHost(host)
+                .withPort(port)
+                .withTimeout(timeout)
+                .build());
+        this.client.setOptions(ClientOptions.builder()
+                .protocolVersion(ProtocolVersion.RESP2)
+                .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                .socketOptions(SocketOptions.builder().connectTimeout(timeout).build())
+                .build());
+    }
+
+    /**
+     * Blocking commands on the shared connection, connecting first if needed
+     *
+     * @throws RedisException If Redis cannot be reached
+     */
+    public RedisCommands<String, String> sync() {
+        StatefulRedisConnection<String, String> current = connection;
+        if (current == null) {
+            current = connect();
+        }
+        return current.sync();
+    }
+
+    private StatefulRedisConnection<String, String> connect() {
+        checkBackoff();
+        if (!lock.tryLock()) {
+            failedFast.incrementAndGet();
+            throw new RedisException("Still connecting to " + address);
+        }
+        try {
+            if (closed) {
+                throw new RedisException("Connection to " + address + " is closed");
+            }
+            if (connection != null) {
+                return connection;
+            }
+            checkBackoff();
+            connectAttempts.incrementAndGet();
+            try {
+                StatefulRedisConnection<String, String> current = client.connect();
+                lastFailure = null;
+                connection = current;
+                return current;
+            } catch (RedisException e) {
+                connectFailures.incrementAndGet();
+                retryAt = System.nanoTime() + backoffNanos;
+                lastFailure = e;
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkBackoff() {
+        RedisException failure = lastFailure;
+        long remaining = retryAt - System.nanoTime();
+        if (failure != null && remaining > 0) {
+            failedFast.incrementAndGet();
+            throw new RedisException("Cannot connect to " + address + ", retrying in "
+                    + TimeUnit.NANOSECONDS.toMillis(remaining) + "ms: " + failure.getMessage(), failure);
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("connected", connection != null && connection.isOpen());
+        stats.put("connectAttempts", connectAttempts.get());
+        stats.put("connectFailures", connectFailures.get());
+        stats.put("failedFast", failedFast.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (connection != null) {
+                connection.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        client.shutdown();
+    }
+}
@@ -0,0 +1,72 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.cluster.InProcessLeaseStore;
+import com.bloodreport.analyzer.cluster.LeaseStore;
+import com.bloodreport.analyzer.cluster.RateLimitStore;
+import com.bloodreport.analyzer.cluster.RedisLeaseStore;
+import com.bloodreport.analyzer.cluster.RedisRateLimitStore;
+import com.bloodreport.analyzer.cluster.SharedRedisConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+
+/**
+ * Where rate limit quotas and upload leases are kept.
+ *
+ * cluster.backend=local (the default) keeps both in this JVM, which is right
+ * for a single node. With cluster.backend=redis they live in Redis at
+ * cluster.redis.host:port, so that several backend nodes behind a load
+ * balancer share one quota per client and one upload lease per client.
+ */
+@Configuration
+public class ClusterBackendConfig {
+
+    @Value("${cluster.redis.host:localhost}")
+    private String redisHost;
+
+    @Value("${cluster.redis.port:6379}")
+    private int redisPort;
+
+    @Value("${cluster.redis.timeout:500ms}")
+    private Duration redisTimeout;
+
+    @Value("${cluster.redis.reconnect-backoff:1s}")
+    private Duration redisReconnectBackoff;
+
+    @Value("${cluster.redis.key-prefix:bloodreport:}")
+    private String keyPrefix;
+
+    @Bean
+    @ConditionalOnProperty(name = "cluster.backend", havingValue = "local", matchIfMissing = true)
+    public LeaseStore inProcessLeaseStore() {
+        return new InProcessLeaseStore();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "cluster.backend", havingValue = "redis")
+    public SharedRedisConnection clusterRedisConnection() {
+        return new SharedRedisConnection(redisHost, redisPort, redisTimeout, redisReconnectBackoff);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "cluster.backend", havingValue = "redis")
+    public LeaseStore redisLeaseStore(SharedRedisConnection clusterRedisConnection) {
+        return new RedisLeaseStore(clusterRedisConnection, keyPrefix + "lease:");
+    }
+
+    /**
+     * Takes precedence over the in-process {@link RateLimitConfig}, which stays
+     * as its fallback
+     */
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "cluster.backend", havingValue = "redis")
+    public RateLimitStore redisRateLimitStore(SharedRedisConnection clusterRedisConnection,
+            RateLimitConfig rateLimitConfig) {
+        return new RedisRateLimitStore(clusterRedisConnection, rateLimitConfig, keyPrefix + "rl:");
+    }
+}
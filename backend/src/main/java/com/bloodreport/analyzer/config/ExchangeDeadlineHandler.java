@@ -0,0 +1,90 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.service.AttemptScope;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.core5.concurrent.Cancellable;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds each exchange, from sending the request until its response is
+ * closed, by a total deadline.
+ *
+ * Connect and read timeouts are handled by the client itself; on top of that
+ * the request is cancelled once the deadline has passed, so a stalled
+ * upstream that keeps trickling bytes cannot hold a thread forever. The
+ * deadline is dropped when the response is closed (or the exchange fails),
+ * so finished requests and their bodies are not kept reachable by the timer.
+ *
+ * Each request is also registered with the current {@link AttemptScope}, so
+ * a hedged attempt that loses can be aborted rather than left to finish.
+ */
+class ExchangeDeadlineHandler implements ExecChainHandler {
+
+    private static final ScheduledThreadPoolExecutor DEADLINE_TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "http-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        DEADLINE_TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long totalTimeoutMillis;
+
+    ExchangeDeadlineHandler(Duration totalTimeout) {
+        this.totalTimeoutMillis = totalTimeout.toMillis();
+    }
+
+    @Override
+    public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+            throws IOException, HttpException {
+        if (!(scope.originalRequest instanceof Cancellable cancellable)) {
+            return chain.proceed(request, scope);
+        }
+        AttemptScope.register(cancellable::cancel);
+        if (totalTimeoutMillis <= 0) {
+            return chain.proceed(request, scope);
+        }
+        ScheduledFuture<?> deadline = DEADLINE_TIMER.schedule(cancellable::cancel, totalTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+        ClassicHttpResponse response;
+        try {
+            response = chain.proceed(request, scope);
+        } catch (IOException | HttpException | RuntimeException e) {
+            deadline.cancel(false);
+            throw e;
+        }
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            deadline.cancel(false);
+            return response;
+        }
+        response.setEntity(new HttpEntityWrapper(entity) {
+            @Override
+            public void close() throws IOException {
+                deadline.cancel(false);
+                super.close();
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Deadlines still scheduled, for tests
+     */
+    static int pendingDeadlines() {
+        return DEADLINE_TIMER.getQueue().size();
+    }
+}
@@ -0,0 +1,102 @@
+package com.bloodreport.analyzer.config;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+/**
+ * HTTP client used for outbound Gemini calls.
+ *
+ * By default this is a pooled, keep-alive HTTP/1.1 client so TLS sessions are
+ * reused across uploads. Setting gemini.http.protocol=HTTP_2 switches to the
+ * JDK client, which multiplexes concurrent calls over a single connection
+ * (no pool statistics are available in that mode). The JDK client has no
+ * per-read timeout, so in that mode each exchange is bounded by the total
+ * timeout alone.
+ */
+@Configuration
+public class GeminiHttpClientConfig {
+
+    @Value("${gemini.http.protocol:HTTP_1_1}")
+    private String protocol;
+
+    @Value("${gemini.http.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${gemini.http.connect-timeout:5s}")
+    private Duration connectTimeout;
+
+    @Value("${gemini.http.read-timeout:60s}")
+    private Duration readTimeout;
+
+    @Value("${gemini.http.total-timeout:90s}")
+    private Duration totalTimeout;
+
+    @Value("${gemini.http.pool-wait-timeout:5s}")
+    private Duration poolWaitTimeout;
+
+    @Value("${gemini.http.idle-eviction:30s}")
+    private Duration idleEviction;
+
+    @Bean
+    public RestTemplate geminiRestTemplate() {
+        if ("HTTP_2".equalsIgnoreCase(protocol)) {
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(connectTimeout)
+                    .build();
+            JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+            // Runs from sending the request until the response body is closed: the total deadline
+            requestFactory.setReadTimeout(totalTimeout);
+            RestTemplate restTemplate = new RestTemplate(requestFactory);
+            // The factory can let the cancellation from its deadline escape unwrapped
+            restTemplate.getInterceptors().add((request, body, execution) -> {
+                try {
+                    return execution.execute(request, body);
+                } catch (CancellationException e) {
+                    throw new HttpTimeoutException("Request exceeded the total timeout of " + totalTimeout);
+                }
+            });
+            return restTemplate;
+        }
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                // Every call goes to the same host, so the per-route cap is the pool size
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(poolWaitTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .build())
+                .evictIdleConnections(TimeValue.of(idleEviction))
+                .evictExpiredConnections()
+                .addExecInterceptorFirst("exchange-deadline", new ExchangeDeadlineHandler(totalTimeout))
+                .build();
+
+        return new RestTemplate(new PooledClientHttpRequestFactory(httpClient, connectionManager));
+    }
+}
@@ -0,0 +1,92 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.service.DocumentCostCharger;
+import com.bloodreport.analyzer.service.GeminiAnalysisService;
+import com.bloodreport.analyzer.service.UploadManager;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Map;
+
+/**
+ * Publishes state the services already keep (upload counts, queue depth,
+ * Gemini limit and breaker state) as gauges and counters read at scrape time.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder bloodReportMetrics(UploadManager uploadManager, DocumentCostCharger documentCostCharger,
+            GeminiAnalysisService geminiService) {
+        return registry -> {
+            Gauge.builder("bloodreport.active.uploads", uploadManager, UploadManager::getActiveUploadCount)
+                    .description("Uploads in progress on this node")
+                    .register(registry);
+            Gauge.builder("bloodreport.upload.queue.depth", uploadManager, UploadManager::getQueuedCount)
+                    .description("Uploads waiting for a worker slot")
+                    .register(registry);
+            Gauge.builder("bloodreport.upload.busy.slots", uploadManager, UploadManager::getBusySlots)
+                    .description("Worker slots in use")
+                    .register(registry);
+            FunctionCounter.builder("bloodreport.upload.conflicts", uploadManager, UploadManager::getConflictCount)
+                    .description("Uploads refused because the client already had uploads in progress")
+                    .register(registry);
+            FunctionCounter.builder("bloodreport.upload.queue.shed", uploadManager, UploadManager::getShedCount)
+                    .description("Uploads turned away by a full upload queue or a too long wait")
+                    .register(registry);
+            FunctionCounter.builder(RateLimitInterceptor.REJECTIONS, documentCostCharger,
+                            DocumentCostCharger::getRejectedCount)
+                    .description(RateLimitInterceptor.REJECTIONS_HELP)
+                    .tags("endpoint", "upload", "reason", "document_cost")
+                    .register(registry);
+
+            Gauge.builder("bloodreport.gemini.concurrency.limit",
+                            () -> (Number) geminiService.getConcurrencyStats().get("limit"))
+                    .description("Current adaptive limit on Gemini calls")
+                    .register(registry);
+            Gauge.builder("bloodreport.gemini.in.flight",
+                            () -> (Number) geminiService.getConcurrencyStats().get("inFlight"))
+                    .description("Gemini calls in flight")
+                    .register(registry);
+            for (String state : new String[] { "CLOSED", "OPEN", "HALF_OPEN" }) {
+                Gauge.builder("bloodreport.gemini.circuit.state",
+                                () -> state.equals(breaker(geminiService).get("state")) ? 1 : 0)
+                        .description("1 for the circuit breaker's current state")
+                        .tag("state", state)
+                        .register(registry);
+            }
+            Map<String, String> transitions = Map.of("CLOSED", "closed", "OPEN", "opened", "HALF_OPEN",
+                    "halfOpened");
+            for (Map.Entry<String, String> transition : transitions.entrySet()) {
+                FunctionCounter.builder("bloodreport.gemini.circuit.transitions", geminiService,
+                                service -> count(breaker(service), transition.getValue()))
+                        .description("Circuit breaker state changes, by the state entered")
+                        .tag("to", transition.getKey())
+                        .register(registry);
+            }
+            FunctionCounter.builder("bloodreport.gemini.retries", geminiService,
+                            service -> count(retries(service), "retries"))
+                    .description("Gemini calls retried")
+                    .register(registry);
+            FunctionCounter.builder("bloodreport.gemini.hedges", geminiService,
+                            service -> count(retries(service), "hedges"))
+                    .description("Hedged Gemini requests sent")
+                    .register(registry);
+        };
+    }
+
+    private static Map<?, ?> breaker(GeminiAnalysisService geminiService) {
+        return (Map<?, ?>) geminiService.getResilienceStats().get("circuitBreaker");
+    }
+
+    private static Map<?, ?> retries(GeminiAnalysisService geminiService) {
+        return (Map<?, ?>) geminiService.getResilienceStats().get("retries");
+    }
+
+    private static double count(Map<?, ?> stats, String key) {
+        return ((Number) stats.get(key)).doubleValue();
+    }
+}
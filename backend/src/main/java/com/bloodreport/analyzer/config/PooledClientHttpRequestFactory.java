@@ -0,0 +1,36 @@
+package com.bloodreport.analyzer.config;
+
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Request factory backed by a pooled Apache HttpClient, reporting the pool's
+ * usage.
+ *
+ * Timeouts, including the total deadline per exchange
+ * ({@link ExchangeDeadlineHandler}), are configured on the client itself.
+ */
+public class PooledClientHttpRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    public PooledClientHttpRequestFactory(HttpClient httpClient, PoolingHttpClientConnectionManager connectionManager) {
+        super(httpClient);
+        this.connectionManager = connectionManager;
+    }
+
+    public Map<String, Object> getPoolStats() {
+        PoolStats totals = connectionManager.getTotalStats();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("leased", totals.getLeased());
+        stats.put("available", totals.getAvailable());
+        stats.put("pending", totals.getPending());
+        stats.put("max", totals.getMax());
+        return stats;
+    }
+}
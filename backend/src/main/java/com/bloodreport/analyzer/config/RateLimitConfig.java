@@ -1,32 +1,219 @@
 package com.bloodreport.analyzer.config;
 
+import com.bloodreport.analyzer.cluster.EndpointClass;
+import com.bloodreport.analyzer.cluster.RateLimitResult;
+import com.bloodreport.analyzer.cluster.RateLimitStore;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
 import io.github.bucket4j.Refill;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Per-client rate limit buckets.
+ *
+ * Each client has one bucket per {@link EndpointClass}, refilled every minute
+ * to the class's capacity (rate-limit.upload.capacity and so on). Buckets live
+ * in a bounded map keyed by endpoint class and client IP. A bucket that has been
+ * idle for rate-limit.idle-timeout (at least one refill period, so it is full
+ * again and dropping it changes nothing for the client) expires and is
+ * removed by a periodic sweep. If the map grows past rate-limit.max-clients
+ * anyway (a scan, or a CDN rotating addresses), the least recently used
+ * buckets are evicted down to 90% of the cap.
+ *
+ * The hot path is a single ConcurrentHashMap read plus a volatile write of the
+ * access time; only new clients insert, and only one thread sweeps at a time
+ * while the others carry on.
+ *
+ * This is the in-process {@link RateLimitStore}; with cluster.backend=redis it
+ * is only used while Redis is unreachable.
+ */
 @Component
-public class RateLimitConfig {
+public class RateLimitConfig implements RateLimitStore {
 
-    private final Map<String, Bucket> cache = new ConcurrentHashMap<>();
+    private static final Duration REFILL_PERIOD = Duration.ofMinutes(1);
 
-    public Bucket resolveBucket(String key) {
-        return cache.computeIfAbsent(key, k -> createNewBucket());
+    private final Map<EndpointClass, Integer> capacities = new EnumMap<>(EndpointClass.class);
+    private final int maxClients;
+    private final long idleTimeoutNanos;
+    private final Duration sweepInterval;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private ScheduledExecutorService sweeper;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong capacityEvictions = new AtomicLong();
+
+    public RateLimitConfig(int maxClients, Duration idleTimeout, Duration sweepInterval) {
+        this(10, 60, 30, maxClients, idleTimeout, sweepInterval);
+    }
+
+    @Autowired
+    public RateLimitConfig(
+            @Value("${rate-limit.upload.capacity:10}") int uploadCapacity,
+            @Value("${rate-limit.jobs.capacity:60}") int jobsCapacity,
+            @Value("${rate-limit.general.capacity:30}") int generalCapacity,
+            @Value("${rate-limit.max-clients:100000}") int maxClients,
+            @Value("${rate-limit.idle-timeout:PT2M}") Duration idleTimeout,
+            @Value("${rate-limit.sweep-interval:PT30S}") Duration sweepInterval) {
+        capacities.put(EndpointClass.UPLOAD, uploadCapacity);
+        capacities.put(EndpointClass.JOBS, jobsCapacity);
+        capacities.put(EndpointClass.GENERAL, generalCapacity);
+        this.maxClients = maxClients;
+        // An evicted bucket must not hand a client a fresh quota early
+        this.idleTimeoutNanos = Math.max(idleTimeout.toNanos(), REFILL_PERIOD.toNanos());
+        this.sweepInterval = sweepInterval;
+    }
+
+    @PostConstruct
+    public void start() {
+        long millis = sweepInterval.toMillis();
+        if (millis > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "rate-limit-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleWithFixedDelay(() -> sweep(System.nanoTime()), millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    public Bucket resolveBucket(EndpointClass endpoint, String client) {
+        long now = System.nanoTime();
+        String key = bucketKey(endpoint, client);
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            entry = cache.computeIfAbsent(key, k -> {
+                created.incrementAndGet();
+                return new Entry(createNewBucket(getCapacity(endpoint)), now);
+            });
+            if (cache.size() > maxClients) {
+                sweep(now);
+            }
+        }
+        entry.lastAccess = now;
+        return entry.bucket;
+    }
+
+    @Override
+    public RateLimitResult tryConsume(EndpointClass endpoint, String client, long tokens) {
+        ConsumptionProbe probe = resolveBucket(endpoint, client).tryConsumeAndReturnRemaining(tokens);
+        return new RateLimitResult(probe.isConsumed(), probe.getRemainingTokens(), probe.getNanosToWaitForRefill());
+    }
+
+    public int getCapacity(EndpointClass endpoint) {
+        return capacities.get(endpoint);
     }
 
-    private Bucket createNewBucket() {
-        // Allow 10 requests per minute
-        Bandwidth limit = Bandwidth.classic(10, Refill.intervally(10, Duration.ofMinutes(1)));
+    public Duration getRefillPeriod() {
+        return REFILL_PERIOD;
+    }
+
+    // Client IPs contain no spaces
+    private static String bucketKey(EndpointClass endpoint, String client) {
+        return endpoint.key() + ' ' + client;
+    }
+
+    private static Bucket createNewBucket(int capacity) {
+        Bandwidth limit = Bandwidth.classic(capacity, Refill.intervally(capacity, REFILL_PERIOD));
         return Bucket.builder()
                 .addLimit(limit)
                 .build();
     }
 
-    public void resetBucket(String key) {
-        cache.remove(key);
+    public void resetBucket(EndpointClass endpoint, String client) {
+        cache.remove(bucketKey(endpoint, client));
+    }
+
+    /**
+     * Removes expired buckets, then the least recently used ones if the map is
+     * still over the cap. Returns at once if another thread is sweeping.
+     *
+     * @param now Current System.nanoTime()
+     */
+    void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            // remove(key, entry) keeps a bucket that was replaced concurrently
+            for (Map.Entry<String, Entry> mapping : cache.entrySet()) {
+                if (now - mapping.getValue().lastAccess >= idleTimeoutNanos
+                        && cache.remove(mapping.getKey(), mapping.getValue())) {
+                    expired.incrementAndGet();
+                }
+            }
+
+            int excess = cache.size() - maxClients;
+            if (excess > 0) {
+                // Evict below the cap so the next few new clients do not trigger another sweep
+                int target = excess + maxClients / 10;
+                List<Map.Entry<String, Entry>> byAge = new ArrayList<>(cache.entrySet());
+                byAge.sort(Comparator.comparingLong(mapping -> mapping.getValue().lastAccess));
+                for (int i = 0; i < target && i < byAge.size(); i++) {
+                    if (cache.remove(byAge.get(i).getKey(), byAge.get(i).getValue())) {
+                        capacityEvictions.incrementAndGet();
+                    }
+                }
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("backend", "in-process");
+        stats.put("size", cache.size());
+        stats.put("maxClients", maxClients);
+        stats.put("capacities", new EnumMap<>(capacities));
+        stats.put("created", created.get());
+        stats.put("expired", expired.get());
+        stats.put("capacityEvictions", capacityEvictions.get());
+        stats.put("evictions", expired.get() + capacityEvictions.get());
+        return stats;
+    }
+
+    private static class Entry {
+        private final Bucket bucket;
+        // System.nanoTime() of the last request; written without locking, read by the sweep
+        private volatile long lastAccess;
+
+        Entry(Bucket bucket, long lastAccess) {
+            this.bucket = bucket;
+            this.lastAccess = lastAccess;
+        }
     }
 }
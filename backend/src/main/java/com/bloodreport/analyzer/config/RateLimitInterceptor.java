@@ -1,7 +1,10 @@
 package com.bloodreport.analyzer.config;
 
-import io.github.bucket4j.Bucket;
-import io.github.bucket4j.ConsumptionProbe;
+import com.bloodreport.analyzer.cluster.EndpointClass;
+import com.bloodreport.analyzer.cluster.RateLimitResult;
+import com.bloodreport.analyzer.cluster.RateLimitStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,30 +12,50 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
+/**
+ * Takes one token per request from the client's quota for the endpoint class.
+ * Uploads are charged their document cost on top once the document has been
+ * read, see {@link com.bloodreport.analyzer.service.DocumentCostCharger}.
+ */
 @Component
 public class RateLimitInterceptor implements HandlerInterceptor {
 
+    private static final String API_PATH = "/api/blood-report";
+    private static final String HEALTH_PATH = API_PATH + "/health";
+
+    static final String REJECTIONS = "bloodreport.rate.limit.rejections";
+    static final String REJECTIONS_HELP = "Requests refused by the rate limiter";
+
     @Autowired
-    private RateLimitConfig rateLimitConfig;
+    private RateLimitStore rateLimitStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
             throws Exception {
 
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+
         // Skip rate limiting for health check endpoint
-        if (request.getRequestURI().contains("/health")) {
+        if (HEALTH_PATH.equals(path)) {
             return true;
         }
 
         String key = getClientIdentifier(request);
-        Bucket bucket = rateLimitConfig.resolveBucket(key);
-
-        ConsumptionProbe probe = bucket.tryConsumeAndReturnRemaining(1);
+        EndpointClass endpoint = endpointClass(request.getMethod(), path);
+        RateLimitResult probe = rateLimitStore.tryConsume(endpoint, key, 1);
 
         if (probe.isConsumed()) {
             response.addHeader("X-Rate-Limit-Remaining", String.valueOf(probe.getRemainingTokens()));
             return true;
         } else {
+            Counter.builder(REJECTIONS)
+                    .description(REJECTIONS_HELP)
+                    .tags("endpoint", endpoint.key(), "reason", "request")
+                    .register(meterRegistry)
+                    .increment();
             long waitForRefill = probe.getNanosToWaitForRefill() / 1_000_000_000;
 
             response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
@@ -48,6 +71,16 @@ public class RateLimitInterceptor implements HandlerInterceptor {
         }
     }
 
+    static EndpointClass endpointClass(String method, String path) {
+        if (path.startsWith(API_PATH + "/jobs/")) {
+            return EndpointClass.JOBS;
+        }
+        if ("POST".equals(method) && path.startsWith(API_PATH + "/upload")) {
+            return EndpointClass.UPLOAD;
+        }
+        return EndpointClass.GENERAL;
+    }
+
     private String getClientIdentifier(HttpServletRequest request) {
         String clientIp = request.getHeader("X-Forwarded-For");
         if (clientIp == null || clientIp.isEmpty()) {
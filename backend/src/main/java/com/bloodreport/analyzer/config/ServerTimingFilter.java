@@ -0,0 +1,65 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.metrics.StageTimings;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.Part;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Opens the {@link StageTimings} of each API request and times multipart
+ * parsing, which happens before the controller is called. The Server-Timing
+ * header itself is added by {@link ServerTimingAdvice} just before the body
+ * is written.
+ */
+@Component
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    static final String MULTIPART_STAGE = "multipart";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(request.getContextPath() + "/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        StageTimings.open();
+        try {
+            chain.doFilter(new TimedMultipartRequest(request), response);
+        } finally {
+            StageTimings.close();
+        }
+    }
+
+    // The multipart resolver reads and buffers the whole body in getParts()
+    private class TimedMultipartRequest extends HttpServletRequestWrapper {
+
+        TimedMultipartRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public Collection<Part> getParts() throws IOException, ServletException {
+            long start = System.nanoTime();
+            try {
+                return super.getParts();
+            } finally {
+                StageTimings.record(meterRegistry, MULTIPART_STAGE, start);
+            }
+        }
+    }
+}
@@ -1,29 +1,94 @@
 package com.bloodreport.analyzer.controller;
 
+import com.bloodreport.analyzer.cluster.RateLimitStore;
+import com.bloodreport.analyzer.metrics.StageTimings;
+import com.bloodreport.analyzer.service.AnalysisCache;
+import com.bloodreport.analyzer.service.AnalysisJob;
+import com.bloodreport.analyzer.service.AnalysisJobService;
+import com.bloodreport.analyzer.service.DocumentCostCharger;
 import com.bloodreport.analyzer.service.GeminiAnalysisService;
+import com.bloodreport.analyzer.service.IngestedUpload;
+import com.bloodreport.analyzer.service.LabTemplateRegistry;
+import com.bloodreport.analyzer.service.LoadShedException;
+import com.bloodreport.analyzer.service.LocalAnalysisService;
+import com.bloodreport.analyzer.service.NarrativeCache;
+import com.bloodreport.analyzer.service.PdfTextExtractionService;
+import com.bloodreport.analyzer.service.PromptCompactor;
+import com.bloodreport.analyzer.service.ReferenceRangeLoader;
+import com.bloodreport.analyzer.service.UploadIngestionService;
 import com.bloodreport.analyzer.service.UploadManager;
+import com.bloodreport.analyzer.service.UploadRejectedException;
+import com.bloodreport.analyzer.service.UploadTicket;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/blood-report")
 @CrossOrigin(origins = "*") // Allow all origins for now - will update with specific Vercel URL
 public class BloodReportController {
 
+    // Keys listed in upload.queue.priority-keys put the upload in the priority lane
+    private static final String API_KEY_HEADER = "X-Api-Key";
+
+    // Stages timed here rather than in GeminiAnalysisService, see StageTimings
+    private static final String QUEUE_STAGE = "queue";
+    private static final String INGEST_STAGE = "ingest";
+
     @Autowired
     private GeminiAnalysisService geminiService;
 
     @Autowired
     private UploadManager uploadManager;
 
+    @Autowired
+    private AnalysisCache analysisCache;
+
+    @Autowired
+    private AnalysisJobService analysisJobService;
+
+    @Autowired
+    private UploadIngestionService uploadIngestionService;
+
+    @Autowired
+    private PdfTextExtractionService pdfTextExtractionService;
+
+    @Autowired
+    private PromptCompactor promptCompactor;
+
+    @Autowired
+    private LocalAnalysisService localAnalysisService;
+
+    @Autowired
+    private ReferenceRangeLoader referenceRangeLoader;
+
+    @Autowired
+    private LabTemplateRegistry labTemplateRegistry;
+
+    @Autowired
+    private NarrativeCache narrativeCache;
+
+    @Autowired
+    private RateLimitStore rateLimitStore;
+
+    @Autowired
+    private DocumentCostCharger documentCostCharger;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @GetMapping("/health")
     public ResponseEntity<Map<String, String>> healthCheck() {
         Map<String, String> response = new HashMap<>();
@@ -32,6 +97,26 @@ public class BloodReportController {
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("analysisCache", analysisCache.getStats());
+        response.put("analysisJobs", analysisJobService.getStats());
+        response.put("geminiConcurrency", geminiService.getConcurrencyStats());
+        response.put("geminiHttpPool", geminiService.getHttpClientStats());
+        response.put("geminiResilience", geminiService.getResilienceStats());
+        response.put("pdfParsing", pdfTextExtractionService.getStats());
+        response.put("promptCompaction", promptCompactor.getStats());
+        response.put("localAnalysis", localAnalysisService.getStats());
+        response.put("referenceRanges", referenceRangeLoader.getStats());
+        response.put("labTemplates", labTemplateRegistry.getStats());
+        response.put("narrativeCache", narrativeCache.getStats());
+        response.put("rateLimit", rateLimitStore.getStats());
+        response.put("documentCost", documentCostCharger.getStats());
+        response.put("uploadQueue", uploadManager.getStats());
+        return ResponseEntity.ok(response);
+    }
+
     @PostMapping("/upload")
     public ResponseEntity<Map<String, Object>> uploadReport(
             @RequestParam("file") MultipartFile file,
@@ -39,6 +124,7 @@ public class BloodReportController {
 
         String clientId = getClientIdentifier(request);
         String requestId = UUID.randomUUID().toString();
+        UploadTicket ticket = null;
 
         try {
             // Validate file
@@ -56,20 +142,299 @@ public class BloodReportController {
                                 "Please wait for your current upload to complete before starting a new one."));
             }
 
+            // Wait for a worker slot, in turn with other clients
+            ticket = awaitUploadSlot(clientId, requestId, request);
+
             // Use Gemini AI for real analysis
-            Map<String, Object> analysis = geminiService.analyzeBloodReport(file);
+            Map<String, Object> analysis = geminiService.analyzeBloodReport(file, clientId);
             analysis.put("requestId", requestId);
 
             return ResponseEntity.ok(analysis);
 
+        } catch (UploadRejectedException e) {
+            return uploadRejected(e);
+        } catch (RejectedExecutionException e) {
+            return serverBusy(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return serverBusy(new RejectedExecutionException(e));
+        } catch (RestClientException e) {
+            return upstreamFailed(e);
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
                     .body(Map.of("error", "Failed to process file: " + e.getMessage()));
         } finally {
+            releaseSlot(ticket);
             uploadManager.completeUpload(clientId, requestId);
         }
     }
 
+    /**
+     * Raw-body variant of /upload: the file is the request body (no multipart).
+     * The body is read exactly once, so unsupported types are rejected after the
+     * first bytes and oversized uploads as soon as they cross the size cap,
+     * before the rest of the body is received.
+     */
+    @PostMapping("/upload/raw")
+    public ResponseEntity<Map<String, Object>> uploadReportRaw(
+            @RequestParam(value = "fileName", required = false) String fileName,
+            HttpServletRequest request) {
+
+        String clientId = getClientIdentifier(request);
+        String requestId = UUID.randomUUID().toString();
+
+        if (!uploadManager.startUpload(clientId, requestId)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of(
+                            "error", "Upload in progress",
+                            "message",
+                            "Please wait for your current upload to complete before starting a new one."));
+        }
+
+        UploadTicket ticket = null;
+        try {
+            ticket = awaitUploadSlot(clientId, requestId, request);
+        } catch (RejectedExecutionException e) {
+            uploadManager.completeUpload(clientId, requestId);
+            return serverBusy(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            uploadManager.completeUpload(clientId, requestId);
+            return serverBusy(new RejectedExecutionException(e));
+        }
+
+        long ingestStart = System.nanoTime();
+        try (IngestedUpload upload = uploadIngestionService.ingest(request.getInputStream(),
+                fileName != null ? fileName : "report", request.getContentLengthLong())) {
+            StageTimings.record(meterRegistry, INGEST_STAGE, ingestStart);
+            upload.setClientId(clientId);
+
+            Map<String, Object> analysis = geminiService.analyzeBloodReport(upload);
+            analysis.put("requestId", requestId);
+
+            return ResponseEntity.ok(analysis);
+
+        } catch (UploadRejectedException e) {
+            return uploadRejected(e);
+        } catch (RejectedExecutionException e) {
+            return serverBusy(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return serverBusy(new RejectedExecutionException(e));
+        } catch (RestClientException e) {
+            return upstreamFailed(e);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "Failed to process file: " + e.getMessage()));
+        } finally {
+            releaseSlot(ticket);
+            uploadManager.completeUpload(clientId, requestId);
+        }
+    }
+
+    /**
+     * Async variant of /upload: queues the analysis and returns 202 with a job id.
+     * The upload slot for the client is held until the job finishes.
+     */
+    @PostMapping(value = "/upload", params = "async=true")
+    public ResponseEntity<Map<String, Object>> uploadReportAsync(
+            @RequestParam("file") MultipartFile file,
+            HttpServletRequest request) {
+
+        String clientId = getClientIdentifier(request);
+        String jobId = UUID.randomUUID().toString();
+
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Please select a file to upload"));
+        }
+
+        if (!uploadManager.startUpload(clientId, jobId)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of(
+                            "error", "Upload in progress",
+                            "message",
+                            "Please wait for your current upload to complete before starting a new one.",
+                            "jobId", String.valueOf(uploadManager.getActiveRequestId(clientId))));
+        }
+
+        IngestedUpload upload = null;
+        try {
+            upload = uploadIngestionService.ingest(file);
+            upload.setClientId(clientId);
+            upload.setLane(uploadManager.laneFor(request.getHeader(API_KEY_HEADER)));
+            AnalysisJob job = analysisJobService.submit(clientId, jobId, upload);
+
+            Map<String, Object> body = job.toMap();
+            body.put("statusUrl", "/api/blood-report/jobs/" + jobId);
+            body.put("eventsUrl", "/api/blood-report/jobs/" + jobId + "/events");
+            return ResponseEntity.accepted().body(body);
+
+        } catch (UploadRejectedException e) {
+            uploadManager.completeUpload(clientId, jobId);
+            return uploadRejected(e);
+        } catch (RejectedExecutionException e) {
+            upload.close();
+            uploadManager.completeUpload(clientId, jobId);
+            return serverBusy(e);
+        } catch (Exception e) {
+            if (upload != null) {
+                upload.close();
+            }
+            uploadManager.completeUpload(clientId, jobId);
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "Failed to process file: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Streaming variant of /upload: the response is an SSE stream that relays
+     * risk factors and lifestyle advice while Gemini generates them, followed
+     * by the complete analysis as a "result" event.
+     */
+    @PostMapping(value = "/upload/stream", produces = "text/event-stream")
+    public ResponseEntity<?> uploadReportStreaming(
+            @RequestParam("file") MultipartFile file,
+            HttpServletRequest request) {
+
+        String clientId = getClientIdentifier(request);
+        String jobId = UUID.randomUUID().toString();
+
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Please select a file to upload"));
+        }
+
+        if (!uploadManager.startUpload(clientId, jobId)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of(
+                            "error", "Upload in progress",
+                            "message",
+                            "Please wait for your current upload to complete before starting a new one."));
+        }
+
+        IngestedUpload upload = null;
+        try {
+            upload = uploadIngestionService.ingest(file);
+            upload.setClientId(clientId);
+            upload.setLane(uploadManager.laneFor(request.getHeader(API_KEY_HEADER)));
+            SseEmitter emitter = analysisJobService.submitStreaming(clientId, jobId, upload);
+            return ResponseEntity.ok().header("X-Job-Id", jobId).body(emitter);
+
+        } catch (UploadRejectedException e) {
+            uploadManager.completeUpload(clientId, jobId);
+            return uploadRejected(e);
+        } catch (RejectedExecutionException e) {
+            upload.close();
+            uploadManager.completeUpload(clientId, jobId);
+            return serverBusy(e);
+        } catch (Exception e) {
+            if (upload != null) {
+                upload.close();
+            }
+            uploadManager.completeUpload(clientId, jobId);
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "Failed to process file: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getJob(@PathVariable String jobId) {
+        AnalysisJob job = analysisJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Job not found"));
+        }
+        return ResponseEntity.ok(job.toMap());
+    }
+
+    @GetMapping(value = "/jobs/{jobId}/events", produces = "text/event-stream")
+    public ResponseEntity<SseEmitter> streamJob(@PathVariable String jobId) {
+        SseEmitter emitter = analysisJobService.subscribe(jobId);
+        if (emitter == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * The caller's uploads still waiting for a worker slot, with their queue
+     * position and estimated wait, plus the overall queue length
+     */
+    @GetMapping("/queue")
+    public ResponseEntity<Map<String, Object>> queueStatus(HttpServletRequest request) {
+        List<Map<String, Object>> waiting = uploadManager.queueStatus(getClientIdentifier(request));
+        Map<String, Object> stats = uploadManager.getStats();
+        Map<String, Object> response = new HashMap<>();
+        response.put("uploads", waiting);
+        response.put("queued", stats.get("queued"));
+        response.put("slots", stats.get("slots"));
+        response.put("busySlots", stats.get("busySlots"));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Queues a synchronous upload and blocks until it has a worker slot
+     *
+     * @throws RejectedExecutionException If the queue is full or the slot does
+     *                                    not come within upload.queue.max-wait
+     */
+    private UploadTicket awaitUploadSlot(String clientId, String requestId, HttpServletRequest request)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        UploadTicket ticket = uploadManager.enqueue(clientId, requestId,
+                uploadManager.laneFor(request.getHeader(API_KEY_HEADER)));
+        try {
+            ticket.awaitSlot(uploadManager.getMaxWait());
+        } finally {
+            StageTimings.record(meterRegistry, QUEUE_STAGE, start);
+        }
+        return ticket;
+    }
+
+    private void releaseSlot(UploadTicket ticket) {
+        if (ticket != null) {
+            uploadManager.release(ticket);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> uploadRejected(UploadRejectedException e) {
+        if (e.getReason() == UploadRejectedException.Reason.RATE_LIMITED) {
+            String retryAfter = String.valueOf(e.getRetryAfterSeconds());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Retry-After", retryAfter)
+                    .header("X-Rate-Limit-Retry-After-Seconds", retryAfter)
+                    .body(Map.of(
+                            "error", "Too many requests",
+                            "message", e.getMessage(),
+                            "retryAfter", e.getRetryAfterSeconds()));
+        }
+        HttpStatus status = e.getReason() == UploadRejectedException.Reason.TOO_LARGE
+                ? HttpStatus.PAYLOAD_TOO_LARGE
+                : HttpStatus.UNSUPPORTED_MEDIA_TYPE;
+        return ResponseEntity.status(status)
+                .body(Map.of("error", e.getMessage()));
+    }
+
+    private ResponseEntity<Map<String, Object>> serverBusy(RejectedExecutionException e) {
+        long retryAfter = e instanceof LoadShedException shed ? shed.getRetryAfterSeconds() : 10;
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", String.valueOf(retryAfter))
+                .body(Map.of(
+                        "error", "Server busy",
+                        "message", "Too many reports are being analyzed right now. Please try again shortly."));
+    }
+
+    /**
+     * Gemini failed after retries and no local answer was possible
+     */
+    private ResponseEntity<Map<String, Object>> upstreamFailed(RestClientException e) {
+        return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+                .body(Map.of(
+                        "error", "Analysis service unavailable",
+                        "message", "The analysis service did not answer. Please try again later."));
+    }
+
     private String getClientIdentifier(HttpServletRequest request) {
         String clientIp = request.getHeader("X-Forwarded-For");
         if (clientIp == null || clientIp.isEmpty()) {
@@ -0,0 +1,108 @@
+package com.bloodreport.analyzer.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent per pipeline stage by the request on the current thread, for
+ * the Server-Timing response header.
+ *
+ * A request opens its timings when it arrives and closes them when it is
+ * done; stages recorded on other threads (async jobs, parallel page
+ * extraction) are not part of it. Repeated stages add up. Every stage,
+ * wherever it runs, is also recorded in the {@link #STAGE_TIMER} timer.
+ */
+public final class StageTimings {
+
+    public static final String STAGE_TIMER = "bloodreport.stage.duration";
+
+    // Histogram buckets; stages range from sub-millisecond parsing to minute-long Gemini calls
+    private static final Duration[] BUCKETS = { Duration.ofMillis(1), Duration.ofMillis(5), Duration.ofMillis(10),
+            Duration.ofMillis(25), Duration.ofMillis(50), Duration.ofMillis(100), Duration.ofMillis(250),
+            Duration.ofMillis(500), Duration.ofSeconds(1), Duration.ofMillis(2500), Duration.ofSeconds(5),
+            Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofSeconds(60) };
+
+    private record TimerKey(MeterRegistry registry, String stage) {
+    }
+
+    // Built once per stage instead of going through the builder on every record
+    private static final Map<TimerKey, Timer> TIMERS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<StageTimings> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+
+    private StageTimings() {
+    }
+
+    public static StageTimings open() {
+        StageTimings timings = new StageTimings();
+        CURRENT.set(timings);
+        return timings;
+    }
+
+    public static void close() {
+        CURRENT.remove();
+    }
+
+    /**
+     * The current request's timings, or null outside a request
+     */
+    public static StageTimings current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Records a pipeline stage that started at startNanos, both in the stage
+     * timer and in the current request's timings
+     */
+    public static void record(MeterRegistry registry, String stage, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        TIMERS.computeIfAbsent(new TimerKey(registry, stage), StageTimings::timer)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        record(stage, nanos);
+    }
+
+    private static Timer timer(TimerKey key) {
+        return Timer.builder(STAGE_TIMER)
+                .description("Time spent in each upload pipeline stage")
+                .tag("stage", key.stage())
+                .serviceLevelObjectives(BUCKETS)
+                .register(key.registry());
+    }
+
+    private static void record(String stage, long nanos) {
+        StageTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.stages.merge(stage, nanos, Long::sum);
+        }
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Server-Timing value: each stage in the order first recorded, then the
+     * total so far, in milliseconds
+     */
+    public String toHeader() {
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, Long> stage : stages.entrySet()) {
+            header.append(stage.getKey()).append(";dur=").append(millis(stage.getValue())).append(", ");
+        }
+        return header.append("total;dur=").append(millis(getElapsedNanos())).toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,184 @@
+package com.bloodreport.analyzer.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Risk factor and lifestyle advice texts for out-of-range results, written in
+ * the same child-friendly voice as the Gemini prompt asks for. Keyed by test
+ * (any name known to {@link TestNameIndex}) and status.
+ */
+public class AnalysisTemplates {
+
+    private static final Map<String, Template> templates = new HashMap<>();
+
+    static {
+        // Complete Blood Count (CBC)
+        put("hemoglobin", "low",
+                "Your hemoglobin is a bit low, so your blood may carry less oxygen and you might feel tired.",
+                "Eat iron-rich foods like beans, spinach, eggs and lean meat.");
+        put("hemoglobin", "high",
+                "Your hemoglobin is higher than usual, which can happen when your body is low on water.",
+                "Drink plenty of water through the day.");
+        put("hemoglobin", "critical",
+                "Your hemoglobin is far from the normal range. Please show this result to your doctor soon.",
+                "Ask your doctor what to do next before changing how you eat or exercise.");
+        put("hematocrit", "low",
+                "Your hematocrit is low, which means there are fewer red blood cells in your blood.",
+                "Eat foods with iron, like beans, leafy greens and eggs.");
+        put("hematocrit", "high",
+                "Your hematocrit is higher than usual, which can happen when you are low on water.",
+                "Drink enough water every day, especially when you play sports.");
+        put("rbc", "low",
+                "You have fewer red blood cells than usual, so your body may get less oxygen.",
+                "Eat foods with iron, vitamin B12 and folate, like beans, leafy greens and eggs.");
+        put("rbc", "high",
+                "You have more red blood cells than usual, which can happen if you are low on water.",
+                "Drink enough water every day.");
+        put("wbc", "low",
+                "Your white blood cells, your body's germ fighters, are a bit low.",
+                "Wash your hands often and get plenty of sleep to help your body stay strong.");
+        put("wbc", "high",
+                "Your white blood cells are higher than usual, which often means your body is fighting a germ.",
+                "Rest well and tell your doctor if you feel sick.");
+        put("platelets", "low",
+                "Your platelets, which help stop bleeding, are a bit low.",
+                "Be careful with rough play that could cause bumps and bruises.");
+        put("platelets", "high",
+                "Your platelets are higher than usual.",
+                "Stay active and drink water; your doctor may want to check this again.");
+
+        // Metabolic Panel
+        put("glucose", "low",
+                "Your blood sugar is low, which can make you feel shaky or tired.",
+                "Eat regular meals and healthy snacks so your energy stays steady.");
+        put("glucose", "high",
+                "Your blood sugar is higher than it should be.",
+                "Choose water instead of sugary drinks and add more vegetables to your meals.");
+        put("glucose", "critical",
+                "Your blood sugar is very far from normal. Please talk to your doctor right away.",
+                "Follow your doctor's advice about meals and snacks until your sugar is checked again.");
+        put("sodium", "low",
+                "Your sodium (a kind of salt in your blood) is low.",
+                "Eat regular meals and don't drink huge amounts of water all at once.");
+        put("sodium", "high",
+                "Your sodium is high, which can mean your body needs more water.",
+                "Drink more water and eat fewer salty snacks like chips.");
+        put("potassium", "low",
+                "Your potassium, which helps your muscles and heart work, is low.",
+                "Eat potassium-rich foods like bananas, potatoes and beans.");
+        put("potassium", "high",
+                "Your potassium is higher than usual.",
+                "Ask your doctor before eating lots of bananas or taking any supplements.");
+        put("potassium", "critical",
+                "Your potassium is very far from normal, which can affect your heart. Please see your doctor soon.",
+                "Don't take any supplements until your doctor has checked this result.");
+        put("calcium", "low",
+                "Your calcium, which builds strong bones and teeth, is low.",
+                "Have milk, yogurt, cheese or leafy greens every day.");
+        put("calcium", "high",
+                "Your calcium is higher than usual.",
+                "Drink plenty of water and skip calcium supplements unless your doctor says so.");
+        put("creatinine", "low",
+                "Your creatinine is a little low, which can happen when you have less muscle.",
+                "Eat enough protein and stay active to build strong muscles.");
+        put("creatinine", "high",
+                "Your creatinine is high, which can mean your kidneys are working extra hard.",
+                "Drink enough water and don't overdo salty or processed foods.");
+        put("bun", "low",
+                "Your BUN is a little low.",
+                "Eat balanced meals with enough protein, like eggs, beans or fish.");
+        put("bun", "high",
+                "Your BUN is high, which can mean your body needs more water.",
+                "Drink water regularly through the day.");
+
+        // Lipid Panel
+        put("cholesterol", "high",
+                "Your cholesterol is higher than it should be, which can make your heart work harder.",
+                "Eat more fruits, vegetables and whole grains, and fewer fried foods.");
+        put("ldl", "high",
+                "Your LDL, the 'bad' cholesterol, is high.",
+                "Swap fried and fatty snacks for nuts, fruit and vegetables.");
+        put("hdl", "low",
+                "Your HDL, the 'good' cholesterol that protects your heart, is low.",
+                "Run, bike or dance for at least an hour a day to raise your good cholesterol.");
+        put("triglycerides", "high",
+                "Your triglycerides, a type of fat in your blood, are high.",
+                "Cut back on sweets, white bread and sugary drinks.");
+
+        // Liver Function
+        put("alt", "high",
+                "Your ALT, a liver test, is higher than usual.",
+                "Eat fewer fatty and sugary foods to give your liver a break.");
+        put("ast", "high",
+                "Your AST, a liver and muscle test, is higher than usual.",
+                "Rest after hard exercise and eat balanced meals.");
+        put("bilirubin", "high",
+                "Your bilirubin is high, which can make skin or eyes look a little yellow.",
+                "Drink water and tell your doctor if you notice yellow skin or eyes.");
+
+        // Thyroid
+        put("tsh", "low",
+                "Your TSH is low, which can mean your thyroid is running fast.",
+                "Rest when you feel jittery and ask your doctor about a thyroid check.");
+        put("tsh", "high",
+                "Your TSH is high, which can mean your thyroid is running slow.",
+                "Get plenty of sleep and ask your doctor about a thyroid check.");
+        put("t3", "low",
+                "Your T3 thyroid hormone is low, which can make you feel tired or cold.",
+                "Keep a regular sleep schedule and ask your doctor about a thyroid check.");
+        put("t3", "high",
+                "Your T3 thyroid hormone is high, which can make your heart beat fast.",
+                "Take calm breaks during the day and ask your doctor about a thyroid check.");
+        put("t4", "low",
+                "Your T4 thyroid hormone is low, which can make you feel tired or cold.",
+                "Keep a regular sleep schedule and ask your doctor about a thyroid check.");
+        put("t4", "high",
+                "Your T4 thyroid hormone is high, which can make you feel jittery.",
+                "Take calm breaks during the day and ask your doctor about a thyroid check.");
+
+        // Diabetes
+        put("hba1c", "high",
+                "Your HbA1c shows your blood sugar has been high for a while.",
+                "Move every day and choose whole foods over sweets.");
+
+        // Vitamins
+        put("vitamin_d", "low",
+                "Your vitamin D, the sunshine vitamin, is low.",
+                "Spend some time playing outside in daylight and eat eggs or fish.");
+        put("vitamin_b12", "low",
+                "Your vitamin B12 is low, which can make you feel tired.",
+                "Eat foods like eggs, milk, fish or fortified cereal.");
+    }
+
+    private static void put(String testName, String status, String riskFactor, String advice) {
+        templates.put(testName + ":" + status, new Template(riskFactor, advice));
+    }
+
+    /**
+     * @param status "low", "high" or "critical"
+     * @return The template, or null if there is none for this test and status
+     */
+    public static Template get(String testName, String status) {
+        String testKey = TestNameIndex.canonical(testName);
+        return testKey != null ? templates.get(testKey + ":" + status) : null;
+    }
+
+    public static class Template {
+        private final String riskFactor;
+        private final String advice;
+
+        public Template(String riskFactor, String advice) {
+            this.riskFactor = riskFactor;
+            this.advice = advice;
+        }
+
+        public String getRiskFactor() {
+            return riskFactor;
+        }
+
+        public String getAdvice() {
+            return advice;
+        }
+    }
+}
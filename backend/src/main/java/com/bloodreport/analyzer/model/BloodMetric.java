@@ -7,6 +7,9 @@ public class BloodMetric {
     private Double minNormal;
     private Double maxNormal;
     private String status; // "normal", "low", "high", "critical"
+    // Value and unit as printed when the value was converted to the reference unit, otherwise null
+    private Double originalValue;
+    private String originalUnit;
 
     public BloodMetric() {
     }
@@ -90,4 +93,20 @@ public class BloodMetric {
     public void setStatus(String status) {
         this.status = status;
     }
+
+    public Double getOriginalValue() {
+        return originalValue;
+    }
+
+    public void setOriginalValue(Double originalValue) {
+        this.originalValue = originalValue;
+    }
+
+    public String getOriginalUnit() {
+        return originalUnit;
+    }
+
+    public void setOriginalUnit(String originalUnit) {
+        this.originalUnit = originalUnit;
+    }
 }
@@ -0,0 +1,81 @@
+package com.bloodreport.analyzer.model;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Patient sex and age as printed in the report header, used to pick the
+ * matching reference range row. Either part may be unknown.
+ */
+public final class Demographics {
+
+    public enum Sex {
+        MALE, FEMALE, UNKNOWN
+    }
+
+    public static final Demographics UNKNOWN = new Demographics(Sex.UNKNOWN, null);
+
+    // Patient details are printed in the header, so only the start of the report is searched
+    private static final int HEADER_CHARS = 4000;
+
+    // "Age/Sex: 45 Y / F", "Age / Gender : 45 Years/Male"
+    private static final Pattern AGE_SEX = Pattern.compile(
+            "(?i)\\bage\\s*/\\s*(?:sex|gender)\\s*[:\\-]?\\s*(\\d{1,3})\\s*(?:y|yrs|years)?\\s*/\\s*(male|female|m|f)\\b");
+    private static final Pattern SEX = Pattern.compile(
+            "(?i)\\b(?:sex|gender)\\s*[:\\-]?\\s*(male|female|m|f)\\b");
+    private static final Pattern AGE = Pattern.compile(
+            "(?i)\\bage\\s*[:\\-]?\\s*(\\d{1,3})\\b");
+
+    private final Sex sex;
+    private final Integer age;
+
+    public Demographics(Sex sex, Integer age) {
+        this.sex = sex != null ? sex : Sex.UNKNOWN;
+        this.age = age;
+    }
+
+    public Sex getSex() {
+        return sex;
+    }
+
+    /**
+     * Age in years, or null if unknown
+     */
+    public Integer getAge() {
+        return age;
+    }
+
+    /**
+     * Reads "Sex: F", "Gender: Male", "Age: 45 Years" or "Age/Sex: 45 Y / F"
+     * from the report header
+     */
+    public static Demographics detect(CharSequence reportText) {
+        if (reportText == null || reportText.length() == 0) {
+            return UNKNOWN;
+        }
+        CharSequence header = reportText.subSequence(0, Math.min(reportText.length(), HEADER_CHARS));
+
+        Matcher combined = AGE_SEX.matcher(header);
+        if (combined.find()) {
+            return new Demographics(parseSex(combined.group(2)), Integer.parseInt(combined.group(1)));
+        }
+
+        Matcher sexMatcher = SEX.matcher(header);
+        Matcher ageMatcher = AGE.matcher(header);
+        Sex sex = sexMatcher.find() ? parseSex(sexMatcher.group(1)) : Sex.UNKNOWN;
+        Integer age = ageMatcher.find() ? Integer.valueOf(ageMatcher.group(1)) : null;
+        if (sex == Sex.UNKNOWN && age == null) {
+            return UNKNOWN;
+        }
+        return new Demographics(sex, age);
+    }
+
+    private static Sex parseSex(String value) {
+        return Character.toLowerCase(value.charAt(0)) == 'f' ? Sex.FEMALE : Sex.MALE;
+    }
+
+    @Override
+    public String toString() {
+        return sex + "/" + (age != null ? age : "?");
+    }
+}
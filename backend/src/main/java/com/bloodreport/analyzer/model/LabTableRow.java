@@ -0,0 +1,65 @@
+package com.bloodreport.analyzer.model;
+
+/**
+ * One result row recovered from the layout of a lab table: test name, result,
+ * unit and the reference range the lab printed next to it.
+ */
+public class LabTableRow {
+
+    private final String name;
+    private final String testKey;
+    private final double value;
+    private final String unit;
+    private final Double referenceMin;
+    private final Double referenceMax;
+
+    /**
+     * @param testKey      Canonical key, see {@link TestNameIndex}
+     * @param unit         Unit as printed, or null if the row has none
+     * @param referenceMin Lower bound of the printed range, or null if none was printed
+     * @param referenceMax Upper bound of the printed range, or null if open-ended or none was printed
+     */
+    public LabTableRow(String name, String testKey, double value, String unit, Double referenceMin,
+            Double referenceMax) {
+        this.name = name;
+        this.testKey = testKey;
+        this.value = value;
+        this.unit = unit;
+        this.referenceMin = referenceMin;
+        this.referenceMax = referenceMax;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTestKey() {
+        return testKey;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public Double getReferenceMin() {
+        return referenceMin;
+    }
+
+    public Double getReferenceMax() {
+        return referenceMax;
+    }
+
+    public boolean hasReferenceRange() {
+        return referenceMin != null || referenceMax != null;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + value + (unit != null ? " " + unit : "")
+                + (hasReferenceRange() ? " [" + referenceMin + " - " + referenceMax + "]" : "");
+    }
+}
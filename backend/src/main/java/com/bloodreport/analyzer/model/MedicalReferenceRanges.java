@@ -1,7 +1,10 @@
 package com.bloodreport.analyzer.model;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MedicalReferenceRanges {
 
@@ -47,18 +50,60 @@ public class MedicalReferenceRanges {
         ranges.put("vitamin_b12", new ReferenceRange(200.0, 900.0, "pg/mL"));
     }
 
+    // Swapped as a whole when a lab table is (re)loaded, so readers never lock
+    private static final AtomicReference<ReferenceRangeTable> table =
+            new AtomicReference<>(ReferenceRangeTable.of(ranges));
+
+    /**
+     * @param testName Canonical key, synonym or abbreviation, see {@link TestNameIndex}
+     */
     public static ReferenceRange getRange(String testName) {
-        String normalizedName = testName.toLowerCase()
-                .replaceAll("[\\s-]", "_")
-                .replaceAll("[^a-z0-9_]", "");
-        return ranges.get(normalizedName);
+        return getRange(testName, Demographics.UNKNOWN);
+    }
+
+    /**
+     * Range from the installed table for the patient's sex and age. If the
+     * table only has rows that do not apply (e.g. male and female rows for a
+     * patient of unknown sex), the built-in range is used.
+     */
+    public static ReferenceRange getRange(String testName, Demographics demographics) {
+        String testKey = TestNameIndex.canonical(testName);
+        if (testKey == null) {
+            return null;
+        }
+        ReferenceRangeTable current = table.get();
+        ReferenceRange range = current.lookup(testKey, demographics);
+        return range == null && current.contains(testKey) ? ranges.get(testKey) : range;
     }
 
     public static boolean hasRange(String testName) {
-        String normalizedName = testName.toLowerCase()
-                .replaceAll("[\\s-]", "_")
-                .replaceAll("[^a-z0-9_]", "");
-        return ranges.containsKey(normalizedName);
+        String testKey = TestNameIndex.canonical(testName);
+        return testKey != null && table.get().contains(testKey);
+    }
+
+    /**
+     * Replaces the table used by {@link #getRange}
+     */
+    public static void install(ReferenceRangeTable rangeTable) {
+        table.set(rangeTable);
+    }
+
+    public static ReferenceRangeTable currentTable() {
+        return table.get();
+    }
+
+    /**
+     * The built-in ranges, which apply regardless of sex and age
+     */
+    public static ReferenceRangeTable builtInTable() {
+        return ReferenceRangeTable.of(ranges);
+    }
+
+    /**
+     * Normalized names of all tests with a reference range (e.g. "vitamin_d")
+     */
+    public static Set<String> getTestNames() {
+        return Collections.unmodifiableSet(ranges.keySet());
     }
 
     public static class ReferenceRange {
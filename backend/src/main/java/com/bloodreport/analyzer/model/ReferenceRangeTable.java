@@ -0,0 +1,196 @@
+package com.bloodreport.analyzer.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable reference range index keyed by test, sex and age band.
+ *
+ * Tables are loaded from CSV with one row per range:
+ *
+ * <pre>
+ * test,sex,age_from,age_to,min,max,unit
+ * hemoglobin,any,,,12.0,16.0,g/dL
+ * Haemoglobin,female,18,,12.0,15.5,g/dL
+ * hemoglobin,male,18,,13.5,17.5,g/dL
+ * </pre>
+ *
+ * Blank lines and lines starting with '#' are ignored, as is the optional
+ * header row. The test column accepts any name known to {@link TestNameIndex}; sex is
+ * male, female or any; the age band is [age_from, age_to) in years and either
+ * end may be empty. A lookup picks the most specific matching row (sex before
+ * age band). If no row matches, for example because the age is unknown and
+ * every row has a band, the test's first row for either sex is used; a
+ * sex-specific row is never guessed for a patient of unknown sex.
+ */
+public final class ReferenceRangeTable {
+
+    private static final int ANY_AGE_FROM = 0;
+    private static final int ANY_AGE_TO = Integer.MAX_VALUE;
+
+    private final Map<String, Row[]> rowsByTest;
+    private final int rowCount;
+
+    private ReferenceRangeTable(Map<String, Row[]> rowsByTest, int rowCount) {
+        this.rowsByTest = rowsByTest;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * One row per test that applies to everyone
+     */
+    public static ReferenceRangeTable of(Map<String, MedicalReferenceRanges.ReferenceRange> ranges) {
+        Map<String, Row[]> rows = new HashMap<>();
+        ranges.forEach((testKey, range) -> rows.put(testKey,
+                new Row[] { new Row(Demographics.Sex.UNKNOWN, ANY_AGE_FROM, ANY_AGE_TO, range) }));
+        return new ReferenceRangeTable(Map.copyOf(rows), rows.size());
+    }
+
+    /**
+     * @param source Name used in error messages
+     * @throws IllegalArgumentException on the first malformed row, with its line number
+     */
+    public static ReferenceRangeTable parse(Reader reader, String source) throws IOException {
+        Map<String, List<Row>> rows = new HashMap<>();
+        int count = 0;
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        boolean firstRow = true;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (firstRow) {
+                firstRow = false;
+                if (line.startsWith("test,")) {
+                    // Column header
+                    continue;
+                }
+            }
+            String[] columns = line.split(",", -1);
+            if (columns.length != 7) {
+                throw invalid(source, lineNumber, "expected 7 columns, found " + columns.length);
+            }
+            String testKey = TestNameIndex.canonical(columns[0]);
+            if (testKey == null) {
+                throw invalid(source, lineNumber, "unknown test '" + columns[0].strip() + "'");
+            }
+            try {
+                Row row = new Row(
+                        parseSex(columns[1].strip(), source, lineNumber),
+                        columns[2].isBlank() ? ANY_AGE_FROM : Integer.parseInt(columns[2].strip()),
+                        columns[3].isBlank() ? ANY_AGE_TO : Integer.parseInt(columns[3].strip()),
+                        new MedicalReferenceRanges.ReferenceRange(
+                                Double.parseDouble(columns[4].strip()),
+                                Double.parseDouble(columns[5].strip()),
+                                columns[6].strip()));
+                if (row.ageFrom >= row.ageTo || row.range.getMin() > row.range.getMax()) {
+                    throw invalid(source, lineNumber, "empty age band or range");
+                }
+                rows.computeIfAbsent(testKey, key -> new ArrayList<>()).add(row);
+                count++;
+            } catch (NumberFormatException e) {
+                throw invalid(source, lineNumber, "not a number: " + e.getMessage());
+            }
+        }
+
+        Map<String, Row[]> index = new HashMap<>();
+        rows.forEach((testKey, testRows) -> index.put(testKey, testRows.toArray(new Row[0])));
+        return new ReferenceRangeTable(Map.copyOf(index), count);
+    }
+
+    /**
+     * @return The best matching range, or null if the table has no rows for the
+     *         test or only rows for the other sex (or an unknown sex)
+     */
+    public MedicalReferenceRanges.ReferenceRange lookup(String testKey, Demographics demographics) {
+        Row[] rows = rowsByTest.get(testKey);
+        if (rows == null) {
+            return null;
+        }
+        Demographics.Sex sex = demographics.getSex();
+        Integer age = demographics.getAge();
+
+        Row best = null;
+        int bestScore = -1;
+        for (Row row : rows) {
+            boolean sexSpecific = row.sex != Demographics.Sex.UNKNOWN;
+            boolean ageSpecific = row.ageFrom != ANY_AGE_FROM || row.ageTo != ANY_AGE_TO;
+            if (sexSpecific && row.sex != sex) {
+                continue;
+            }
+            if (ageSpecific && (age == null || age < row.ageFrom || age >= row.ageTo)) {
+                continue;
+            }
+            int score = (sexSpecific ? 2 : 0) + (ageSpecific ? 1 : 0);
+            if (score > bestScore) {
+                best = row;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            for (Row row : rows) {
+                if (row.sex == Demographics.Sex.UNKNOWN) {
+                    best = row;
+                    break;
+                }
+            }
+        }
+        return best != null ? best.range : null;
+    }
+
+    public boolean contains(String testKey) {
+        return rowsByTest.containsKey(testKey);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getTestCount() {
+        return rowsByTest.size();
+    }
+
+    private static Demographics.Sex parseSex(String value, String source, int lineNumber) {
+        switch (value.toLowerCase()) {
+            case "male":
+            case "m":
+                return Demographics.Sex.MALE;
+            case "female":
+            case "f":
+                return Demographics.Sex.FEMALE;
+            case "any":
+            case "":
+                return Demographics.Sex.UNKNOWN;
+            default:
+                throw invalid(source, lineNumber, "sex must be male, female or any");
+        }
+    }
+
+    private static IllegalArgumentException invalid(String source, int lineNumber, String message) {
+        return new IllegalArgumentException(source + " line " + lineNumber + ": " + message);
+    }
+
+    private static final class Row {
+        // UNKNOWN means the row applies to any sex
+        private final Demographics.Sex sex;
+        private final int ageFrom;
+        private final int ageTo;
+        private final MedicalReferenceRanges.ReferenceRange range;
+
+        Row(Demographics.Sex sex, int ageFrom, int ageTo, MedicalReferenceRanges.ReferenceRange range) {
+            this.sex = sex;
+            this.ageFrom = ageFrom;
+            this.ageTo = ageTo;
+            this.range = range;
+        }
+    }
+}
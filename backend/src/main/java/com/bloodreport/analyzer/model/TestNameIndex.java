@@ -0,0 +1,371 @@
+package com.bloodreport.analyzer.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Immutable index from test names, synonyms and abbreviations to the canonical
+ * keys of {@link MedicalReferenceRanges} ("Haemoglobin", "HGB" -> hemoglobin).
+ *
+ * Names are compared in normalized form: ASCII letters lower-cased, digits
+ * kept, and every run of other characters treated as a single separator, so
+ * "25-OH Vitamin D" and "25 oh  vitamin-d" are the same name. Both lookups and
+ * scans work on the caller's characters directly and do not allocate. The
+ * index is built once when the class is loaded and is safe for concurrent use.
+ */
+public final class TestNameIndex {
+
+    public interface MatchListener {
+        /**
+         * @param testKey Canonical test key
+         * @param start   Start of the matched name in the text (inclusive)
+         * @param end     End of the matched name in the text (exclusive)
+         */
+        void onMatch(String testKey, int start, int end);
+    }
+
+    private static final Map<String, String[]> ALIASES = new LinkedHashMap<>();
+
+    static {
+        // Complete Blood Count (CBC)
+        alias("hemoglobin", "haemoglobin", "hgb", "hb");
+        alias("hematocrit", "haematocrit", "hct", "packed cell volume", "pcv");
+        alias("rbc", "rbc count", "red blood cells", "red blood cell count", "red cell count", "erythrocytes",
+                "erythrocyte count");
+        alias("wbc", "wbc count", "white blood cells", "white blood cell count", "white cell count", "leukocytes",
+                "leucocytes", "total leukocyte count", "tlc");
+        alias("platelets", "platelet", "platelet count", "plt", "thrombocytes");
+
+        // Metabolic Panel
+        alias("glucose", "blood glucose", "fasting glucose", "glucose fasting", "plasma glucose", "blood sugar",
+                "fasting blood sugar", "fbs");
+        alias("sodium", "serum sodium");
+        alias("potassium", "serum potassium");
+        alias("calcium", "serum calcium", "total calcium");
+        alias("creatinine", "serum creatinine", "creat");
+        alias("bun", "blood urea nitrogen", "urea nitrogen");
+
+        // Lipid Panel
+        alias("cholesterol", "total cholesterol", "cholesterol total", "serum cholesterol");
+        alias("ldl", "ldl cholesterol", "ldl c", "ldl direct", "low density lipoprotein");
+        alias("hdl", "hdl cholesterol", "hdl c", "high density lipoprotein");
+        alias("triglycerides", "triglyceride", "tg", "trigs");
+
+        // Liver Function
+        alias("alt", "sgpt", "alt sgpt", "alanine aminotransferase", "alanine transaminase");
+        alias("ast", "sgot", "ast sgot", "aspartate aminotransferase", "aspartate transaminase");
+        alias("bilirubin", "total bilirubin", "bilirubin total");
+
+        // Thyroid
+        alias("tsh", "thyroid stimulating hormone", "thyrotropin");
+        alias("t3", "total t3", "t3 total", "triiodothyronine");
+        alias("t4", "total t4", "t4 total", "thyroxine");
+
+        // Diabetes
+        alias("hba1c", "a1c", "hb a1c", "hemoglobin a1c", "haemoglobin a1c", "glycated hemoglobin",
+                "glycated haemoglobin", "glycosylated hemoglobin");
+
+        // Vitamins
+        alias("vitamin_d", "vit d", "vitamin d3", "25 oh vitamin d", "25 oh d", "25 hydroxy vitamin d",
+                "25 hydroxyvitamin d", "vitamin d 25 hydroxy");
+        alias("vitamin_b12", "vit b12", "vitamin b 12", "b12", "cobalamin");
+    }
+
+    private static void alias(String testKey, String... aliases) {
+        ALIASES.put(testKey, aliases);
+    }
+
+    private static final int SEPARATOR = 36;
+    private static final int ALPHABET = 37;
+
+    // Exact lookup: open-addressing table of normalized names
+    private static final String[] NAMES;
+    private static final String[] NAME_KEYS;
+    private static final int NAME_MASK;
+
+    // Multi-pattern scan: Aho-Corasick automaton compiled to a DFA
+    private static final int[][] TRANSITIONS;
+    private static final int[] OUTPUT;
+    private static final int[] OUTPUT_LINK;
+    private static final int[] PATTERN_LENGTH;
+    private static final String[] PATTERN_KEY;
+
+    static {
+        Map<String, String> names = new HashMap<>();
+        for (String testKey : MedicalReferenceRanges.getTestNames()) {
+            names.put(normalize(testKey), testKey);
+        }
+        ALIASES.forEach((testKey, aliases) -> {
+            if (!MedicalReferenceRanges.getTestNames().contains(testKey)) {
+                throw new IllegalStateException("Alias for unknown test " + testKey);
+            }
+            for (String alias : aliases) {
+                String previous = names.put(normalize(alias), testKey);
+                if (previous != null && !previous.equals(testKey)) {
+                    throw new IllegalStateException("Ambiguous alias " + alias);
+                }
+            }
+        });
+
+        int size = Integer.highestOneBit(names.size() * 4 - 1) << 1;
+        NAMES = new String[size];
+        NAME_KEYS = new String[size];
+        NAME_MASK = size - 1;
+        PATTERN_LENGTH = new int[names.size()];
+        PATTERN_KEY = new String[names.size()];
+
+        List<int[]> transitions = new ArrayList<>();
+        List<Integer> output = new ArrayList<>();
+        transitions.add(newState());
+        output.add(-1);
+
+        int pattern = 0;
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            String name = entry.getKey();
+            int slot = hash(name, 0, name.length()) & NAME_MASK;
+            while (NAMES[slot] != null) {
+                slot = (slot + 1) & NAME_MASK;
+            }
+            NAMES[slot] = name;
+            NAME_KEYS[slot] = entry.getValue();
+
+            int state = 0;
+            for (int i = 0; i < name.length(); i++) {
+                int symbol = symbol(name.charAt(i));
+                if (transitions.get(state)[symbol] == 0) {
+                    transitions.get(state)[symbol] = transitions.size();
+                    transitions.add(newState());
+                    output.add(-1);
+                }
+                state = transitions.get(state)[symbol];
+            }
+            output.set(state, pattern);
+            PATTERN_LENGTH[pattern] = name.length();
+            PATTERN_KEY[pattern] = entry.getValue();
+            pattern++;
+        }
+
+        int states = transitions.size();
+        TRANSITIONS = transitions.toArray(new int[0][]);
+        OUTPUT = output.stream().mapToInt(Integer::intValue).toArray();
+        OUTPUT_LINK = new int[states];
+        int[] fail = new int[states];
+
+        // Breadth-first: fill in failure links and turn missing edges into DFA edges
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int symbol = 0; symbol < ALPHABET; symbol++) {
+            int next = TRANSITIONS[0][symbol];
+            if (next != 0) {
+                fail[next] = 0;
+                OUTPUT_LINK[next] = -1;
+                queue.add(next);
+            }
+        }
+        OUTPUT_LINK[0] = -1;
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int symbol = 0; symbol < ALPHABET; symbol++) {
+                int next = TRANSITIONS[state][symbol];
+                if (next == 0) {
+                    TRANSITIONS[state][symbol] = TRANSITIONS[fail[state]][symbol];
+                    continue;
+                }
+                int f = TRANSITIONS[fail[state]][symbol];
+                fail[next] = f;
+                OUTPUT_LINK[next] = OUTPUT[f] >= 0 ? f : OUTPUT_LINK[f];
+                queue.add(next);
+            }
+        }
+    }
+
+    private TestNameIndex() {
+    }
+
+    /**
+     * @return Canonical test key for the name, or null if it is not a known test
+     */
+    public static String canonical(CharSequence name) {
+        return name == null ? null : canonical(name, 0, name.length());
+    }
+
+    public static String canonical(CharSequence text, int start, int end) {
+        int hash = 0;
+        int length = 0;
+        boolean pendingSeparator = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (isAsciiLetterOrDigit(c)) {
+                if (pendingSeparator && length > 0) {
+                    hash = 31 * hash + '_';
+                    length++;
+                }
+                pendingSeparator = false;
+                hash = 31 * hash + lower(c);
+                length++;
+            } else {
+                pendingSeparator = true;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+
+        int slot = spread(hash) & NAME_MASK;
+        String candidate;
+        while ((candidate = NAMES[slot]) != null) {
+            if (candidate.length() == length && normalizedEquals(candidate, text, start, end)) {
+                return NAME_KEYS[slot];
+            }
+            slot = (slot + 1) & NAME_MASK;
+        }
+        return null;
+    }
+
+    /**
+     * Reports every whole-word occurrence of a known test name in one pass over
+     * the text, in order of where the names end. Nested names are all reported,
+     * longest first ("Total Cholesterol" and then "Cholesterol").
+     */
+    public static void scan(CharSequence text, MatchListener listener) {
+        scan(text, listener, false);
+    }
+
+    public static boolean containsTestName(CharSequence text) {
+        return scan(text, null, true);
+    }
+
+    private static boolean scan(CharSequence text, MatchListener listener, boolean stopAtFirst) {
+        int length = text.length();
+        int state = 0;
+        boolean pendingSeparator = false;
+        boolean started = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (!isAsciiLetterOrDigit(c)) {
+                pendingSeparator = true;
+                continue;
+            }
+            if (pendingSeparator && started) {
+                state = TRANSITIONS[state][SEPARATOR];
+            }
+            pendingSeparator = false;
+            started = true;
+            state = TRANSITIONS[state][symbol(lower(c))];
+
+            if (i + 1 < length && isAsciiLetterOrDigit(text.charAt(i + 1))) {
+                // Not the end of a word
+                continue;
+            }
+            for (int s = OUTPUT[state] >= 0 ? state : OUTPUT_LINK[state]; s >= 0; s = OUTPUT_LINK[s]) {
+                int pattern = OUTPUT[s];
+                int start = startOf(text, i, PATTERN_LENGTH[pattern]);
+                if (start > 0 && isAsciiLetterOrDigit(text.charAt(start - 1))) {
+                    continue;
+                }
+                if (stopAtFirst) {
+                    return true;
+                }
+                listener.onMatch(PATTERN_KEY[pattern], start, i + 1);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks back from the last character of a match to where its normalized
+     * form of the given length starts
+     */
+    private static int startOf(CharSequence text, int last, int normalizedLength) {
+        int remaining = normalizedLength;
+        int i = last;
+        while (true) {
+            if (isAsciiLetterOrDigit(text.charAt(i))) {
+                if (--remaining == 0) {
+                    return i;
+                }
+                i--;
+            } else {
+                while (!isAsciiLetterOrDigit(text.charAt(i))) {
+                    i--;
+                }
+                remaining--;
+            }
+        }
+    }
+
+    private static boolean normalizedEquals(String normalized, CharSequence text, int start, int end) {
+        int position = 0;
+        boolean pendingSeparator = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (isAsciiLetterOrDigit(c)) {
+                if (pendingSeparator && position > 0) {
+                    if (normalized.charAt(position++) != '_') {
+                        return false;
+                    }
+                }
+                pendingSeparator = false;
+                if (normalized.charAt(position++) != lower(c)) {
+                    return false;
+                }
+            } else {
+                pendingSeparator = true;
+            }
+        }
+        return position == normalized.length();
+    }
+
+    private static String normalize(String name) {
+        StringBuilder normalized = new StringBuilder(name.length());
+        boolean pendingSeparator = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (isAsciiLetterOrDigit(c)) {
+                if (pendingSeparator && normalized.length() > 0) {
+                    normalized.append('_');
+                }
+                pendingSeparator = false;
+                normalized.append(lower(c));
+            } else {
+                pendingSeparator = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static int[] newState() {
+        return new int[ALPHABET];
+    }
+
+    private static int symbol(char normalized) {
+        if (normalized == '_') {
+            return SEPARATOR;
+        }
+        return normalized <= '9' ? normalized - '0' : normalized - 'a' + 10;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return spread(h);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+}
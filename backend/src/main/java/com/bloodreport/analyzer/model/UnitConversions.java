@@ -0,0 +1,304 @@
+package com.bloodreport.analyzer.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recognizes lab unit spellings and converts values between units.
+ *
+ * Unit strings are matched ignoring case, spaces, '^' and '*', with µ (micro
+ * sign), μ (Greek mu) and u treated alike, so "mg/dl", "MG/DL" and "mg / dL"
+ * are one unit, as are "x10^3/µL", "10*3/uL" and "K/μL". Each known unit has
+ * a display form that matches {@link MedicalReferenceRanges} ("K/μL",
+ * "μg/dL").
+ *
+ * Units of the same kind (mass concentration, molar concentration, cell
+ * counts, ...) convert for every test. Conversions between kinds use
+ * per-test factors: molar mass for mmol/L to mg/dL, valence for mEq/L, and
+ * the IFCC formula for HbA1c mmol/mol to %. The factors are precomputed per
+ * test and unit, and lookups and conversions do not allocate.
+ */
+public final class UnitConversions {
+
+    // Kinds of unit; units convert freely within a kind
+    private static final int MASS = 0;
+    private static final int MOLAR = 1;
+    private static final int EQUIVALENT = 2;
+    private static final int THOUSANDS_PER_UL = 3;
+    private static final int MILLIONS_PER_UL = 4;
+    private static final int ENZYME = 5;
+    private static final int PERCENT = 6;
+    private static final int INTERNATIONAL_UNITS = 7;
+    private static final int IFCC = 8;
+
+    // Display form, kind, and value of one unit in the kind's base unit
+    // (mg/dL, mmol/L, mEq/L, K/μL, M/μL, U/L, %, mIU/L, mmol/mol)
+    private static final List<String> UNITS = new ArrayList<>();
+    private static final List<Integer> KINDS = new ArrayList<>();
+    private static final List<Double> SCALES = new ArrayList<>();
+    private static final Map<String, Integer> SPELLINGS = new HashMap<>();
+
+    static {
+        unit("g/dL", MASS, 1000, "g/dl", "gm/dl", "gms/dl", "gm%", "g%");
+        unit("g/L", MASS, 100, "g/l", "gm/l");
+        unit("mg/dL", MASS, 1, "mg/dl", "mg%");
+        unit("mg/L", MASS, 0.1, "mg/l");
+        unit("μg/dL", MASS, 1e-3, "ug/dl", "mcg/dl");
+        unit("ng/mL", MASS, 1e-4, "ng/ml", "ug/l", "mcg/l");
+        unit("ng/dL", MASS, 1e-6, "ng/dl");
+        unit("pg/mL", MASS, 1e-7, "pg/ml", "ng/l");
+        unit("mmol/L", MOLAR, 1, "mmol/l");
+        unit("μmol/L", MOLAR, 1e-3, "umol/l", "micromol/l");
+        unit("nmol/L", MOLAR, 1e-6, "nmol/l");
+        unit("pmol/L", MOLAR, 1e-9, "pmol/l");
+        unit("mEq/L", EQUIVALENT, 1, "meq/l");
+        unit("K/μL", THOUSANDS_PER_UL, 1, "k/ul", "103/ul", "x103/ul", "thou/ul", "thousand/ul", "k/mm3",
+                "103/mm3", "x103/mm3", "k/cumm", "109/l", "x109/l");
+        unit("M/μL", MILLIONS_PER_UL, 1, "m/ul", "106/ul", "x106/ul", "mil/ul", "mill/ul", "million/ul",
+                "m/mm3", "106/mm3", "x106/mm3", "m/cumm", "1012/l", "x1012/l");
+        unit("U/L", ENZYME, 1, "u/l", "iu/l");
+        unit("%", PERCENT, 1, "%");
+        unit("L/L", PERCENT, 100, "l/l");
+        unit("mIU/L", INTERNATIONAL_UNITS, 1, "miu/l", "uiu/ml", "mu/l", "uu/ml");
+        unit("mmol/mol", IFCC, 1, "mmol/mol");
+    }
+
+    private static void unit(String display, int kind, double scale, String... spellings) {
+        int id = UNITS.size();
+        UNITS.add(display);
+        KINDS.add(kind);
+        SCALES.add(scale);
+        for (String spelling : spellings) {
+            SPELLINGS.put(spelling, id);
+        }
+    }
+
+    private static final int UNIT_COUNT = UNITS.size();
+    private static final String[] DISPLAY = UNITS.toArray(new String[0]);
+    private static final int[] KIND = KINDS.stream().mapToInt(Integer::intValue).toArray();
+    private static final double[] SCALE = SCALES.stream().mapToDouble(Double::doubleValue).toArray();
+
+    // Open-addressing table of normalized spellings
+    private static final String[] SPELLING_SLOTS;
+    private static final int[] SPELLING_IDS;
+    private static final int SPELLING_MASK;
+
+    static {
+        int capacity = Integer.highestOneBit(SPELLINGS.size() * 4 - 1) << 1;
+        SPELLING_SLOTS = new String[capacity];
+        SPELLING_IDS = new int[capacity];
+        SPELLING_MASK = capacity - 1;
+        SPELLINGS.forEach((spelling, id) -> {
+            int slot = spread(hash(spelling, 0, spelling.length())) & SPELLING_MASK;
+            while (SPELLING_SLOTS[slot] != null) {
+                slot = (slot + 1) & SPELLING_MASK;
+            }
+            SPELLING_SLOTS[slot] = spelling;
+            SPELLING_IDS[slot] = id;
+        });
+    }
+
+    // Per test: {factors, offsets}; multiply by the factor and add the offset to go from a unit to the test's
+    // base unit; NaN where the unit does not apply to the test
+    private static final Map<String, double[][]> ANALYTES = new HashMap<>();
+
+    static {
+        // Molar mass bridges in mg/dL per mmol/L
+        analyte("glucose", "mg/dL", 18.016, 0);
+        analyte("cholesterol", "mg/dL", 38.67, 0);
+        analyte("ldl", "mg/dL", 38.67, 0);
+        analyte("hdl", "mg/dL", 38.67, 0);
+        analyte("triglycerides", "mg/dL", 88.57, 0);
+        analyte("creatinine", "mg/dL", 11.312, 0);
+        analyte("bun", "mg/dL", 2.801, 0);
+        analyte("calcium", "mg/dL", 4.008, 2);
+        analyte("bilirubin", "mg/dL", 58.48, 0);
+        analyte("hemoglobin", "g/dL", 1611, 0);
+        analyte("vitamin_d", "ng/mL", 40.06, 0);
+        analyte("vitamin_b12", "pg/mL", 135.5, 0);
+        analyte("t4", "μg/dL", 77.7, 0);
+        analyte("t3", "ng/dL", 65.1, 0);
+        analyte("sodium", "mEq/L", 0, 1);
+        analyte("potassium", "mEq/L", 0, 1);
+
+        // HbA1c: % (NGSP) = 0.09148 * mmol/mol (IFCC) + 2.152
+        double[][] hba1c = analyte("hba1c", "%", 0, 0);
+        int ifcc = SPELLINGS.get("mmol/mol");
+        hba1c[0][ifcc] = 0.09148;
+        hba1c[1][ifcc] = 2.152;
+    }
+
+    /**
+     * Fills the factors from every unit to the test's base unit
+     *
+     * @param molarMass mg/dL per mmol/L, or 0 if mass and molar units do not convert
+     * @param valence   mEq per mmol, or 0 if equivalents do not convert
+     */
+    private static double[][] analyte(String testKey, String baseUnit, double molarMass, int valence) {
+        int base = UNITS.indexOf(baseUnit);
+
+        double[] factors = new double[UNIT_COUNT];
+        double[] offsets = new double[UNIT_COUNT];
+        for (int unit = 0; unit < UNIT_COUNT; unit++) {
+            // Value of one unit expressed in the base kind's base unit, or NaN
+            double inBaseKind = toKind(KIND[unit], SCALE[unit], KIND[base], molarMass, valence);
+            factors[unit] = inBaseKind / SCALE[base];
+        }
+        double[][] table = { factors, offsets };
+        ANALYTES.put(testKey, table);
+        return table;
+    }
+
+    private static double toKind(int kind, double scale, int targetKind, double molarMass, int valence) {
+        if (kind == targetKind) {
+            return scale;
+        }
+        // Go through mmol/L
+        double mmol;
+        if (kind == MOLAR) {
+            mmol = scale;
+        } else if (kind == MASS && molarMass > 0) {
+            mmol = scale / molarMass;
+        } else if (kind == EQUIVALENT && valence > 0) {
+            mmol = scale / valence;
+        } else {
+            return Double.NaN;
+        }
+        if (targetKind == MOLAR) {
+            return mmol;
+        } else if (targetKind == MASS && molarMass > 0) {
+            return mmol * molarMass;
+        } else if (targetKind == EQUIVALENT && valence > 0) {
+            return mmol * valence;
+        }
+        return Double.NaN;
+    }
+
+    private UnitConversions() {
+    }
+
+    /**
+     * @return Id of the unit, or -1 if the spelling is not known
+     */
+    public static int unitId(CharSequence unit) {
+        return unit != null ? unitId(unit, 0, unit.length()) : -1;
+    }
+
+    public static int unitId(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int slot = spread(hash) & SPELLING_MASK;
+        String candidate;
+        while ((candidate = SPELLING_SLOTS[slot]) != null) {
+            if (normalizedEquals(candidate, text, start, end)) {
+                return SPELLING_IDS[slot];
+            }
+            slot = (slot + 1) & SPELLING_MASK;
+        }
+        return -1;
+    }
+
+    /**
+     * Display form of the unit ("K/μL" for "x10^3/uL"), or null if not known
+     */
+    public static String canonicalUnit(CharSequence unit) {
+        int id = unitId(unit);
+        return id >= 0 ? DISPLAY[id] : null;
+    }
+
+    /**
+     * True if both spellings are known and denote the same unit
+     */
+    public static boolean sameUnit(CharSequence first, CharSequence second) {
+        int id = unitId(first);
+        return id >= 0 && id == unitId(second);
+    }
+
+    /**
+     * @param testKey Canonical test key, see {@link TestNameIndex}
+     * @return The value in the target unit, or NaN if either unit is unknown or
+     *         they do not convert for this test
+     */
+    public static double convert(String testKey, double value, CharSequence fromUnit, CharSequence toUnit) {
+        return convert(testKey, value, unitId(fromUnit), unitId(toUnit));
+    }
+
+    /**
+     * Same as {@link #convert(String, double, CharSequence, CharSequence)} for
+     * unit ids from {@link #unitId}
+     */
+    public static double convert(String testKey, double value, int from, int to) {
+        if (from < 0 || to < 0) {
+            return Double.NaN;
+        }
+        if (from == to) {
+            return value;
+        }
+        if (KIND[from] == KIND[to]) {
+            return value * SCALE[from] / SCALE[to];
+        }
+        double[][] analyte = testKey != null ? ANALYTES.get(testKey) : null;
+        if (analyte == null) {
+            return Double.NaN;
+        }
+        double[] factors = analyte[0];
+        double[] offsets = analyte[1];
+        // from -> base -> to; NaN factors propagate
+        double base = value * factors[from] + offsets[from];
+        return (base - offsets[to]) / factors[to];
+    }
+
+    private static boolean normalizedEquals(String normalized, CharSequence text, int start, int end) {
+        int position = 0;
+        for (int i = start; i < end; i++) {
+            char c = normalize(text.charAt(i));
+            if (c == 0) {
+                continue;
+            }
+            if (position == normalized.length() || normalized.charAt(position) != c) {
+                return false;
+            }
+            position++;
+        }
+        return position == normalized.length();
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = normalize(s.charAt(i));
+            if (c != 0) {
+                h = 31 * h + c;
+            }
+        }
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Normalized form of a unit character, or 0 if it is ignored
+     */
+    private static char normalize(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '^':
+            case '*':
+                return 0;
+            case 'µ':
+            case 'μ':
+                return 'u';
+            case '×':
+                return 'x';
+            default:
+                return c;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.bloodreport.analyzer.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Concurrency limit for calls to an upstream service that adapts to the
+ * latency it observes (AIMD), with a short bounded wait queue in front.
+ *
+ * Each successful call feeds its latency into two moving averages: a short one
+ * that follows current conditions and a long one that serves as the baseline.
+ * While the short average stays within the latency tolerance of the baseline
+ * and at least half the limit is in use, the limit grows by one per limit's
+ * worth of calls. When the short average rises above it, or a call fails with
+ * an overload signal (timeout, 429, 5xx), the limit is cut to 80%, at most
+ * once per current call latency so that one slow spell counts once. Failures
+ * of an aborted {@link AttemptScope} are not overload signals.
+ *
+ * Callers beyond the limit wait in a queue of at most queueCapacity for up to
+ * maxWait. Everyone else is shed at once with a {@link LoadShedException}
+ * rather than piling up behind a slow upstream.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SHORT_ALPHA = 0.2;
+    private static final double LONG_ALPHA = 0.02;
+    private static final double BACKOFF_RATIO = 0.8;
+
+    private enum Outcome {
+        SUCCESS, OVERLOAD, FAILURE
+    }
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueCapacity;
+    private final long maxWaitNanos;
+    private final double latencyTolerance;
+    private final Predicate<Throwable> overloadSignal;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitFreed = lock.newCondition();
+
+    // Guarded by lock
+    private double limit;
+    private int inFlight;
+    private int peakInFlight;
+    private int waiting;
+    private double shortLatencyNanos;
+    private double longLatencyNanos;
+    private long lastDecrease;
+    private long shedQueueFull;
+    private long shedTimeout;
+    private long overloads;
+    private long increases;
+    private long decreases;
+
+    /**
+     * @param initialLimit     Limit until the first latency samples arrive
+     * @param latencyTolerance How far the current latency may rise above the
+     *                         baseline before the limit is cut, e.g. 1.5
+     * @param overloadSignal   Which call failures mean the upstream is overloaded
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, int queueCapacity,
+            Duration maxWait, double latencyTolerance, Predicate<Throwable> overloadSignal) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.maxWaitNanos = maxWait.toNanos();
+        this.latencyTolerance = latencyTolerance;
+        this.overloadSignal = overloadSignal;
+    }
+
+    /**
+     * Runs the task under the limit, waiting in the queue if needed
+     *
+     * @throws LoadShedException If the queue is full or no permit frees up within maxWait
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        acquire();
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.FAILURE;
+        try {
+            T result = task.call();
+            outcome = Outcome.SUCCESS;
+            return result;
+        } catch (Exception e) {
+            // An aborted attempt (a hedge that lost) failed because we closed its connection
+            if (!AttemptScope.currentAborted() && overloadSignal.test(e)) {
+                outcome = Outcome.OVERLOAD;
+            }
+            throw e;
+        } finally {
+            release(System.nanoTime() - start, outcome);
+        }
+    }
+
+    private void acquire() {
+        lock.lock();
+        try {
+            if (waiting == 0 && inFlight < (int) limit) {
+                enter();
+                return;
+            }
+            if (waiting >= queueCapacity) {
+                shedQueueFull++;
+                throw shed("queue full");
+            }
+            waiting++;
+            try {
+                long remaining = maxWaitNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        shedTimeout++;
+                        throw shed("no permit within " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms");
+                    }
+                    remaining = permitFreed.awaitNanos(remaining);
+                }
+                enter();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted waiting for a " + name + " permit");
+            } finally {
+                waiting--;
+            }
+            // The limit may have grown by more than the one permit we were woken for
+            if (waiting > 0 && inFlight < (int) limit) {
+                permitFreed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enter() {
+        inFlight++;
+        peakInFlight = Math.max(peakInFlight, inFlight);
+    }
+
+    private void release(long latencyNanos, Outcome outcome) {
+        lock.lock();
+        try {
+            boolean busy = inFlight * 2 >= limit;
+            inFlight--;
+            long now = System.nanoTime();
+            if (outcome == Outcome.OVERLOAD) {
+                overloads++;
+                decrease(now);
+            } else if (outcome == Outcome.SUCCESS) {
+                if (shortLatencyNanos == 0) {
+                    shortLatencyNanos = latencyNanos;
+                    longLatencyNanos = latencyNanos;
+                } else {
+                    shortLatencyNanos += SHORT_ALPHA * (latencyNanos - shortLatencyNanos);
+                    longLatencyNanos += LONG_ALPHA * (latencyNanos - longLatencyNanos);
+                }
+                if (shortLatencyNanos > longLatencyNanos * latencyTolerance) {
+                    decrease(now);
+                } else if (busy && limit < maxLimit) {
+                    int before = (int) limit;
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                    if ((int) limit > before) {
+                        increases++;
+                    }
+                }
+            }
+            if (inFlight < (int) limit) {
+                permitFreed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(long now) {
+        if (decreases > 0 && now - lastDecrease < shortLatencyNanos) {
+            return;
+        }
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        lastDecrease = now;
+        decreases++;
+    }
+
+    private LoadShedException shed(String reason) {
+        long retryAfter = Math.max(1, (long) Math.ceil(shortLatencyNanos / 1_000_000_000.0));
+        return new LoadShedException(name + " overloaded (" + reason + ", limit " + (int) limit + ")", retryAfter);
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("limit", (int) limit);
+            stats.put("minLimit", minLimit);
+            stats.put("maxLimit", maxLimit);
+            stats.put("inFlight", inFlight);
+            stats.put("peakInFlight", peakInFlight);
+            stats.put("queueDepth", waiting);
+            stats.put("queueCapacity", queueCapacity);
+            stats.put("shed", shedQueueFull + shedTimeout);
+            stats.put("shedQueueFull", shedQueueFull);
+            stats.put("shedTimeout", shedTimeout);
+            stats.put("overloads", overloads);
+            stats.put("increases", increases);
+            stats.put("decreases", decreases);
+            stats.put("latencyMs", Math.round(shortLatencyNanos / 1_000_000.0));
+            stats.put("baselineLatencyMs", Math.round(longLatencyNanos / 1_000_000.0));
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
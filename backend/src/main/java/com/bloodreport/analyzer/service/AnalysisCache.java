@@ -0,0 +1,208 @@
+package com.bloodreport.analyzer.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache for finished analyses.
+ *
+ * Entries are keyed by the SHA-256 of the uploaded bytes, evicted in LRU order
+ * once the cache is full and expired after a fixed TTL. Concurrent requests for
+ * the same key share a single in-flight computation. A computation that was
+ * running when the cache was cleared is not stored. A computation refused
+ * because its caller's upload quota ran out is not shared: the callers
+ * waiting on it run the loader themselves, on their own quota.
+ */
+@Service
+public class AnalysisCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, CachedAnalysis> entries;
+    private final Map<String, CompletableFuture<Map<String, Object>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Bumped by invalidateAll
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public AnalysisCache(
+            @Value("${analysis.cache.max-entries:500}") int maxEntries,
+            @Value("${analysis.cache.ttl:PT30M}") Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAnalysis> eldest) {
+                if (size() > AnalysisCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Computes the cache key for the given file content
+     */
+    public static String keyFor(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Returns the cached analysis for the key, or runs the loader to produce it.
+     * Callers racing on the same key wait for the first caller's result instead
+     * of running the loader themselves.
+     *
+     * @param key    Content hash of the upload
+     * @param loader Computes the analysis on a miss
+     * @return A copy of the analysis that the caller is free to modify
+     */
+    public Map<String, Object> getOrCompute(String key, Callable<Map<String, Object>> loader) throws Exception {
+        while (true) {
+            Map<String, Object> cached = lookup(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return new HashMap<>(cached);
+            }
+
+            CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+            CompletableFuture<Map<String, Object>> existing = inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                Map<String, Object> shared = await(existing);
+                if (shared == null) {
+                    // The computing caller was refused, not the upload: try again
+                    continue;
+                }
+                coalesced.incrementAndGet();
+                return new HashMap<>(shared);
+            }
+
+            misses.incrementAndGet();
+            long startedIn = generation.get();
+            try {
+                Map<String, Object> result = loader.call();
+                store(key, result, startedIn);
+                future.complete(result);
+                return new HashMap<>(result);
+            } catch (UploadRejectedException e) {
+                if (e.getReason() == UploadRejectedException.Reason.RATE_LIMITED) {
+                    // Removed first, so retrying waiters do not find this future again
+                    inFlight.remove(key, future);
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(e);
+                }
+                throw e;
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, future);
+            }
+        }
+    }
+
+    public void invalidate(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("evictions", evictions.get());
+        stats.put("inFlight", inFlight.size());
+        return stats;
+    }
+
+    private Map<String, Object> lookup(String key) {
+        synchronized (entries) {
+            CachedAnalysis entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                return null;
+            }
+            return entry.analysis;
+        }
+    }
+
+    private void store(String key, Map<String, Object> analysis, long startedIn) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            if (generation.get() != startedIn) {
+                return;
+            }
+            entries.put(key, new CachedAnalysis(new HashMap<>(analysis), System.currentTimeMillis()));
+        }
+    }
+
+    private static Map<String, Object> await(CompletableFuture<Map<String, Object>> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static class CachedAnalysis {
+        private final Map<String, Object> analysis;
+        private final long createdAt;
+
+        CachedAnalysis(Map<String, Object> analysis, long createdAt) {
+            this.analysis = analysis;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.bloodreport.analyzer.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * State of a single asynchronous analysis, plus the SSE subscribers waiting on it.
+ */
+public class AnalysisJob {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String COMPLETED = "completed";
+    public static final String FAILED = "failed";
+
+    private final String id;
+    private final String clientId;
+    private final long createdAt = System.currentTimeMillis();
+    private final List<SseEmitter> subscribers = new CopyOnWriteArrayList<>();
+
+    private volatile String status = QUEUED;
+    private volatile Map<String, Object> result;
+    private volatile String error;
+    private volatile long finishedAt;
+    private volatile UploadTicket ticket;
+
+    public AnalysisJob(String id, String clientId) {
+        this.id = id;
+        this.clientId = clientId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Map<String, Object> getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public UploadTicket getTicket() {
+        return ticket;
+    }
+
+    void setTicket(UploadTicket ticket) {
+        this.ticket = ticket;
+    }
+
+    public boolean isFinished() {
+        return COMPLETED.equals(status) || FAILED.equals(status);
+    }
+
+    /**
+     * Snapshot of the job suitable for returning from the API
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("jobId", id);
+        map.put("status", status);
+        map.put("createdAt", createdAt);
+        UploadTicket waiting = ticket;
+        if (QUEUED.equals(status) && waiting != null && !waiting.isGranted()) {
+            map.putAll(waiting.toMap());
+        }
+        if (result != null) {
+            map.put("result", result);
+        }
+        if (error != null) {
+            map.put("error", error);
+        }
+        return map;
+    }
+
+    synchronized void markRunning() {
+        status = RUNNING;
+        publish("status", toMap());
+    }
+
+    /**
+     * Forwards a partial result (e.g. one risk factor) to the subscribers
+     */
+    synchronized void publishPartial(String event, Object data) {
+        publish(event, data);
+    }
+
+    synchronized void complete(Map<String, Object> result) {
+        this.result = result;
+        this.status = COMPLETED;
+        this.finishedAt = System.currentTimeMillis();
+        publish("result", toMap());
+        closeSubscribers();
+    }
+
+    synchronized void fail(String error) {
+        this.error = error;
+        this.status = FAILED;
+        this.finishedAt = System.currentTimeMillis();
+        publish("error", toMap());
+        closeSubscribers();
+    }
+
+    /**
+     * Registers an emitter for status updates. A finished job sends its final
+     * event straight away and closes the stream.
+     */
+    synchronized void subscribe(SseEmitter emitter) {
+        try {
+            if (isFinished()) {
+                emitter.send(SseEmitter.event().name(COMPLETED.equals(status) ? "result" : "error").data(toMap()));
+                emitter.complete();
+                return;
+            }
+            emitter.send(SseEmitter.event().name("status").data(toMap()));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return;
+        }
+        subscribers.add(emitter);
+        emitter.onCompletion(() -> subscribers.remove(emitter));
+        emitter.onTimeout(() -> subscribers.remove(emitter));
+        emitter.onError(e -> subscribers.remove(emitter));
+    }
+
+    private void publish(String event, Object data) {
+        for (SseEmitter emitter : subscribers) {
+            try {
+                emitter.send(SseEmitter.event().name(event).data(data));
+            } catch (IOException | IllegalStateException e) {
+                // Client went away; drop it
+                subscribers.remove(emitter);
+            }
+        }
+    }
+
+    private void closeSubscribers() {
+        for (SseEmitter emitter : subscribers) {
+            emitter.complete();
+        }
+        subscribers.clear();
+    }
+}
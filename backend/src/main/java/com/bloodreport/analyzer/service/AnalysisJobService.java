@@ -0,0 +1,257 @@
+package com.bloodreport.analyzer.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs analyses off the servlet threads on a bounded executor.
+ *
+ * Jobs first wait their turn for an upload slot in the {@link UploadManager}
+ * queue, and fail if none comes within upload.queue.max-wait. Jobs that do not
+ * fit into the queue are rejected rather than piling up, and
+ * finished jobs are kept for a retention period so clients can poll for them.
+ *
+ * With spring.threads.virtual.enabled on Java 21+, each job gets its own
+ * virtual thread and the thread/queue limits are enforced by semaphores
+ * instead of the pool size.
+ */
+@Service
+public class AnalysisJobService {
+
+    @Autowired
+    private GeminiAnalysisService geminiService;
+
+    @Autowired
+    private UploadManager uploadManager;
+
+    private final Executor executor;
+    private final ThreadPoolExecutor platformPool;
+    private final ConcurrencyGate admissionGate;
+    private final ConcurrencyGate runningGate;
+    private final boolean virtualThreads;
+    private final long retentionMillis;
+    private final long sseTimeoutMillis;
+    private final Map<String, AnalysisJob> jobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AnalysisJobService(
+            @Value("${analysis.jobs.threads:4}") int threads,
+            @Value("${analysis.jobs.queue-capacity:50}") int queueCapacity,
+            @Value("${analysis.jobs.retention:PT15M}") Duration retention,
+            @Value("${analysis.jobs.sse-timeout:PT2M}") Duration sseTimeout,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreadsRequested) {
+        this.virtualThreads = virtualThreadsRequested
+                && JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE);
+
+        if (virtualThreads) {
+            this.platformPool = null;
+            this.executor = new VirtualThreadTaskExecutor("analysis-");
+            this.admissionGate = new ConcurrencyGate("analysis-admission", threads + queueCapacity, Duration.ZERO);
+            this.runningGate = new ConcurrencyGate("analysis", threads, Duration.ofDays(1));
+        } else {
+            this.platformPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), new AnalysisThreadFactory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.executor = platformPool;
+            this.admissionGate = null;
+            this.runningGate = null;
+        }
+        this.retentionMillis = retention.toMillis();
+        this.sseTimeoutMillis = sseTimeout.toMillis();
+    }
+
+    /**
+     * Queues an analysis. The caller must already hold the upload lease for
+     * clientId under jobId; it is released when the job finishes. The job then
+     * waits for a worker slot in the {@link UploadManager} queue, in the
+     * upload's lane, before it is handed to the executor.
+     *
+     * @param upload The ingested upload; the job closes it when done
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public AnalysisJob submit(String clientId, String jobId, IngestedUpload upload) {
+        AnalysisJob job = new AnalysisJob(jobId, clientId);
+        enqueue(job, upload, false);
+        return job;
+    }
+
+    /**
+     * Queues a streaming analysis and returns an SSE stream for it. The stream
+     * carries riskFactor and lifestyleAdvice events while Gemini is generating,
+     * then the final result or error event.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public SseEmitter submitStreaming(String clientId, String jobId, IngestedUpload upload) {
+        AnalysisJob job = new AnalysisJob(jobId, clientId);
+        // Subscribe before the job can start so no partial event is missed
+        SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+        job.subscribe(emitter);
+        enqueue(job, upload, true);
+        return emitter;
+    }
+
+    private void enqueue(AnalysisJob job, IngestedUpload upload, boolean streaming) {
+        purgeExpired();
+
+        if (admissionGate != null && !admissionGate.tryAcquire()) {
+            throw new RejectedExecutionException("Analysis queue is full");
+        }
+
+        String jobId = job.getId();
+        UploadTicket ticket;
+        try {
+            ticket = uploadManager.enqueue(job.getClientId(), jobId, upload.getLane());
+        } catch (RejectedExecutionException e) {
+            if (admissionGate != null) {
+                admissionGate.release();
+            }
+            throw e;
+        }
+        job.setTicket(ticket);
+        jobs.put(jobId, job);
+
+        if (!ticket.isGranted()) {
+            // Waits its turn in the upload queue, at most upload.queue.max-wait
+            // like synchronous uploads; the caller already has its 202
+            ticket.whenGranted(uploadManager.getMaxWait(), () -> {
+                try {
+                    executor.execute(() -> run(job, upload, streaming));
+                } catch (RejectedExecutionException e) {
+                    finish(job, upload);
+                    job.fail("Server busy: " + e.getMessage());
+                }
+            }, e -> {
+                finish(job, upload);
+                job.fail("Server busy: " + e.getMessage());
+            });
+            return;
+        }
+
+        try {
+            executor.execute(() -> run(job, upload, streaming));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(jobId);
+            uploadManager.release(ticket);
+            if (admissionGate != null) {
+                admissionGate.release();
+            }
+            throw e;
+        }
+    }
+
+    public AnalysisJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Opens an SSE stream for the job, or returns null if it is unknown
+     */
+    public SseEmitter subscribe(String jobId) {
+        AnalysisJob job = jobs.get(jobId);
+        if (job == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+        job.subscribe(emitter);
+        return emitter;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("virtualThreads", virtualThreads);
+        if (platformPool != null) {
+            stats.put("activeThreads", platformPool.getActiveCount());
+            stats.put("queued", platformPool.getQueue().size());
+            stats.put("queueRemainingCapacity", platformPool.getQueue().remainingCapacity());
+            stats.put("completedTasks", platformPool.getCompletedTaskCount());
+        } else {
+            stats.put("admission", admissionGate.getStats());
+            stats.put("running", runningGate.getStats());
+        }
+        stats.put("trackedJobs", jobs.size());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (platformPool != null) {
+            platformPool.shutdown();
+        }
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private void run(AnalysisJob job, IngestedUpload upload, boolean streaming) {
+        Map<String, Object> analysis = null;
+        String error = null;
+        try {
+            analysis = runningGate != null
+                    ? runningGate.call(() -> analyze(job, upload, streaming))
+                    : analyze(job, upload, streaming);
+        } catch (Exception e) {
+            error = "Failed to process file: " + e.getMessage();
+        } finally {
+            // Free the slot and lease first, so a client that sees the result can upload again
+            finish(job, upload);
+        }
+        if (error == null) {
+            job.complete(analysis);
+        } else {
+            job.fail(error);
+        }
+    }
+
+    private void finish(AnalysisJob job, IngestedUpload upload) {
+        if (admissionGate != null) {
+            admissionGate.release();
+        }
+        upload.close();
+        uploadManager.release(job.getTicket());
+        uploadManager.completeUpload(job.getClientId(), job.getId());
+    }
+
+    private Map<String, Object> analyze(AnalysisJob job, IngestedUpload upload, boolean streaming) throws Exception {
+        job.markRunning();
+        Map<String, Object> analysis = streaming
+                ? geminiService.analyzeBloodReportStreaming(upload, job::publishPartial)
+                : geminiService.analyzeBloodReport(upload);
+        analysis.put("requestId", job.getId());
+        return analysis;
+    }
+
+    private void purgeExpired() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt() < cutoff);
+    }
+
+    private static class AnalysisThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "analysis-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.bloodreport.analyzer.service;
+
+/**
+ * Receives partial analysis results while a streaming analysis is running
+ */
+@FunctionalInterface
+public interface AnalysisStreamListener {
+
+    AnalysisStreamListener NONE = (event, data) -> {
+    };
+
+    /**
+     * @param event Event name, e.g. "riskFactor" or "lifestyleAdvice"
+     * @param data  Event payload
+     */
+    void onEvent(String event, Object data);
+}
@@ -0,0 +1,86 @@
+package com.bloodreport.analyzer.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * The outbound requests made by one attempt of a call, so another thread can
+ * abort them.
+ *
+ * Interrupting a thread does not stop a blocking read in Apache HttpClient;
+ * aborting the request does, by closing its connection. An attempt runs with
+ * its scope bound to the thread, and the HTTP client registers each request
+ * it executes with the current scope. Requests made outside a scope are not
+ * tracked.
+ */
+public class AttemptScope {
+
+    private static final ThreadLocal<AttemptScope> CURRENT = new ThreadLocal<>();
+
+    // Guarded by this
+    private final List<Runnable> aborts = new ArrayList<>(1);
+    private boolean aborted;
+
+    /**
+     * Runs the attempt on the calling thread with this scope bound to it
+     */
+    public <T> T run(Callable<T> attempt) throws Exception {
+        AttemptScope previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return attempt.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Registers how to abort a request the current thread is about to make;
+     * runs it at once if the attempt was already aborted
+     */
+    public static void register(Runnable abort) {
+        AttemptScope scope = CURRENT.get();
+        if (scope == null) {
+            return;
+        }
+        synchronized (scope) {
+            if (!scope.aborted) {
+                scope.aborts.add(abort);
+                return;
+            }
+        }
+        abort.run();
+    }
+
+    /**
+     * Whether the attempt bound to the calling thread was aborted, so its
+     * failure says nothing about the upstream
+     */
+    public static boolean currentAborted() {
+        AttemptScope scope = CURRENT.get();
+        return scope != null && scope.isAborted();
+    }
+
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Aborts the attempt's requests, including any it makes from now on
+     */
+    public void abort() {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (aborted) {
+                return;
+            }
+            aborted = true;
+            pending = new ArrayList<>(aborts);
+            aborts.clear();
+        }
+        for (Runnable abort : pending) {
+            abort.run();
+        }
+    }
+}
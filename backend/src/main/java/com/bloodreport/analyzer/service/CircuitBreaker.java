@@ -0,0 +1,246 @@
+package com.bloodreport.analyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Stops calling an upstream that keeps failing.
+ *
+ * While CLOSED, the outcomes of the last windowSize calls are kept; once at
+ * least minimumCalls are recorded and the share of failures reaches
+ * failureRateThreshold, the breaker OPENs and every call fails at once with
+ * {@link CircuitOpenException}. After openDuration it goes HALF_OPEN and lets
+ * halfOpenCalls trial calls through: if they all succeed it CLOSEs, and the
+ * first failure OPENs it again.
+ *
+ * Failures are what the failure predicate says (timeouts, 429, 5xx); other
+ * exceptions mean the upstream answered and count as successes, and
+ * {@link RejectedExecutionException}s (the call was shed locally and never
+ * sent), interrupts and failures of an aborted {@link AttemptScope} (the
+ * losing attempt of a hedge) are not counted at all. Outcomes
+ * of calls started before the last state change are ignored.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final Predicate<Throwable> isFailure;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private State state = State.CLOSED;
+    private long generation;
+    private final boolean[] window;
+    private int next;
+    private int recorded;
+    private int windowFailures;
+    private long openedAt;
+    private int halfOpenStarted;
+    private int halfOpenSucceeded;
+    private long lastTransitionAt = System.currentTimeMillis();
+    private final Map<State, Long> transitions = new HashMap<>();
+    private long successes;
+    private long failures;
+    private long rejected;
+
+    public CircuitBreaker(String name, double failureRateThreshold, int windowSize, int minimumCalls,
+            Duration openDuration, int halfOpenCalls, Predicate<Throwable> isFailure) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, window.length));
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.isFailure = isFailure;
+        for (State s : State.values()) {
+            transitions.put(s, 0L);
+        }
+    }
+
+    /**
+     * Runs the call unless the breaker is open
+     *
+     * @throws CircuitOpenException If the call was not attempted
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        long permit = acquire();
+        T result;
+        try {
+            result = call.call();
+        } catch (Exception e) {
+            if (e instanceof RejectedExecutionException || e instanceof InterruptedException
+                    || AttemptScope.currentAborted()) {
+                onIgnored(permit);
+            } else if (isFailure.test(e)) {
+                onFailure(permit);
+            } else {
+                onSuccess(permit);
+            }
+            throw e;
+        }
+        onSuccess(permit);
+        return result;
+    }
+
+    public State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the generation the call was admitted in
+    private long acquire() {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                long remaining = openNanos - (System.nanoTime() - openedAt);
+                if (remaining > 0) {
+                    rejected++;
+                    throw new CircuitOpenException("Circuit breaker '" + name + "' is open",
+                            Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + 999_999_999)));
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (halfOpenStarted >= halfOpenCalls) {
+                    rejected++;
+                    throw new CircuitOpenException("Circuit breaker '" + name + "' is probing", 1);
+                }
+                halfOpenStarted++;
+            }
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess(long permit) {
+        lock.lock();
+        try {
+            successes++;
+            if (permit != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                if (++halfOpenSucceeded >= halfOpenCalls) {
+                    transition(State.CLOSED);
+                }
+            } else if (state == State.CLOSED) {
+                record(false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onFailure(long permit) {
+        lock.lock();
+        try {
+            failures++;
+            if (permit != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                transition(State.OPEN);
+            } else if (state == State.CLOSED) {
+                record(true);
+                if (recorded >= minimumCalls && (double) windowFailures / recorded >= failureRateThreshold) {
+                    transition(State.OPEN);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A trial call that never reached the upstream gives its turn back
+    private void onIgnored(long permit) {
+        lock.lock();
+        try {
+            if (permit == generation && state == State.HALF_OPEN) {
+                halfOpenStarted--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            if (window[next]) {
+                windowFailures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[next] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void transition(State to) {
+        State from = state;
+        state = to;
+        generation++;
+        lastTransitionAt = System.currentTimeMillis();
+        transitions.merge(to, 1L, Long::sum);
+        halfOpenStarted = 0;
+        halfOpenSucceeded = 0;
+        if (to == State.OPEN) {
+            openedAt = System.nanoTime();
+            log.warn("Circuit breaker '{}' {} -> OPEN for {} ms", name, from,
+                    TimeUnit.NANOSECONDS.toMillis(openNanos));
+        } else {
+            log.info("Circuit breaker '{}' {} -> {}", name, from, to);
+        }
+        if (to == State.CLOSED) {
+            next = 0;
+            recorded = 0;
+            windowFailures = 0;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        lock.lock();
+        try {
+            stats.put("state", state.name());
+            stats.put("failureRate", recorded == 0 ? 0.0 : (double) windowFailures / recorded);
+            stats.put("bufferedCalls", recorded);
+            stats.put("failureRateThreshold", failureRateThreshold);
+            stats.put("opened", transitions.get(State.OPEN));
+            stats.put("halfOpened", transitions.get(State.HALF_OPEN));
+            stats.put("closed", transitions.get(State.CLOSED));
+            stats.put("lastTransitionAt", lastTransitionAt);
+            stats.put("successes", successes);
+            stats.put("failures", failures);
+            stats.put("rejected", rejected);
+        } finally {
+            lock.unlock();
+        }
+        return stats;
+    }
+}
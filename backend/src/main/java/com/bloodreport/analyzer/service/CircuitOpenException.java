@@ -0,0 +1,13 @@
+package com.bloodreport.analyzer.service;
+
+/**
+ * Thrown by {@link CircuitBreaker} when it turns a call away without trying
+ * the upstream. Callers that fall back on {@link LoadShedException} do the
+ * same here.
+ */
+public class CircuitOpenException extends LoadShedException {
+
+    public CircuitOpenException(String message, long retryAfterSeconds) {
+        super(message, retryAfterSeconds);
+    }
+}
@@ -0,0 +1,97 @@
+package com.bloodreport.analyzer.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Semaphore-based bulkhead.
+ *
+ * With virtual threads the thread pool no longer bounds how much work runs at
+ * once, so the limit has to be explicit. Callers that cannot get a permit
+ * within the acquire timeout are rejected with a RejectedExecutionException.
+ */
+public class ConcurrencyGate {
+
+    private final String name;
+    private final int limit;
+    private final long acquireTimeoutMillis;
+    private final Semaphore permits;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ConcurrencyGate(String name, int limit, Duration acquireTimeout) {
+        this.name = name;
+        this.limit = limit;
+        this.acquireTimeoutMillis = acquireTimeout.toMillis();
+        this.permits = new Semaphore(limit, true);
+    }
+
+    /**
+     * Runs the task while holding a permit, waiting up to the acquire timeout for one
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(name + " concurrency limit of " + limit + " reached");
+        }
+        enter();
+        try {
+            return task.call();
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Takes a permit without waiting. Pair with {@link #release()}.
+     */
+    public boolean tryAcquire() {
+        if (permits.tryAcquire()) {
+            enter();
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void release() {
+        exit();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("limit", limit);
+        stats.put("inFlight", inFlight.get());
+        stats.put("peakInFlight", peakInFlight.get());
+        stats.put("waiting", permits.getQueueLength());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+
+    private void enter() {
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+    }
+
+    private void exit() {
+        inFlight.decrementAndGet();
+        permits.release();
+    }
+}
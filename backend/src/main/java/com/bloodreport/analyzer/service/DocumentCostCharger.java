@@ -0,0 +1,104 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.cluster.EndpointClass;
+import com.bloodreport.analyzer.cluster.RateLimitResult;
+import com.bloodreport.analyzer.cluster.RateLimitStore;
+import com.bloodreport.analyzer.config.RateLimitConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Charges an upload's document cost to the client's upload quota.
+ *
+ * The rate limit interceptor takes one token per upload request. Once the
+ * document has been read, and before any Gemini call, this adds one token per
+ * rate-limit.upload.pages-per-token pages and one per
+ * rate-limit.upload.chars-per-token characters of extracted text, so a
+ * 40-page scan costs several times a one-page report. The extra charge is
+ * capped at the upload capacity minus the base token, so any document that
+ * passes ingestion can be analyzed with a full quota. A client who cannot pay
+ * is refused with 429; uploads answered from the analysis cache are not
+ * charged, as no work is done for them.
+ */
+@Service
+public class DocumentCostCharger {
+
+    private final RateLimitStore rateLimitStore;
+    private final int pagesPerToken;
+    private final int charsPerToken;
+    private final long maxExtraTokens;
+
+    private final AtomicLong charged = new AtomicLong();
+    private final AtomicLong extraTokens = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Autowired
+    public DocumentCostCharger(
+            RateLimitStore rateLimitStore,
+            RateLimitConfig rateLimitConfig,
+            @Value("${rate-limit.upload.pages-per-token:5}") int pagesPerToken,
+            @Value("${rate-limit.upload.chars-per-token:20000}") int charsPerToken) {
+        this.rateLimitStore = rateLimitStore;
+        this.pagesPerToken = Math.max(1, pagesPerToken);
+        this.charsPerToken = Math.max(1, charsPerToken);
+        this.maxExtraTokens = Math.max(0, rateLimitConfig.getCapacity(EndpointClass.UPLOAD) - 1);
+    }
+
+    /**
+     * Tokens charged on top of the base token
+     */
+    long extraTokens(int pageCount, int textChars) {
+        return Math.min(maxExtraTokens, pageCount / pagesPerToken + textChars / charsPerToken);
+    }
+
+    /**
+     * @throws UploadRejectedException If the client's upload quota cannot cover the cost
+     */
+    public void charge(IngestedUpload upload, ExtractedReport report) throws UploadRejectedException {
+        String clientId = upload.getClientId();
+        if (clientId == null || report == null) {
+            return;
+        }
+        String text = report.getText();
+        long tokens = extraTokens(report.getPageCount(), text != null ? text.length() : 0);
+        if (tokens == 0) {
+            return;
+        }
+
+        RateLimitResult result = rateLimitStore.tryConsume(EndpointClass.UPLOAD, clientId, tokens);
+        if (!result.isConsumed()) {
+            rejected.incrementAndGet();
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(result.getNanosToWaitForRefill()));
+            throw new UploadRejectedException(UploadRejectedException.Reason.RATE_LIMITED,
+                    "This report needs " + (tokens + 1) + " upload credits, more than you have left. "
+                            + "Please try again in " + retryAfter + " seconds.",
+                    retryAfter);
+        }
+        charged.incrementAndGet();
+        extraTokens.addAndGet(tokens);
+    }
+
+    /**
+     * Uploads refused because the client could not pay for the document
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("charged", charged.get());
+        stats.put("extraTokens", extraTokens.get());
+        stats.put("rejected", rejected.get());
+        stats.put("pagesPerToken", pagesPerToken);
+        stats.put("charsPerToken", charsPerToken);
+        stats.put("maxExtraTokens", maxExtraTokens);
+        return stats;
+    }
+}
@@ -0,0 +1,60 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.LabTableRow;
+
+import java.util.List;
+
+/**
+ * Text of a report plus the result rows recovered from its table layout
+ */
+public class ExtractedReport {
+
+    private final String text;
+    private final List<LabTableRow> tableRows;
+    private final String templateId;
+    private final int pageCount;
+
+    public ExtractedReport(String text, List<LabTableRow> tableRows) {
+        this(text, tableRows, null, 1);
+    }
+
+    /**
+     * @param templateId Lab template the rows were read with, see {@link LabTemplateRegistry}
+     */
+    public ExtractedReport(String text, List<LabTableRow> tableRows, String templateId) {
+        this(text, tableRows, templateId, 1);
+    }
+
+    public ExtractedReport(String text, List<LabTableRow> tableRows, String templateId, int pageCount) {
+        this.text = text;
+        this.tableRows = List.copyOf(tableRows);
+        this.templateId = templateId;
+        this.pageCount = pageCount;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Rows in page order; empty for images and for PDFs without a result table
+     */
+    public List<LabTableRow> getTableRows() {
+        return tableRows;
+    }
+
+    /**
+     * Id of the matched lab template, or null if the report was extracted as
+     * free text. For template matches the text is only the page header.
+     */
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    /**
+     * Pages in the document; 1 for images
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+}
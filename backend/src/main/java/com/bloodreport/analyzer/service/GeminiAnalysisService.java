@@ -1,106 +1,544 @@
 package com.bloodreport.analyzer.service;
 
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import com.bloodreport.analyzer.config.PooledClientHttpRequestFactory;
+import com.bloodreport.analyzer.metrics.StageTimings;
 import com.bloodreport.analyzer.model.BloodMetric;
+import com.bloodreport.analyzer.model.Demographics;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @Service
 public class GeminiAnalysisService {
 
+    private static final Logger log = LoggerFactory.getLogger(GeminiAnalysisService.class);
+
+    // Pipeline stages timed in the stage timer and reported in Server-Timing, see StageTimings
+    static final String STAGE_INGEST = "ingest";
+    static final String STAGE_EXTRACT = "extract";
+    static final String STAGE_COMPACT = "compact";
+    static final String STAGE_LOCAL_EXTRACTION = "local";
+    static final String STAGE_GEMINI = "gemini";
+    static final String STAGE_PARSE = "parse";
+    static final String STAGE_METRICS = "metrics";
+    static final String STAGE_VALIDATION = "validation";
+
     @Value("${gemini.api.key}")
     private String apiKey;
 
+    @Value("${gemini.api.base-url:https://generativelanguage.googleapis.com/v1}")
+    private String apiBaseUrl;
+
+    // Ask for schema-constrained JSON instead of the sectioned text format
+    @Value("${gemini.structured-output.enabled:false}")
+    private boolean structuredOutput;
+
+    // Payload schema for structured output mode, see StructuredAnalysisParser
+    private static final Map<String, Object> RESPONSE_SCHEMA = Map.of(
+            "type", "OBJECT",
+            "properties", Map.of(
+                    "riskFactors", Map.of("type", "ARRAY", "items", Map.of("type", "STRING")),
+                    "lifestyleAdvice", Map.of("type", "ARRAY", "items", Map.of("type", "STRING")),
+                    "metrics", Map.of("type", "ARRAY", "items", Map.of(
+                            "type", "OBJECT",
+                            "properties", Map.of(
+                                    "test", Map.of("type", "STRING"),
+                                    "value", Map.of("type", "STRING"),
+                                    "unit", Map.of("type", "STRING")),
+                            "required", List.of("test", "value")))),
+            "required", List.of("riskFactors", "lifestyleAdvice", "metrics"),
+            "propertyOrdering", List.of("riskFactors", "lifestyleAdvice", "metrics"));
+
     @Autowired
     private MetricExtractionService metricExtractionService;
 
     @Autowired
     private ValidationService validationService;
 
-    private RestTemplate restTemplate = new RestTemplate();
+    @Autowired
+    private AnalysisCache analysisCache;
+
+    @Autowired
+    private UploadIngestionService uploadIngestionService;
+
+    @Autowired
+    private PdfTextExtractionService pdfTextExtractionService;
+
+    @Autowired
+    private PromptCompactor promptCompactor;
+
+    @Autowired
+    private LocalAnalysisService localAnalysisService;
+
+    @Autowired
+    private NarrativeCache narrativeCache;
+
+    @Autowired
+    private DocumentCostCharger documentCostCharger;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("geminiRestTemplate")
+    private RestTemplate restTemplate;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Bounds outbound Gemini calls explicitly (with virtual threads the servlet
+    // pool size no longer does) and lowers the bound when Gemini slows down
+    private AdaptiveConcurrencyLimiter geminiGate = new AdaptiveConcurrencyLimiter("gemini", 16, 2, 64, 16,
+            Duration.ofSeconds(2), 1.5, GeminiAnalysisService::isOverload);
+
+    @Autowired
+    void configureGeminiLimiter(
+            @Value("${gemini.max-concurrent-calls:16}") int initialLimit,
+            @Value("${gemini.limiter.min-limit:2}") int minLimit,
+            @Value("${gemini.limiter.max-limit:64}") int maxLimit,
+            @Value("${gemini.limiter.queue-size:16}") int queueSize,
+            @Value("${gemini.limiter.max-wait:2s}") Duration maxWait,
+            @Value("${gemini.limiter.latency-tolerance:1.5}") double latencyTolerance) {
+        this.geminiGate = new AdaptiveConcurrencyLimiter("gemini", initialLimit, minLimit, maxLimit, queueSize,
+                maxWait, latencyTolerance, GeminiAnalysisService::isOverload);
+    }
+
+    /**
+     * Failures that mean Gemini is overloaded: timeouts and refused
+     * connections, 429 and 5xx
+     */
+    static boolean isOverload(Throwable e) {
+        if (e instanceof ResourceAccessException) {
+            return true;
+        }
+        if (e instanceof RestClientResponseException response) {
+            int status = response.getStatusCode().value();
+            return status == 429 || status >= 500;
+        }
+        return false;
+    }
+
+    // Fails fast while Gemini keeps failing; the local fallback answers instead when it can
+    private CircuitBreaker geminiBreaker = new CircuitBreaker("gemini", 0.5, 20, 10, Duration.ofSeconds(30), 3,
+            GeminiAnalysisService::isOverload);
+
+    // Retries timeouts, 429 and 5xx within a budget; hedging is off unless configured
+    private RetryingCaller geminiRetries = new RetryingCaller("gemini", 3, Duration.ofMillis(200),
+            Duration.ofSeconds(2), new RetryBudget(0.1, 10), false, 0.95, 20, 32,
+            GeminiAnalysisService::isOverload);
+
+    @Autowired
+    void configureGeminiCircuitBreaker(
+            @Value("${gemini.circuit-breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+            @Value("${gemini.circuit-breaker.window-size:20}") int windowSize,
+            @Value("${gemini.circuit-breaker.minimum-calls:10}") int minimumCalls,
+            @Value("${gemini.circuit-breaker.open-duration:30s}") Duration openDuration,
+            @Value("${gemini.circuit-breaker.half-open-calls:3}") int halfOpenCalls) {
+        this.geminiBreaker = new CircuitBreaker("gemini", failureRateThreshold, windowSize, minimumCalls,
+                openDuration, halfOpenCalls, GeminiAnalysisService::isOverload);
+    }
+
+    @Autowired
+    void configureGeminiRetries(
+            @Value("${gemini.retry.max-attempts:3}") int maxAttempts,
+            @Value("${gemini.retry.base-backoff:200ms}") Duration baseBackoff,
+            @Value("${gemini.retry.max-backoff:2s}") Duration maxBackoff,
+            @Value("${gemini.retry.budget-ratio:0.1}") double budgetRatio,
+            @Value("${gemini.retry.budget-reserve:10}") int budgetReserve,
+            @Value("${gemini.hedge.enabled:false}") boolean hedging,
+            @Value("${gemini.hedge.percentile:0.95}") double hedgePercentile,
+            @Value("${gemini.hedge.min-samples:20}") int hedgeMinSamples,
+            @Value("${gemini.hedge.max-threads:32}") int hedgeMaxThreads) {
+        this.geminiRetries.shutdown();
+        this.geminiRetries = new RetryingCaller("gemini", maxAttempts, baseBackoff, maxBackoff,
+                new RetryBudget(budgetRatio, budgetReserve), hedging, hedgePercentile, hedgeMinSamples,
+                hedgeMaxThreads, GeminiAnalysisService::isOverload);
+    }
+
+    @PreDestroy
+    void shutdownGeminiRetries() {
+        geminiRetries.shutdown();
+    }
+
+    /**
+     * A Gemini request that can be repeated: retried and hedged, through the
+     * circuit breaker and the concurrency limit
+     */
+    private <T> T callGemini(Callable<T> request) throws Exception {
+        return geminiRetries.call(() -> callGeminiOnce(request));
+    }
+
+    /**
+     * A Gemini request that must not be repeated, e.g. because its partial
+     * output has already been relayed
+     */
+    private <T> T callGeminiOnce(Callable<T> request) throws Exception {
+        return geminiBreaker.call(() -> geminiGate.call(request));
+    }
+
+    public Map<String, Object> getResilienceStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("circuitBreaker", geminiBreaker.getStats());
+        stats.put("retries", geminiRetries.getStats());
+        return stats;
+    }
+
+    public Map<String, Object> getConcurrencyStats() {
+        return geminiGate.getStats();
+    }
+
+    /**
+     * Connection pool statistics for the Gemini HTTP client, if it is pooled
+     */
+    public Map<String, Object> getHttpClientStats() {
+        if (restTemplate.getRequestFactory() instanceof PooledClientHttpRequestFactory pooled) {
+            return pooled.getPoolStats();
+        }
+        return Map.of("pooled", false);
+    }
+
     public Map<String, Object> analyzeBloodReport(MultipartFile file) throws Exception {
-        String fileContent = extractFileContent(file);
+        return analyzeBloodReport(file, null);
+    }
+
+    /**
+     * @param clientId Client the document cost is charged to, see {@link DocumentCostCharger}
+     */
+    public Map<String, Object> analyzeBloodReport(MultipartFile file, String clientId) throws Exception {
+        long ingestStart = System.nanoTime();
+        try (IngestedUpload upload = uploadIngestionService.ingest(file)) {
+            StageTimings.record(meterRegistry, STAGE_INGEST, ingestStart);
+            upload.setClientId(clientId);
+            return analyzeBloodReport(upload);
+        }
+    }
+
+    public Map<String, Object> analyzeBloodReport(IngestedUpload upload) throws Exception {
+        // Identical uploads share one analysis (and one Gemini call)
+        Map<String, Object> result = analysisCache.getOrCompute(upload.getContentHash(),
+                () -> runAnalysis(upload, null));
+        evictIfDegraded(upload, result);
+
+        // The cached entry may come from a differently named copy of the same file
+        result.put("fileName", upload.getFileName());
+        result.put("fileSize", upload.getSize());
+        return result;
+    }
+
+    /**
+     * Same as {@link #analyzeBloodReport(IngestedUpload)}, but uses the streaming
+     * Gemini endpoint and forwards risk factors and lifestyle advice to the
+     * listener as soon as they are generated. A cache hit produces no partial
+     * events, only the returned result.
+     */
+    public Map<String, Object> analyzeBloodReportStreaming(IngestedUpload upload, AnalysisStreamListener listener)
+            throws Exception {
+        Map<String, Object> result = analysisCache.getOrCompute(upload.getContentHash(),
+                () -> runAnalysis(upload, listener));
+        evictIfDegraded(upload, result);
+
+        result.put("fileName", upload.getFileName());
+        result.put("fileSize", upload.getSize());
+        return result;
+    }
+
+    private Map<String, Object> runAnalysis(IngestedUpload upload, AnalysisStreamListener listener) throws Exception {
+        long start = System.nanoTime();
+        ExtractedReport report = extractFileContent(upload);
+        StageTimings.record(meterRegistry, STAGE_EXTRACT, start);
+        // Pay for the document before local analysis or Gemini work on it
+        documentCostCharger.charge(upload, report);
+
+        // Known lab layout: the results were read from fixed regions, no regex or Gemini needed
+        if (report != null && report.getTemplateId() != null) {
+            List<BloodMetric> templateMetrics = metricExtractionService.extractMetricsFromTable(
+                    report.getTableRows(), Demographics.detect(report.getText()));
+            if (!templateMetrics.isEmpty()) {
+                Map<String, Object> result = localAnalysisService.analyze(templateMetrics, false, listener);
+                result.put("analysisSource", LocalAnalysisService.SOURCE_TEMPLATE);
+                result.put("labTemplate", report.getTemplateId());
+                return withMetrics(result, templateMetrics, upload);
+            }
+            // None of the template's tests has a reference range; extract the full text instead
+            start = System.nanoTime();
+            report = pdfTextExtractionService.extract(upload, false);
+            StageTimings.record(meterRegistry, STAGE_EXTRACT, start);
+        }
+        String fileContent = report != null ? report.getText() : null;
 
         if (fileContent == null || fileContent.trim().isEmpty()) {
             throw new Exception("Could not extract text from the file. Please ensure it's a valid PDF or image.");
         }
 
-        // Get analysis from Gemini (text + metrics JSON)
-        String rawResponse = getGeminiAnalysis(fileContent);
+        // Only lab-relevant lines go into the prompt; the regex fallback below
+        // still sees the full text
+        start = System.nanoTime();
+        String promptContent = upload.isPdf() ? promptCompactor.compact(fileContent) : fileContent;
+        StageTimings.record(meterRegistry, STAGE_COMPACT, start);
+
+        // Deterministic extraction (text files only): answers standard panels
+        // on its own and backs up Gemini. Table rows carry the lab's printed ranges.
+        start = System.nanoTime();
+        List<BloodMetric> localMetrics = upload.isPdf()
+                ? metricExtractionService.extractMetrics(fileContent, report.getTableRows())
+                : List.of();
+        StageTimings.record(meterRegistry, STAGE_LOCAL_EXTRACTION, start);
+
+        if (localAnalysisService.isSufficient(promptContent, localMetrics)) {
+            return withMetrics(localAnalysisService.analyze(localMetrics, false, listener), localMetrics, upload);
+        }
 
-        // Parse the response to separate text analysis and metrics
-        Map<String, Object> parsedData = parseGeminiResponse(rawResponse);
-        String analysisText = (String) parsedData.get("text");
-        List<Map<String, String>> extractedMetrics = (List<Map<String, String>>) parsedData.get("metrics");
+        // Same findings as an earlier report: reuse its narrative, only the metrics are this report's
+        String signature = narrativeCache.signatureFor(promptContent, localMetrics);
+        NarrativeCache.Narrative narrative = signature != null ? narrativeCache.lookup(signature) : null;
+        if (narrative != null) {
+            Map<String, Object> result = analysisResult(narrative.getRiskFactors(), narrative.getLifestyleAdvice(),
+                    upload.getFileName(), upload.getSize());
+            if (listener != null) {
+                for (String item : (String[]) result.get("riskFactors")) {
+                    listener.onEvent("riskFactor", item);
+                }
+                for (String item : (String[]) result.get("lifestyleAdvice")) {
+                    listener.onEvent("lifestyleAdvice", item);
+                }
+            }
+            result.put("analysisSource", LocalAnalysisService.SOURCE_NARRATIVE_CACHE);
+            return withMetrics(result, localMetrics, upload);
+        }
+
+        // Get analysis from Gemini (text + metrics JSON, or one JSON object in structured mode)
+        String rawResponse = null;
+        StructuredAnalysis structured = null;
+        start = System.nanoTime();
+        try {
+            if (structuredOutput) {
+                structured = listener != null
+                        ? streamStructuredAnalysis(promptContent, listener)
+                        : getStructuredAnalysis(promptContent);
+            } else {
+                rawResponse = listener != null
+                        ? streamGeminiAnalysis(promptContent, listener)
+                        : getGeminiAnalysis(promptContent);
+            }
+        } catch (RestClientException | RejectedExecutionException e) {
+            if (!localAnalysisService.canFallBack(localMetrics)) {
+                throw e;
+            }
+            log.warn("Gemini unavailable, answering from local extraction: {}", e.getMessage());
+            return withMetrics(localAnalysisService.analyze(localMetrics, true, listener), localMetrics, upload);
+        } finally {
+            StageTimings.record(meterRegistry, STAGE_GEMINI, start);
+        }
 
-        // Convert structured metrics to BloodMetric objects
-        List<BloodMetric> metrics = metricExtractionService.extractMetricsFromStructuredData(extractedMetrics);
+        // Parse the response to separate text analysis and metrics
+        String[] riskFactors;
+        String[] lifestyleAdvice;
+        List<Map<String, String>> extractedMetrics;
+        start = System.nanoTime();
+        if (structured != null) {
+            riskFactors = structured.getRiskFactors().toArray(new String[0]);
+            lifestyleAdvice = structured.getLifestyleAdvice().toArray(new String[0]);
+            extractedMetrics = structured.getMetrics();
+        } else {
+            Map<String, Object> parsedData = parseGeminiResponse(rawResponse);
+            String analysisText = (String) parsedData.get("text");
+            riskFactors = parseSection(analysisText, true);
+            lifestyleAdvice = parseSection(analysisText, false);
+            extractedMetrics = (List<Map<String, String>>) parsedData.get("metrics");
+        }
+        StageTimings.record(meterRegistry, STAGE_PARSE, start);
+        Map<String, Object> result = analysisResult(riskFactors, lifestyleAdvice, upload.getFileName(),
+                upload.getSize());
+
+        // Convert structured metrics to BloodMetric objects, with ranges for the
+        // patient's sex and age when the report text states them
+        start = System.nanoTime();
+        Demographics demographics = upload.isPdf() ? Demographics.detect(fileContent) : Demographics.UNKNOWN;
+        List<BloodMetric> metrics = metricExtractionService.extractMetricsFromStructuredData(extractedMetrics,
+                demographics);
+        StageTimings.record(meterRegistry, STAGE_METRICS, start);
+
+        // Shared only if Gemini read the same findings the signature was formed from
+        if (structured == null || structured.isComplete()) {
+            narrativeCache.store(signature, metrics, riskFactors, lifestyleAdvice);
+        }
 
         // If AI extraction failed or returned nothing, fall back to regex (only for
         // text files)
-        if (metrics.isEmpty() && file.getContentType() != null && file.getContentType().equals("application/pdf")) {
-            metrics = metricExtractionService.extractMetrics(fileContent);
+        if (metrics.isEmpty() && upload.isPdf()) {
+            metrics = localMetrics;
         }
 
+        result.put("analysisSource", LocalAnalysisService.SOURCE_GEMINI);
+        return withMetrics(result, metrics, upload);
+    }
+
+    private Map<String, Object> withMetrics(Map<String, Object> result, List<BloodMetric> metrics,
+            IngestedUpload upload) {
         // Validate the metrics
+        long start = System.nanoTime();
         List<String> validationWarnings = validationService.validateMetrics(metrics);
 
-        Map<String, Object> result = parseAnalysisResponse(analysisText, file.getOriginalFilename(), file.getSize());
-
         // Add metrics and validation to the response
+        result.put("fileName", upload.getFileName());
+        result.put("fileSize", upload.getSize());
         result.put("metrics", metrics);
         result.put("validationWarnings", validationWarnings);
         result.put("hasOutOfRangeValues", validationService.hasAnyOutOfRangeValues(metrics));
         result.put("criticalCount", validationService.getCriticalCount(metrics));
+        StageTimings.record(meterRegistry, STAGE_VALIDATION, start);
 
         return result;
     }
 
-    private String extractFileContent(MultipartFile file) throws IOException {
-        String contentType = file.getContentType();
+    /**
+     * Fallback answers are not kept in the cache, so the next upload of the same
+     * report gets a full analysis once Gemini is back
+     */
+    private void evictIfDegraded(IngestedUpload upload, Map<String, Object> result) {
+        if (LocalAnalysisService.SOURCE_LOCAL_FALLBACK.equals(result.get("analysisSource"))) {
+            analysisCache.invalidate(upload.getContentHash());
+        }
+    }
 
-        if (contentType != null && contentType.equals("application/pdf")) {
-            return extractPdfContent(file);
-        } else if (contentType != null && contentType.startsWith("image/")) {
+    private ExtractedReport extractFileContent(IngestedUpload upload) throws IOException, UploadRejectedException {
+        // Routing uses the sniffed type, not the client-supplied Content-Type
+        if (upload.isPdf()) {
+            return pdfTextExtractionService.extract(upload);
+        } else if (upload.isImage()) {
             // For images, we'll just indicate it's an image
             // In production, you'd use OCR (like Tesseract) to extract text
-            return "This is a blood report image. Analysis based on visual content.";
+            return new ExtractedReport("This is a blood report image. Analysis based on visual content.", List.of());
         }
 
         return null;
     }
 
-    private String extractPdfContent(MultipartFile file) throws IOException {
-        try (PDDocument document = PDDocument.load(file.getInputStream())) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document);
-        }
+    private String getGeminiAnalysis(String reportContent) throws Exception {
+        String url = apiBaseUrl + "/models/gemini-2.5-flash:generateContent?key=" + apiKey;
+
+        Map<String, Object> requestBody = buildRequestBody(reportContent, false);
+
+        // Set headers
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
+
+        // Make API call
+        String response = callGemini(() -> restTemplate.postForObject(url, request, String.class));
+
+        // Only the candidate text is needed; walk the envelope without building a tree
+        StringBuilder text = new StringBuilder();
+        StructuredAnalysisParser.readCandidateText(response, text::append);
+        return text.toString();
     }
 
-    private String getGeminiAnalysis(String reportContent) throws Exception {
-        String url = "https://generativelanguage.googleapis.com/v1/models/gemini-2.5-flash:generateContent?key="
-                + apiKey;
+    /**
+     * Structured output mode: the envelope is read from the response stream and
+     * the payload parsed token by token into a {@link StructuredAnalysis}
+     */
+    private StructuredAnalysis getStructuredAnalysis(String reportContent) throws Exception {
+        String url = apiBaseUrl + "/models/gemini-2.5-flash:generateContent?key=" + apiKey;
+
+        // A fresh parser per response: attempts may be retried or run side by side
+        ResponseExtractor<StructuredAnalysis> responseExtractor = response -> {
+            StructuredAnalysisParser parser = new StructuredAnalysisParser(AnalysisStreamListener.NONE);
+            try (JsonParser envelope = StructuredAnalysisParser.factory().createParser(response.getBody())) {
+                StructuredAnalysisParser.readCandidateText(envelope, parser::feed);
+            }
+            return parser.finish();
+        };
+
+        return callGemini(() -> restTemplate.execute(url, HttpMethod.POST,
+                jsonRequest(buildRequestBody(reportContent, true)), responseExtractor));
+    }
+
+    /**
+     * Calls :streamGenerateContent with alt=sse and feeds each chunk's text to
+     * the stream parser as it arrives. Returns the concatenated response text.
+     */
+    private String streamGeminiAnalysis(String reportContent, AnalysisStreamListener listener) throws Exception {
+        GeminiStreamParser parser = new GeminiStreamParser(listener);
+        return streamGemini(buildRequestBody(reportContent, false), parser::feed, parser::finish);
+    }
+
+    /**
+     * Structured output over :streamGenerateContent; list items reach the
+     * listener as soon as each JSON string is complete
+     */
+    private StructuredAnalysis streamStructuredAnalysis(String reportContent, AnalysisStreamListener listener)
+            throws Exception {
+        StructuredAnalysisParser parser = new StructuredAnalysisParser(listener);
+        return streamGemini(buildRequestBody(reportContent, true), parser::feed, parser::finish);
+    }
+
+    private <T> T streamGemini(Map<String, Object> requestBody, Consumer<String> text, Supplier<T> finish)
+            throws Exception {
+        String url = apiBaseUrl + "/models/gemini-2.5-flash:streamGenerateContent?alt=sse&key=" + apiKey;
+
+        ResponseExtractor<T> responseExtractor = response -> {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(response.getBody(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                StructuredAnalysisParser.readCandidateText(line.substring(5).trim(), text);
+            }
+            return finish.get();
+        };
+
+        // Not retried: chunks already reached the listener
+        return callGeminiOnce(() -> restTemplate.execute(url, HttpMethod.POST, jsonRequest(requestBody),
+                responseExtractor));
+    }
+
+    private RequestCallback jsonRequest(Map<String, Object> requestBody) {
+        return request -> {
+            request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            objectMapper.writeValue(request.getBody(), requestBody);
+        };
+    }
 
+    private Map<String, Object> buildRequestBody(String reportContent, boolean structured) {
+        if (structured) {
+            return structuredRequestBody(reportContent);
+        }
         String prompt = String.format(
                 """
                         You are a friendly health educator who explains medical information to 10-year-olds.
@@ -137,7 +575,6 @@ public class GeminiAnalysisService {
                         """,
                 reportContent);
 
-        // Build request body
         Map<String, Object> requestBody = new HashMap<>();
         Map<String, Object> part = new HashMap<>();
         part.put("text", prompt);
@@ -147,57 +584,69 @@ public class GeminiAnalysisService {
 
         requestBody.put("contents", List.of(content));
 
-        // Set headers
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+        return requestBody;
+    }
 
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
+    /**
+     * Same analysis as the text prompt, returned as JSON that follows
+     * RESPONSE_SCHEMA, so no format instructions are needed in the prompt
+     */
+    private Map<String, Object> structuredRequestBody(String reportContent) {
+        String prompt = String.format(
+                """
+                        You are a friendly health educator who explains medical information to 10-year-olds.
 
-        // Make API call
-        String response = restTemplate.postForObject(url, request, String.class);
+                        Analyze this blood report and provide:
+                        - riskFactors (3-5 items): concerning values or potential health risks, each a simple, clear statement.
+                        - lifestyleAdvice (5-7 items): actionable, child-friendly advice to improve health.
+                        - metrics: every numeric test result, with the test name, the value as printed and its unit.
 
-        // Parse response
-        JsonNode jsonResponse = objectMapper.readTree(response);
-        String text = jsonResponse
-                .path("candidates").get(0)
-                .path("content")
-                .path("parts").get(0)
-                .path("text").asText();
+                        Use simple words a 10-year-old would understand. Be encouraging and positive!
 
-        return text;
-    }
+                        Blood Report Content:
+                        %s
+                        """,
+                reportContent);
 
-    private Map<String, Object> parseAnalysisResponse(String analysis, String fileName, long fileSize) {
-        Map<String, Object> result = new HashMap<>();
-        result.put("fileName", fileName);
-        result.put("fileSize", fileSize);
+        Map<String, Object> part = new HashMap<>();
+        part.put("text", prompt);
 
-        String[] sections = analysis.split("LIFESTYLE ADVICE:");
+        Map<String, Object> content = new HashMap<>();
+        content.put("parts", List.of(part));
 
-        // Parse risk factors
-        String[] riskFactors = new String[0];
-        if (sections.length > 0) {
-            String riskSection = sections[0].replace("RISK FACTORS:", "").trim();
-            riskFactors = Arrays.stream(riskSection.split("\n"))
-                    .map(String::trim)
-                    .filter(line -> line.startsWith("-") || line.startsWith("•"))
-                    .map(line -> line.replaceFirst("^[-•]\\s*", ""))
-                    .filter(line -> !line.isEmpty())
-                    .toArray(String[]::new);
-        }
-
-        // Parse lifestyle advice
-        String[] lifestyleAdvice = new String[0];
-        if (sections.length > 1) {
-            String adviceSection = sections[1].trim();
-            lifestyleAdvice = Arrays.stream(adviceSection.split("\n"))
-                    .map(String::trim)
-                    .filter(line -> line.startsWith("-") || line.startsWith("•"))
-                    .map(line -> line.replaceFirst("^[-•]\\s*", ""))
-                    .filter(line -> !line.isEmpty())
-                    .toArray(String[]::new);
+        Map<String, Object> generationConfig = new HashMap<>();
+        generationConfig.put("responseMimeType", "application/json");
+        generationConfig.put("responseSchema", RESPONSE_SCHEMA);
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("contents", List.of(content));
+        requestBody.put("generationConfig", generationConfig);
+        return requestBody;
+    }
+
+    /**
+     * Bullet items of the RISK FACTORS or the LIFESTYLE ADVICE section of a
+     * text mode response
+     */
+    private String[] parseSection(String analysis, boolean riskFactors) {
+        String[] sections = analysis.split("LIFESTYLE ADVICE:");
+        if (!riskFactors && sections.length < 2) {
+            return new String[0];
         }
+        String section = riskFactors ? sections[0].replace("RISK FACTORS:", "").trim() : sections[1].trim();
+        return Arrays.stream(section.split("\n"))
+                .map(String::trim)
+                .filter(line -> line.startsWith("-") || line.startsWith("•"))
+                .map(line -> line.replaceFirst("^[-•]\\s*", ""))
+                .filter(line -> !line.isEmpty())
+                .toArray(String[]::new);
+    }
 
+    private Map<String, Object> analysisResult(String[] riskFactors, String[] lifestyleAdvice, String fileName,
+            long fileSize) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("fileName", fileName);
+        result.put("fileSize", fileSize);
         result.put("riskFactors", riskFactors.length > 0 ? riskFactors
                 : new String[] { "Your blood report looks good! Keep up the healthy habits." });
         result.put("lifestyleAdvice", lifestyleAdvice.length > 0 ? lifestyleAdvice
@@ -0,0 +1,95 @@
+package com.bloodreport.analyzer.service;
+
+/**
+ * Incremental parser for the text streamed back by :streamGenerateContent.
+ *
+ * Chunks arrive split at arbitrary points, so partial lines are buffered until
+ * their newline shows up. Complete bullet lines in the RISK FACTORS and
+ * LIFESTYLE ADVICE sections are forwarded to the listener immediately; the
+ * metrics JSON block is only collected and is parsed once the stream ends.
+ */
+public class GeminiStreamParser {
+
+    private enum Section {
+        PREAMBLE, RISK_FACTORS, LIFESTYLE_ADVICE, METRICS_JSON, DONE
+    }
+
+    private final AnalysisStreamListener listener;
+    private final StringBuilder fullText = new StringBuilder();
+    private final StringBuilder pendingLine = new StringBuilder();
+    private Section section = Section.PREAMBLE;
+
+    public GeminiStreamParser(AnalysisStreamListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds the next chunk of model output
+     */
+    public void feed(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        fullText.append(chunk);
+
+        int start = 0;
+        for (int i = 0; i < chunk.length(); i++) {
+            if (chunk.charAt(i) == '\n') {
+                pendingLine.append(chunk, start, i);
+                handleLine(pendingLine.toString());
+                pendingLine.setLength(0);
+                start = i + 1;
+            }
+        }
+        pendingLine.append(chunk, start, chunk.length());
+    }
+
+    /**
+     * Flushes the last line and returns the full response text
+     */
+    public String finish() {
+        if (pendingLine.length() > 0) {
+            handleLine(pendingLine.toString());
+            pendingLine.setLength(0);
+        }
+        return fullText.toString();
+    }
+
+    private void handleLine(String rawLine) {
+        String line = rawLine.trim();
+
+        if (line.contains("###JSON_START###")) {
+            section = Section.METRICS_JSON;
+            return;
+        }
+        if (line.contains("###JSON_END###")) {
+            section = Section.DONE;
+            return;
+        }
+        if (section == Section.METRICS_JSON || section == Section.DONE) {
+            return;
+        }
+        if (line.startsWith("RISK FACTORS:")) {
+            section = Section.RISK_FACTORS;
+            return;
+        }
+        if (line.startsWith("LIFESTYLE ADVICE:")) {
+            section = Section.LIFESTYLE_ADVICE;
+            return;
+        }
+
+        if (!line.startsWith("-") && !line.startsWith("•")) {
+            return;
+        }
+        String item = line.replaceFirst("^[-•]\\s*", "");
+        if (item.isEmpty()) {
+            return;
+        }
+
+        if (section == Section.RISK_FACTORS) {
+            listener.onEvent("riskFactor", item);
+        } else if (section == Section.LIFESTYLE_ADVICE) {
+            listener.onEvent("lifestyleAdvice", item);
+        }
+    }
+}
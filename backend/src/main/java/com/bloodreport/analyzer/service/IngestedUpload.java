@@ -0,0 +1,118 @@
+package com.bloodreport.analyzer.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An upload that has been read exactly once by {@link UploadIngestionService}.
+ *
+ * Small files are held in memory; larger ones are spooled to a temp file that
+ * PDFBox can read directly. The content type is the one sniffed from the
+ * bytes, never the one the client sent. Close it to delete the spool file.
+ */
+public class IngestedUpload implements AutoCloseable {
+
+    public static final String PDF = "application/pdf";
+    public static final String PNG = "image/png";
+    public static final String JPEG = "image/jpeg";
+
+    private final String fileName;
+    private final String contentType;
+    private final String contentHash;
+    private final long size;
+    private final byte[] content;
+    private final Path spoolFile;
+    private volatile String clientId;
+    private volatile UploadManager.Lane lane = UploadManager.Lane.STANDARD;
+
+    IngestedUpload(String fileName, String contentType, String contentHash, long size, byte[] content,
+            Path spoolFile) {
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.contentHash = contentHash;
+        this.size = size;
+        this.content = content;
+        this.spoolFile = spoolFile;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Hex SHA-256 of the content, computed while it was read
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Client the analysis of this upload is charged to, or null if none
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    /**
+     * Upload queue lane the analysis of this upload waits in
+     */
+    public UploadManager.Lane getLane() {
+        return lane;
+    }
+
+    public void setLane(UploadManager.Lane lane) {
+        this.lane = lane;
+    }
+
+    public boolean isPdf() {
+        return PDF.equals(contentType);
+    }
+
+    public boolean isImage() {
+        return contentType.startsWith("image/");
+    }
+
+    /**
+     * In-memory content, or null if the upload was spooled to disk
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Spool file, or null if the upload is held in memory
+     */
+    public Path getSpoolFile() {
+        return spoolFile;
+    }
+
+    public InputStream openStream() throws IOException {
+        return content != null ? new ByteArrayInputStream(content) : Files.newInputStream(spoolFile);
+    }
+
+    @Override
+    public void close() {
+        if (spoolFile != null) {
+            try {
+                Files.deleteIfExists(spoolFile);
+            } catch (IOException e) {
+                spoolFile.toFile().deleteOnExit();
+            }
+        }
+    }
+}
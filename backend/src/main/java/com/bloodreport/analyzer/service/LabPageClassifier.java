@@ -0,0 +1,107 @@
+package com.bloodreport.analyzer.service;
+
+/**
+ * Cheap heuristic that decides whether a page's text contains lab result rows.
+ *
+ * A row is a line with a word of at least three letters followed by a
+ * standalone number, e.g. "Glucose 95 mg/dL". Numbers that are part of dates,
+ * times, phone numbers or page footers ("12/03/2024", "10:30", "555-1234",
+ * "Page 2 of 5") do not count,
+ * which is what filters out cover sheets, disclaimers and signature pages.
+ */
+public final class LabPageClassifier {
+
+    private LabPageClassifier() {
+    }
+
+    public static boolean isLabPage(CharSequence pageText) {
+        int length = pageText.length();
+        int lineStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || pageText.charAt(i) == '\n') {
+                if (isLabRow(pageText, lineStart, i)) {
+                    return true;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    static boolean isLabRow(CharSequence text, int start, int end) {
+        int wordStart = -1;
+        boolean sawWord = false;
+        boolean pageLabel = false;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                if (wordStart < 0) {
+                    wordStart = i;
+                }
+                i++;
+                continue;
+            }
+            if (wordStart >= 0) {
+                if (i - wordStart >= 3) {
+                    sawWord = true;
+                    // "Page 2 of 5" footers are not results
+                    pageLabel = isWord(text, wordStart, i, "page");
+                }
+                wordStart = -1;
+            }
+
+            if (Character.isDigit(c) && sawWord && (i == start || !Character.isLetterOrDigit(text.charAt(i - 1)))) {
+                if (!pageLabel && scanNumber(text, i, end) > 0) {
+                    return true;
+                }
+                // Skip the rest of the rejected token
+                while (i < end && !Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                continue;
+            }
+            i++;
+        }
+        return false;
+    }
+
+    private static boolean isWord(CharSequence text, int from, int to, String lowerCaseWord) {
+        if (to - from != lowerCaseWord.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (Character.toLowerCase(text.charAt(i)) != lowerCaseWord.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the end of a plain decimal starting at from, or -1 if the token is
+     * a date, time, phone number or similar
+     */
+    private static int scanNumber(CharSequence text, int from, int end) {
+        int i = from;
+        boolean seenDot = false;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (Character.isDigit(c)) {
+                i++;
+            } else if (c == '.' && !seenDot && i + 1 < end && Character.isDigit(text.charAt(i + 1))) {
+                seenDot = true;
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (i < end) {
+            char next = text.charAt(i);
+            if (next == '/' || next == ':' || next == '-' || (next == '.' && !seenDot)) {
+                return -1;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,347 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.LabTableRow;
+import com.bloodreport.analyzer.model.TestNameIndex;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Text stripper that also rebuilds lab result tables from glyph positions.
+ *
+ * Plain text extraction flattens a table row into "Hemoglobin 11.2 L 12.0 - 16.0
+ * g/dL" at best, and into separate lines at worst, so a regex cannot tell the
+ * result from the printed range. Here the glyphs of each page are grouped into
+ * lines by their baseline, and each line is split into cells wherever the gap
+ * between glyphs is wider than a few spaces. Lines with a known test name in the
+ * first cell and a numeric cell become {@link LabTableRow}s:
+ *
+ * - a cell that is a range ("12.0 - 16.0", "< 200", "> 40") is the reference range
+ * - a cell that is a number, optionally followed by a unit or flag, is the result
+ * - H/L/High/Low/* cells are flags and are ignored
+ * - any other short cell is the unit
+ *
+ * When a header row ("Test | Result | Units | Reference Range") has been seen,
+ * the result and range cells closest to those headings win, which handles
+ * tables with a "previous result" column. The regular text output is unchanged.
+ */
+class LabTableStripper extends PDFTextStripper {
+
+    // A gap of this many space widths separates two cells
+    private static final float CELL_GAP_SPACES = 2.0f;
+    // Glyphs whose baselines differ by less than this fraction of the glyph height share a line
+    private static final float LINE_TOLERANCE = 0.5f;
+    private static final int MAX_UNIT_CHARS = 16;
+
+    private static final String NUMBER = "(\\d+(?:\\.\\d+)?)";
+    private static final Pattern RANGE = Pattern.compile(
+            "^" + NUMBER + "\\s*(?:-|–|to)\\s*" + NUMBER + "\\s*(\\S.*)?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UPPER_BOUND = Pattern.compile(
+            "^(?:<|<=|≤|up to|upto)\\s*" + NUMBER + "\\s*(\\S.*)?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LOWER_BOUND = Pattern.compile(
+            "^(?:>|>=|≥)\\s*" + NUMBER + "\\s*(\\S.*)?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern RESULT = Pattern.compile("^" + NUMBER + "(?:\\s+(\\S.*))?$");
+    private static final Pattern FLAG = Pattern.compile("^(?:h|l|hi|lo|high|low|a|abnormal|\\*+|↑|↓)$",
+            Pattern.CASE_INSENSITIVE);
+
+    private final List<LabTableRow> rows = new ArrayList<>();
+    private Header header;
+
+    LabTableStripper() throws IOException {
+        setSortByPosition(true);
+    }
+
+    /**
+     * Rows found since the last call
+     */
+    List<LabTableRow> takeRows() {
+        List<LabTableRow> found = new ArrayList<>(rows);
+        rows.clear();
+        return found;
+    }
+
+    @Override
+    protected void endPage(PDPage page) throws IOException {
+        List<TextPosition> glyphs = new ArrayList<>();
+        for (List<TextPosition> article : getCharactersByArticle()) {
+            glyphs.addAll(article);
+        }
+        for (List<Cell> line : cells(glyphs)) {
+            parseLine(line);
+        }
+        super.endPage(page);
+    }
+
+    /**
+     * Groups glyphs into lines by baseline and each line into cells by horizontal gaps
+     */
+    static List<List<Cell>> cells(List<TextPosition> glyphs) {
+        List<TextPosition> sorted = new ArrayList<>(glyphs.size());
+        for (TextPosition glyph : glyphs) {
+            if (!glyph.getUnicode().isBlank()) {
+                sorted.add(glyph);
+            }
+        }
+        sorted.sort(Comparator.comparingDouble(TextPosition::getYDirAdj));
+
+        List<List<Cell>> lines = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 1; i <= sorted.size(); i++) {
+            if (i == sorted.size() || !sameLine(sorted.get(lineStart), sorted.get(i))) {
+                List<TextPosition> line = new ArrayList<>(sorted.subList(lineStart, i));
+                line.sort(Comparator.comparingDouble(TextPosition::getXDirAdj));
+                lines.add(splitCells(line));
+                lineStart = i;
+            }
+        }
+        return lines;
+    }
+
+    private static boolean sameLine(TextPosition first, TextPosition glyph) {
+        float height = Math.max(first.getHeightDir(), glyph.getHeightDir());
+        return Math.abs(glyph.getYDirAdj() - first.getYDirAdj()) <= height * LINE_TOLERANCE;
+    }
+
+    private static List<Cell> splitCells(List<TextPosition> line) {
+        List<Cell> cells = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        float cellStart = 0;
+        float previousEnd = 0;
+        for (TextPosition glyph : line) {
+            float x = glyph.getXDirAdj();
+            if (text.length() > 0) {
+                float space = spaceWidth(glyph);
+                float gap = x - previousEnd;
+                if (gap > space * CELL_GAP_SPACES) {
+                    cells.add(new Cell(text.toString(), cellStart, previousEnd));
+                    text.setLength(0);
+                } else if (gap > space * 0.3f) {
+                    text.append(' ');
+                }
+            }
+            if (text.length() == 0) {
+                cellStart = x;
+            }
+            text.append(glyph.getUnicode());
+            previousEnd = Math.max(previousEnd, x + glyph.getWidthDirAdj());
+        }
+        if (text.length() > 0) {
+            cells.add(new Cell(text.toString(), cellStart, previousEnd));
+        }
+        return cells;
+    }
+
+    private static float spaceWidth(TextPosition glyph) {
+        float space = glyph.getWidthOfSpace();
+        if (Float.isNaN(space) || space <= 0) {
+            space = glyph.getWidthDirAdj();
+        }
+        // Some fonts report a near-zero space width
+        return Math.max(space, glyph.getHeightDir() * 0.2f);
+    }
+
+    void parseLine(List<Cell> line) {
+        if (line.size() < 2) {
+            return;
+        }
+        Header lineHeader = Header.of(line);
+        if (lineHeader != null) {
+            header = lineHeader;
+            return;
+        }
+        LabTableRow row = parseRow(line, header);
+        if (row != null) {
+            rows.add(row);
+        }
+    }
+
+    /**
+     * @param header Column positions from the last header row, or null
+     * @return The row, or null if the first cell is not a known test or there is no result
+     */
+    static LabTableRow parseRow(List<Cell> line, Header header) {
+        String name = line.get(0).text.strip();
+        String testKey = testKey(name);
+        if (testKey == null) {
+            return null;
+        }
+
+        Cell resultCell = null;
+        Matcher result = null;
+        Cell rangeCell = null;
+        Double[] range = null;
+        String unit = null;
+        for (Cell cell : line.subList(1, line.size())) {
+            String text = cell.text.strip();
+            Double[] bounds = parseRange(text);
+            if (bounds != null) {
+                if (rangeCell == null || (header != null && header.closerToRange(cell, rangeCell))) {
+                    rangeCell = cell;
+                    range = bounds;
+                }
+                continue;
+            }
+            Matcher matcher = RESULT.matcher(text);
+            if (matcher.matches()) {
+                if (resultCell == null || (header != null && header.closerToResult(cell, resultCell))) {
+                    resultCell = cell;
+                    result = matcher;
+                }
+                continue;
+            }
+            if (!FLAG.matcher(text).matches() && unit == null && isUnit(text)) {
+                unit = text;
+            }
+        }
+        if (result == null) {
+            return null;
+        }
+
+        // "11.2 g/dL" or "11.2 H" in one cell; a unit printed after the range
+        String trailing = result.group(2);
+        if (unit == null && trailing != null && !FLAG.matcher(trailing).matches() && isUnit(trailing)) {
+            unit = trailing;
+        }
+        if (unit == null && rangeCell != null) {
+            unit = rangeUnit(rangeCell.text.strip());
+        }
+
+        return new LabTableRow(name, testKey, Double.parseDouble(result.group(1)), unit,
+                range != null ? range[0] : null, range != null ? range[1] : null);
+    }
+
+    /**
+     * Resolves "Haemoglobin", "Hemoglobin (HGB)" and "Glucose, Fasting" style names
+     */
+    private static String testKey(String name) {
+        String testKey = TestNameIndex.canonical(name);
+        if (testKey != null) {
+            return testKey;
+        }
+        int open = name.indexOf('(');
+        if (open > 0) {
+            testKey = TestNameIndex.canonical(name, 0, open);
+            int close = name.indexOf(')', open);
+            if (testKey == null && close > open) {
+                testKey = TestNameIndex.canonical(name, open + 1, close);
+            }
+            return testKey;
+        }
+        int comma = name.indexOf(',');
+        return comma > 0 ? TestNameIndex.canonical(name, 0, comma) : null;
+    }
+
+    /**
+     * @return {min, max} with null for an open end, or null if the text is not a range
+     */
+    static Double[] parseRange(String text) {
+        Matcher matcher = RANGE.matcher(text);
+        if (matcher.matches()) {
+            double min = Double.parseDouble(matcher.group(1));
+            double max = Double.parseDouble(matcher.group(2));
+            return min <= max ? new Double[] { min, max } : null;
+        }
+        matcher = UPPER_BOUND.matcher(text);
+        if (matcher.matches()) {
+            return new Double[] { 0.0, Double.parseDouble(matcher.group(1)) };
+        }
+        matcher = LOWER_BOUND.matcher(text);
+        if (matcher.matches()) {
+            return new Double[] { Double.parseDouble(matcher.group(1)), null };
+        }
+        return null;
+    }
+
+    private static String rangeUnit(String text) {
+        for (Pattern pattern : new Pattern[] { RANGE, UPPER_BOUND, LOWER_BOUND }) {
+            Matcher matcher = pattern.matcher(text);
+            if (matcher.matches()) {
+                String unit = matcher.group(matcher.groupCount());
+                return unit != null && isUnit(unit) ? unit : null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isUnit(String text) {
+        if (text.isEmpty() || text.length() > MAX_UNIT_CHARS) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c) || c == '%' || c == '/') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class Cell {
+        final String text;
+        final float start;
+        final float end;
+
+        Cell(String text, float start, float end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        float center() {
+            return (start + end) / 2;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Horizontal centers of the result and reference range headings
+     */
+    static class Header {
+        private final float result;
+        private final float range;
+
+        private Header(float result, float range) {
+            this.result = result;
+            this.range = range;
+        }
+
+        /**
+         * @return The column positions if the line has both a result and a range heading
+         */
+        static Header of(List<Cell> line) {
+            Float result = null;
+            Float range = null;
+            for (Cell cell : line) {
+                String text = cell.text.strip().toLowerCase(Locale.ROOT);
+                if (result == null && (text.equals("result") || text.equals("results") || text.equals("value")
+                        || text.startsWith("observed"))) {
+                    result = cell.center();
+                } else if (range == null && (text.contains("reference") || text.contains("range")
+                        || text.contains("interval") || text.startsWith("normal"))) {
+                    range = cell.center();
+                }
+            }
+            return result != null && range != null ? new Header(result, range) : null;
+        }
+
+        boolean closerToResult(Cell candidate, Cell current) {
+            return Math.abs(candidate.center() - result) < Math.abs(current.center() - result);
+        }
+
+        boolean closerToRange(Cell candidate, Cell current) {
+            return Math.abs(candidate.center() - range) < Math.abs(current.center() - range);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.LabTableRow;
+import com.bloodreport.analyzer.model.TestNameIndex;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A known report layout and the page regions its results are printed in.
+ *
+ * Definitions are JSON objects (see {@link LabTemplateRegistry}):
+ *
+ * <pre>
+ * {
+ *   "id": "example-lab-cbc-v2",
+ *   "producer": "Example LIS",
+ *   "header": "EXAMPLE DIAGNOSTICS",
+ *   "pageSize": [612, 792],
+ *   "fields": [
+ *     { "test": "Hemoglobin", "value": [300, 210, 60, 14], "unit": "g/dL", "range": [380, 210, 100, 14] }
+ *   ]
+ * }
+ * </pre>
+ *
+ * Regions are [x, y, width, height] in points from the top left corner of the
+ * page; "page" (1-based, default 1) selects the page of a field. "producer"
+ * and "pageSize" are optional; "header" must appear in the top part of the
+ * first page. A field's unit is either fixed ("unit") or read from a region
+ * ("unitRegion"), and the printed reference range is read from "range" if
+ * given.
+ */
+final class LabTemplate {
+
+    // Page sizes within this many points are treated as equal
+    private static final float SIZE_TOLERANCE = 2f;
+    private static final Pattern NUMBER = Pattern.compile("(\\d+(?:\\.\\d+)?)");
+
+    private final String id;
+    private final String producer;
+    private final String header;
+    private final float pageWidth;
+    private final float pageHeight;
+    private final List<Field> fields;
+
+    private LabTemplate(String id, String producer, String header, float pageWidth, float pageHeight,
+            List<Field> fields) {
+        this.id = id;
+        this.producer = producer;
+        this.header = header;
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.fields = fields;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the definition is incomplete or names an unknown test
+     */
+    static LabTemplate compile(JsonNode definition) {
+        String id = text(definition, "id");
+        if (id == null || text(definition, "header") == null) {
+            throw new IllegalArgumentException("Template needs an id and a header: " + definition);
+        }
+        JsonNode size = definition.path("pageSize");
+        float width = size.isArray() ? (float) size.path(0).asDouble() : 0;
+        float height = size.isArray() ? (float) size.path(1).asDouble() : 0;
+
+        List<Field> fields = new ArrayList<>();
+        for (JsonNode field : definition.path("fields")) {
+            String name = text(field, "test");
+            String testKey = name != null ? TestNameIndex.canonical(name) : null;
+            if (testKey == null) {
+                throw new IllegalArgumentException("Template " + id + ": unknown test '" + name + "'");
+            }
+            fields.add(new Field(name, testKey, field.path("page").asInt(1) - 1,
+                    rectangle(id, field, "value"), text(field, "unit"), rectangle(id, field, "unitRegion"),
+                    rectangle(id, field, "range")));
+        }
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("Template " + id + " has no fields");
+        }
+        return new LabTemplate(id, text(definition, "producer"), text(definition, "header"), width, height,
+                List.copyOf(fields));
+    }
+
+    String getId() {
+        return id;
+    }
+
+    List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Page size bucket for the registry index, or null if the template fits any size
+     */
+    String sizeKey() {
+        return pageWidth > 0 && pageHeight > 0 ? sizeKey(sizeBucket(pageWidth), sizeBucket(pageHeight)) : null;
+    }
+
+    /**
+     * Index buckets that can hold a template within the size tolerance of the
+     * page. Buckets are twice the tolerance wide, so that is at most two per
+     * side.
+     */
+    static List<String> candidateSizeKeys(float width, float height) {
+        List<String> keys = new ArrayList<>(4);
+        for (int w = sizeBucket(width - SIZE_TOLERANCE); w <= sizeBucket(width + SIZE_TOLERANCE); w++) {
+            for (int h = sizeBucket(height - SIZE_TOLERANCE); h <= sizeBucket(height + SIZE_TOLERANCE); h++) {
+                keys.add(sizeKey(w, h));
+            }
+        }
+        return keys;
+    }
+
+    private static int sizeBucket(float size) {
+        return (int) Math.floor(size / (2 * SIZE_TOLERANCE));
+    }
+
+    private static String sizeKey(int widthBucket, int heightBucket) {
+        return widthBucket + "x" + heightBucket;
+    }
+
+    /**
+     * Checks that need no text extraction
+     */
+    boolean matchesDocument(String documentProducer, float width, float height) {
+        if (pageWidth > 0 && (Math.abs(width - pageWidth) > SIZE_TOLERANCE
+                || Math.abs(height - pageHeight) > SIZE_TOLERANCE)) {
+            return false;
+        }
+        return producer == null || (documentProducer != null
+                && documentProducer.toLowerCase(Locale.ROOT).contains(producer.toLowerCase(Locale.ROOT)));
+    }
+
+    boolean matchesHeader(String headerText) {
+        return headerText.toLowerCase(Locale.ROOT).contains(header.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param regionText Text of each field's regions, keyed by {@link #regionName}
+     * @return One row per field whose value region holds a number
+     */
+    List<LabTableRow> rows(Map<String, String> regionText) {
+        List<LabTableRow> rows = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            String valueText = regionText.get(regionName(i, "value"));
+            Matcher value = valueText != null ? NUMBER.matcher(valueText) : null;
+            if (value == null || !value.find()) {
+                continue;
+            }
+            String unit = field.unit;
+            if (field.unitRegion != null) {
+                String printed = regionText.getOrDefault(regionName(i, "unit"), "").strip();
+                unit = printed.isEmpty() ? unit : printed;
+            }
+            Double[] range = field.range != null
+                    ? LabTableStripper.parseRange(regionText.getOrDefault(regionName(i, "range"), "").strip())
+                    : null;
+            rows.add(new LabTableRow(field.name, field.testKey, Double.parseDouble(value.group(1)), unit,
+                    range != null ? range[0] : null, range != null ? range[1] : null));
+        }
+        return rows;
+    }
+
+    String regionName(int fieldIndex, String part) {
+        return id + "#" + fieldIndex + "." + part;
+    }
+
+    private static String text(JsonNode node, String name) {
+        JsonNode value = node.get(name);
+        return value != null && value.isTextual() && !value.asText().isBlank() ? value.asText() : null;
+    }
+
+    private static Rectangle2D rectangle(String id, JsonNode field, String name) {
+        JsonNode region = field.get(name);
+        if (region == null) {
+            if ("value".equals(name)) {
+                throw new IllegalArgumentException("Template " + id + ": field without a value region");
+            }
+            return null;
+        }
+        if (!region.isArray() || region.size() != 4) {
+            throw new IllegalArgumentException("Template " + id + ": " + name + " must be [x, y, width, height]");
+        }
+        return new Rectangle2D.Float((float) region.get(0).asDouble(), (float) region.get(1).asDouble(),
+                (float) region.get(2).asDouble(), (float) region.get(3).asDouble());
+    }
+
+    static final class Field {
+        final String name;
+        final String testKey;
+        // 0-based
+        final int page;
+        final Rectangle2D value;
+        final String unit;
+        final Rectangle2D unitRegion;
+        final Rectangle2D range;
+
+        Field(String name, String testKey, int page, Rectangle2D value, String unit, Rectangle2D unitRegion,
+                Rectangle2D range) {
+            this.name = name;
+            this.testKey = testKey;
+            this.page = page;
+            this.value = value;
+            this.unit = unit;
+            this.unitRegion = unitRegion;
+            this.range = range;
+        }
+    }
+}
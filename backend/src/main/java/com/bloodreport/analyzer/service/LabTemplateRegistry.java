@@ -0,0 +1,235 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.LabTableRow;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.text.PDFTextStripperByArea;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recognizes PDFs from known lab layouts and reads their results straight from
+ * fixed page regions, without text extraction, regex or Gemini.
+ *
+ * Templates (see {@link LabTemplate} for the format) are loaded from a JSON
+ * array at lab-templates.location and indexed by page size. A document is
+ * fingerprinted in two steps: page size and producer metadata select the
+ * candidate templates without reading any text, then the top band of the
+ * first page is extracted once, together with the candidates' first-page
+ * regions, and compared with each candidate's header. A match counts as a hit
+ * only if at least half of the template's fields hold a number; otherwise the
+ * document goes through regular extraction.
+ */
+@Service
+public class LabTemplateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(LabTemplateRegistry.class);
+
+    // Share of the first page (from the top) searched for the template header
+    private static final double HEADER_BAND = 0.2;
+    private static final String HEADER_REGION = "header";
+
+    private final Resource location;
+    private final boolean enabled;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile Map<String, List<LabTemplate>> templatesBySize = Map.of();
+    private volatile List<LabTemplate> anySizeTemplates = List.of();
+    private volatile int templateCount;
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong incomplete = new AtomicLong();
+
+    @Autowired
+    public LabTemplateRegistry(
+            @Value("${lab-templates.location:classpath:lab-templates.json}") Resource location,
+            @Value("${lab-templates.enabled:true}") boolean enabled) {
+        this.location = location;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled || !location.exists()) {
+            log.info("No lab templates loaded ({})", enabled ? location.getDescription() + " not found" : "disabled");
+            return;
+        }
+        try (InputStream in = location.getInputStream()) {
+            register(objectMapper.readTree(in));
+        } catch (IOException | IllegalArgumentException e) {
+            // Templates are an optimization; without them every report takes the regular path
+            log.warn("Cannot load lab templates from {}: {}", location.getDescription(), e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the registered templates
+     *
+     * @param definitions JSON array of template definitions
+     * @throws IllegalArgumentException if any definition is invalid; the current templates are then kept
+     */
+    void register(JsonNode definitions) {
+        if (!definitions.isArray()) {
+            throw new IllegalArgumentException("Lab templates must be a JSON array");
+        }
+        Map<String, List<LabTemplate>> bySize = new HashMap<>();
+        List<LabTemplate> anySize = new ArrayList<>();
+        for (JsonNode definition : definitions) {
+            LabTemplate template = LabTemplate.compile(definition);
+            String sizeKey = template.sizeKey();
+            if (sizeKey != null) {
+                bySize.computeIfAbsent(sizeKey, key -> new ArrayList<>()).add(template);
+            } else {
+                anySize.add(template);
+            }
+        }
+        templatesBySize = bySize;
+        anySizeTemplates = anySize;
+        templateCount = definitions.size();
+        log.info("Loaded {} lab templates", templateCount);
+    }
+
+    /**
+     * @return The results if the document matches a known template, otherwise null
+     */
+    public ExtractedReport extract(PDDocument document) throws IOException {
+        if (templateCount == 0 || document.getNumberOfPages() == 0) {
+            return null;
+        }
+        documents.incrementAndGet();
+
+        PDPage firstPage = document.getPage(0);
+        PDRectangle box = firstPage.getCropBox();
+        String producer = document.getDocumentInformation().getProducer();
+        List<LabTemplate> candidates = new ArrayList<>();
+        for (String sizeKey : LabTemplate.candidateSizeKeys(box.getWidth(), box.getHeight())) {
+            for (LabTemplate template : templatesBySize.getOrDefault(sizeKey, List.of())) {
+                if (template.matchesDocument(producer, box.getWidth(), box.getHeight())) {
+                    candidates.add(template);
+                }
+            }
+        }
+        for (LabTemplate template : anySizeTemplates) {
+            if (template.matchesDocument(producer, box.getWidth(), box.getHeight())) {
+                candidates.add(template);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        // One pass over the first page reads the header and every candidate's regions on it
+        PDFTextStripperByArea firstPageStripper = regionStripper();
+        firstPageStripper.addRegion(HEADER_REGION,
+                new Rectangle2D.Float(0, 0, box.getWidth(), (float) (box.getHeight() * HEADER_BAND)));
+        for (LabTemplate template : candidates) {
+            addRegions(firstPageStripper, template, 0);
+        }
+        firstPageStripper.extractRegions(firstPage);
+        String header = firstPageStripper.getTextForRegion(HEADER_REGION);
+
+        for (LabTemplate template : candidates) {
+            if (!template.matchesHeader(header)) {
+                continue;
+            }
+            List<LabTableRow> rows = template.rows(regionText(document, template, firstPageStripper));
+            if (rows.size() * 2 < template.getFields().size()) {
+                // Right header but the values moved: the layout changed under this template
+                incomplete.incrementAndGet();
+                log.warn("Lab template {} matched but only {} of {} fields were readable", template.getId(),
+                        rows.size(), template.getFields().size());
+                return null;
+            }
+            hits.incrementAndGet();
+            return new ExtractedReport(header, rows, template.getId());
+        }
+        return null;
+    }
+
+    private Map<String, String> regionText(PDDocument document, LabTemplate template,
+            PDFTextStripperByArea firstPageStripper) throws IOException {
+        Map<String, String> text = new HashMap<>();
+        Map<Integer, PDFTextStripperByArea> otherPages = new HashMap<>();
+        List<LabTemplate.Field> fields = template.getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            int page = fields.get(i).page;
+            if (page == 0 || page >= document.getNumberOfPages()) {
+                continue;
+            }
+            if (!otherPages.containsKey(page)) {
+                PDFTextStripperByArea stripper = regionStripper();
+                addRegions(stripper, template, page);
+                stripper.extractRegions(document.getPage(page));
+                otherPages.put(page, stripper);
+            }
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            LabTemplate.Field field = fields.get(i);
+            PDFTextStripperByArea stripper = field.page == 0 ? firstPageStripper : otherPages.get(field.page);
+            if (stripper == null) {
+                continue;
+            }
+            for (String part : new String[] { "value", "unit", "range" }) {
+                String name = template.regionName(i, part);
+                if (stripper.getRegions().contains(name)) {
+                    text.put(name, stripper.getTextForRegion(name));
+                }
+            }
+        }
+        return text;
+    }
+
+    private static PDFTextStripperByArea regionStripper() throws IOException {
+        PDFTextStripperByArea stripper = new PDFTextStripperByArea();
+        // Duplicate suppression is shared across regions, so a glyph inside both the
+        // header band and a field region would otherwise only show up in the first
+        stripper.setSuppressDuplicateOverlappingText(false);
+        return stripper;
+    }
+
+    private static void addRegions(PDFTextStripperByArea stripper, LabTemplate template, int page) {
+        List<LabTemplate.Field> fields = template.getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            LabTemplate.Field field = fields.get(i);
+            if (field.page != page) {
+                continue;
+            }
+            stripper.addRegion(template.regionName(i, "value"), field.value);
+            if (field.unitRegion != null) {
+                stripper.addRegion(template.regionName(i, "unit"), field.unitRegion);
+            }
+            if (field.range != null) {
+                stripper.addRegion(template.regionName(i, "range"), field.range);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long checked = documents.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("templates", templateCount);
+        stats.put("documents", checked);
+        stats.put("hits", hits.get());
+        stats.put("incomplete", incomplete.get());
+        stats.put("hitRatio", checked == 0 ? 0.0 : (double) hits.get() / checked);
+        return stats;
+    }
+}
@@ -0,0 +1,24 @@
+package com.bloodreport.analyzer.service;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by {@link AdaptiveConcurrencyLimiter} when a call is turned away
+ * instead of queued
+ */
+public class LoadShedException extends RejectedExecutionException {
+
+    private final long retryAfterSeconds;
+
+    public LoadShedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Roughly how long until a permit frees up: the current call latency
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,183 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.AnalysisTemplates;
+import com.bloodreport.analyzer.model.BloodMetric;
+import com.bloodreport.analyzer.model.TestNameIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds a complete analysis from locally extracted metrics, without Gemini.
+ *
+ * Risk factors and lifestyle advice come from {@link AnalysisTemplates}, keyed
+ * by metric name and status. The local path is used when:
+ * - extraction coverage is high enough: at least analysis.local.min-metrics
+ *   recognized tests, covering at least analysis.local.min-coverage of the
+ *   result rows in the report, or
+ * - Gemini is unavailable (analysis.local.fallback-on-error) and at least one
+ *   metric was recognized.
+ */
+@Service
+public class LocalAnalysisService {
+
+    public static final String SOURCE_GEMINI = "gemini";
+    public static final String SOURCE_LOCAL = "local";
+    public static final String SOURCE_LOCAL_FALLBACK = "local-fallback";
+    // Results read with a lab template, see LabTemplateRegistry
+    public static final String SOURCE_TEMPLATE = "template";
+    // Narrative reused from a report with the same findings, see NarrativeCache
+    public static final String SOURCE_NARRATIVE_CACHE = "narrative-cache";
+
+    private static final int MIN_ADVICE = 5;
+    private static final List<String> GENERAL_ADVICE = List.of(
+            "Drink plenty of water every day",
+            "Eat colorful fruits and vegetables at every meal",
+            "Play or exercise for at least an hour a day",
+            "Get 9 to 11 hours of sleep each night",
+            "Choose water or milk instead of sugary drinks");
+
+    private final boolean enabled;
+    private final double minCoverage;
+    private final int minMetrics;
+    private final boolean fallbackOnError;
+
+    private final AtomicLong localAnalyses = new AtomicLong();
+    private final AtomicLong fallbackAnalyses = new AtomicLong();
+
+    @Autowired
+    public LocalAnalysisService(
+            @Value("${analysis.local.enabled:true}") boolean enabled,
+            @Value("${analysis.local.min-coverage:0.9}") double minCoverage,
+            @Value("${analysis.local.min-metrics:5}") int minMetrics,
+            @Value("${analysis.local.fallback-on-error:true}") boolean fallbackOnError) {
+        this.enabled = enabled;
+        this.minCoverage = minCoverage;
+        this.minMetrics = minMetrics;
+        this.fallbackOnError = fallbackOnError;
+    }
+
+    /**
+     * True if the metrics found locally cover the report well enough to skip Gemini
+     *
+     * @param reportText Report text the metrics were extracted from
+     */
+    public boolean isSufficient(String reportText, List<BloodMetric> metrics) {
+        if (!enabled || metrics.isEmpty()) {
+            return false;
+        }
+        int recognized = distinctTests(metrics);
+        return recognized >= minMetrics && coverage(reportText, recognized) >= minCoverage;
+    }
+
+    public boolean canFallBack(List<BloodMetric> metrics) {
+        return fallbackOnError && !metrics.isEmpty();
+    }
+
+    /**
+     * Fraction of result rows in the text that produced a recognized metric
+     */
+    static double coverage(String reportText, int recognized) {
+        int rows = 0;
+        int lineStart = 0;
+        int length = reportText.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || reportText.charAt(i) == '\n') {
+                if (LabPageClassifier.isLabRow(reportText, lineStart, i)) {
+                    rows++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return rows == 0 ? 0 : Math.min(1.0, (double) recognized / rows);
+    }
+
+    /**
+     * Risk factors, lifestyle advice and message for the given metrics, in the
+     * same shape as a parsed Gemini response
+     */
+    public Map<String, Object> analyze(List<BloodMetric> metrics, boolean fallback, AnalysisStreamListener listener) {
+        (fallback ? fallbackAnalyses : localAnalyses).incrementAndGet();
+
+        Set<String> riskFactors = new LinkedHashSet<>();
+        Set<String> advice = new LinkedHashSet<>();
+        for (BloodMetric metric : metrics) {
+            String status = metric.getStatus();
+            if ("normal".equals(status) || "unknown".equals(status)) {
+                continue;
+            }
+            AnalysisTemplates.Template template = template(metric);
+            riskFactors.add(template.getRiskFactor());
+            advice.add(template.getAdvice());
+        }
+        for (String general : GENERAL_ADVICE) {
+            if (advice.size() >= MIN_ADVICE) {
+                break;
+            }
+            advice.add(general);
+        }
+        if (riskFactors.isEmpty()) {
+            riskFactors.add("Your blood report looks good! Keep up the healthy habits.");
+        }
+
+        if (listener != null) {
+            riskFactors.forEach(item -> listener.onEvent("riskFactor", item));
+            advice.forEach(item -> listener.onEvent("lifestyleAdvice", item));
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("riskFactors", riskFactors.toArray(new String[0]));
+        result.put("lifestyleAdvice", advice.toArray(new String[0]));
+        result.put("message", "Analysis complete! Here's what your blood report tells us.");
+        result.put("analysisSource", fallback ? SOURCE_LOCAL_FALLBACK : SOURCE_LOCAL);
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("minCoverage", minCoverage);
+        stats.put("minMetrics", minMetrics);
+        stats.put("localAnalyses", localAnalyses.get());
+        stats.put("fallbackAnalyses", fallbackAnalyses.get());
+        return stats;
+    }
+
+    private static AnalysisTemplates.Template template(BloodMetric metric) {
+        String status = metric.getStatus();
+        AnalysisTemplates.Template template = AnalysisTemplates.get(metric.getName(), status);
+        String direction = metric.getValue() < metric.getMinNormal() ? "low" : "high";
+        if (template == null && "critical".equals(status)) {
+            AnalysisTemplates.Template directional = AnalysisTemplates.get(metric.getName(), direction);
+            if (directional != null) {
+                template = new AnalysisTemplates.Template(
+                        directional.getRiskFactor() + " It is far from the normal range, so please show it to your doctor.",
+                        directional.getAdvice());
+            }
+        }
+        if (template == null) {
+            template = new AnalysisTemplates.Template(
+                    "Your " + metric.getName() + " is " + (direction.equals("low") ? "lower" : "higher")
+                            + " than the normal range.",
+                    "Ask your doctor what your " + metric.getName() + " result means for you.");
+        }
+        return template;
+    }
+
+    static int distinctTests(List<BloodMetric> metrics) {
+        Set<String> names = new HashSet<>();
+        for (BloodMetric metric : metrics) {
+            String testKey = TestNameIndex.canonical(metric.getName());
+            names.add(testKey != null ? testKey : metric.getName().toLowerCase());
+        }
+        return names.size();
+    }
+}
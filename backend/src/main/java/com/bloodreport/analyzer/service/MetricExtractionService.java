@@ -1,24 +1,28 @@
 package com.bloodreport.analyzer.service;
 
 import com.bloodreport.analyzer.model.BloodMetric;
+import com.bloodreport.analyzer.model.Demographics;
+import com.bloodreport.analyzer.model.LabTableRow;
 import com.bloodreport.analyzer.model.MedicalReferenceRanges;
+import com.bloodreport.analyzer.model.TestNameIndex;
+import com.bloodreport.analyzer.model.UnitConversions;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 @Service
 public class MetricExtractionService {
 
-    // Pattern to match test name followed by value and optional unit
-    // Examples: "Glucose: 95 mg/dL", "Hemoglobin 14.5 g/dL", "WBC 7.2"
-    private static final Pattern METRIC_PATTERN = Pattern.compile(
-            "([A-Za-z][A-Za-z0-9\\s-]+?)\\s*[:=]?\\s*([0-9]+\\.?[0-9]*)\\s*([a-zA-Z/%μ]+)?",
-            Pattern.MULTILINE);
-
+    /**
+     * Extracts rows like "Glucose: 95 mg/dL", "Hemoglobin 14.5 g/dL" or "WBC 7.2"
+     * for tests that have a reference range. Ranges are picked for the patient's
+     * sex and age when the report header states them, and values printed in
+     * another unit ("Glucose 5.4 mmol/L") are converted to the range's unit.
+     */
     public List<BloodMetric> extractMetrics(String reportText) {
         List<BloodMetric> metrics = new ArrayList<>();
 
@@ -26,38 +30,81 @@ public class MetricExtractionService {
             return metrics;
         }
 
-        Matcher matcher = METRIC_PATTERN.matcher(reportText);
+        Demographics demographics = Demographics.detect(reportText);
+        MetricTokenizer.scan(reportText, (testKey, nameStart, nameEnd, value, unitStart, unitEnd) -> {
+            MedicalReferenceRanges.ReferenceRange range = MedicalReferenceRanges.getRange(testKey, demographics);
+            if (range == null) {
+                // Known name, but the installed lab table has no row for it
+                return;
+            }
+            int unitId = unitStart == unitEnd ? -1 : UnitConversions.unitId(reportText, unitStart, unitEnd);
 
-        while (matcher.find()) {
-            String testName = matcher.group(1).trim();
-            String valueStr = matcher.group(2);
-            String unit = matcher.group(3) != null ? matcher.group(3).trim() : "";
+            metrics.add(referenceMetric(reportText.substring(nameStart, nameEnd), testKey, value,
+                    unitStart == unitEnd ? null : reportText.substring(unitStart, unitEnd), unitId, range));
+        });
 
-            try {
-                double value = Double.parseDouble(valueStr);
+        return metrics;
+    }
 
-                // Check if we have a reference range for this test
-                MedicalReferenceRanges.ReferenceRange range = MedicalReferenceRanges.getRange(testName);
+    /**
+     * Metrics from table rows recovered from the PDF layout, judged against the
+     * range the lab printed on the row where there is one, followed by text
+     * rows for tests the tables did not cover
+     */
+    public List<BloodMetric> extractMetrics(String reportText, List<LabTableRow> tableRows) {
+        List<BloodMetric> metrics = extractMetricsFromTable(tableRows, Demographics.detect(reportText));
+        Set<String> covered = new HashSet<>();
+        for (LabTableRow row : tableRows) {
+            covered.add(row.getTestKey());
+        }
+
+        for (BloodMetric metric : extractMetrics(reportText)) {
+            if (!covered.contains(TestNameIndex.canonical(metric.getName()))) {
+                metrics.add(metric);
+            }
+        }
+        return metrics;
+    }
 
+    /**
+     * Metrics for table rows only, judged against the printed range where there
+     * is one and otherwise against the reference table. Rows for tests with no
+     * range at all are skipped.
+     */
+    public List<BloodMetric> extractMetricsFromTable(List<LabTableRow> tableRows, Demographics demographics) {
+        List<BloodMetric> metrics = new ArrayList<>();
+        for (LabTableRow row : tableRows) {
+            MedicalReferenceRanges.ReferenceRange range = MedicalReferenceRanges.getRange(row.getTestKey(),
+                    demographics);
+            if (!row.hasReferenceRange()) {
+                // No printed range: judged like a text row, in the reference table's unit
                 if (range != null) {
-                    BloodMetric metric = new BloodMetric(
-                            testName,
-                            value,
-                            unit.isEmpty() ? range.getUnit() : unit,
-                            range.getMin(),
-                            range.getMax());
-                    metrics.add(metric);
+                    String unit = row.getUnit();
+                    metrics.add(referenceMetric(row.getName(), row.getTestKey(), row.getValue(), unit,
+                            unit != null ? UnitConversions.unitId(unit) : -1, range));
                 }
-            } catch (NumberFormatException e) {
-                // Skip invalid numbers
                 continue;
             }
+            // An open end of the printed range ("> 40") is taken from the reference table, in the row's unit
+            Double min = row.getReferenceMin() != null ? row.getReferenceMin()
+                    : range != null ? inRowUnit(row, range.getMin(), range) : null;
+            Double max = row.getReferenceMax() != null ? row.getReferenceMax()
+                    : range != null ? inRowUnit(row, range.getMax(), range) : null;
+            if (min == null || max == null) {
+                continue;
+            }
+            String unit = row.getUnit() != null ? row.getUnit() : range != null ? range.getUnit() : null;
+            metrics.add(new BloodMetric(row.getName(), row.getValue(), unit, min, max));
         }
-
         return metrics;
     }
 
     public List<BloodMetric> extractMetricsFromStructuredData(List<Map<String, String>> structuredData) {
+        return extractMetricsFromStructuredData(structuredData, Demographics.UNKNOWN);
+    }
+
+    public List<BloodMetric> extractMetricsFromStructuredData(List<Map<String, String>> structuredData,
+            Demographics demographics) {
         List<BloodMetric> metrics = new ArrayList<>();
 
         for (Map<String, String> item : structuredData) {
@@ -68,16 +115,11 @@ public class MetricExtractionService {
             if (testName != null && valueStr != null) {
                 try {
                     double value = Double.parseDouble(valueStr);
-                    MedicalReferenceRanges.ReferenceRange range = MedicalReferenceRanges.getRange(testName);
+                    MedicalReferenceRanges.ReferenceRange range = MedicalReferenceRanges.getRange(testName, demographics);
 
                     if (range != null) {
-                        BloodMetric metric = new BloodMetric(
-                                testName,
-                                value,
-                                unit != null ? unit : range.getUnit(),
-                                range.getMin(),
-                                range.getMax());
-                        metrics.add(metric);
+                        metrics.add(referenceMetric(testName, TestNameIndex.canonical(testName), value, unit,
+                                unit != null ? UnitConversions.unitId(unit) : -1, range));
                     }
                 } catch (NumberFormatException e) {
                     // Skip invalid numbers
@@ -88,4 +130,55 @@ public class MetricExtractionService {
 
         return metrics;
     }
+
+    /**
+     * Metric judged against a reference range. A value printed in another unit
+     * of the same quantity is converted to the range's unit and the printed
+     * value and unit are kept on the metric; a recognized unit that does not
+     * convert for the test leaves the status unknown. Unrecognized or missing
+     * units are compared as printed.
+     *
+     * @param unitId Id of the printed unit from {@link UnitConversions#unitId}, or -1
+     */
+    private static BloodMetric referenceMetric(String name, String testKey, double value, String unit, int unitId,
+            MedicalReferenceRanges.ReferenceRange range) {
+        if (unit == null || unit.isEmpty()) {
+            return new BloodMetric(name, value, range.getUnit(), range.getMin(), range.getMax());
+        }
+        int rangeUnitId = UnitConversions.unitId(range.getUnit());
+        if (unitId < 0 || rangeUnitId < 0 || unitId == rangeUnitId) {
+            return new BloodMetric(name, value, unit, range.getMin(), range.getMax());
+        }
+        double converted = UnitConversions.convert(testKey, value, unitId, rangeUnitId);
+        if (Double.isNaN(converted)) {
+            // e.g. "%" for a test whose range is a count: no basis for a status
+            return new BloodMetric(name, value, unit, null, null);
+        }
+        BloodMetric metric = new BloodMetric(name, round(converted), range.getUnit(), range.getMin(),
+                range.getMax());
+        metric.setOriginalValue(value);
+        metric.setOriginalUnit(unit);
+        return metric;
+    }
+
+    /**
+     * A reference table bound in the row's unit, or null if the row's unit is
+     * recognized but does not convert for the test
+     */
+    private static Double inRowUnit(LabTableRow row, double bound, MedicalReferenceRanges.ReferenceRange range) {
+        if (row.getUnit() == null) {
+            return bound;
+        }
+        int rowUnitId = UnitConversions.unitId(row.getUnit());
+        int rangeUnitId = UnitConversions.unitId(range.getUnit());
+        if (rowUnitId < 0 || rangeUnitId < 0) {
+            return bound;
+        }
+        double converted = UnitConversions.convert(row.getTestKey(), bound, rangeUnitId, rowUnitId);
+        return Double.isNaN(converted) ? null : round(converted);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
 }
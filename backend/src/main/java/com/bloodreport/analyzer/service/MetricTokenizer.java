@@ -0,0 +1,163 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.MedicalReferenceRanges;
+import com.bloodreport.analyzer.model.TestNameIndex;
+
+/**
+ * Single-pass scanner for "name [: or =] value [unit]" rows in report text.
+ *
+ * Names are runs of words ([A-Za-z][A-Za-z0-9]*) separated by spaces or
+ * hyphens on one line. When a number follows a run, the longest trailing part
+ * of the run that names a known test wins ("Fasting Glucose 95" resolves to
+ * glucose, "Haemoglobin A1c 5.4" to hba1c). Names are resolved with
+ * {@link TestNameIndex}, which does not allocate, so rows with unknown names
+ * cost nothing beyond the scan; the sink is only called for rows that resolve
+ * to a test.
+ */
+final class MetricTokenizer {
+
+    interface Sink {
+        /**
+         * @param testKey   Canonical test key, as used by {@link MedicalReferenceRanges}
+         * @param nameStart Start of the name as printed (inclusive)
+         * @param nameEnd   End of the name as printed (exclusive)
+         * @param unitStart Start of the unit, equal to unitEnd if there is none
+         */
+        void accept(String testKey, int nameStart, int nameEnd, double value, int unitStart, int unitEnd);
+    }
+
+    private static final int MAX_NAME_WORDS = 6;
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15 };
+
+    private MetricTokenizer() {
+    }
+
+    static void scan(CharSequence text, Sink sink) {
+        int[] wordStarts = new int[MAX_NAME_WORDS];
+        int[] wordEnds = new int[MAX_NAME_WORDS];
+        int words = 0;
+        boolean separatorSeen = false;
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+
+            if (isAsciiLetter(c)) {
+                if (separatorSeen) {
+                    // "Label: Name 5" - the name starts after the separator
+                    words = 0;
+                    separatorSeen = false;
+                }
+                int start = i++;
+                while (i < length && isAsciiLetterOrDigit(text.charAt(i))) {
+                    i++;
+                }
+                if (words == MAX_NAME_WORDS) {
+                    System.arraycopy(wordStarts, 1, wordStarts, 0, MAX_NAME_WORDS - 1);
+                    System.arraycopy(wordEnds, 1, wordEnds, 0, MAX_NAME_WORDS - 1);
+                    words--;
+                }
+                wordStarts[words] = start;
+                wordEnds[words] = i;
+                words++;
+                continue;
+            }
+
+            if (isDigit(c)) {
+                int numberStart = i;
+                long mantissa = 0;
+                int digits = 0;
+                int scale = 0;
+                boolean seenDot = false;
+                while (i < length) {
+                    char d = text.charAt(i);
+                    if (isDigit(d)) {
+                        mantissa = mantissa * 10 + (d - '0');
+                        digits++;
+                        if (seenDot) {
+                            scale++;
+                        }
+                        i++;
+                    } else if (d == '.' && !seenDot) {
+                        seenDot = true;
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+
+                if (words > 0) {
+                    int unitStart = i;
+                    while (unitStart < length && (text.charAt(unitStart) == ' ' || text.charAt(unitStart) == '\t')) {
+                        unitStart++;
+                    }
+                    int unitEnd = unitStart;
+                    if (unitEnd < length && (isUnitChar(text.charAt(unitEnd)) || text.charAt(unitEnd) == '×')) {
+                        unitEnd++;
+                        // Exponents as in "x10^3/uL" or "10*9/L" only after the unit has started
+                        while (unitEnd < length
+                                && (isUnitChar(text.charAt(unitEnd)) || isUnitExponentChar(text.charAt(unitEnd)))) {
+                            unitEnd++;
+                        }
+                    }
+                    if (unitEnd == unitStart) {
+                        unitStart = unitEnd = i;
+                    }
+
+                    for (int first = 0; first < words; first++) {
+                        String testKey = TestNameIndex.canonical(text, wordStarts[first], wordEnds[words - 1]);
+                        if (testKey != null) {
+                            double value = digits <= MAX_EXACT_DIGITS
+                                    ? mantissa / POWERS_OF_TEN[scale]
+                                    : Double.parseDouble(text.subSequence(numberStart, i).toString());
+                            sink.accept(testKey, wordStarts[first], wordEnds[words - 1], value, unitStart, unitEnd);
+                            i = unitEnd;
+                            break;
+                        }
+                    }
+                }
+                words = 0;
+                separatorSeen = false;
+                continue;
+            }
+
+            if (c == ' ' || c == '\t' || c == '-') {
+                i++;
+                continue;
+            }
+            if ((c == ':' || c == '=') && words > 0 && !separatorSeen) {
+                separatorSeen = true;
+                i++;
+                continue;
+            }
+
+            // Line breaks and other punctuation end the name
+            words = 0;
+            separatorSeen = false;
+            i++;
+        }
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return isAsciiLetter(c) || isDigit(c);
+    }
+
+    private static boolean isUnitExponentChar(char c) {
+        return isDigit(c) || c == '^' || c == '*';
+    }
+
+    private static boolean isUnitChar(char c) {
+        return isAsciiLetter(c) || c == '/' || c == '%' || c == 'μ' || c == 'µ';
+    }
+}
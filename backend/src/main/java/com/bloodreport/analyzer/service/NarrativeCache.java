@@ -0,0 +1,203 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.BloodMetric;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the narrative parts of a Gemini analysis (risk factors and
+ * lifestyle advice), keyed by the (test, status) signature of the report from
+ * {@link ValidationService#signature}.
+ *
+ * The narrative depends on which tests are out of range much more than on the
+ * exact values, so reports with the same findings ("ldl:high,vitamin_d:low")
+ * can share it: on a hit only the metrics are computed and Gemini is not
+ * called. A signature is only formed when local extraction recognized at
+ * least narrative-cache.min-metrics tests covering at least
+ * narrative-cache.min-coverage of the report's result rows; otherwise the
+ * locally known findings may not be the report's findings. The bar is below
+ * the one for answering locally, since reports that clear that one never
+ * reach Gemini or this cache. A narrative is only stored when the metrics
+ * Gemini extracted have the same signature as the local ones, and never
+ * under the empty signature of an all-normal report, whose narrative would
+ * otherwise be served for every report with nothing out of range. With
+ * narrative-cache.include-normal the signature also lists the normal tests,
+ * which makes it finer (fewer hits, closer matches).
+ *
+ * Entries are evicted in LRU order once the cache is full and expire after a
+ * fixed TTL.
+ */
+@Service
+public class NarrativeCache {
+
+    private final ValidationService validationService;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final int minMetrics;
+    private final double minCoverage;
+    private final boolean includeNormal;
+
+    private final LinkedHashMap<String, Narrative> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong mismatched = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public NarrativeCache(
+            ValidationService validationService,
+            @Value("${narrative-cache.enabled:true}") boolean enabled,
+            @Value("${narrative-cache.max-entries:2000}") int maxEntries,
+            @Value("${narrative-cache.ttl:PT12H}") Duration ttl,
+            @Value("${narrative-cache.min-metrics:3}") int minMetrics,
+            @Value("${narrative-cache.min-coverage:0.75}") double minCoverage,
+            @Value("${narrative-cache.include-normal:false}") boolean includeNormal) {
+        this.validationService = validationService;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.minMetrics = minMetrics;
+        this.minCoverage = minCoverage;
+        this.includeNormal = includeNormal;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Narrative> eldest) {
+                if (size() > NarrativeCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param reportText Report text the metrics were extracted from
+     * @return The signature to look up and store under, or null if the metrics
+     *         do not describe the report well enough to share a narrative
+     */
+    public String signatureFor(String reportText, List<BloodMetric> metrics) {
+        if (!enabled || maxEntries <= 0) {
+            return null;
+        }
+        int recognized = LocalAnalysisService.distinctTests(metrics);
+        if (recognized < minMetrics || LocalAnalysisService.coverage(reportText, recognized) < minCoverage) {
+            skipped.incrementAndGet();
+            return null;
+        }
+        String signature = validationService.signature(metrics, includeNormal);
+        if (signature.isEmpty()) {
+            skipped.incrementAndGet();
+            return null;
+        }
+        return signature;
+    }
+
+    /**
+     * @return The cached narrative, or null on a miss
+     */
+    public Narrative lookup(String signature) {
+        synchronized (entries) {
+            Narrative entry = entries.get(signature);
+            if (entry != null && System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+                entries.remove(signature);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            (entry != null ? hits : misses).incrementAndGet();
+            return entry;
+        }
+    }
+
+    /**
+     * Stores the narrative of a completed Gemini analysis if Gemini's metrics
+     * have the findings the signature was formed from; empty narratives are
+     * not stored
+     *
+     * @param signature     Signature of the locally extracted metrics
+     * @param geminiMetrics Metrics extracted from Gemini's response
+     */
+    public void store(String signature, List<BloodMetric> geminiMetrics, String[] riskFactors,
+            String[] lifestyleAdvice) {
+        if (signature == null) {
+            return;
+        }
+        if (!signature.equals(validationService.signature(geminiMetrics, includeNormal))) {
+            mismatched.incrementAndGet();
+            return;
+        }
+        store(signature, riskFactors, lifestyleAdvice);
+    }
+
+    void store(String signature, String[] riskFactors, String[] lifestyleAdvice) {
+        if (signature == null || signature.isEmpty() || riskFactors.length == 0 || lifestyleAdvice.length == 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(signature, new Narrative(riskFactors.clone(), lifestyleAdvice.clone(),
+                    System.currentTimeMillis()));
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.get());
+        stats.put("hitRate", lookups == 0 ? 0.0 : (double) hitCount / lookups);
+        stats.put("skipped", skipped.get());
+        stats.put("mismatched", mismatched.get());
+        stats.put("evictions", evictions.get());
+        stats.put("includeNormal", includeNormal);
+        return stats;
+    }
+
+    public static class Narrative {
+        private final String[] riskFactors;
+        private final String[] lifestyleAdvice;
+        private final long createdAt;
+
+        Narrative(String[] riskFactors, String[] lifestyleAdvice, long createdAt) {
+            this.riskFactors = riskFactors;
+            this.lifestyleAdvice = lifestyleAdvice;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * @return A copy the caller is free to modify
+         */
+        public String[] getRiskFactors() {
+            return riskFactors.clone();
+        }
+
+        public String[] getLifestyleAdvice() {
+            return lifestyleAdvice.clone();
+        }
+    }
+}
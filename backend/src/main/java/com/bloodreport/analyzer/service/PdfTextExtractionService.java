@@ -0,0 +1,386 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.LabTableRow;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts text from uploaded PDFs with predictable heap usage.
+ *
+ * Parsing modes (pdf.parsing.mode):
+ * - main-memory: PDFBox keeps all decoded streams on the heap
+ * - mixed: up to pdf.parsing.main-memory-per-document on the heap, the rest in a scratch file
+ * - scratch-file: decoded streams go to a scratch file only
+ *
+ * Each parse reserves its estimated heap cost from a global budget before it
+ * starts, so only a bounded number of large documents are parsed at once.
+ * Documents over the page cap are rejected and extracted text is cut off at
+ * the text cap.
+ *
+ * Text is extracted page by page. Documents with at least
+ * pdf.parsing.parallel-min-pages pages are split into page ranges that run on
+ * a fork-join pool, each with its own stripper and its own PDDocument
+ * instance (PDDocument is not thread-safe); the page texts are joined back in
+ * page order. Every extra document instance reserves its own share of the
+ * memory budget, so under memory pressure fewer ranges run in parallel.
+ * Pages without any numeric lab rows (cover sheets, disclaimers, signatures)
+ * are dropped, see {@link LabPageClassifier}.
+ *
+ * The same pass rebuilds result tables from glyph positions, so rows come
+ * back with the lab's printed reference range, see {@link LabTableStripper}.
+ * Documents from a known lab layout skip text extraction altogether and are
+ * read from fixed regions, see {@link LabTemplateRegistry}.
+ */
+@Service
+public class PdfTextExtractionService {
+
+    // Rough heap cost of a parsed PDF relative to its file size
+    private static final int PARSE_EXPANSION_FACTOR = 4;
+
+    private final String mode;
+    private final long mainMemoryPerDocument;
+    private final int maxPages;
+    private final int maxTextChars;
+    private final long budgetKb;
+    private final long budgetWaitMillis;
+    private final Semaphore memoryBudget;
+    private final int parallelMinPages;
+    private final int pagesPerTask;
+    private final ForkJoinPool pool;
+    private LabTemplateRegistry templateRegistry;
+
+    private final AtomicLong pagesExtracted = new AtomicLong();
+    private final AtomicLong pagesSkipped = new AtomicLong();
+    private final AtomicLong parallelDocuments = new AtomicLong();
+    private final AtomicLong tableRows = new AtomicLong();
+
+    public PdfTextExtractionService(String mode, DataSize mainMemoryPerDocument, int maxPages, int maxTextChars,
+            DataSize memoryBudget, Duration budgetWait) {
+        this(mode, mainMemoryPerDocument, maxPages, maxTextChars, memoryBudget, budgetWait, 1, Integer.MAX_VALUE, 4);
+    }
+
+    /**
+     * @param parallelism      Fork-join pool size; 0 uses the number of available processors
+     * @param parallelMinPages Documents with fewer pages are extracted on the calling thread
+     * @param pagesPerTask     Minimum number of pages per parallel range
+     */
+    @Autowired
+    public PdfTextExtractionService(
+            @Value("${pdf.parsing.mode:mixed}") String mode,
+            @Value("${pdf.parsing.main-memory-per-document:4MB}") DataSize mainMemoryPerDocument,
+            @Value("${pdf.parsing.max-pages:60}") int maxPages,
+            @Value("${pdf.parsing.max-text-chars:200000}") int maxTextChars,
+            @Value("${pdf.parsing.memory-budget:64MB}") DataSize memoryBudget,
+            @Value("${pdf.parsing.budget-wait:10s}") Duration budgetWait,
+            @Value("${pdf.parsing.parallelism:0}") int parallelism,
+            @Value("${pdf.parsing.parallel-min-pages:8}") int parallelMinPages,
+            @Value("${pdf.parsing.pages-per-task:4}") int pagesPerTask) {
+        this.mode = mode;
+        this.mainMemoryPerDocument = mainMemoryPerDocument.toBytes();
+        this.maxPages = maxPages;
+        this.maxTextChars = maxTextChars;
+        this.budgetKb = Math.max(1, memoryBudget.toKilobytes());
+        this.budgetWaitMillis = budgetWait.toMillis();
+        this.memoryBudget = new Semaphore((int) Math.min(Integer.MAX_VALUE, budgetKb), true);
+        this.parallelMinPages = parallelMinPages;
+        this.pagesPerTask = Math.max(1, pagesPerTask);
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    @Autowired(required = false)
+    void setTemplateRegistry(LabTemplateRegistry templateRegistry) {
+        this.templateRegistry = templateRegistry;
+    }
+
+    /**
+     * @throws UploadRejectedException   if the document has more pages than allowed
+     * @throws RejectedExecutionException if the memory budget stays exhausted for the wait period
+     */
+    public String extractText(IngestedUpload upload) throws IOException, UploadRejectedException {
+        return extract(upload, false).getText();
+    }
+
+    /**
+     * Text as {@link #extractText} plus the result rows found in tables, or
+     * only the rows if the document matches a lab template
+     */
+    public ExtractedReport extract(IngestedUpload upload) throws IOException, UploadRejectedException {
+        return extract(upload, true);
+    }
+
+    /**
+     * @param useTemplates False to extract the full text even for known lab layouts
+     */
+    public ExtractedReport extract(IngestedUpload upload, boolean useTemplates)
+            throws IOException, UploadRejectedException {
+        int costKb = estimateCostKb(upload.getSize());
+        try {
+            if (!memoryBudget.tryAcquire(costKb, budgetWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException("PDF parsing memory budget exhausted");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for PDF parsing budget");
+        }
+
+        try (PDDocument document = load(upload)) {
+            int pageCount = document.getNumberOfPages();
+            if (pageCount > maxPages) {
+                throw new UploadRejectedException(UploadRejectedException.Reason.TOO_LARGE,
+                        "Report has too many pages. Maximum is " + maxPages + ".");
+            }
+            if (useTemplates && templateRegistry != null) {
+                ExtractedReport templated = templateRegistry.extract(document);
+                if (templated != null) {
+                    tableRows.addAndGet(templated.getTableRows().size());
+                    return new ExtractedReport(templated.getText(), templated.getTableRows(),
+                            templated.getTemplateId(), pageCount);
+                }
+            }
+
+            List<PageText> pages = pool != null && pageCount >= parallelMinPages
+                    ? extractParallel(upload, document, pageCount, costKb)
+                    : extractRange(document, 1, pageCount);
+            List<LabTableRow> rows = new ArrayList<>();
+            for (PageText page : pages) {
+                rows.addAll(page.rows);
+            }
+            tableRows.addAndGet(rows.size());
+            return new ExtractedReport(joinLabPages(pages), rows, null, pageCount);
+        } finally {
+            memoryBudget.release(costKb);
+        }
+    }
+
+    /**
+     * Splits the pages into contiguous ranges, one per task. The first range
+     * reuses the already loaded document; the others load their own copy, each
+     * reserving another share of the memory budget without waiting. Ranges
+     * that could not get a copy are merged into the previous range.
+     */
+    private List<PageText> extractParallel(IngestedUpload upload, PDDocument document, int pageCount, int costKb)
+            throws IOException {
+        int wanted = Math.min(pool.getParallelism(), (pageCount + pagesPerTask - 1) / pagesPerTask);
+        int copies = 0;
+        while (copies < wanted - 1 && memoryBudget.tryAcquire(costKb)) {
+            copies++;
+        }
+        int tasks = copies + 1;
+        if (tasks == 1) {
+            return extractRange(document, 1, pageCount);
+        }
+
+        try {
+            List<Callable<List<PageText>>> ranges = new ArrayList<>(tasks);
+            int start = 1;
+            for (int i = 0; i < tasks; i++) {
+                int first = start;
+                int last = i == tasks - 1 ? pageCount : first + (pageCount - first + 1) / (tasks - i) - 1;
+                if (i == 0) {
+                    ranges.add(() -> extractRange(document, first, last));
+                } else {
+                    ranges.add(() -> {
+                        try (PDDocument copy = load(upload)) {
+                            return extractRange(copy, first, last);
+                        }
+                    });
+                }
+                start = last + 1;
+            }
+
+            parallelDocuments.incrementAndGet();
+            List<PageText> pages = new ArrayList<>(pageCount);
+            for (Future<List<PageText>> range : pool.invokeAll(ranges)) {
+                pages.addAll(range.get());
+            }
+            return pages;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting PDF text", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("PDF text extraction failed", e.getCause());
+        } finally {
+            memoryBudget.release(costKb * copies);
+        }
+    }
+
+    /**
+     * Extracts pages first..last (1-based, inclusive), one entry per page. Stops
+     * early once the range alone has produced the text cap.
+     */
+    private List<PageText> extractRange(PDDocument document, int first, int last) throws IOException {
+        LabTableStripper stripper = new LabTableStripper();
+        List<PageText> pages = new ArrayList<>(last - first + 1);
+        int produced = 0;
+        for (int page = first; page <= last && produced < maxTextChars; page++) {
+            stripper.setStartPage(page);
+            stripper.setEndPage(page);
+            CappedWriter writer = new CappedWriter(maxTextChars - produced);
+            try {
+                stripper.writeText(document, writer);
+            } catch (CappedWriter.LimitReached e) {
+                // Stop extracting once the cap is hit; the prefix is kept
+            }
+            String text = writer.toString();
+            produced += text.length();
+            pages.add(new PageText(text, stripper.takeRows()));
+        }
+        return pages;
+    }
+
+    /**
+     * Joins the pages that contain lab rows, in page order, up to the text cap.
+     * If no page looks like lab results the whole text is kept, so unusual
+     * layouts still reach the model.
+     */
+    private String joinLabPages(List<PageText> pages) {
+        StringBuilder text = new StringBuilder();
+        int skipped = 0;
+        for (PageText page : pages) {
+            if (LabPageClassifier.isLabPage(page.text)) {
+                text.append(page.text);
+            } else {
+                skipped++;
+            }
+        }
+        if (skipped == pages.size()) {
+            text.setLength(0);
+            pages.forEach(page -> text.append(page.text));
+            skipped = 0;
+        }
+        pagesExtracted.addAndGet(pages.size());
+        pagesSkipped.addAndGet(skipped);
+
+        if (text.length() > maxTextChars) {
+            text.setLength(maxTextChars);
+        }
+        return text.toString();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", mode);
+        stats.put("memoryBudgetKb", budgetKb);
+        stats.put("memoryBudgetAvailableKb", memoryBudget.availablePermits());
+        stats.put("waiting", memoryBudget.getQueueLength());
+        stats.put("parallelism", pool != null ? pool.getParallelism() : 1);
+        stats.put("parallelDocuments", parallelDocuments.get());
+        stats.put("pagesExtracted", pagesExtracted.get());
+        stats.put("pagesSkipped", pagesSkipped.get());
+        stats.put("tableRows", tableRows.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    private PDDocument load(IngestedUpload upload) throws IOException {
+        MemoryUsageSetting memoryUsage = memoryUsageSetting();
+        if (upload.getSpoolFile() != null) {
+            return PDDocument.load(upload.getSpoolFile().toFile(), memoryUsage);
+        }
+        return PDDocument.load(upload.getContent(), "", null, null, memoryUsage);
+    }
+
+    private MemoryUsageSetting memoryUsageSetting() {
+        switch (mode) {
+            case "main-memory":
+                return MemoryUsageSetting.setupMainMemoryOnly();
+            case "scratch-file":
+                return MemoryUsageSetting.setupTempFileOnly();
+            default:
+                return MemoryUsageSetting.setupMixed(mainMemoryPerDocument);
+        }
+    }
+
+    int estimateCostKb(long fileSize) {
+        long bytes = fileSize * PARSE_EXPANSION_FACTOR;
+        if (!"main-memory".equals(mode)) {
+            // Scratch-backed modes keep at most the main-memory share on the heap,
+            // plus roughly the raw file size for parser state
+            bytes = Math.min(bytes, mainMemoryPerDocument + fileSize);
+        }
+        long kb = Math.max(1, bytes / 1024);
+        return (int) Math.min(kb, budgetKb);
+    }
+
+    private static class PageText {
+        private final String text;
+        private final List<LabTableRow> rows;
+
+        PageText(String text, List<LabTableRow> rows) {
+            this.text = text;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Writer that stops the text stripper once it has produced enough text
+     */
+    private static class CappedWriter extends Writer {
+        private final StringBuilder text = new StringBuilder();
+        private final int maxChars;
+
+        CappedWriter(int maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            int remaining = maxChars - text.length();
+            if (len > remaining) {
+                text.append(cbuf, off, remaining);
+                throw new LimitReached();
+            }
+            text.append(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+
+        private static class LimitReached extends RuntimeException {
+            LimitReached() {
+                super(null, null, false, false);
+            }
+        }
+    }
+}
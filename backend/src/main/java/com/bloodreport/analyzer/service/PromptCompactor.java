@@ -0,0 +1,139 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.TestNameIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shrinks extracted report text before it is pasted into the Gemini prompt.
+ *
+ * - Lines repeated across pages (headers, footers, column titles) are kept once
+ * - Lines with no metric-like content are dropped. A line is kept if it names a
+ *   known test (see {@link TestNameIndex}), is a table heading, or looks like a
+ *   "name value" row (see {@link LabPageClassifier})
+ * - The result is cut off at prompt.compaction.max-tokens
+ *
+ * Token counts are estimated at four characters per token.
+ */
+@Service
+public class PromptCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptCompactor.class);
+
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final List<String> HEADING_TERMS = List.of("result", "reference", "range", "units", "flag");
+
+    private final boolean enabled;
+    private final int maxTokens;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong tokensBefore = new AtomicLong();
+    private final AtomicLong tokensAfter = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+
+    @Autowired
+    public PromptCompactor(
+            @Value("${prompt.compaction.enabled:true}") boolean enabled,
+            @Value("${prompt.compaction.max-tokens:4000}") int maxTokens) {
+        this.enabled = enabled;
+        this.maxTokens = maxTokens;
+    }
+
+    public String compact(String text) {
+        if (!enabled || text == null) {
+            return text;
+        }
+
+        int maxChars = maxTokens * CHARS_PER_TOKEN;
+        StringBuilder out = new StringBuilder(Math.min(text.length(), maxChars));
+        Set<String> seen = new HashSet<>();
+        boolean cut = false;
+
+        for (String rawLine : text.split("\r?\n")) {
+            String line = rawLine.strip().replaceAll("\\s+", " ");
+            if (line.isEmpty() || !seen.add(line) || !isMetricLike(line)) {
+                continue;
+            }
+            if (out.length() + line.length() + 1 > maxChars) {
+                cut = true;
+                break;
+            }
+            out.append(line).append('\n');
+        }
+
+        if (out.length() == 0) {
+            // Nothing recognizable; let the model see the (capped) original
+            out.append(text, 0, Math.min(text.length(), maxChars));
+            cut = text.length() > maxChars;
+        }
+
+        String compacted = out.toString();
+        long before = estimateTokens(text);
+        long after = estimateTokens(compacted);
+        requests.incrementAndGet();
+        tokensBefore.addAndGet(before);
+        tokensAfter.addAndGet(after);
+        if (cut) {
+            truncated.incrementAndGet();
+        }
+        log.info("Prompt compaction: ~{} -> ~{} tokens{}", before, after, cut ? " (truncated to budget)" : "");
+        return compacted;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxTokens", maxTokens);
+        stats.put("requests", requests.get());
+        stats.put("tokensBefore", tokensBefore.get());
+        stats.put("tokensAfter", tokensAfter.get());
+        stats.put("truncated", truncated.get());
+        return stats;
+    }
+
+    static long estimateTokens(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    boolean isMetricLike(String line) {
+        if (TestNameIndex.containsTestName(line)) {
+            return true;
+        }
+        String lower = line.toLowerCase();
+        int headingTerms = 0;
+        for (String term : HEADING_TERMS) {
+            if (containsWord(lower, term)) {
+                headingTerms++;
+            }
+        }
+        return headingTerms >= 2 || LabPageClassifier.isLabRow(line, 0, line.length());
+    }
+
+    /**
+     * Whole-word match, so "range" does not match "orange"
+     */
+    private static boolean containsWord(String text, String word) {
+        int from = 0;
+        int index;
+        while ((index = text.indexOf(word, from)) >= 0) {
+            int end = index + word.length();
+            boolean startOk = index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1));
+            boolean endOk = end == text.length() || !Character.isLetterOrDigit(text.charAt(end));
+            if (startOk && endOk) {
+                return true;
+            }
+            from = index + 1;
+        }
+        return false;
+    }
+}
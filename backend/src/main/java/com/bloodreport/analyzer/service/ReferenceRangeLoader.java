@@ -0,0 +1,153 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.MedicalReferenceRanges;
+import com.bloodreport.analyzer.model.ReferenceRangeTable;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the lab's reference range table (see {@link ReferenceRangeTable} for
+ * the CSV format) and installs it into {@link MedicalReferenceRanges}.
+ *
+ * When the table is a file on disk it is polled every
+ * reference-ranges.reload-interval and reloaded when it changes. A table that
+ * fails to parse is logged and ignored, so the previous one stays in use.
+ * Tables are swapped as a whole; requests in flight keep the table they
+ * started with. After a swap the analysis and narrative caches are cleared,
+ * since their results were flagged against the previous ranges.
+ */
+@Service
+public class ReferenceRangeLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(ReferenceRangeLoader.class);
+
+    private final Resource location;
+    private final Duration reloadInterval;
+    private final AnalysisCache analysisCache;
+    private final NarrativeCache narrativeCache;
+    private ScheduledExecutorService watcher;
+
+    private volatile long loadedModified = Long.MIN_VALUE;
+    private volatile Instant loadedAt;
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ReferenceRangeLoader(Resource location, Duration reloadInterval) {
+        this(location, reloadInterval, null, null);
+    }
+
+    @Autowired
+    public ReferenceRangeLoader(
+            @Value("${reference-ranges.location:classpath:reference-ranges.csv}") Resource location,
+            @Value("${reference-ranges.reload-interval:PT30S}") Duration reloadInterval,
+            AnalysisCache analysisCache,
+            NarrativeCache narrativeCache) {
+        this.location = location;
+        this.reloadInterval = reloadInterval;
+        this.analysisCache = analysisCache;
+        this.narrativeCache = narrativeCache;
+    }
+
+    @PostConstruct
+    public void start() {
+        reload();
+        if (location.isFile() && !reloadInterval.isZero() && !reloadInterval.isNegative()) {
+            watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "reference-range-watcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long millis = reloadInterval.toMillis();
+            watcher.scheduleWithFixedDelay(this::reloadIfModified, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    /**
+     * Reloads the table if the file changed since the last load attempt
+     */
+    public void reloadIfModified() {
+        try {
+            if (location.lastModified() != loadedModified) {
+                reload();
+            }
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.warn("Cannot check reference ranges {}: {}", location.getDescription(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return True if a new table was installed
+     */
+    public synchronized boolean reload() {
+        if (!location.exists()) {
+            log.info("No reference range table at {}, using built-in ranges", location.getDescription());
+            return false;
+        }
+        try {
+            // Remember the timestamp before reading, so a write during the read triggers another reload
+            long modified = location.isFile() ? location.lastModified() : 0;
+            loadedModified = modified;
+            ReferenceRangeTable table;
+            try (Reader reader = new InputStreamReader(location.getInputStream(), StandardCharsets.UTF_8)) {
+                table = ReferenceRangeTable.parse(reader, location.getFilename());
+            }
+            MedicalReferenceRanges.install(table);
+            if (analysisCache != null) {
+                analysisCache.invalidateAll();
+            }
+            if (narrativeCache != null) {
+                narrativeCache.invalidateAll();
+            }
+            loadedAt = Instant.now();
+            reloads.incrementAndGet();
+            log.info("Loaded {} reference ranges for {} tests from {}", table.getRowCount(), table.getTestCount(),
+                    location.getDescription());
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            failures.incrementAndGet();
+            log.warn("Keeping previous reference ranges, cannot load {}: {}", location.getDescription(),
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        ReferenceRangeTable table = MedicalReferenceRanges.currentTable();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("location", location.getDescription());
+        stats.put("rows", table.getRowCount());
+        stats.put("tests", table.getTestCount());
+        stats.put("reloads", reloads.get());
+        stats.put("failures", failures.get());
+        stats.put("loadedAt", loadedAt != null ? loadedAt.toString() : null);
+        stats.put("watching", watcher != null);
+        return stats;
+    }
+}
@@ -0,0 +1,56 @@
+package com.bloodreport.analyzer.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caps retries (and hedged requests) at a share of the traffic, so that
+ * when the upstream is failing, retries cannot multiply the load on it.
+ *
+ * Every first attempt deposits ratio tokens and every retry withdraws one.
+ * The balance starts at, and is capped at, reserve. That allows a burst of
+ * reserve retries after a quiet period and about ratio retries per request
+ * after that.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double reserve;
+
+    // Guarded by this
+    private double balance;
+    private long withdrawn;
+    private long denied;
+
+    public RetryBudget(double ratio, int reserve) {
+        this.ratio = ratio;
+        this.reserve = Math.max(1, reserve);
+        this.balance = this.reserve;
+    }
+
+    public synchronized void deposit() {
+        balance = Math.min(reserve, balance + ratio);
+    }
+
+    /**
+     * Takes a token for one retry, if there is one
+     */
+    public synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            denied++;
+            return false;
+        }
+        balance -= 1;
+        withdrawn++;
+        return true;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ratio", ratio);
+        stats.put("balance", Math.floor(balance * 100) / 100);
+        stats.put("withdrawn", withdrawn);
+        stats.put("denied", denied);
+        return stats;
+    }
+}
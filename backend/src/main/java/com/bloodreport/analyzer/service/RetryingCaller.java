@@ -0,0 +1,275 @@
+package com.bloodreport.analyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Retries failed calls with jittered backoff and, optionally, hedges slow
+ * ones.
+ *
+ * Only failures the retryable predicate accepts are retried, up to
+ * maxAttempts in total, after a random delay of up to
+ * baseBackoff * 2^(attempt - 1) (at most maxBackoff). A Retry-After header on
+ * the failure is honored; if it asks for more than maxBackoff the call is
+ * not retried. Each retry needs a token from the {@link RetryBudget}.
+ *
+ * With hedging, an attempt that has not finished after the hedge percentile
+ * of recent latencies gets a second, identical attempt (also paid from the
+ * budget); the first answer wins. The other attempt is interrupted and its
+ * HTTP requests are aborted through its {@link AttemptScope}, which closes
+ * their connections; work that neither checks for interrupts nor goes
+ * through a registered client runs to completion in the background. Hedging
+ * only starts once hedgeMinSamples latencies are recorded, and hedged calls
+ * run on at most hedgeMaxThreads threads; calls beyond that run on the
+ * caller's thread without a hedge. Calls must be safe to repeat.
+ */
+public class RetryingCaller {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryingCaller.class);
+
+    private static final int LATENCY_SAMPLES = 256;
+
+    private final String name;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final RetryBudget budget;
+    private final double hedgePercentile;
+    private final int hedgeMinSamples;
+    private final Predicate<Throwable> retryable;
+    private final ExecutorService hedgeExecutor;
+
+    // Guarded by latencies
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int latencyNext;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong retriesDenied = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong hedgesDenied = new AtomicLong();
+
+    public RetryingCaller(String name, int maxAttempts, Duration baseBackoff, Duration maxBackoff, RetryBudget budget,
+            boolean hedging, double hedgePercentile, int hedgeMinSamples, int hedgeMaxThreads,
+            Predicate<Throwable> retryable) {
+        this.name = name;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffMillis = Math.max(1, baseBackoff.toMillis());
+        this.maxBackoffMillis = Math.max(baseBackoffMillis, maxBackoff.toMillis());
+        this.budget = budget;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinSamples = Math.max(1, Math.min(hedgeMinSamples, LATENCY_SAMPLES));
+        this.retryable = retryable;
+        this.hedgeExecutor = hedging ? hedgeExecutor(name, Math.max(2, hedgeMaxThreads)) : null;
+    }
+
+    public <T> T call(Callable<T> attempt) throws Exception {
+        calls.incrementAndGet();
+        budget.deposit();
+        for (int n = 1;; n++) {
+            try {
+                return hedgeExecutor != null ? hedged(attempt) : timed(attempt);
+            } catch (Exception e) {
+                if (n >= maxAttempts || !retryable.test(e)) {
+                    throw e;
+                }
+                long backoff = backoffMillis(n, e);
+                if (backoff < 0 || !budget.tryWithdraw()) {
+                    retriesDenied.incrementAndGet();
+                    throw e;
+                }
+                retries.incrementAndGet();
+                log.debug("{} attempt {} failed ({}), retrying in {} ms", name, n, e.getMessage(), backoff);
+                Thread.sleep(backoff);
+            }
+        }
+    }
+
+    // Full jitter, raised to the upstream's Retry-After; -1 if that is beyond maxBackoff
+    private long backoffMillis(int attempt, Exception e) {
+        long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        long backoff = ThreadLocalRandom.current().nextLong(cap + 1);
+        long retryAfter = retryAfterMillis(e);
+        if (retryAfter > maxBackoffMillis) {
+            return -1;
+        }
+        return Math.max(backoff, retryAfter);
+    }
+
+    private static long retryAfterMillis(Exception e) {
+        if (e instanceof RestClientResponseException response && response.getResponseHeaders() != null) {
+            String value = response.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+            if (value != null) {
+                try {
+                    return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+                } catch (NumberFormatException ignored) {
+                    // HTTP-date form; fall back to our own backoff
+                }
+            }
+        }
+        return 0;
+    }
+
+    private <T> T timed(Callable<T> attempt) throws Exception {
+        long start = System.nanoTime();
+        T result = attempt.call();
+        recordLatency(System.nanoTime() - start);
+        return result;
+    }
+
+    private <T> T hedged(Callable<T> attempt) throws Exception {
+        long delay = hedgeDelayNanos();
+        if (delay < 0) {
+            return timed(attempt);
+        }
+        CompletionService<T> attempts = new ExecutorCompletionService<>(hedgeExecutor);
+        AttemptScope primaryScope = new AttemptScope();
+        AttemptScope hedgeScope = new AttemptScope();
+        Future<T> primary;
+        try {
+            primary = attempts.submit(() -> primaryScope.run(() -> timed(attempt)));
+        } catch (RejectedExecutionException e) {
+            // All hedging threads busy: no hedge for this call
+            hedgesDenied.incrementAndGet();
+            return timed(attempt);
+        }
+        Future<T> hedge = null;
+        try {
+            Future<T> done = attempts.poll(delay, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                hedge = submitHedge(attempts, attempt, hedgeScope);
+                done = attempts.take();
+            }
+            try {
+                return winner(done, hedge);
+            } catch (ExecutionException first) {
+                if (hedge == null) {
+                    throw unwrap(first);
+                }
+                // The other attempt may still succeed
+                try {
+                    return winner(attempts.take(), hedge);
+                } catch (ExecutionException second) {
+                    throw unwrap(first);
+                }
+            }
+        } finally {
+            abandon(primary, primaryScope);
+            abandon(hedge, hedgeScope);
+        }
+    }
+
+    private <T> Future<T> submitHedge(CompletionService<T> attempts, Callable<T> attempt, AttemptScope scope) {
+        if (!budget.tryWithdraw()) {
+            hedgesDenied.incrementAndGet();
+            return null;
+        }
+        try {
+            Future<T> hedge = attempts.submit(() -> scope.run(() -> timed(attempt)));
+            hedges.incrementAndGet();
+            return hedge;
+        } catch (RejectedExecutionException e) {
+            hedgesDenied.incrementAndGet();
+            return null;
+        }
+    }
+
+    // Stops an attempt whose answer is no longer needed
+    private static void abandon(Future<?> attempt, AttemptScope scope) {
+        if (attempt != null && !attempt.isDone()) {
+            scope.abort();
+            attempt.cancel(true);
+        }
+    }
+
+    private <T> T winner(Future<T> done, Future<T> hedge) throws Exception {
+        T result = done.get();
+        if (done == hedge) {
+            hedgeWins.incrementAndGet();
+        }
+        return result;
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        return e.getCause() instanceof Exception cause ? cause : e;
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[latencyNext] = nanos;
+            latencyNext = (latencyNext + 1) % LATENCY_SAMPLES;
+            latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+        }
+    }
+
+    /**
+     * Hedge delay: the percentile of recent attempt latencies, or -1 while
+     * too few are recorded
+     */
+    long hedgeDelayNanos() {
+        long[] samples;
+        synchronized (latencies) {
+            if (latencyCount < hedgeMinSamples) {
+                return -1;
+            }
+            samples = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(hedgePercentile * samples.length) - 1;
+        return samples[Math.max(0, Math.min(index, samples.length - 1))];
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxAttempts", maxAttempts);
+        stats.put("calls", calls.get());
+        stats.put("retries", retries.get());
+        stats.put("retriesDenied", retriesDenied.get());
+        stats.put("hedging", hedgeExecutor != null);
+        stats.put("hedges", hedges.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("hedgesDenied", hedgesDenied.get());
+        long delay = hedgeDelayNanos();
+        stats.put("hedgeDelayMs", delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay));
+        stats.put("budget", budget.getStats());
+        return stats;
+    }
+
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    private static ExecutorService hedgeExecutor(String name, int maxThreads) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, name + "-hedge-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,48 @@
+package com.bloodreport.analyzer.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Analysis returned by Gemini in structured output mode, see
+ * {@link StructuredAnalysisParser}
+ */
+public class StructuredAnalysis {
+
+    private final List<String> riskFactors;
+    private final List<String> lifestyleAdvice;
+    private final List<Map<String, String>> metrics;
+    private final boolean complete;
+
+    public StructuredAnalysis(List<String> riskFactors, List<String> lifestyleAdvice,
+            List<Map<String, String>> metrics, boolean complete) {
+        this.riskFactors = List.copyOf(riskFactors);
+        this.lifestyleAdvice = List.copyOf(lifestyleAdvice);
+        this.metrics = List.copyOf(metrics);
+        this.complete = complete;
+    }
+
+    public List<String> getRiskFactors() {
+        return riskFactors;
+    }
+
+    public List<String> getLifestyleAdvice() {
+        return lifestyleAdvice;
+    }
+
+    /**
+     * Results as "test", "value" and "unit" entries, the shape
+     * {@link MetricExtractionService#extractMetricsFromStructuredData} takes
+     */
+    public List<Map<String, String>> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * False if the payload was cut off or malformed; the lists then hold what
+     * was read before the error
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,255 @@
+package com.bloodreport.analyzer.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Token-level parser for the JSON payload Gemini returns in structured output
+ * mode:
+ *
+ * <pre>
+ * {"riskFactors": ["..."], "lifestyleAdvice": ["..."],
+ *  "metrics": [{"test": "Glucose", "value": "95", "unit": "mg/dL"}]}
+ * </pre>
+ *
+ * The payload is read with a non-blocking Jackson parser, so it can be fed in
+ * chunks split at arbitrary points, as :streamGenerateContent delivers it.
+ * Each risk factor and advice item goes to the listener as soon as its string
+ * is complete. No tree is built; tokens go straight into the result lists,
+ * and unknown fields are skipped.
+ *
+ * {@link #readCandidateText} walks the generateContent response envelope the
+ * same way and hands over the text of the first candidate's parts.
+ */
+public class StructuredAnalysisParser {
+
+    private static final Logger log = LoggerFactory.getLogger(StructuredAnalysisParser.class);
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final AnalysisStreamListener listener;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    private final List<String> riskFactors = new ArrayList<>();
+    private final List<String> lifestyleAdvice = new ArrayList<>();
+    private final List<Map<String, String>> metrics = new ArrayList<>();
+
+    // Nesting depth: 1 inside the root object, 2 inside a top-level array, 3 inside a metric
+    private int depth;
+    private String topField;
+    private String arrayField;
+    private String metricField;
+    private Map<String, String> metric;
+    private boolean rootClosed;
+    private boolean failed;
+
+    public StructuredAnalysisParser(AnalysisStreamListener listener) {
+        this.listener = listener != null ? listener : AnalysisStreamListener.NONE;
+        try {
+            this.parser = FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create JSON parser", e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Feeds the next chunk of the payload text
+     */
+    public void feed(String chunk) {
+        if (chunk == null || chunk.isEmpty() || failed) {
+            return;
+        }
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        try {
+            feeder.feedInput(bytes, 0, bytes.length);
+            drain();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Ends the input and returns what was read
+     */
+    public StructuredAnalysis finish() {
+        if (!failed) {
+            feeder.endOfInput();
+            try {
+                drain();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        if (!failed && !rootClosed) {
+            log.warn("Structured Gemini response ended early, keeping {} risk factors, {} advice items, {} metrics",
+                    riskFactors.size(), lifestyleAdvice.size(), metrics.size());
+        }
+        return new StructuredAnalysis(riskFactors, lifestyleAdvice, metrics, !failed && rootClosed);
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            handle(token);
+        }
+    }
+
+    private void handle(JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                depth++;
+                if (depth == 3 && "metrics".equals(arrayField)) {
+                    metric = new HashMap<>();
+                }
+                break;
+            case END_OBJECT:
+                if (depth == 3 && metric != null) {
+                    metrics.add(metric);
+                    metric = null;
+                }
+                depth--;
+                rootClosed = depth == 0;
+                break;
+            case START_ARRAY:
+                depth++;
+                if (depth == 2) {
+                    arrayField = topField;
+                }
+                break;
+            case END_ARRAY:
+                depth--;
+                if (depth == 1) {
+                    arrayField = null;
+                }
+                break;
+            case FIELD_NAME:
+                if (depth == 1) {
+                    topField = parser.currentName();
+                } else if (depth == 3) {
+                    metricField = parser.currentName();
+                }
+                break;
+            case VALUE_STRING:
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                if (depth == 2) {
+                    item(parser.getText().trim());
+                } else if (depth == 3 && metric != null && metricField != null) {
+                    metric.put(metricField, parser.getText().trim());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void item(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if ("riskFactors".equals(arrayField)) {
+            riskFactors.add(text);
+            listener.onEvent("riskFactor", text);
+        } else if ("lifestyleAdvice".equals(arrayField)) {
+            lifestyleAdvice.add(text);
+            listener.onEvent("lifestyleAdvice", text);
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        log.warn("Malformed structured Gemini response, keeping {} risk factors, {} advice items, {} metrics: {}",
+                riskFactors.size(), lifestyleAdvice.size(), metrics.size(), e.getMessage());
+    }
+
+    /**
+     * Reads a generateContent response (or one streamed chunk of it) and passes
+     * the text of each part of the first candidate to the consumer, skipping
+     * everything else without building a tree
+     */
+    public static void readCandidateText(JsonParser envelope, Consumer<String> text) throws IOException {
+        if (envelope.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Gemini response is not a JSON object");
+        }
+        while (envelope.nextToken() == JsonToken.FIELD_NAME) {
+            String name = envelope.currentName();
+            JsonToken value = envelope.nextToken();
+            if ("candidates".equals(name) && value == JsonToken.START_ARRAY) {
+                boolean first = true;
+                JsonToken candidate;
+                while ((candidate = envelope.nextToken()) != JsonToken.END_ARRAY && candidate != null) {
+                    if (first && candidate == JsonToken.START_OBJECT) {
+                        readCandidate(envelope, text);
+                    } else {
+                        envelope.skipChildren();
+                    }
+                    first = false;
+                }
+            } else {
+                envelope.skipChildren();
+            }
+        }
+    }
+
+    public static void readCandidateText(String envelope, Consumer<String> text) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(envelope)) {
+            readCandidateText(parser, text);
+        }
+    }
+
+    static JsonFactory factory() {
+        return FACTORY;
+    }
+
+    // candidate -> content -> parts[] -> text
+    private static void readCandidate(JsonParser envelope, Consumer<String> text) throws IOException {
+        while (envelope.nextToken() == JsonToken.FIELD_NAME) {
+            String name = envelope.currentName();
+            JsonToken value = envelope.nextToken();
+            if ("content".equals(name) && value == JsonToken.START_OBJECT) {
+                while (envelope.nextToken() == JsonToken.FIELD_NAME) {
+                    String contentField = envelope.currentName();
+                    if (envelope.nextToken() == JsonToken.START_ARRAY && "parts".equals(contentField)) {
+                        readParts(envelope, text);
+                    } else {
+                        envelope.skipChildren();
+                    }
+                }
+            } else {
+                envelope.skipChildren();
+            }
+        }
+    }
+
+    private static void readParts(JsonParser envelope, Consumer<String> text) throws IOException {
+        JsonToken part;
+        while ((part = envelope.nextToken()) != JsonToken.END_ARRAY && part != null) {
+            if (part != JsonToken.START_OBJECT) {
+                envelope.skipChildren();
+                continue;
+            }
+            while (envelope.nextToken() == JsonToken.FIELD_NAME) {
+                String name = envelope.currentName();
+                if (envelope.nextToken() == JsonToken.VALUE_STRING && "text".equals(name)) {
+                    text.accept(envelope.getText());
+                } else {
+                    envelope.skipChildren();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.bloodreport.analyzer.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Reads an upload in a single pass.
+ *
+ * While the bytes stream through, the file type is sniffed from the magic
+ * bytes, the size cap is enforced, the SHA-256 is computed and the content is
+ * kept in memory or spooled to a temp file. Unsupported types are rejected
+ * after the first few bytes and oversized bodies as soon as they cross the cap
+ * (or immediately, if the declared length already exceeds it).
+ */
+@Service
+public class UploadIngestionService {
+
+    private static final int SNIFF_LENGTH = 8;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final long maxBytes;
+    private final long memoryThresholdBytes;
+
+    @Autowired
+    public UploadIngestionService(
+            @Value("${upload.max-size:10MB}") DataSize maxSize,
+            @Value("${upload.memory-threshold:256KB}") DataSize memoryThreshold) {
+        this.maxBytes = maxSize.toBytes();
+        this.memoryThresholdBytes = memoryThreshold.toBytes();
+    }
+
+    public IngestedUpload ingest(MultipartFile file) throws IOException, UploadRejectedException {
+        try (InputStream in = file.getInputStream()) {
+            return ingest(in, file.getOriginalFilename(), file.getSize());
+        }
+    }
+
+    /**
+     * @param in           Upload body; read once, not closed
+     * @param fileName     Client-supplied file name (informational only)
+     * @param declaredSize Declared length, or -1 if unknown
+     */
+    public IngestedUpload ingest(InputStream in, String fileName, long declaredSize)
+            throws IOException, UploadRejectedException {
+        if (declaredSize > maxBytes) {
+            throw tooLarge();
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int head = in.readNBytes(buffer, 0, SNIFF_LENGTH);
+        String contentType = sniffContentType(buffer, head);
+        if (contentType == null) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.UNSUPPORTED_TYPE,
+                    "Unsupported file type. Please upload a PDF, JPG or PNG file.");
+        }
+
+        MessageDigest digest = sha256();
+        ByteArrayOutputStream memory = new ByteArrayOutputStream(
+                (int) Math.min(declaredSize > 0 ? declaredSize : BUFFER_SIZE, memoryThresholdBytes));
+        OutputStream sink = memory;
+        Path spoolFile = null;
+        long total = 0;
+
+        try {
+            int read = head;
+            do {
+                total += read;
+                if (total > maxBytes) {
+                    throw tooLarge();
+                }
+                digest.update(buffer, 0, read);
+
+                if (spoolFile == null && total > memoryThresholdBytes) {
+                    spoolFile = Files.createTempFile("upload-", ".bin");
+                    sink = Files.newOutputStream(spoolFile);
+                    memory.writeTo(sink);
+                    memory = null;
+                }
+                sink.write(buffer, 0, read);
+            } while ((read = in.read(buffer)) != -1);
+
+            sink.close();
+        } catch (IOException | UploadRejectedException | RuntimeException e) {
+            sink.close();
+            if (spoolFile != null) {
+                Files.deleteIfExists(spoolFile);
+            }
+            throw e;
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        return new IngestedUpload(fileName, contentType, hash, total,
+                memory != null ? memory.toByteArray() : null, spoolFile);
+    }
+
+    /**
+     * Detects PDF, PNG and JPEG from their magic bytes
+     */
+    static String sniffContentType(byte[] head, int length) {
+        if (length >= 5 && head[0] == '%' && head[1] == 'P' && head[2] == 'D' && head[3] == 'F' && head[4] == '-') {
+            return IngestedUpload.PDF;
+        }
+        if (length >= 8 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G'
+                && head[4] == 0x0D && head[5] == 0x0A && head[6] == 0x1A && head[7] == 0x0A) {
+            return IngestedUpload.PNG;
+        }
+        if (length >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) {
+            return IngestedUpload.JPEG;
+        }
+        return null;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private UploadRejectedException tooLarge() {
+        return new UploadRejectedException(UploadRejectedException.Reason.TOO_LARGE,
+                "File is too large. Maximum size is " + (maxBytes / (1024 * 1024)) + "MB.");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,63 +1,489 @@
 package com.bloodreport.analyzer.service;
 
+import com.bloodreport.analyzer.cluster.InProcessLeaseStore;
+import com.bloodreport.analyzer.cluster.LeaseStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Admission for uploads: how many a client may have in progress, and a fair
+ * queue in front of a fixed number of worker slots.
+ *
+ * Each upload in progress (queued or running) holds a lease in the
+ * {@link LeaseStore}, which with cluster.backend=redis is shared by all
+ * backend nodes; a client gets upload.queue.per-client-limit of them. A lease
+ * expires after cluster.lease-ttl even if the node handling the upload dies
+ * before releasing it, so the TTL must exceed the longest queue wait plus
+ * analysis time.
+ *
+ * On this node, uploads then wait for one of upload.queue.slots worker slots.
+ * Waiting uploads are served round-robin across clients, so a client with
+ * several queued uploads gets one slot per turn like everyone else, and the
+ * priority lane (requests with a key from upload.queue.priority-keys) is
+ * served before the standard lane. At most upload.queue.max-queued uploads
+ * wait; beyond that new ones are shed, as are uploads (synchronous or queued
+ * jobs) that wait longer than upload.queue.max-wait.
+ */
 @Service
 public class UploadManager {
 
+    public enum Lane {
+        PRIORITY, STANDARD
+    }
+
+    private static final double SERVICE_TIME_ALPHA = 0.2;
+
+    // Sheds queued jobs whose wait ran out
+    private static final ScheduledThreadPoolExecutor WAIT_TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "upload-queue-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        WAIT_TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final LeaseStore leases;
+    private final Duration leaseTtl;
+    private final int perClientLimit;
+    private final int slots;
+    private final int maxQueued;
+    private final Duration maxWait;
+    private final Set<String> priorityKeys;
+
+    // Request id -> lease key, for uploads started on this node and not yet completed
     private final Map<String, String> activeUploads = new ConcurrentHashMap<>();
 
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock: per lane, each client's waiting tickets in arrival order,
+    // clients in the order they are served next
+    private final Map<Lane, LinkedHashMap<String, ArrayDeque<UploadTicket>>> waiting = new EnumMap<>(Lane.class);
+    private int busySlots;
+    private int queued;
+    private double serviceMillis;
+    private long admitted;
+    private long waited;
+    private long shed;
+    private final AtomicLong conflicts = new AtomicLong();
+
+    public UploadManager() {
+        this(new InProcessLeaseStore(), Duration.ofMinutes(10), 1, 4, 200, Duration.ofMinutes(2), "");
+    }
+
+    @Autowired
+    public UploadManager(
+            LeaseStore leases,
+            @Value("${cluster.lease-ttl:PT10M}") Duration leaseTtl,
+            @Value("${upload.queue.per-client-limit:1}") int perClientLimit,
+            @Value("${upload.queue.slots:4}") int slots,
+            @Value("${upload.queue.max-queued:200}") int maxQueued,
+            @Value("${upload.queue.max-wait:PT2M}") Duration maxWait,
+            @Value("${upload.queue.priority-keys:}") String priorityKeys) {
+        this.leases = leases;
+        this.leaseTtl = leaseTtl;
+        this.perClientLimit = Math.max(1, perClientLimit);
+        this.slots = Math.max(1, slots);
+        this.maxQueued = maxQueued;
+        this.maxWait = maxWait;
+        this.priorityKeys = Set.of(priorityKeys.isBlank() ? new String[0] : priorityKeys.trim().split("\\s*,\\s*"));
+        for (Lane lane : Lane.values()) {
+            waiting.put(lane, new LinkedHashMap<>());
+        }
+    }
+
     /**
      * Attempts to start a new upload for the given identifier
-     * 
+     *
      * @param identifier Unique identifier for the upload (e.g., session ID or user
      *                   IP)
      * @param requestId  Unique ID for this specific request
-     * @return true if upload can proceed, false if one is already in progress
+     * @return true if upload can proceed, false if the client already has
+     *         per-client-limit uploads in progress
      */
     public boolean startUpload(String identifier, String requestId) {
-        String existing = activeUploads.putIfAbsent(identifier, requestId);
-        return existing == null;
+        for (int i = 0; i < perClientLimit; i++) {
+            String key = leaseKey(identifier, i);
+            if (leases.tryAcquire(key, requestId, leaseTtl)) {
+                activeUploads.put(requestId, key);
+                return true;
+            }
+        }
+        conflicts.incrementAndGet();
+        return false;
     }
 
     /**
      * Marks an upload as complete
-     * 
+     *
      * @param identifier The identifier that was used to start the upload
      * @param requestId  The request ID to verify it matches
      */
     public void completeUpload(String identifier, String requestId) {
-        activeUploads.remove(identifier, requestId);
+        String key = activeUploads.remove(requestId);
+        leases.release(key != null ? key : identifier, requestId);
     }
 
     /**
      * Checks if an upload is currently in progress for the identifier
      */
     public boolean isUploadInProgress(String identifier) {
-        return activeUploads.containsKey(identifier);
+        return getActiveRequestId(identifier) != null;
     }
 
     /**
-     * Gets the current active request ID for the identifier
+     * Gets the current active request ID for the identifier (the first one if
+     * the client has several)
      */
     public String getActiveRequestId(String identifier) {
-        return activeUploads.get(identifier);
+        for (int i = 0; i < perClientLimit; i++) {
+            String owner = leases.owner(leaseKey(identifier, i));
+            if (owner != null) {
+                return owner;
+            }
+        }
+        return null;
     }
 
     /**
      * Forces cleanup of an upload (use for error scenarios)
      */
     public void forceCleanup(String identifier) {
-        activeUploads.remove(identifier);
+        for (int i = 0; i < perClientLimit; i++) {
+            String key = leaseKey(identifier, i);
+            leases.forceRelease(key);
+            activeUploads.values().remove(key);
+        }
     }
 
     /**
-     * Gets the number of currently active uploads
+     * Gets the number of uploads currently active on this node
      */
     public int getActiveUploadCount() {
         return activeUploads.size();
     }
+
+    /**
+     * Uploads refused because the client already had per-client-limit in progress
+     */
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    /**
+     * Uploads waiting for a worker slot on this node
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getBusySlots() {
+        lock.lock();
+        try {
+            return busySlots;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Uploads turned away because the queue was full or the wait too long
+     */
+    public long getShedCount() {
+        lock.lock();
+        try {
+            return shed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The first lease is the bare identifier, as when clients had a single one
+    private static String leaseKey(String identifier, int index) {
+        return index == 0 ? identifier : identifier + "#" + index;
+    }
+
+    /**
+     * Lane for a request's API key (null if it sent none)
+     */
+    public Lane laneFor(String apiKey) {
+        return apiKey != null && priorityKeys.contains(apiKey) ? Lane.PRIORITY : Lane.STANDARD;
+    }
+
+    /**
+     * How long a synchronous upload waits for a slot before it is shed
+     */
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Queues an upload for a worker slot. The ticket is granted at once if a
+     * slot is free and nobody is waiting.
+     *
+     * @throws LoadShedException If max-queued uploads are already waiting
+     */
+    public UploadTicket enqueue(String clientId, String requestId, Lane lane) {
+        UploadTicket ticket = new UploadTicket(this, clientId, requestId, lane);
+        lock.lock();
+        try {
+            admitted++;
+            if (busySlots < slots && queued == 0) {
+                busySlots++;
+                ticket.grantedAt = System.nanoTime();
+                ticket.assigned = true;
+                ticket.grant();
+                return ticket;
+            }
+            if (queued >= maxQueued) {
+                shed++;
+                long retryAfter = Math.max(1, estimatedWaitMillis(queued + 1) / 1000);
+                throw new LoadShedException("Upload queue is full", retryAfter);
+            }
+            waiting.get(lane).computeIfAbsent(clientId, k -> new ArrayDeque<>()).addLast(ticket);
+            queued++;
+            waited++;
+            return ticket;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the ticket's slot, or takes it out of the queue if it was still
+     * waiting, and grants the next ticket. Safe to call more than once.
+     */
+    public void release(UploadTicket ticket) {
+        List<UploadTicket> granted = new ArrayList<>(1);
+        lock.lock();
+        try {
+            if (ticket.released) {
+                return;
+            }
+            ticket.released = true;
+            if (ticket.assigned) {
+                busySlots--;
+                double millis = (System.nanoTime() - ticket.grantedAt) / 1_000_000.0;
+                serviceMillis = serviceMillis == 0 ? millis : serviceMillis + SERVICE_TIME_ALPHA * (millis - serviceMillis);
+            } else {
+                Map<String, ArrayDeque<UploadTicket>> lane = waiting.get(ticket.getLane());
+                ArrayDeque<UploadTicket> tickets = lane.get(ticket.getClientId());
+                if (tickets != null && tickets.remove(ticket)) {
+                    queued--;
+                    if (tickets.isEmpty()) {
+                        lane.remove(ticket.getClientId());
+                    }
+                }
+            }
+            while (busySlots < slots && queued > 0) {
+                UploadTicket next = pollNext();
+                busySlots++;
+                next.grantedAt = System.nanoTime();
+                next.assigned = true;
+                granted.add(next);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Outside the lock: granting runs the waiter's continuation
+        for (UploadTicket next : granted) {
+            next.grant();
+        }
+    }
+
+    /**
+     * Gives up a ticket whose holder stopped waiting for it
+     *
+     * @return false if a slot was already assigned to the ticket, which then
+     *         stays with its holder
+     */
+    boolean abandon(UploadTicket ticket) {
+        lock.lock();
+        try {
+            if (ticket.assigned) {
+                return false;
+            }
+            if (!ticket.released) {
+                shed++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        release(ticket);
+        return true;
+    }
+
+    ScheduledFuture<?> schedule(Runnable task, Duration delay) {
+        return WAIT_TIMER.schedule(task, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Head ticket of the first client in the highest non-empty lane; that client moves to the back
+    private UploadTicket pollNext() {
+        for (Lane lane : Lane.values()) {
+            LinkedHashMap<String, ArrayDeque<UploadTicket>> clients = waiting.get(lane);
+            Iterator<Map.Entry<String, ArrayDeque<UploadTicket>>> first = clients.entrySet().iterator();
+            if (!first.hasNext()) {
+                continue;
+            }
+            Map.Entry<String, ArrayDeque<UploadTicket>> entry = first.next();
+            UploadTicket next = entry.getValue().pollFirst();
+            first.remove();
+            if (!entry.getValue().isEmpty()) {
+                clients.put(entry.getKey(), entry.getValue());
+            }
+            queued--;
+            return next;
+        }
+        throw new IllegalStateException("Queue count out of sync");
+    }
+
+    /**
+     * Position of a waiting ticket under round-robin service: the tickets
+     * ahead of it in its own client's queue, up to as many (one more for
+     * clients served before it in a round) from each other client in the lane,
+     * and everything in higher lanes
+     */
+    int position(UploadTicket ticket) {
+        lock.lock();
+        try {
+            if (ticket.assigned || ticket.released) {
+                return 0;
+            }
+            int ahead = 0;
+            for (Lane lane : Lane.values()) {
+                LinkedHashMap<String, ArrayDeque<UploadTicket>> clients = waiting.get(lane);
+                if (lane != ticket.getLane()) {
+                    for (ArrayDeque<UploadTicket> tickets : clients.values()) {
+                        ahead += tickets.size();
+                    }
+                    continue;
+                }
+                int index = indexOf(clients.get(ticket.getClientId()), ticket);
+                boolean before = true;
+                for (Map.Entry<String, ArrayDeque<UploadTicket>> entry : clients.entrySet()) {
+                    if (entry.getKey().equals(ticket.getClientId())) {
+                        before = false;
+                        ahead += index;
+                    } else {
+                        ahead += Math.min(entry.getValue().size(), index + (before ? 1 : 0));
+                    }
+                }
+                break;
+            }
+            return ahead + 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int indexOf(ArrayDeque<UploadTicket> tickets, UploadTicket ticket) {
+        int index = 0;
+        if (tickets != null) {
+            for (UploadTicket t : tickets) {
+                if (t == ticket) {
+                    return index;
+                }
+                index++;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Wait for the given queue position when every slot takes the average
+     * service time; -1 until an upload has finished
+     */
+    long estimatedWaitMillis(int position) {
+        if (position <= 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            if (serviceMillis == 0) {
+                return -1;
+            }
+            return Math.round(Math.ceil((double) position / slots) * serviceMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The client's uploads on this node that are still waiting for a slot
+     */
+    public List<Map<String, Object>> queueStatus(String clientId) {
+        List<UploadTicket> tickets = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Map<String, ArrayDeque<UploadTicket>> lane : waiting.values()) {
+                ArrayDeque<UploadTicket> own = lane.get(clientId);
+                if (own != null) {
+                    tickets.addAll(own);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        List<Map<String, Object>> status = new ArrayList<>(tickets.size());
+        for (UploadTicket ticket : tickets) {
+            Map<String, Object> entry = ticket.toMap();
+            entry.put("requestId", ticket.getRequestId());
+            status.add(entry);
+        }
+        return status;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        lock.lock();
+        try {
+            stats.put("slots", slots);
+            stats.put("busySlots", busySlots);
+            stats.put("queued", queued);
+            Map<String, Integer> byLane = new HashMap<>();
+            for (Map.Entry<Lane, LinkedHashMap<String, ArrayDeque<UploadTicket>>> lane : waiting.entrySet()) {
+                int count = 0;
+                for (ArrayDeque<UploadTicket> tickets : lane.getValue().values()) {
+                    count += tickets.size();
+                }
+                byLane.put(lane.getKey().name().toLowerCase(), count);
+            }
+            stats.put("queuedByLane", byLane);
+            stats.put("maxQueued", maxQueued);
+            stats.put("admitted", admitted);
+            stats.put("waited", waited);
+            stats.put("shed", shed);
+            stats.put("averageServiceMillis", Math.round(serviceMillis));
+        } finally {
+            lock.unlock();
+        }
+        stats.put("perClientLimit", perClientLimit);
+        stats.put("conflicts", conflicts.get());
+        stats.put("activeUploads", activeUploads.size());
+        stats.put("leases", leases.getStats());
+        return stats;
+    }
 }
@@ -0,0 +1,36 @@
+package com.bloodreport.analyzer.service;
+
+/**
+ * Thrown by the ingestion stage when an upload is refused before analysis, or
+ * after extraction when the client cannot pay the document's rate limit cost
+ */
+public class UploadRejectedException extends Exception {
+
+    public enum Reason {
+        TOO_LARGE, UNSUPPORTED_TYPE, RATE_LIMITED
+    }
+
+    private final Reason reason;
+    private final long retryAfterSeconds;
+
+    public UploadRejectedException(Reason reason, String message) {
+        this(reason, message, 0);
+    }
+
+    public UploadRejectedException(Reason reason, String message, long retryAfterSeconds) {
+        super(message);
+        this.reason = reason;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * For {@link Reason#RATE_LIMITED}: when the client's quota has room again
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
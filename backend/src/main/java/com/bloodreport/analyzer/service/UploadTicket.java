@@ -0,0 +1,142 @@
+package com.bloodreport.analyzer.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * A place in the {@link UploadManager} queue. Granted once a worker slot is
+ * free and it is this client's turn; give it back with
+ * {@link UploadManager#release(UploadTicket)}.
+ */
+public class UploadTicket {
+
+    private final UploadManager manager;
+    private final String clientId;
+    private final String requestId;
+    private final UploadManager.Lane lane;
+    private final CompletableFuture<Void> granted = new CompletableFuture<>();
+    private final long createdAt = System.nanoTime();
+
+    // Written under the manager's lock
+    long grantedAt;
+    // A slot was assigned; the grant itself runs after the lock is released
+    boolean assigned;
+    boolean released;
+
+    UploadTicket(UploadManager manager, String clientId, String requestId, UploadManager.Lane lane) {
+        this.manager = manager;
+        this.clientId = clientId;
+        this.requestId = requestId;
+        this.lane = lane;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public UploadManager.Lane getLane() {
+        return lane;
+    }
+
+    public boolean isGranted() {
+        return granted.isDone();
+    }
+
+    /**
+     * Uploads served before this one, plus one; 0 once it has a slot
+     */
+    public int getPosition() {
+        return manager.position(this);
+    }
+
+    /**
+     * Estimated time until this upload gets a slot, or -1 while no upload has
+     * finished yet to base the estimate on
+     */
+    public long getEstimatedWaitMillis() {
+        return manager.estimatedWaitMillis(getPosition());
+    }
+
+    /**
+     * Blocks until the ticket is granted
+     *
+     * @throws LoadShedException    If it is not granted within maxWait; the
+     *                              ticket is then released
+     * @throws InterruptedException If interrupted while waiting; the ticket is
+     *                              then released
+     */
+    public void awaitSlot(Duration maxWait) throws InterruptedException {
+        try {
+            granted.get(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LoadShedException shed = waitExceeded(maxWait);
+            if (manager.abandon(this)) {
+                throw shed;
+            }
+            // The slot was assigned as the wait ran out; the grant is on its way
+            granted.join();
+        } catch (InterruptedException e) {
+            if (!manager.abandon(this)) {
+                manager.release(this);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs the action when the ticket is granted, on the thread that frees the
+     * slot; callers that hold a ticket which is already granted should act
+     * directly instead. If the ticket is not granted within maxWait it is
+     * released and onShed runs instead, on a timer thread.
+     */
+    public void whenGranted(Duration maxWait, Runnable action, Consumer<LoadShedException> onShed) {
+        ScheduledFuture<?> timeout = manager.schedule(() -> {
+            LoadShedException shed = waitExceeded(maxWait);
+            if (manager.abandon(this)) {
+                onShed.accept(shed);
+            }
+        }, maxWait);
+        granted.thenRun(() -> {
+            timeout.cancel(false);
+            action.run();
+        });
+    }
+
+    /**
+     * Queue position and wait estimate for the API
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        int position = getPosition();
+        map.put("queuePosition", position);
+        map.put("lane", lane.name().toLowerCase());
+        long waitMillis = manager.estimatedWaitMillis(position);
+        if (waitMillis >= 0) {
+            map.put("estimatedWaitSeconds", TimeUnit.MILLISECONDS.toSeconds(waitMillis + 999));
+        }
+        map.put("queuedSeconds", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - createdAt));
+        return map;
+    }
+
+    private LoadShedException waitExceeded(Duration maxWait) {
+        long retryAfter = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(getEstimatedWaitMillis()));
+        return new LoadShedException("Upload queue wait exceeded " + maxWait.toSeconds() + "s", retryAfter);
+    }
+
+    void grant() {
+        granted.complete(null);
+    }
+}
@@ -1,10 +1,14 @@
 package com.bloodreport.analyzer.service;
 
 import com.bloodreport.analyzer.model.BloodMetric;
+import com.bloodreport.analyzer.model.TestNameIndex;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 
 @Service
 public class ValidationService {
@@ -62,4 +66,31 @@ public class ValidationService {
                 .filter(m -> "critical".equals(m.getStatus()))
                 .count();
     }
+
+    /**
+     * Canonical (test, status) signature of the metrics, e.g.
+     * "ldl:high,vitamin_d:low": tests by canonical key in sorted order, so the
+     * order and spelling of the report do not matter. Metrics with an unknown
+     * status are left out, and normal ones unless includeNormal is set.
+     */
+    public String signature(List<BloodMetric> metrics, boolean includeNormal) {
+        Map<String, String> statuses = new TreeMap<>();
+        for (BloodMetric metric : metrics) {
+            String status = metric.getStatus();
+            if (status == null || "unknown".equals(status) || (!includeNormal && "normal".equals(status))) {
+                continue;
+            }
+            String testKey = TestNameIndex.canonical(metric.getName());
+            statuses.putIfAbsent(testKey != null ? testKey : metric.getName().trim().toLowerCase(Locale.ROOT),
+                    status);
+        }
+        StringBuilder signature = new StringBuilder();
+        statuses.forEach((test, status) -> {
+            if (signature.length() > 0) {
+                signature.append(',');
+            }
+            signature.append(test).append(':').append(status);
+        });
+        return signature.toString();
+    }
 }
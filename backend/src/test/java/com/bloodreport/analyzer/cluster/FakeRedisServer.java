@@ -0,0 +1,243 @@
+package com.bloodreport.analyzer.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for a Redis server, speaking RESP2 and implementing just the
+ * commands (and scripts) the cluster stores send. Connection setup commands
+ * are not counted.
+ */
+class FakeRedisServer implements Closeable {
+
+    private static final Set<String> SETUP_COMMANDS = Set.of("HELLO", "CLIENT", "PING");
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Value> data = new HashMap<>();
+    private final List<Socket> clients = new ArrayList<>();
+    private final AtomicLong commands = new AtomicLong();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    FakeRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "fake-redis");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    long commandCount() {
+        return commands.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        // The listening socket only goes away once the acceptor has left accept()
+        try {
+            acceptor.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (clients) {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                if (closed) {
+                    client.close();
+                    return;
+                }
+                synchronized (clients) {
+                    clients.add(client);
+                }
+                Thread handler = new Thread(() -> serve(client), "fake-redis-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try (client) {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                if (!SETUP_COMMANDS.contains(command.get(0).toUpperCase())) {
+                    commands.incrementAndGet();
+                }
+                String reply;
+                synchronized (data) {
+                    reply = execute(command);
+                }
+                out.write(reply.getBytes(StandardCharsets.UTF_8));
+                // Flush once the pipelined commands already received are answered
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+    private String execute(List<String> command) {
+        String name = command.get(0).toUpperCase();
+        switch (name) {
+            case "PING":
+                return "+PONG\r\n";
+            case "CLIENT":
+                return "+OK\r\n";
+            case "GET": {
+                Value value = live(command.get(1));
+                return value == null ? "$-1\r\n" : bulk(value.text);
+            }
+            case "SET": {
+                boolean nx = false;
+                long px = -1;
+                for (int i = 3; i < command.size(); i++) {
+                    if ("NX".equalsIgnoreCase(command.get(i))) {
+                        nx = true;
+                    } else if ("PX".equalsIgnoreCase(command.get(i))) {
+                        px = Long.parseLong(command.get(++i));
+                    }
+                }
+                if (nx && live(command.get(1)) != null) {
+                    return "$-1\r\n";
+                }
+                data.put(command.get(1), new Value(command.get(2), px < 0 ? Long.MAX_VALUE : now() + px));
+                return "+OK\r\n";
+            }
+            case "DEL":
+                return ":" + (live(command.get(1)) != null && data.remove(command.get(1)) != null ? 1 : 0) + "\r\n";
+            case "INCRBY":
+            case "DECRBY": {
+                long delta = Long.parseLong(command.get(2)) * ("INCRBY".equals(name) ? 1 : -1);
+                Value value = live(command.get(1));
+                long result = (value == null ? 0 : Long.parseLong(value.text)) + delta;
+                data.put(command.get(1), new Value(Long.toString(result),
+                        value == null ? Long.MAX_VALUE : value.expiresAt));
+                return ":" + result + "\r\n";
+            }
+            case "PEXPIRE": {
+                Value value = live(command.get(1));
+                if (value == null) {
+                    return ":0\r\n";
+                }
+                data.put(command.get(1), new Value(value.text, now() + Long.parseLong(command.get(2))));
+                return ":1\r\n";
+            }
+            case "EVAL": {
+                if (RedisRateLimitStore.CONSUME_SCRIPT.equals(command.get(1))) {
+                    String used = execute(List.of("INCRBY", command.get(3), command.get(4)));
+                    execute(List.of("PEXPIRE", command.get(3), command.get(5)));
+                    return used;
+                }
+                if (!RedisLeaseStore.RELEASE_SCRIPT.equals(command.get(1))) {
+                    return "-ERR unknown script\r\n";
+                }
+                Value value = live(command.get(3));
+                if (value != null && value.text.equals(command.get(4))) {
+                    data.remove(command.get(3));
+                    return ":1\r\n";
+                }
+                return ":0\r\n";
+            }
+            default:
+                return "-ERR unknown command '" + name + "'\r\n";
+        }
+    }
+
+    private Value live(String key) {
+        Value value = data.get(key);
+        if (value != null && value.expiresAt <= now()) {
+            data.remove(key);
+            return null;
+        }
+        return value;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static String bulk(String text) {
+        return "$" + text.getBytes(StandardCharsets.UTF_8).length + "\r\n" + text + "\r\n";
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        if (type != '*') {
+            throw new IOException("Expected an array");
+        }
+        int count = Integer.parseInt(readLine(in));
+        List<String> command = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected a bulk string");
+            }
+            int length = Integer.parseInt(readLine(in));
+            byte[] bytes = in.readNBytes(length + 2);
+            command.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            line.write(b);
+        }
+        in.read();
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static class Value {
+        private final String text;
+        private final long expiresAt;
+
+        Value(String text, long expiresAt) {
+            this.text = text;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.bloodreport.analyzer.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InProcessLeaseStoreTest {
+
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    @Test
+    void testTryAcquire_ExclusiveUntilReleasedByOwner() {
+        InProcessLeaseStore store = new InProcessLeaseStore();
+
+        assertTrue(store.tryAcquire("client", "request-a", TTL));
+        assertFalse(store.tryAcquire("client", "request-b", TTL));
+
+        store.release("client", "request-b");
+        assertEquals("request-a", store.owner("client"));
+
+        store.release("client", "request-a");
+        assertNull(store.owner("client"));
+        assertTrue(store.tryAcquire("client", "request-b", TTL));
+    }
+
+    @Test
+    void testTryAcquire_ExpiredLeaseCanBeTaken() throws Exception {
+        InProcessLeaseStore store = new InProcessLeaseStore();
+        store.tryAcquire("client", "request-a", Duration.ofMillis(20));
+        Thread.sleep(40);
+
+        assertNull(store.owner("client"));
+        assertTrue(store.tryAcquire("client", "request-b", TTL));
+        assertEquals(1L, store.getStats().get("expired"));
+    }
+
+    @Test
+    void testForceRelease_IgnoresOwner() {
+        InProcessLeaseStore store = new InProcessLeaseStore();
+        store.tryAcquire("client", "request-a", TTL);
+
+        store.forceRelease("client");
+
+        assertNull(store.owner("client"));
+        assertEquals(0, store.getStats().get("held"));
+    }
+}
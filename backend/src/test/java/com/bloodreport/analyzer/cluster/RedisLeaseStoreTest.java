@@ -0,0 +1,145 @@
+package com.bloodreport.analyzer.cluster;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisLeaseStoreTest {
+
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    private FakeRedisServer server;
+    private SharedRedisConnection clientA;
+    private SharedRedisConnection clientB;
+    private RedisLeaseStore nodeA;
+    private RedisLeaseStore nodeB;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new FakeRedisServer();
+        clientA = new SharedRedisConnection("localhost", server.port(), Duration.ofSeconds(2));
+        clientB = new SharedRedisConnection("localhost", server.port(), Duration.ofSeconds(2));
+        nodeA = new RedisLeaseStore(clientA, "test:lease:");
+        nodeB = new RedisLeaseStore(clientB, "test:lease:");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        clientA.close();
+        clientB.close();
+        server.close();
+    }
+
+    @Test
+    void testTryAcquire_ExclusiveAcrossNodes() {
+        assertTrue(nodeA.tryAcquire("10.0.0.1", "request-a", TTL));
+
+        assertFalse(nodeB.tryAcquire("10.0.0.1", "request-b", TTL));
+        assertEquals("request-a", nodeB.owner("10.0.0.1"));
+        assertTrue(nodeB.tryAcquire("10.0.0.2", "request-c", TTL));
+    }
+
+    @Test
+    void testRelease_OnlyByOwner() {
+        nodeA.tryAcquire("10.0.0.1", "request-a", TTL);
+
+        nodeB.release("10.0.0.1", "request-b");
+        assertEquals("request-a", nodeA.owner("10.0.0.1"));
+
+        nodeA.release("10.0.0.1", "request-a");
+        assertNull(nodeB.owner("10.0.0.1"));
+        assertTrue(nodeB.tryAcquire("10.0.0.1", "request-b", TTL));
+    }
+
+    @Test
+    void testTryAcquire_ExpiredLeaseCanBeTaken() throws Exception {
+        assertTrue(nodeA.tryAcquire("10.0.0.1", "request-a", Duration.ofMillis(50)));
+        Thread.sleep(100);
+
+        assertTrue(nodeB.tryAcquire("10.0.0.1", "request-b", TTL));
+        // The late release of the expired lease leaves the new one alone
+        nodeA.release("10.0.0.1", "request-a");
+        assertEquals("request-b", nodeA.owner("10.0.0.1"));
+    }
+
+    @Test
+    void testCalls_OneRoundTripEach() {
+        nodeA.tryAcquire("10.0.0.1", "request-a", TTL);
+        nodeA.owner("10.0.0.1");
+        nodeA.release("10.0.0.1", "request-a");
+
+        assertEquals(3, server.commandCount());
+    }
+
+    @Test
+    void testTryAcquire_FallsBackToNodeLocalLeasesWhenUnreachable() throws Exception {
+        server.close();
+
+        assertTrue(nodeA.tryAcquire("10.0.0.1", "request-a", TTL));
+        assertFalse(nodeA.tryAcquire("10.0.0.1", "request-b", TTL));
+        assertEquals("request-a", nodeA.owner("10.0.0.1"));
+
+        nodeA.release("10.0.0.1", "request-a");
+        assertNull(nodeA.owner("10.0.0.1"));
+        assertTrue((Long) nodeA.getStats().get("failures") > 0);
+    }
+
+    @Test
+    void testTryAcquire_ConcurrentCallersFallBackWithoutEachConnecting() throws Exception {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = closed.getLocalPort();
+        }
+        SharedRedisConnection unreachable = new SharedRedisConnection("localhost", port, Duration.ofSeconds(2),
+                Duration.ofMinutes(1));
+        RedisLeaseStore node = new RedisLeaseStore(unreachable, "test:lease:");
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 16; i++) {
+                String client = "10.0.0." + i;
+                results.add(callers.submit(() -> node.tryAcquire(client, "request", TTL)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(5, TimeUnit.SECONDS));
+            }
+            // Later callers fail fast, without waiting for a connect of their own
+            assertTrue(node.tryAcquire("10.0.0.100", "request", TTL));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+            Map<String, Object> stats = unreachable.getStats();
+            assertEquals(1L, stats.get("connectAttempts"));
+            assertEquals(1L, stats.get("connectFailures"));
+            assertEquals(16L, stats.get("failedFast"));
+            assertEquals(17L, node.getStats().get("failures"));
+        } finally {
+            callers.shutdownNow();
+            unreachable.close();
+        }
+    }
+
+    @Test
+    void testTryAcquire_FallsBackWhenConnectionDrops() throws Exception {
+        assertTrue(nodeA.tryAcquire("10.0.0.1", "request-a", TTL));
+        server.close();
+
+        // Redis kept the first lease; the node now only knows its own
+        assertTrue(nodeA.tryAcquire("10.0.0.2", "request-b", TTL));
+        assertFalse(nodeA.tryAcquire("10.0.0.2", "request-c", TTL));
+        assertTrue((Long) nodeA.getStats().get("failures") > 0);
+    }
+}
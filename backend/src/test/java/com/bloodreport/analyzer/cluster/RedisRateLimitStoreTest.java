@@ -0,0 +1,102 @@
+package com.bloodreport.analyzer.cluster;
+
+import com.bloodreport.analyzer.config.RateLimitConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisRateLimitStoreTest {
+
+    private FakeRedisServer server;
+    private SharedRedisConnection clientA;
+    private SharedRedisConnection clientB;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new FakeRedisServer();
+        clientA = new SharedRedisConnection("localhost", server.port(), Duration.ofSeconds(2));
+        clientB = new SharedRedisConnection("localhost", server.port(), Duration.ofSeconds(2));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        clientA.close();
+        clientB.close();
+        server.close();
+    }
+
+    private static RateLimitConfig localBuckets() {
+        return new RateLimitConfig(100, Duration.ofMinutes(2), Duration.ofSeconds(30));
+    }
+
+    // A one-day window keeps the test away from window boundaries
+    private static RedisRateLimitStore node(SharedRedisConnection client) {
+        return new RedisRateLimitStore(client, localBuckets(), "test:rl:", Duration.ofDays(1));
+    }
+
+    @Test
+    void testTryConsume_QuotaSharedAcrossNodes() {
+        RedisRateLimitStore nodeA = node(clientA);
+        RedisRateLimitStore nodeB = node(clientB);
+
+        assertTrue(nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 6).isConsumed());
+        RateLimitResult last = nodeB.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 4);
+        assertTrue(last.isConsumed());
+        assertEquals(0, last.getRemainingTokens());
+
+        RateLimitResult denied = nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 1);
+        assertFalse(denied.isConsumed());
+        assertTrue(denied.getNanosToWaitForRefill() > 0);
+
+        // Other clients have their own quota
+        assertTrue(nodeB.tryConsume(EndpointClass.UPLOAD, "10.0.0.2", 1).isConsumed());
+    }
+
+    @Test
+    void testTryConsume_OneRoundTripAdmittedNoneOnceDenied() {
+        RedisRateLimitStore nodeA = node(clientA);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 1).isConsumed());
+        }
+        assertEquals(10L, nodeA.getStats().get("roundTrips"));
+        assertEquals(10, server.commandCount());
+
+        assertFalse(nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 1).isConsumed());
+        long afterFirstDenial = server.commandCount();
+        for (int i = 0; i < 5; i++) {
+            assertFalse(nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 1).isConsumed());
+        }
+
+        assertEquals(afterFirstDenial, server.commandCount());
+        assertEquals(5L, nodeA.getStats().get("rejectedLocally"));
+    }
+
+    @Test
+    void testTryConsume_OverdraftIsRefunded() {
+        RedisRateLimitStore nodeA = node(clientA);
+
+        assertTrue(nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 8).isConsumed());
+        RateLimitResult denied = nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 5);
+
+        assertFalse(denied.isConsumed());
+        assertEquals(2, denied.getRemainingTokens());
+        assertTrue(nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 2).isConsumed());
+    }
+
+    @Test
+    void testTryConsume_FallsBackToLocalBucketsWhenUnreachable() throws Exception {
+        RedisRateLimitStore nodeA = node(clientA);
+        server.close();
+
+        RateLimitResult result = nodeA.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 1);
+
+        assertTrue(result.isConsumed());
+        assertEquals(9, result.getRemainingTokens());
+        assertEquals(1L, nodeA.getStats().get("failures"));
+    }
+}
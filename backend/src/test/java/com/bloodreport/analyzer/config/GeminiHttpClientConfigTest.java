@@ -0,0 +1,159 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.service.AttemptScope;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiHttpClientConfigTest {
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String baseUrl;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = "{}".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private GeminiHttpClientConfig config(String protocol, Duration readTimeout) {
+        return config(protocol, readTimeout, Duration.ofSeconds(5));
+    }
+
+    private GeminiHttpClientConfig config(String protocol, Duration readTimeout, Duration totalTimeout) {
+        GeminiHttpClientConfig config = new GeminiHttpClientConfig();
+        ReflectionTestUtils.setField(config, "protocol", protocol);
+        ReflectionTestUtils.setField(config, "maxConnections", 4);
+        ReflectionTestUtils.setField(config, "connectTimeout", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(config, "readTimeout", readTimeout);
+        ReflectionTestUtils.setField(config, "totalTimeout", totalTimeout);
+        ReflectionTestUtils.setField(config, "poolWaitTimeout", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(config, "idleEviction", Duration.ofSeconds(30));
+        return config;
+    }
+
+    @Test
+    void testPooledClient_ReusesConnectionsAndReportsStats() {
+        RestTemplate restTemplate = config("HTTP_1_1", Duration.ofSeconds(5)).geminiRestTemplate();
+
+        restTemplate.postForObject(baseUrl + "/ok", "{}", String.class);
+        restTemplate.postForObject(baseUrl + "/ok", "{}", String.class);
+
+        PooledClientHttpRequestFactory factory = (PooledClientHttpRequestFactory) restTemplate.getRequestFactory();
+        Map<String, Object> stats = factory.getPoolStats();
+        assertEquals(4, stats.get("max"));
+        assertEquals(0, stats.get("leased"));
+        assertEquals(1, stats.get("available"), "Keep-alive connection should be returned to the pool");
+    }
+
+    @Test
+    void testPooledClient_ReadTimeout() {
+        RestTemplate restTemplate = config("HTTP_1_1", Duration.ofMillis(200)).geminiRestTemplate();
+
+        assertThrows(ResourceAccessException.class,
+                () -> restTemplate.postForObject(baseUrl + "/slow", "{}", String.class));
+    }
+
+    @Test
+    void testPooledClient_TotalDeadline() {
+        RestTemplate restTemplate = config("HTTP_1_1", Duration.ofSeconds(5), Duration.ofMillis(300))
+                .geminiRestTemplate();
+
+        long start = System.nanoTime();
+        assertThrows(ResourceAccessException.class,
+                () -> restTemplate.postForObject(baseUrl + "/slow", "{}", String.class));
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1500);
+    }
+
+    @Test
+    void testPooledClient_AbortedAttemptStopsBlockingRead() throws Exception {
+        RestTemplate restTemplate = config("HTTP_1_1", Duration.ofSeconds(5)).geminiRestTemplate();
+        AttemptScope scope = new AttemptScope();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+
+        try {
+            long start = System.nanoTime();
+            Future<String> attempt = caller.submit(
+                    () -> scope.run(() -> restTemplate.postForObject(baseUrl + "/slow", "{}", String.class)));
+            Thread.sleep(200);
+            scope.abort();
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> attempt.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(ResourceAccessException.class, e.getCause());
+            assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1500);
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    void testPooledClient_DeadlineDroppedWhenResponseClosed() {
+        RestTemplate restTemplate = config("HTTP_1_1", Duration.ofSeconds(5), Duration.ofMinutes(5))
+                .geminiRestTemplate();
+        int before = ExchangeDeadlineHandler.pendingDeadlines();
+
+        for (int i = 0; i < 3; i++) {
+            restTemplate.postForObject(baseUrl + "/ok", "{}", String.class);
+        }
+
+        assertEquals(before, ExchangeDeadlineHandler.pendingDeadlines());
+    }
+
+    @Test
+    void testHttp2Mode_TotalDeadline() {
+        RestTemplate restTemplate = config("HTTP_2", Duration.ofSeconds(5), Duration.ofMillis(300))
+                .geminiRestTemplate();
+
+        assertThrows(ResourceAccessException.class,
+                () -> restTemplate.postForObject(baseUrl + "/slow", "{}", String.class));
+    }
+
+    @Test
+    void testHttp2Mode_UsesJdkClient() {
+        RestTemplate restTemplate = config("HTTP_2", Duration.ofSeconds(5)).geminiRestTemplate();
+
+        assertFalse(restTemplate.getRequestFactory() instanceof PooledClientHttpRequestFactory);
+        assertEquals("{}", restTemplate.postForObject(baseUrl + "/ok", "{}", String.class));
+    }
+}
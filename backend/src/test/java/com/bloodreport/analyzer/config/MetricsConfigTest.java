@@ -0,0 +1,51 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.cluster.EndpointClass;
+import com.bloodreport.analyzer.service.DocumentCostCharger;
+import com.bloodreport.analyzer.service.GeminiAnalysisService;
+import com.bloodreport.analyzer.service.UploadManager;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsConfigTest {
+
+    @Test
+    void testScrape_StateGaugesAndCounters() throws Exception {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        RateLimitConfig rateLimits = new RateLimitConfig(100, Duration.ofMinutes(2), Duration.ofSeconds(30));
+        UploadManager uploadManager = new UploadManager();
+        new MetricsConfig().bloodReportMetrics(uploadManager,
+                new DocumentCostCharger(rateLimits, rateLimits, 5, 20_000), new GeminiAnalysisService())
+                .bindTo(registry);
+
+        // A request refused by the interceptor shares the rejection counter with document cost refusals
+        RateLimitInterceptor interceptor = new RateLimitInterceptor();
+        ReflectionTestUtils.setField(interceptor, "rateLimitStore", rateLimits);
+        ReflectionTestUtils.setField(interceptor, "meterRegistry", registry);
+        rateLimits.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 10);
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/blood-report/upload");
+        request.setRemoteAddr("10.0.0.1");
+        interceptor.preHandle(request, new MockHttpServletResponse(), null);
+        uploadManager.startUpload("10.0.0.2", "r1");
+
+        String scrape = registry.scrape();
+
+        assertTrue(scrape.contains("bloodreport_active_uploads 1"), scrape);
+        assertTrue(scrape.contains("bloodreport_upload_conflicts_total 0"));
+        assertTrue(scrape.contains("bloodreport_rate_limit_rejections_total{endpoint=\"upload\",reason=\"request\"} 1"));
+        assertTrue(scrape.contains(
+                "bloodreport_rate_limit_rejections_total{endpoint=\"upload\",reason=\"document_cost\"} 0"));
+        assertTrue(scrape.contains("bloodreport_gemini_circuit_state{state=\"CLOSED\"} 1"));
+        assertTrue(scrape.contains("bloodreport_gemini_circuit_state{state=\"OPEN\"} 0"));
+        assertTrue(scrape.contains("bloodreport_gemini_circuit_transitions_total{to=\"OPEN\"} 0"));
+        assertTrue(scrape.contains("bloodreport_gemini_hedges_total 0"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.cluster.EndpointClass;
+import com.bloodreport.analyzer.cluster.RateLimitResult;
+import io.github.bucket4j.Bucket;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitConfigTest {
+
+    private static final long IDLE_NANOS = Duration.ofMinutes(2).toNanos();
+
+    private static RateLimitConfig config(int maxClients) {
+        // No background sweeper: start() is not called
+        return new RateLimitConfig(maxClients, Duration.ofMinutes(2), Duration.ofSeconds(30));
+    }
+
+    @Test
+    void testResolveBucket_SameClientSameBucket() {
+        RateLimitConfig config = config(100);
+
+        Bucket bucket = config.resolveBucket(EndpointClass.UPLOAD, "10.0.0.1");
+        bucket.tryConsume(3);
+
+        assertSame(bucket, config.resolveBucket(EndpointClass.UPLOAD, "10.0.0.1"));
+        assertEquals(7, config.resolveBucket(EndpointClass.UPLOAD, "10.0.0.1").getAvailableTokens());
+        assertNotSame(bucket, config.resolveBucket(EndpointClass.UPLOAD, "10.0.0.2"));
+        assertEquals(2L, config.getStats().get("created"));
+    }
+
+    @Test
+    void testSweep_RemovesIdleBucketsOnly() throws Exception {
+        RateLimitConfig config = config(100);
+        config.resolveBucket(EndpointClass.UPLOAD, "idle");
+        Thread.sleep(5);
+        long activeSince = System.nanoTime();
+        config.resolveBucket(EndpointClass.UPLOAD, "active");
+
+        // Just past the idle timeout for "idle", just short of it for "active"
+        config.sweep(activeSince + IDLE_NANOS - 1);
+
+        assertEquals(1, config.size());
+        assertEquals(1L, config.getStats().get("expired"));
+        config.resolveBucket(EndpointClass.UPLOAD, "active").tryConsume(1);
+        assertEquals(9, config.resolveBucket(EndpointClass.UPLOAD, "active").getAvailableTokens());
+    }
+
+    @Test
+    void testIdleTimeout_AtLeastOneRefillPeriod() {
+        RateLimitConfig config = new RateLimitConfig(100, Duration.ofSeconds(1), Duration.ofSeconds(30));
+        config.resolveBucket(EndpointClass.UPLOAD, "client").tryConsume(10);
+
+        config.sweep(System.nanoTime() + Duration.ofSeconds(30).toNanos());
+
+        assertEquals(1, config.size(), "An emptied bucket must not be dropped before it refills");
+        assertEquals(0, config.resolveBucket(EndpointClass.UPLOAD, "client").getAvailableTokens());
+    }
+
+    @Test
+    void testResolveBucket_CapEvictsLeastRecentlyUsed() throws Exception {
+        RateLimitConfig config = config(10);
+        for (int i = 0; i < 10; i++) {
+            config.resolveBucket(EndpointClass.UPLOAD, "client-" + i);
+            Thread.sleep(1);
+        }
+        config.resolveBucket(EndpointClass.UPLOAD, "client-0");
+
+        config.resolveBucket(EndpointClass.UPLOAD, "client-new");
+
+        Map<String, Object> stats = config.getStats();
+        // 1 over the cap plus 10% headroom
+        assertEquals(2L, stats.get("capacityEvictions"));
+        assertEquals(9, stats.get("size"));
+        assertEquals(2L, stats.get("evictions"));
+        assertEquals(11L, stats.get("created"), "client-0 was used recently and kept its bucket");
+        config.resolveBucket(EndpointClass.UPLOAD, "client-0");
+        assertEquals(11L, config.getStats().get("created"));
+    }
+
+    @Test
+    void testResetBucket() {
+        RateLimitConfig config = config(100);
+        config.resolveBucket(EndpointClass.UPLOAD, "client").tryConsume(10);
+
+        config.resetBucket(EndpointClass.UPLOAD, "client");
+
+        assertEquals(10, config.resolveBucket(EndpointClass.UPLOAD, "client").getAvailableTokens());
+    }
+
+    @Test
+    void testTryConsume_SeparateQuotaPerEndpointClass() {
+        RateLimitConfig config = config(100);
+
+        assertTrue(config.tryConsume(EndpointClass.UPLOAD, "client", 10).isConsumed());
+        assertFalse(config.tryConsume(EndpointClass.UPLOAD, "client", 1).isConsumed());
+
+        // Polling a job does not draw on the upload quota, and vice versa
+        RateLimitResult polled = config.tryConsume(EndpointClass.JOBS, "client", 1);
+        assertTrue(polled.isConsumed());
+        assertEquals(59, polled.getRemainingTokens());
+        assertEquals(29, config.tryConsume(EndpointClass.GENERAL, "client", 1).getRemainingTokens());
+    }
+}
@@ -0,0 +1,72 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.cluster.EndpointClass;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitInterceptorTest {
+
+    private final RateLimitConfig rateLimits = new RateLimitConfig(100, Duration.ofMinutes(2), Duration.ofSeconds(30));
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RateLimitInterceptor interceptor() {
+        RateLimitInterceptor interceptor = new RateLimitInterceptor();
+        ReflectionTestUtils.setField(interceptor, "rateLimitStore", rateLimits);
+        ReflectionTestUtils.setField(interceptor, "meterRegistry", meterRegistry);
+        return interceptor;
+    }
+
+    private static MockHttpServletRequest request(String method, String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setRemoteAddr("10.0.0.1");
+        return request;
+    }
+
+    @Test
+    void testEndpointClass() {
+        assertEquals(EndpointClass.UPLOAD, RateLimitInterceptor.endpointClass("POST", "/api/blood-report/upload"));
+        assertEquals(EndpointClass.UPLOAD, RateLimitInterceptor.endpointClass("POST", "/api/blood-report/upload/raw"));
+        assertEquals(EndpointClass.JOBS, RateLimitInterceptor.endpointClass("GET", "/api/blood-report/jobs/abc"));
+        assertEquals(EndpointClass.GENERAL, RateLimitInterceptor.endpointClass("GET", "/api/blood-report/stats"));
+    }
+
+    @Test
+    void testPreHandle_OnlyExactHealthPathIsExempt() throws Exception {
+        RateLimitInterceptor interceptor = interceptor();
+
+        for (int i = 0; i < 40; i++) {
+            assertTrue(interceptor.preHandle(request("GET", "/api/blood-report/health"),
+                    new MockHttpServletResponse(), null));
+        }
+        assertEquals(0, rateLimits.size());
+
+        // A path merely containing "/health" is a job lookup and is charged as one
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(request("GET", "/api/blood-report/jobs/health"), response, null));
+        assertEquals("59", response.getHeader("X-Rate-Limit-Remaining"));
+    }
+
+    @Test
+    void testPreHandle_RejectsWhenEndpointQuotaIsUsedUp() throws Exception {
+        RateLimitInterceptor interceptor = interceptor();
+        rateLimits.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 10);
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(request("POST", "/api/blood-report/upload"), rejected, null));
+        assertEquals(429, rejected.getStatus());
+        assertEquals(1, meterRegistry.get(RateLimitInterceptor.REJECTIONS)
+                .tags("endpoint", "upload", "reason", "request").counter().count());
+
+        // Other endpoint classes still have their own quota
+        assertTrue(interceptor.preHandle(request("GET", "/api/blood-report/stats"), new MockHttpServletResponse(),
+                null));
+    }
+}
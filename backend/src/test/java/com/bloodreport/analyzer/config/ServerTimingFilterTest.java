@@ -0,0 +1,64 @@
+package com.bloodreport.analyzer.config;
+
+import com.bloodreport.analyzer.metrics.StageTimings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockPart;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerTimingFilterTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ServerTimingFilter filter() {
+        ServerTimingFilter filter = new ServerTimingFilter();
+        ReflectionTestUtils.setField(filter, "meterRegistry", meterRegistry);
+        return filter;
+    }
+
+    @Test
+    void testDoFilter_TimesMultipartAndAddsServerTiming() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/blood-report/upload");
+        request.setContentType(MediaType.MULTIPART_FORM_DATA_VALUE);
+        request.addPart(new MockPart("file", "report.pdf", "%PDF".getBytes()));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        AtomicReference<String> header = new AtomicReference<>();
+
+        filter().doFilter(request, response, (req, res) -> {
+            ((HttpServletRequest) req).getParts();
+            StageTimings.record(meterRegistry, "extract", System.nanoTime());
+            ServletServerHttpResponse serverResponse = new ServletServerHttpResponse(response);
+            new ServerTimingAdvice().beforeBodyWrite("body", null, MediaType.APPLICATION_JSON, null,
+                    new ServletServerHttpRequest(request), serverResponse);
+            header.set(serverResponse.getHeaders().getFirst(ServerTimingAdvice.HEADER));
+        });
+
+        assertTrue(header.get().startsWith("multipart;dur="), header.get());
+        assertTrue(header.get().contains(", extract;dur="));
+        assertTrue(header.get().contains(", total;dur="));
+        assertEquals(1, meterRegistry.get(StageTimings.STAGE_TIMER).tag("stage", ServerTimingFilter.MULTIPART_STAGE)
+                .timer().count());
+        assertNull(StageTimings.current(), "Timings are closed with the request");
+    }
+
+    @Test
+    void testDoFilter_SkipsNonApiRequests() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/actuator/prometheus");
+        AtomicReference<StageTimings> timings = new AtomicReference<>();
+
+        filter().doFilter(request, new MockHttpServletResponse(), (req, res) -> timings.set(StageTimings.current()));
+
+        assertNull(timings.get());
+    }
+}
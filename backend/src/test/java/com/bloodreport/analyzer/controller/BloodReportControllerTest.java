@@ -1,7 +1,16 @@
 package com.bloodreport.analyzer.controller;
 
+import com.bloodreport.analyzer.cluster.InProcessLeaseStore;
+import com.bloodreport.analyzer.service.AnalysisJob;
+import com.bloodreport.analyzer.service.AnalysisJobService;
 import com.bloodreport.analyzer.service.GeminiAnalysisService;
+import com.bloodreport.analyzer.service.IngestedUpload;
+import com.bloodreport.analyzer.service.LoadShedException;
+import com.bloodreport.analyzer.service.UploadIngestionService;
 import com.bloodreport.analyzer.service.UploadManager;
+import com.bloodreport.analyzer.service.UploadRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServletRequestWrapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -9,9 +18,14 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -22,11 +36,19 @@ class BloodReportControllerTest {
     private BloodReportController controller;
     private GeminiAnalysisService geminiService;
     private UploadManager uploadManager;
+    private AnalysisJobService analysisJobService;
 
     @BeforeEach
     void setUp() {
         geminiService = Mockito.mock(GeminiAnalysisService.class);
         uploadManager = Mockito.mock(UploadManager.class);
+        // Every upload gets a worker slot straight away
+        UploadManager slots = new UploadManager();
+        when(uploadManager.enqueue(anyString(), anyString(), any()))
+                .thenAnswer(invocation -> slots.enqueue(invocation.getArgument(0), invocation.getArgument(1),
+                        UploadManager.Lane.STANDARD));
+        when(uploadManager.getMaxWait()).thenReturn(Duration.ofSeconds(1));
+        analysisJobService = Mockito.mock(AnalysisJobService.class);
 
         controller = new BloodReportController();
         // Using reflection to set private fields
@@ -38,6 +60,18 @@ class BloodReportControllerTest {
             var uploadField = BloodReportController.class.getDeclaredField("uploadManager");
             uploadField.setAccessible(true);
             uploadField.set(controller, uploadManager);
+
+            var jobField = BloodReportController.class.getDeclaredField("analysisJobService");
+            jobField.setAccessible(true);
+            jobField.set(controller, analysisJobService);
+
+            var metricsField = BloodReportController.class.getDeclaredField("meterRegistry");
+            metricsField.setAccessible(true);
+            metricsField.set(controller, new SimpleMeterRegistry());
+
+            var ingestionField = BloodReportController.class.getDeclaredField("uploadIngestionService");
+            ingestionField.setAccessible(true);
+            ingestionField.set(controller, new UploadIngestionService(DataSize.ofKilobytes(64), DataSize.ofKilobytes(16)));
         } catch (Exception e) {
             fail("Failed to inject mocks: " + e.getMessage());
         }
@@ -86,7 +120,7 @@ class BloodReportControllerTest {
         mockAnalysis.put("message", "Analysis complete");
 
         when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
-        when(geminiService.analyzeBloodReport(any())).thenReturn(mockAnalysis);
+        when(geminiService.analyzeBloodReport(any(MultipartFile.class), anyString())).thenReturn(mockAnalysis);
 
         ResponseEntity<Map<String, Object>> response = controller.uploadReport(file, request);
 
@@ -102,7 +136,7 @@ class BloodReportControllerTest {
         request.setRemoteAddr("127.0.0.1");
 
         when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
-        when(geminiService.analyzeBloodReport(any())).thenThrow(new Exception("Service error"));
+        when(geminiService.analyzeBloodReport(any(MultipartFile.class), anyString())).thenThrow(new Exception("Service error"));
 
         ResponseEntity<Map<String, Object>> response = controller.uploadReport(file, request);
 
@@ -110,4 +144,230 @@ class BloodReportControllerTest {
         assertTrue(response.getBody().get("error").toString().contains("Failed to process file"));
         verify(uploadManager).completeUpload(anyString(), anyString());
     }
+
+    @Test
+    void testUploadReportAsync_Accepted() {
+        MockMultipartFile file = new MockMultipartFile("file", "test.pdf", "application/pdf", "%PDF-1.4 test data".getBytes());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        when(analysisJobService.submit(anyString(), anyString(), any()))
+                .thenAnswer(invocation -> new AnalysisJob(invocation.getArgument(1), invocation.getArgument(0)));
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReportAsync(file, request);
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertEquals(AnalysisJob.QUEUED, response.getBody().get("status"));
+        assertTrue(response.getBody().get("statusUrl").toString().endsWith(response.getBody().get("jobId").toString()));
+        verify(uploadManager, never()).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testUploadReportAsync_QueueFull() {
+        MockMultipartFile file = new MockMultipartFile("file", "test.pdf", "application/pdf", "%PDF-1.4 test data".getBytes());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        when(analysisJobService.submit(anyString(), anyString(), any())).thenThrow(new RejectedExecutionException());
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReportAsync(file, request);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertNotNull(response.getHeaders().getFirst("Retry-After"));
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testGetJob_NotFound() {
+        when(analysisJobService.getJob("missing")).thenReturn(null);
+
+        ResponseEntity<Map<String, Object>> response = controller.getJob("missing");
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
+    @Test
+    void testUploadReportAsync_UnsupportedFileType() {
+        MockMultipartFile file = new MockMultipartFile("file", "test.pdf", "application/pdf", "not a pdf".getBytes());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReportAsync(file, request);
+
+        assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, response.getStatusCode());
+        verify(analysisJobService, never()).submit(anyString(), anyString(), any());
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testUploadReportRaw_DeclaredLengthTooLarge() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+        request.setContent("%PDF-1.4".getBytes());
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReportRaw("report.pdf", new TooLargeRequest(request));
+
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, response.getStatusCode());
+        verify(geminiService, never()).analyzeBloodReport(any(IngestedUpload.class));
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testUploadReportRaw_Success() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+        request.setContent("%PDF-1.4 body".getBytes());
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        when(geminiService.analyzeBloodReport(any(IngestedUpload.class)))
+                .thenReturn(new HashMap<>());
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReportRaw("report.pdf", request);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().containsKey("requestId"));
+    }
+
+    @Test
+    void testUploadReportRaw_DocumentCostOverQuota() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+        request.setContent("%PDF-1.4 body".getBytes());
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        when(geminiService.analyzeBloodReport(any(IngestedUpload.class))).thenAnswer(invocation -> {
+            // The cost is charged to the client the upload was tagged with
+            assertEquals("127.0.0.1", invocation.<IngestedUpload>getArgument(0).getClientId());
+            throw new UploadRejectedException(UploadRejectedException.Reason.RATE_LIMITED, "Over quota", 42);
+        });
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReportRaw("report.pdf", request);
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        assertEquals("42", response.getHeaders().getFirst("Retry-After"));
+        assertEquals(42L, response.getBody().get("retryAfter"));
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testUploadReportRaw_InterruptedDuringAnalysisIsServerBusy() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+        request.setContent("%PDF-1.4 body".getBytes());
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        when(geminiService.analyzeBloodReport(any(IngestedUpload.class)))
+                .thenThrow(new InterruptedException("shutting down"));
+
+        ResponseEntity<Map<String, Object>> response;
+        try {
+            response = controller.uploadReportRaw("report.pdf", request);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testUploadReport_GeminiShedsLoad() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "test.pdf", "application/pdf", "test data".getBytes());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        when(geminiService.analyzeBloodReport(any(MultipartFile.class), anyString()))
+                .thenThrow(new LoadShedException("gemini overloaded", 7));
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReport(file, request);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("7", response.getHeaders().getFirst("Retry-After"));
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testUploadReport_GeminiUnavailable() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "test.pdf", "application/pdf", "test data".getBytes());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        when(geminiService.analyzeBloodReport(any(MultipartFile.class), anyString()))
+                .thenThrow(new ResourceAccessException("Read timed out"));
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReport(file, request);
+
+        assertEquals(HttpStatus.BAD_GATEWAY, response.getStatusCode());
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testUploadReport_UploadQueueFull() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "test.pdf", "application/pdf", "test data".getBytes());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        when(uploadManager.enqueue(anyString(), anyString(), any()))
+                .thenThrow(new LoadShedException("Upload queue is full", 30));
+
+        ResponseEntity<Map<String, Object>> response = controller.uploadReport(file, request);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("30", response.getHeaders().getFirst("Retry-After"));
+        verify(geminiService, never()).analyzeBloodReport(any(MultipartFile.class), anyString());
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    @Test
+    void testUploadReport_InterruptedWhileQueuedIsServerBusy() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "test.pdf", "application/pdf", "test data".getBytes());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+
+        when(uploadManager.startUpload(anyString(), anyString())).thenReturn(true);
+        // Slot held by someone else, so the upload has to wait
+        UploadManager busy = new UploadManager(new InProcessLeaseStore(), Duration.ofMinutes(10), 1, 1, 10,
+                Duration.ofSeconds(5), "");
+        busy.enqueue("other", "other1", UploadManager.Lane.STANDARD);
+        when(uploadManager.enqueue(anyString(), anyString(), any()))
+                .thenAnswer(invocation -> busy.enqueue(invocation.getArgument(0), invocation.getArgument(1),
+                        UploadManager.Lane.STANDARD));
+
+        Thread.currentThread().interrupt();
+        ResponseEntity<Map<String, Object>> response;
+        try {
+            response = controller.uploadReport(file, request);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals(0, busy.getStats().get("queued"));
+        verify(geminiService, never()).analyzeBloodReport(any(MultipartFile.class), anyString());
+        verify(uploadManager).completeUpload(anyString(), anyString());
+    }
+
+    /**
+     * MockHttpServletRequest derives the content length from the body; this
+     * reports a larger declared length, as a client streaming a big body would
+     */
+    private static class TooLargeRequest extends HttpServletRequestWrapper {
+        TooLargeRequest(MockHttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return 10L * 1024 * 1024;
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package com.bloodreport.analyzer.metrics;
+
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StageTimingsTest {
+
+    @Test
+    void testRecord_CumulativeBuckets() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        StageTimings.record(registry, "extract", System.nanoTime());
+        StageTimings.record(registry, "extract", System.nanoTime() - 2_000_000_000L);
+
+        String scrape = registry.scrape();
+
+        assertEquals(2, registry.get(StageTimings.STAGE_TIMER).tag("stage", "extract").timer().count());
+        assertTrue(scrape.contains("# TYPE bloodreport_stage_duration_seconds histogram\n"), scrape);
+        assertTrue(scrape.contains("bloodreport_stage_duration_seconds_bucket{stage=\"extract\",le=\"0.001\"} 1\n"));
+        assertTrue(scrape.contains("bloodreport_stage_duration_seconds_bucket{stage=\"extract\",le=\"1.0\"} 1\n"));
+        assertTrue(scrape.contains("bloodreport_stage_duration_seconds_bucket{stage=\"extract\",le=\"2.5\"} 2\n"));
+        assertTrue(scrape.contains("bloodreport_stage_duration_seconds_bucket{stage=\"extract\",le=\"+Inf\"} 2\n"));
+        assertTrue(scrape.contains("bloodreport_stage_duration_seconds_count{stage=\"extract\"} 2\n"));
+    }
+
+    @Test
+    void testRecord_AddsToCurrentRequestTimings() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        StageTimings.record(registry, "outside", System.nanoTime());
+
+        StageTimings.open();
+        try {
+            StageTimings.record(registry, "extract", System.nanoTime() - 3_000_000L);
+            StageTimings.record(registry, "gemini", System.nanoTime() - 1_000_000L);
+            StageTimings.record(registry, "extract", System.nanoTime() - 2_000_000L);
+
+            String header = StageTimings.current().toHeader();
+
+            assertTrue(header.matches("extract;dur=5\\.\\d, gemini;dur=1\\.\\d, total;dur=\\d+\\.\\d"), header);
+        } finally {
+            StageTimings.close();
+        }
+        assertNull(StageTimings.current());
+    }
+}
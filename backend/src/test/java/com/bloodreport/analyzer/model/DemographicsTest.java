@@ -0,0 +1,34 @@
+package com.bloodreport.analyzer.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DemographicsTest {
+
+    @Test
+    void testDetect_SeparateFields() {
+        Demographics demographics = Demographics.detect("Patient: Jane Doe\nAge: 34 Years\nSex: Female\n");
+
+        assertEquals(Demographics.Sex.FEMALE, demographics.getSex());
+        assertEquals(34, demographics.getAge());
+    }
+
+    @Test
+    void testDetect_CombinedField() {
+        Demographics demographics = Demographics.detect("Name: John Roe   Age/Sex : 52 Y / M\nGlucose 95");
+
+        assertEquals(Demographics.Sex.MALE, demographics.getSex());
+        assertEquals(52, demographics.getAge());
+    }
+
+    @Test
+    void testDetect_PartialAndMissing() {
+        Demographics sexOnly = Demographics.detect("Gender: M\nHemoglobin 14.5 g/dL");
+        assertEquals(Demographics.Sex.MALE, sexOnly.getSex());
+        assertNull(sexOnly.getAge());
+
+        assertSame(Demographics.UNKNOWN, Demographics.detect("Page 2 of 3\nAverage 12"));
+        assertSame(Demographics.UNKNOWN, Demographics.detect(null));
+    }
+}
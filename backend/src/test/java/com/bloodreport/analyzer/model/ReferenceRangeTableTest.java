@@ -0,0 +1,108 @@
+package com.bloodreport.analyzer.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReferenceRangeTableTest {
+
+    private static final String CSV = String.join("\n",
+            "# Example lab",
+            "test,sex,age_from,age_to,min,max,unit",
+            "hemoglobin,any,,,12.0,16.0,g/dL",
+            "Haemoglobin,male,18,,13.5,17.5,g/dL",
+            "HGB,female,18,,12.0,15.5,g/dL",
+            "hemoglobin,any,1,18,11.5,15.5,g/dL",
+            "",
+            "creatinine,male,,,0.74,1.35,mg/dL",
+            "creatinine,female,,,0.59,1.04,mg/dL");
+
+    private static ReferenceRangeTable parse(String csv) throws Exception {
+        return ReferenceRangeTable.parse(new StringReader(csv), "test.csv");
+    }
+
+    @Test
+    void testParse_IndexesRowsByCanonicalTest() throws Exception {
+        ReferenceRangeTable table = parse(CSV);
+
+        assertEquals(6, table.getRowCount());
+        assertEquals(2, table.getTestCount());
+        assertTrue(table.contains("hemoglobin"));
+        assertFalse(table.contains("glucose"));
+        assertNull(table.lookup("glucose", Demographics.UNKNOWN));
+    }
+
+    @Test
+    void testLookup_MostSpecificRowWins() throws Exception {
+        ReferenceRangeTable table = parse(CSV);
+
+        assertEquals(13.5, table.lookup("hemoglobin", new Demographics(Demographics.Sex.MALE, 45)).getMin());
+        assertEquals(15.5, table.lookup("hemoglobin", new Demographics(Demographics.Sex.FEMALE, 45)).getMax());
+        assertEquals(11.5, table.lookup("hemoglobin", new Demographics(Demographics.Sex.FEMALE, 10)).getMin());
+        assertEquals(13.5, table.lookup("hemoglobin", new Demographics(Demographics.Sex.MALE, 18)).getMin());
+        assertEquals(11.5, table.lookup("hemoglobin", new Demographics(Demographics.Sex.MALE, 17)).getMin());
+    }
+
+    @Test
+    void testLookup_UnknownDemographicsUseUnrestrictedRow() throws Exception {
+        ReferenceRangeTable table = parse(CSV);
+
+        assertEquals(12.0, table.lookup("hemoglobin", Demographics.UNKNOWN).getMin());
+        // Age known but sex unknown: the sex-specific adult rows do not apply
+        assertEquals(12.0, table.lookup("hemoglobin", new Demographics(Demographics.Sex.UNKNOWN, 40)).getMin());
+        // Only male and female rows: the patient's sex is not guessed
+        assertNull(table.lookup("creatinine", Demographics.UNKNOWN));
+        assertEquals(0.59, table.lookup("creatinine", new Demographics(Demographics.Sex.FEMALE, 40)).getMin());
+    }
+
+    @Test
+    void testLookup_NoMatchFallsBackToRowForEitherSex() throws Exception {
+        ReferenceRangeTable table = parse(String.join("\n",
+                "hemoglobin,male,18,,13.5,17.5,g/dL",
+                "hemoglobin,any,18,,12.0,16.0,g/dL"));
+
+        assertEquals(12.0, table.lookup("hemoglobin", Demographics.UNKNOWN).getMin());
+    }
+
+    @Test
+    void testGetRange_UsesBuiltInRangeWhenNoRowApplies() throws Exception {
+        try {
+            MedicalReferenceRanges.install(parse(CSV));
+
+            MedicalReferenceRanges.ReferenceRange builtIn = MedicalReferenceRanges.builtInTable()
+                    .lookup("creatinine", Demographics.UNKNOWN);
+            assertEquals(builtIn.getMin(), MedicalReferenceRanges.getRange("creatinine").getMin());
+            assertEquals(0.74, MedicalReferenceRanges.getRange("creatinine",
+                    new Demographics(Demographics.Sex.MALE, 40)).getMin());
+        } finally {
+            MedicalReferenceRanges.install(MedicalReferenceRanges.builtInTable());
+        }
+    }
+
+    @Test
+    void testOf_BuiltInRangesApplyToEveryone() {
+        ReferenceRangeTable table = MedicalReferenceRanges.builtInTable();
+
+        assertEquals(MedicalReferenceRanges.getTestNames().size(), table.getTestCount());
+        assertEquals(70.0, table.lookup("glucose", new Demographics(Demographics.Sex.FEMALE, 30)).getMin());
+    }
+
+    @Test
+    void testParse_RejectsMalformedRowsWithLineNumber() {
+        IllegalArgumentException unknown = assertThrows(IllegalArgumentException.class,
+                () -> parse("ferritin,any,,,20,250,ng/mL"));
+        assertTrue(unknown.getMessage().contains("line 1"));
+        assertTrue(unknown.getMessage().contains("ferritin"));
+
+        IllegalArgumentException columns = assertThrows(IllegalArgumentException.class,
+                () -> parse("# comment\nglucose,any,70,100,mg/dL"));
+        assertTrue(columns.getMessage().contains("line 2"));
+
+        assertThrows(IllegalArgumentException.class, () -> parse("glucose,other,,,70,100,mg/dL"));
+        assertThrows(IllegalArgumentException.class, () -> parse("glucose,any,,,seventy,100,mg/dL"));
+        assertThrows(IllegalArgumentException.class, () -> parse("glucose,any,,,100,70,mg/dL"));
+        assertThrows(IllegalArgumentException.class, () -> parse("glucose,any,18,18,70,100,mg/dL"));
+    }
+}
@@ -0,0 +1,93 @@
+package com.bloodreport.analyzer.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestNameIndexTest {
+
+    @Test
+    void testCanonical_KeysAndAliases() {
+        assertEquals("hemoglobin", TestNameIndex.canonical("hemoglobin"));
+        assertEquals("hemoglobin", TestNameIndex.canonical("Haemoglobin"));
+        assertEquals("hemoglobin", TestNameIndex.canonical("HGB"));
+        assertEquals("cholesterol", TestNameIndex.canonical("Total Cholesterol"));
+        assertEquals("vitamin_d", TestNameIndex.canonical("25-OH Vitamin D"));
+        assertEquals("vitamin_d", TestNameIndex.canonical("vitamin_d"));
+        assertEquals("vitamin_d", TestNameIndex.canonical("  Vitamin   D "));
+        assertEquals("hba1c", TestNameIndex.canonical("Hemoglobin A1c"));
+        assertEquals("alt", TestNameIndex.canonical("SGPT"));
+    }
+
+    @Test
+    void testCanonical_UnknownNames() {
+        assertNull(TestNameIndex.canonical("Ferritin"));
+        assertNull(TestNameIndex.canonical("Hemoglobins"));
+        assertNull(TestNameIndex.canonical(""));
+        assertNull(TestNameIndex.canonical((CharSequence) null));
+    }
+
+    @Test
+    void testCanonical_Range() {
+        String text = "xx Glucose xx";
+        assertEquals("glucose", TestNameIndex.canonical(text, 3, 10));
+    }
+
+    @Test
+    void testMedicalReferenceRanges_UseAliases() {
+        assertTrue(MedicalReferenceRanges.hasRange("Haemoglobin"));
+        assertEquals(MedicalReferenceRanges.getRange("hemoglobin"), MedicalReferenceRanges.getRange("HGB"));
+        assertNull(MedicalReferenceRanges.getRange("Ferritin"));
+    }
+
+    private static List<String> scan(String text) {
+        List<String> matches = new ArrayList<>();
+        TestNameIndex.scan(text, (testKey, start, end) -> matches.add(testKey + "=" + text.substring(start, end)));
+        return matches;
+    }
+
+    @Test
+    void testScan_FindsEveryNameInOnePass() {
+        String text = "Haemoglobin (HGB): 14.2\nTotal  Cholesterol 185, 25-OH Vitamin-D 32; SGOT 20";
+
+        assertEquals(List.of(
+                "hemoglobin=Haemoglobin",
+                "hemoglobin=HGB",
+                "cholesterol=Total  Cholesterol",
+                "cholesterol=Cholesterol",
+                "vitamin_d=25-OH Vitamin-D",
+                "vitamin_d=Vitamin-D",
+                "ast=SGOT"), scan(text));
+    }
+
+    @Test
+    void testScan_WholeWordsOnly() {
+        assertEquals(List.of(), scan("Avoid salt at least twice; Hbx and xHb are not tests"));
+        assertEquals(List.of("hba1c=HbA1c"), scan("HbA1c 5.4"));
+        assertFalse(TestNameIndex.containsTestName("Please fast before the test"));
+        assertTrue(TestNameIndex.containsTestName("ALT (SGPT) 30 U/L"));
+    }
+
+    @Test
+    void testConcurrentUse() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(pool.submit(() -> "glucose".equals(TestNameIndex.canonical("Fasting Blood Sugar"))
+                        && scan("LDL-C 120 HDL-C 45").size() == 4));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.bloodreport.analyzer.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnitConversionsTest {
+
+    @Test
+    void testCanonicalUnit_Spellings() {
+        assertEquals("mg/dL", UnitConversions.canonicalUnit("mg/dl"));
+        assertEquals("mg/dL", UnitConversions.canonicalUnit("MG / DL"));
+        assertEquals("K/μL", UnitConversions.canonicalUnit("x10^3/µL"));
+        assertEquals("K/μL", UnitConversions.canonicalUnit("10*3/uL"));
+        assertEquals("K/μL", UnitConversions.canonicalUnit("K/μL"));
+        assertEquals("M/μL", UnitConversions.canonicalUnit("× 10^6/uL"));
+        assertEquals("μg/dL", UnitConversions.canonicalUnit("mcg/dL"));
+        assertEquals("mIU/L", UnitConversions.canonicalUnit("uIU/mL"));
+        assertNull(UnitConversions.canonicalUnit("furlongs"));
+        assertNull(UnitConversions.canonicalUnit(null));
+    }
+
+    @Test
+    void testUnitId_Range() {
+        String text = "Glucose 5.4 mmol/L today";
+        assertEquals(UnitConversions.unitId("mmol/L"), UnitConversions.unitId(text, 12, 18));
+        assertEquals(-1, UnitConversions.unitId(text, 12, 16));
+    }
+
+    @Test
+    void testSameUnit() {
+        assertTrue(UnitConversions.sameUnit("g/dl", "G/DL"));
+        assertTrue(UnitConversions.sameUnit("x10^9/L", "K/uL"));
+        assertFalse(UnitConversions.sameUnit("g/dL", "g/L"));
+        assertFalse(UnitConversions.sameUnit("furlongs", "furlongs"));
+    }
+
+    @Test
+    void testConvert_SameKindForAnyTest() {
+        assertEquals(14.5, UnitConversions.convert("hemoglobin", 145, "g/L", "g/dL"), 1e-9);
+        assertEquals(0.9, UnitConversions.convert(null, 9, "mg/L", "mg/dL"), 1e-9);
+        assertEquals(7.2, UnitConversions.convert("wbc", 7.2, "x10^9/L", "K/μL"), 1e-9);
+        assertEquals(45.0, UnitConversions.convert("hematocrit", 0.45, "L/L", "%"), 1e-9);
+    }
+
+    @Test
+    void testConvert_MolarToMass() {
+        assertEquals(97.29, UnitConversions.convert("glucose", 5.4, "mmol/L", "mg/dL"), 0.01);
+        assertEquals(193.35, UnitConversions.convert("cholesterol", 5.0, "mmol/L", "mg/dL"), 0.01);
+        assertEquals(1.0, UnitConversions.convert("creatinine", 88.4, "µmol/L", "mg/dL"), 0.01);
+        assertEquals(5.4, UnitConversions.convert("glucose", 97.286, "mg/dL", "mmol/L"), 0.001);
+    }
+
+    @Test
+    void testConvert_Equivalents() {
+        assertEquals(140.0, UnitConversions.convert("sodium", 140, "mmol/L", "mEq/L"), 1e-9);
+        assertEquals(10.02, UnitConversions.convert("calcium", 2.5, "mmol/L", "mg/dL"), 0.01);
+        assertEquals(5.0, UnitConversions.convert("calcium", 2.5, "mmol/L", "mEq/L"), 1e-9);
+    }
+
+    @Test
+    void testConvert_HbA1cIfcc() {
+        assertEquals(6.54, UnitConversions.convert("hba1c", 48, "mmol/mol", "%"), 0.01);
+        assertEquals(48.0, UnitConversions.convert("hba1c", 6.543, "%", "mmol/mol"), 0.05);
+    }
+
+    @Test
+    void testConvert_NotConvertible() {
+        assertTrue(Double.isNaN(UnitConversions.convert("glucose", 5, "furlongs", "mg/dL")));
+        assertTrue(Double.isNaN(UnitConversions.convert("glucose", 5, "%", "mg/dL")));
+        // No molar mass for enzymes or unknown tests
+        assertTrue(Double.isNaN(UnitConversions.convert("alt", 5, "mmol/L", "mg/dL")));
+        assertTrue(Double.isNaN(UnitConversions.convert(null, 5, "mmol/L", "mg/dL")));
+    }
+}
@@ -0,0 +1,129 @@
+package com.bloodreport.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static AdaptiveConcurrencyLimiter limiter(int initial, int min, int max, int queue, Duration maxWait) {
+        return new AdaptiveConcurrencyLimiter("test", initial, min, max, queue, maxWait, 1.5,
+                e -> e instanceof IllegalStateException);
+    }
+
+    private static CompletableFuture<String> hold(AdaptiveConcurrencyLimiter limiter, CountDownLatch started,
+            CountDownLatch finish) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.call(() -> {
+                    started.countDown();
+                    finish.await(5, TimeUnit.SECONDS);
+                    return "done";
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Test
+    void testCall_ShedsAtOnceWhenQueueIsFull() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1, 1, Duration.ofSeconds(5));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<String> running = hold(limiter, started, finish);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.call(() -> "queued");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        while (!limiter.getStats().get("queueDepth").equals(1)) {
+            Thread.sleep(1);
+        }
+
+        long start = System.nanoTime();
+        LoadShedException shed = assertThrows(LoadShedException.class, () -> limiter.call(() -> "shed"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(shed.getRetryAfterSeconds() >= 1);
+
+        finish.countDown();
+        assertEquals("done", running.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+        assertEquals(1L, limiter.getStats().get("shedQueueFull"));
+    }
+
+    @Test
+    void testCall_ShedsWhenNoPermitWithinMaxWait() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1, 4, Duration.ofMillis(50));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<String> running = hold(limiter, started, finish);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertThrows(LoadShedException.class, () -> limiter.call(() -> "late"));
+
+        finish.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        assertEquals(1L, limiter.getStats().get("shedTimeout"));
+        assertEquals(0, limiter.getStats().get("queueDepth"));
+    }
+
+    @Test
+    void testCall_OverloadCutsLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 2, 20, 4, Duration.ofSeconds(1));
+
+        assertThrows(IllegalStateException.class, () -> limiter.call(() -> {
+            throw new IllegalStateException("503");
+        }));
+        assertEquals(8, limiter.getLimit());
+
+        // Other failures say nothing about upstream load
+        assertThrows(IllegalArgumentException.class, () -> limiter.call(() -> {
+            throw new IllegalArgumentException("400");
+        }));
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void testCall_RisingLatencyCutsLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(4, 1, 8, 4, Duration.ofSeconds(1));
+        // Enough samples for the baseline to settle past a slow first call;
+        // long enough calls that scheduler jitter stays within the tolerance
+        for (int i = 0; i < 40; i++) {
+            limiter.call(() -> sleep(10));
+        }
+        assertEquals(4, limiter.getLimit());
+
+        for (int i = 0; i < 3; i++) {
+            limiter.call(() -> sleep(60));
+        }
+
+        assertTrue(limiter.getLimit() < 4);
+        assertTrue((Long) limiter.getStats().get("decreases") >= 1);
+    }
+
+    @Test
+    void testCall_SteadyLatencyGrowsLimitWhileInUse() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 4, 4, Duration.ofSeconds(1));
+
+        limiter.call(() -> sleep(5));
+
+        // The only permit was in use and latency held steady
+        assertEquals(2, limiter.getLimit());
+        assertEquals(1L, limiter.getStats().get("increases"));
+    }
+
+    private static String sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return "ok";
+    }
+}
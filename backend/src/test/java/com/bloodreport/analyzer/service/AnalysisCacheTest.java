@@ -0,0 +1,168 @@
+package com.bloodreport.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisCacheTest {
+
+    private Map<String, Object> analysis(String message) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("message", message);
+        return result;
+    }
+
+    @Test
+    void testKeyFor_SameBytesSameKey() {
+        assertEquals(AnalysisCache.keyFor("abc".getBytes()), AnalysisCache.keyFor("abc".getBytes()));
+        assertNotEquals(AnalysisCache.keyFor("abc".getBytes()), AnalysisCache.keyFor("abd".getBytes()));
+    }
+
+    @Test
+    void testGetOrCompute_HitSkipsLoader() throws Exception {
+        AnalysisCache cache = new AnalysisCache(10, Duration.ofMinutes(5));
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.getOrCompute("k", () -> {
+            calls.incrementAndGet();
+            return analysis("first");
+        });
+        Map<String, Object> second = cache.getOrCompute("k", () -> {
+            calls.incrementAndGet();
+            return analysis("second");
+        });
+
+        assertEquals(1, calls.get());
+        assertEquals("first", second.get("message"));
+        assertEquals(1L, cache.getStats().get("hits"));
+        assertEquals(1L, cache.getStats().get("misses"));
+    }
+
+    @Test
+    void testGetOrCompute_ReturnsIndependentCopies() throws Exception {
+        AnalysisCache cache = new AnalysisCache(10, Duration.ofMinutes(5));
+
+        Map<String, Object> first = cache.getOrCompute("k", () -> analysis("first"));
+        first.put("requestId", "r1");
+
+        Map<String, Object> second = cache.getOrCompute("k", () -> analysis("other"));
+        assertFalse(second.containsKey("requestId"));
+    }
+
+    @Test
+    void testLruEviction() throws Exception {
+        AnalysisCache cache = new AnalysisCache(2, Duration.ofMinutes(5));
+
+        cache.getOrCompute("a", () -> analysis("a"));
+        cache.getOrCompute("b", () -> analysis("b"));
+        cache.getOrCompute("a", () -> analysis("a2")); // touch a
+        cache.getOrCompute("c", () -> analysis("c")); // evicts b
+
+        assertEquals(2, cache.size());
+        assertEquals(1L, cache.getStats().get("evictions"));
+        assertEquals("a", cache.getOrCompute("a", () -> analysis("a3")).get("message"));
+        assertEquals("b2", cache.getOrCompute("b", () -> analysis("b2")).get("message"));
+    }
+
+    @Test
+    void testTtlExpiry() throws Exception {
+        AnalysisCache cache = new AnalysisCache(10, Duration.ZERO);
+
+        cache.getOrCompute("k", () -> analysis("first"));
+        Thread.sleep(5);
+
+        assertEquals("second", cache.getOrCompute("k", () -> analysis("second")).get("message"));
+    }
+
+    @Test
+    void testComputationRunningAcrossInvalidateAllIsNotCached() throws Exception {
+        AnalysisCache cache = new AnalysisCache(10, Duration.ofMinutes(5));
+
+        Map<String, Object> result = cache.getOrCompute("k", () -> {
+            cache.invalidateAll();
+            return analysis("flagged with the old ranges");
+        });
+
+        assertEquals("flagged with the old ranges", result.get("message"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testFailedComputationIsNotCached() {
+        AnalysisCache cache = new AnalysisCache(10, Duration.ofMinutes(5));
+
+        assertThrows(IllegalStateException.class, () -> cache.getOrCompute("k", () -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testConcurrentIdenticalRequestsShareOneComputation() throws Exception {
+        AnalysisCache cache = new AnalysisCache(10, Duration.ofMinutes(5));
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = pool.submit(() -> cache.getOrCompute("k", () -> {
+                    calls.incrementAndGet();
+                    release.await(5, TimeUnit.SECONDS);
+                    return analysis("shared");
+                }));
+            }
+
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testQuotaRefusalIsNotSharedWithWaitingCallers() throws Exception {
+        AnalysisCache cache = new AnalysisCache(10, Duration.ofMinutes(5));
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Map<String, Object>> refused = pool.submit(() -> cache.getOrCompute("k", () -> {
+                leaderStarted.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                throw new UploadRejectedException(UploadRejectedException.Reason.RATE_LIMITED, "no quota", 30);
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+            Future<Map<String, Object>> paying = pool.submit(() -> cache.getOrCompute("k",
+                    () -> analysis("own")));
+
+            Thread.sleep(100);
+            release.countDown();
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> refused.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(UploadRejectedException.class, e.getCause());
+            assertEquals("own", paying.get(5, TimeUnit.SECONDS).get("message"));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, cache.size());
+    }
+}
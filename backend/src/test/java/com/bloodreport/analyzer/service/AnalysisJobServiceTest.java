@@ -0,0 +1,155 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.cluster.InProcessLeaseStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AnalysisJobServiceTest {
+
+    private AnalysisJobService jobService;
+    private GeminiAnalysisService geminiService;
+    private UploadManager uploadManager;
+
+    private final IngestedUpload file = new IngestedUpload("report.pdf", IngestedUpload.PDF, "hash", 4,
+            "%PDF".getBytes(), null);
+
+    @BeforeEach
+    void setUp() {
+        geminiService = Mockito.mock(GeminiAnalysisService.class);
+        uploadManager = new UploadManager();
+
+        jobService = new AnalysisJobService(1, 1, Duration.ofMinutes(5), Duration.ofSeconds(30), false);
+        ReflectionTestUtils.setField(jobService, "geminiService", geminiService);
+        ReflectionTestUtils.setField(jobService, "uploadManager", uploadManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobService.shutdown();
+    }
+
+    private void awaitFinished(AnalysisJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!job.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testSubmit_CompletesAndReleasesUploadSlot() throws Exception {
+        Map<String, Object> analysis = new HashMap<>();
+        analysis.put("message", "done");
+        when(geminiService.analyzeBloodReport(any(IngestedUpload.class))).thenReturn(analysis);
+
+        uploadManager.startUpload("client", "job1");
+        AnalysisJob job = jobService.submit("client", "job1", file);
+        awaitFinished(job);
+
+        assertEquals(AnalysisJob.COMPLETED, job.getStatus());
+        assertEquals("job1", job.getResult().get("requestId"));
+        assertFalse(uploadManager.isUploadInProgress("client"));
+        assertSame(job, jobService.getJob("job1"));
+    }
+
+    @Test
+    void testSubmit_FailureIsRecorded() throws Exception {
+        when(geminiService.analyzeBloodReport(any(IngestedUpload.class))).thenThrow(new Exception("Gemini down"));
+
+        uploadManager.startUpload("client", "job1");
+        AnalysisJob job = jobService.submit("client", "job1", file);
+        awaitFinished(job);
+
+        assertEquals(AnalysisJob.FAILED, job.getStatus());
+        assertTrue(job.getError().contains("Gemini down"));
+        assertFalse(uploadManager.isUploadInProgress("client"));
+    }
+
+    @Test
+    void testSubmit_RejectsWhenQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(geminiService.analyzeBloodReport(any(IngestedUpload.class))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new HashMap<>();
+        });
+
+        try {
+            jobService.submit("a", "job1", file); // running
+            Thread.sleep(50);
+            jobService.submit("b", "job2", file); // queued
+
+            assertThrows(RejectedExecutionException.class, () -> jobService.submit("c", "job3", file));
+            assertNull(jobService.getJob("job3"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testSubmit_WaitsForUploadSlot() throws Exception {
+        uploadManager = new UploadManager(new InProcessLeaseStore(), Duration.ofMinutes(10), 1, 1, 10,
+                Duration.ofSeconds(5), "");
+        ReflectionTestUtils.setField(jobService, "uploadManager", uploadManager);
+        CountDownLatch release = new CountDownLatch(1);
+        when(geminiService.analyzeBloodReport(any(IngestedUpload.class))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new HashMap<>();
+        });
+
+        AnalysisJob first = jobService.submit("a", "job1", file);
+        AnalysisJob second = jobService.submit("b", "job2", file);
+
+        assertEquals(AnalysisJob.QUEUED, second.getStatus());
+        assertEquals(1, second.toMap().get("queuePosition"));
+
+        release.countDown();
+        awaitFinished(first);
+        awaitFinished(second);
+        assertEquals(AnalysisJob.COMPLETED, second.getStatus());
+        assertEquals(0, uploadManager.getStats().get("busySlots"));
+    }
+
+    @Test
+    void testSubmit_QueuedJobFailsAfterMaxWait() throws Exception {
+        uploadManager = new UploadManager(new InProcessLeaseStore(), Duration.ofMinutes(10), 1, 1, 10,
+                Duration.ofMillis(50), "");
+        ReflectionTestUtils.setField(jobService, "uploadManager", uploadManager);
+        CountDownLatch release = new CountDownLatch(1);
+        when(geminiService.analyzeBloodReport(any(IngestedUpload.class))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new HashMap<>();
+        });
+
+        try {
+            jobService.submit("a", "job1", file);
+            uploadManager.startUpload("b", "job2");
+            AnalysisJob waiting = jobService.submit("b", "job2", file);
+            awaitFinished(waiting);
+
+            assertEquals(AnalysisJob.FAILED, waiting.getStatus());
+            assertTrue(waiting.getError().contains("wait exceeded"));
+            assertFalse(uploadManager.isUploadInProgress("b"));
+            assertEquals(0, uploadManager.getStats().get("queued"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testSubscribe_UnknownJob() {
+        assertNull(jobService.subscribe("missing"));
+    }
+}
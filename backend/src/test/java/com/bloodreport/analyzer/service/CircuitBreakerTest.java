@@ -0,0 +1,85 @@
+package com.bloodreport.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private static CircuitBreaker breaker(Duration openDuration) {
+        return new CircuitBreaker("test", 0.5, 4, 4, openDuration, 2, e -> e instanceof IllegalStateException);
+    }
+
+    private static void fail(CircuitBreaker breaker) {
+        assertThrows(IllegalStateException.class, () -> breaker.call(() -> {
+            throw new IllegalStateException("503");
+        }));
+    }
+
+    @Test
+    void testCall_OpensAtFailureRateAndFailsFast() throws Exception {
+        CircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+        breaker.call(() -> "ok");
+        breaker.call(() -> "ok");
+        fail(breaker);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        fail(breaker);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        CircuitOpenException open = assertThrows(CircuitOpenException.class, () -> breaker.call(() -> "ok"));
+        assertTrue(open.getRetryAfterSeconds() >= 59);
+        assertEquals(1L, breaker.getStats().get("opened"));
+        assertEquals(1L, breaker.getStats().get("rejected"));
+    }
+
+    @Test
+    void testCall_ClientErrorsAndLocalShedsDoNotOpen() throws Exception {
+        CircuitBreaker breaker = breaker(Duration.ofMinutes(1));
+        for (int i = 0; i < 4; i++) {
+            assertThrows(IllegalArgumentException.class, () -> breaker.call(() -> {
+                throw new IllegalArgumentException("400");
+            }));
+            assertThrows(RejectedExecutionException.class, () -> breaker.call(() -> {
+                throw new LoadShedException("shed", 1);
+            }));
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, breaker.getStats().get("failureRate"));
+    }
+
+    @Test
+    void testCall_HalfOpenClosesAfterTrialCalls() throws Exception {
+        CircuitBreaker breaker = breaker(Duration.ofMillis(20));
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        Thread.sleep(30);
+
+        assertEquals("ok", breaker.call(() -> "ok"));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.call(() -> "ok");
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1L, breaker.getStats().get("halfOpened"));
+        assertEquals(1L, breaker.getStats().get("closed"));
+    }
+
+    @Test
+    void testCall_HalfOpenFailureReopens() throws Exception {
+        CircuitBreaker breaker = breaker(Duration.ofMillis(20));
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        Thread.sleep(30);
+
+        fail(breaker);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2L, breaker.getStats().get("opened"));
+    }
+}
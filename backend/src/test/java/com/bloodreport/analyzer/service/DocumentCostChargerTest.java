@@ -0,0 +1,68 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.cluster.EndpointClass;
+import com.bloodreport.analyzer.config.RateLimitConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentCostChargerTest {
+
+    private final RateLimitConfig rateLimits = new RateLimitConfig(100, Duration.ofMinutes(2), Duration.ofSeconds(30));
+    private final DocumentCostCharger charger = new DocumentCostCharger(rateLimits, rateLimits, 5, 20_000);
+
+    private static IngestedUpload upload(String clientId) throws Exception {
+        IngestedUpload upload = new UploadIngestionService(DataSize.ofMegabytes(1), DataSize.ofKilobytes(64))
+                .ingest(new MockMultipartFile("file", "report.pdf", "application/pdf", "%PDF-1.4".getBytes()));
+        upload.setClientId(clientId);
+        return upload;
+    }
+
+    private static ExtractedReport report(int pages, int chars) {
+        return new ExtractedReport("x".repeat(chars), List.of(), null, pages);
+    }
+
+    @Test
+    void testExtraTokens_ByPagesAndTextCappedBelowCapacity() {
+        assertEquals(0, charger.extraTokens(1, 3_000));
+        assertEquals(2, charger.extraTokens(10, 5_000));
+        assertEquals(3, charger.extraTokens(10, 25_000));
+        // Upload capacity is 10, one of which is the interceptor's base token
+        assertEquals(9, charger.extraTokens(60, 400_000));
+    }
+
+    @Test
+    void testCharge_TakesTokensFromUploadQuota() throws Exception {
+        charger.charge(upload("10.0.0.1"), report(20, 0));
+
+        assertEquals(6, rateLimits.resolveBucket(EndpointClass.UPLOAD, "10.0.0.1").getAvailableTokens());
+        assertEquals(60, rateLimits.resolveBucket(EndpointClass.JOBS, "10.0.0.1").getAvailableTokens());
+        assertEquals(4L, charger.getStats().get("extraTokens"));
+    }
+
+    @Test
+    void testCharge_RejectsClientWhoCannotPay() throws Exception {
+        rateLimits.tryConsume(EndpointClass.UPLOAD, "10.0.0.1", 8);
+
+        UploadRejectedException e = assertThrows(UploadRejectedException.class,
+                () -> charger.charge(upload("10.0.0.1"), report(40, 0)));
+
+        assertEquals(UploadRejectedException.Reason.RATE_LIMITED, e.getReason());
+        assertTrue(e.getRetryAfterSeconds() > 0);
+        // The failed charge takes nothing, so a cheap report still goes through
+        assertEquals(2, rateLimits.resolveBucket(EndpointClass.UPLOAD, "10.0.0.1").getAvailableTokens());
+        assertEquals(1L, charger.getStats().get("rejected"));
+    }
+
+    @Test
+    void testCharge_NoClientNoCharge() throws Exception {
+        charger.charge(upload(null), report(40, 100_000));
+
+        assertEquals(0L, charger.getStats().get("charged"));
+    }
+}
@@ -0,0 +1,170 @@
+package com.bloodreport.analyzer.service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Platform vs virtual thread comparison against a local Gemini stub.
+ *
+ * Simulates a burst of uploads hitting the servlet container: the platform run
+ * uses a fixed worker pool (Tomcat-style), the virtual run uses one virtual
+ * thread per request with concurrency bounded by the Gemini semaphore.
+ *
+ * Run with: mvn test -Pbenchmark (the virtual run needs Java 21+)
+ */
+@Tag("benchmark")
+class ExecutionModeLoadTest {
+
+    private static final int REQUESTS = 512;
+    private static final int PLATFORM_WORKERS = 64;
+    private static final int GEMINI_PERMITS = 256;
+    private static final long STUB_LATENCY_MS = 1000;
+
+    private static final String STUB_RESPONSE = "{\"candidates\": [{\"content\": {\"parts\": [{\"text\": "
+            + "\"RISK FACTORS:\\n- None\\n\\nLIFESTYLE ADVICE:\\n- Sleep well\"}]}}]}";
+
+    private HttpServer stub;
+    private ExecutorService stubExecutor;
+    private final AtomicInteger stubInFlight = new AtomicInteger();
+    private final AtomicInteger stubPeak = new AtomicInteger();
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        stubExecutor = Executors.newCachedThreadPool();
+        stub.setExecutor(stubExecutor);
+        stub.createContext("/", exchange -> {
+            stubPeak.accumulateAndGet(stubInFlight.incrementAndGet(), Math::max);
+            try {
+                exchange.getRequestBody().readAllBytes();
+                Thread.sleep(STUB_LATENCY_MS);
+                byte[] body = STUB_RESPONSE.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stubInFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+        stubExecutor.shutdownNow();
+    }
+
+    private GeminiAnalysisService newService() {
+        GeminiAnalysisService service = new GeminiAnalysisService();
+        ReflectionTestUtils.setField(service, "restTemplate", new RestTemplate());
+        ReflectionTestUtils.setField(service, "apiKey", "stub");
+        ReflectionTestUtils.setField(service, "apiBaseUrl", "http://127.0.0.1:" + stub.getAddress().getPort());
+        ReflectionTestUtils.setField(service, "metricExtractionService", new MetricExtractionService());
+        ReflectionTestUtils.setField(service, "validationService", new ValidationService());
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "analysisCache", new AnalysisCache(0, Duration.ZERO));
+        ReflectionTestUtils.setField(service, "uploadIngestionService",
+                new UploadIngestionService(DataSize.ofMegabytes(10), DataSize.ofKilobytes(256)));
+        ReflectionTestUtils.setField(service, "localAnalysisService", new LocalAnalysisService(false, 1.0, 1, false));
+        // Fixed limit with room for the whole burst in the queue: this compares thread models, not shedding
+        service.configureGeminiLimiter(GEMINI_PERMITS, GEMINI_PERMITS, GEMINI_PERMITS, REQUESTS,
+                Duration.ofSeconds(30), 1.5);
+        return service;
+    }
+
+    private long[] runBurst(GeminiAnalysisService service, Executor executor) throws Exception {
+        // Warm up the JIT and connection paths before measuring
+        burst(service, executor, 64);
+        stubPeak.set(0);
+        return burst(service, executor, REQUESTS);
+    }
+
+    private long[] burst(GeminiAnalysisService service, Executor executor, int requests) throws Exception {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(requests);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < requests; i++) {
+            // Distinct bytes so the analysis cache never collapses requests
+            MockMultipartFile file = new MockMultipartFile("file", "r" + i + ".jpg", "image/jpeg",
+                    ("\u00FF\u00D8\u00FFreport-" + requests + "-" + i).getBytes(StandardCharsets.ISO_8859_1));
+            executor.execute(() -> {
+                try {
+                    service.analyzeBloodReport(file);
+                    latencies.add(System.nanoTime() - start);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(2, TimeUnit.MINUTES), "burst did not finish");
+        assertEquals(0, failures.get());
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long p50 = sorted.get(sorted.size() / 2) / 1_000_000;
+        long p99 = sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1) / 1_000_000;
+        long wall = (System.nanoTime() - start) / 1_000_000;
+        return new long[] { stubPeak.get(), p50, p99, wall };
+    }
+
+    private void report(String mode, long[] r) {
+        System.out.printf("%-30s requests=%d peakInFlight=%d p50=%dms p99=%dms wall=%dms%n",
+                mode, REQUESTS, r[0], r[1], r[2], r[3]);
+    }
+
+    @Test
+    void platformThreads() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(PLATFORM_WORKERS);
+        try {
+            long[] result = runBurst(newService(), workers);
+            report("platform (" + PLATFORM_WORKERS + " workers)", result);
+            assertTrue(result[0] <= PLATFORM_WORKERS);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void virtualThreads() throws Exception {
+        long[] result = runBurst(newService(), new VirtualThreadTaskExecutor("bench-"));
+        report("virtual (" + GEMINI_PERMITS + " gemini permits)", result);
+        assertTrue(result[0] > PLATFORM_WORKERS);
+        assertTrue(result[0] <= GEMINI_PERMITS);
+    }
+}
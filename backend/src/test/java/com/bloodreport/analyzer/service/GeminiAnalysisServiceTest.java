@@ -1,28 +1,59 @@
 package com.bloodreport.analyzer.service;
 
+import com.bloodreport.analyzer.config.RateLimitConfig;
+import com.bloodreport.analyzer.metrics.StageTimings;
 import com.bloodreport.analyzer.model.BloodMetric;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class GeminiAnalysisServiceTest {
 
+    private static final RateLimitConfig RATE_LIMITS = new RateLimitConfig(100, Duration.ofMinutes(2),
+            Duration.ofSeconds(30));
+
     @InjectMocks
     private GeminiAnalysisService geminiService;
 
@@ -35,16 +66,49 @@ class GeminiAnalysisServiceTest {
     @Mock
     private RestTemplate restTemplate;
 
+    @Spy
+    private AnalysisCache analysisCache = new AnalysisCache(100, Duration.ofMinutes(5));
+
+    @Spy
+    // Default thresholds
+    private NarrativeCache narrativeCache = new NarrativeCache(new ValidationService(), true, 100,
+            Duration.ofMinutes(5), 3, 0.75, false);
+
+    @Spy
+    private DocumentCostCharger documentCostCharger = new DocumentCostCharger(RATE_LIMITS, RATE_LIMITS, 5, 20_000);
+
+    @Spy
+    private UploadIngestionService uploadIngestionService = new UploadIngestionService(DataSize.ofMegabytes(10),
+            DataSize.ofKilobytes(256));
+
+    // JPEG magic bytes: the upload is routed by sniffed type, not by getContentType()
+    private static final byte[] JPEG_BYTES = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 'r', 'e', 'p', 'o', 'r', 't' };
+
+    @Spy
+    private PdfTextExtractionService pdfTextExtractionService = new PdfTextExtractionService("mixed",
+            DataSize.ofMegabytes(1), 10, 100_000, DataSize.ofMegabytes(8), Duration.ofSeconds(1));
+
+    @Spy
+    private PromptCompactor promptCompactor = new PromptCompactor(true, 4000);
+
+    @Spy
+    private LocalAnalysisService localAnalysisService = new LocalAnalysisService(true, 0.9, 3, true);
+
     @Mock
     private MultipartFile file;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
         MockitoAnnotations.openMocks(this);
+        when(file.getBytes()).thenReturn(JPEG_BYTES);
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(JPEG_BYTES));
         ReflectionTestUtils.setField(geminiService, "apiKey", "test-key");
         ReflectionTestUtils.setField(geminiService, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(geminiService, "meterRegistry", meterRegistry);
     }
 
     @Test
@@ -83,7 +147,7 @@ class GeminiAnalysisServiceTest {
         // Mock metric extraction
         List<BloodMetric> mockedMetrics = new ArrayList<>();
         mockedMetrics.add(new BloodMetric("Hemoglobin", 13.5, "g/dL", 12.0, 16.0));
-        when(metricExtractionService.extractMetricsFromStructuredData(any())).thenReturn(mockedMetrics);
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(mockedMetrics);
 
         // Mock validation
         when(validationService.validateMetrics(any())).thenReturn(new ArrayList<>());
@@ -110,11 +174,379 @@ class GeminiAnalysisServiceTest {
                 + "\"}]}}]}";
 
         when(restTemplate.postForObject(anyString(), any(), eq(String.class))).thenReturn(jsonResponse);
-        when(metricExtractionService.extractMetricsFromStructuredData(any())).thenReturn(new ArrayList<>());
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(new ArrayList<>());
 
         Map<String, Object> result = geminiService.analyzeBloodReport(file);
 
         assertNotNull(result);
         assertTrue(((List) result.get("metrics")).isEmpty());
     }
+
+    @Test
+    void testAnalyzeBloodReport_IdenticalUploadServedFromCache() throws Exception {
+        when(file.getContentType()).thenReturn("image/jpeg");
+        when(file.getOriginalFilename()).thenReturn("report.pdf");
+
+        String jsonResponse = "{\"candidates\": [{\"content\": {\"parts\": [{\"text\": \"RISK FACTORS:\\n- Risk 1\"}]}}]}";
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class))).thenReturn(jsonResponse);
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(new ArrayList<>());
+
+        geminiService.analyzeBloodReport(file);
+
+        when(file.getOriginalFilename()).thenReturn("copy.pdf");
+        Map<String, Object> second = geminiService.analyzeBloodReport(file);
+
+        verify(restTemplate, times(1)).postForObject(anyString(), any(), eq(String.class));
+        assertEquals("copy.pdf", second.get("fileName"));
+        assertEquals(1L, analysisCache.getStats().get("hits"));
+    }
+
+    @Test
+    void testAnalyzeBloodReportStreaming_RelaysPartialResults() throws Exception {
+        when(file.getContentType()).thenReturn("image/jpeg");
+        when(file.getOriginalFilename()).thenReturn("report.pdf");
+
+        String sse = "data: " + chunk("RISK FACTORS:\n- Risk ") + "\n\n"
+                + "data: " + chunk("1\n\nLIFESTYLE ADVICE:\n- Advice 1\n") + "\n\n"
+                + "data: " + chunk("###JSON_START###\n[{\"test\": \"Hemoglobin\", \"value\": \"13.5\"}]\n###JSON_END###") + "\n\n";
+
+        when(restTemplate.execute(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            ResponseExtractor<?> extractor = invocation.getArgument(3);
+            return extractor.extractData(new MockClientHttpResponse(sse.getBytes(), HttpStatus.OK));
+        });
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(new ArrayList<>());
+
+        List<String> events = new ArrayList<>();
+        Map<String, Object> result = geminiService.analyzeBloodReportStreaming(uploadIngestionService.ingest(file),
+                (event, data) -> events.add(event + ":" + data));
+
+        assertEquals(List.of("riskFactor:Risk 1", "lifestyleAdvice:Advice 1"), events);
+        assertArrayEquals(new String[] { "Risk 1" }, (String[]) result.get("riskFactors"));
+        verify(metricExtractionService).extractMetricsFromStructuredData(
+                argThat(list -> list.size() == 1 && "Hemoglobin".equals(list.get(0).get("test"))), any());
+    }
+
+    @Test
+    void testAnalyzeBloodReport_StructuredOutputRequestsSchema() throws Exception {
+        ReflectionTestUtils.setField(geminiService, "structuredOutput", true);
+        when(file.getContentType()).thenReturn("image/jpeg");
+        when(file.getOriginalFilename()).thenReturn("report.jpg");
+
+        String payload = "{\"riskFactors\": [\"Risk 1\"], \"lifestyleAdvice\": [\"Advice 1\", \"Advice 2\"], "
+                + "\"metrics\": [{\"test\": \"Hemoglobin\", \"value\": \"13.5\", \"unit\": \"g/dL\"}]}";
+        MockClientHttpRequest sent = new MockClientHttpRequest();
+        when(restTemplate.execute(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            ((RequestCallback) invocation.getArgument(2)).doWithRequest(sent);
+            ResponseExtractor<?> extractor = invocation.getArgument(3);
+            return extractor.extractData(new MockClientHttpResponse(chunk(payload).getBytes(), HttpStatus.OK));
+        });
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(new ArrayList<>());
+
+        Map<String, Object> result = geminiService.analyzeBloodReport(file);
+
+        JsonNode generationConfig = objectMapper.readTree(sent.getBodyAsString()).path("generationConfig");
+        assertEquals("application/json", generationConfig.path("responseMimeType").asText());
+        assertTrue(generationConfig.path("responseSchema").path("properties").has("metrics"));
+        assertArrayEquals(new String[] { "Risk 1" }, (String[]) result.get("riskFactors"));
+        assertArrayEquals(new String[] { "Advice 1", "Advice 2" }, (String[]) result.get("lifestyleAdvice"));
+        assertEquals(LocalAnalysisService.SOURCE_GEMINI, result.get("analysisSource"));
+        verify(metricExtractionService).extractMetricsFromStructuredData(
+                argThat(list -> list.size() == 1 && "g/dL".equals(list.get(0).get("unit"))), any());
+        verify(restTemplate, times(0)).postForObject(anyString(), any(), eq(String.class));
+    }
+
+    @Test
+    void testAnalyzeBloodReportStreaming_StructuredOutputRelaysItems() throws Exception {
+        ReflectionTestUtils.setField(geminiService, "structuredOutput", true);
+        when(file.getContentType()).thenReturn("image/jpeg");
+        when(file.getOriginalFilename()).thenReturn("report.jpg");
+
+        String sse = "data: " + chunk("{\"riskFactors\": [\"Ri") + "\n\n"
+                + "data: " + chunk("sk 1\"], \"lifestyleAdvice\": [\"Advice 1\"],") + "\n\n"
+                + "data: " + chunk(" \"metrics\": []}") + "\n\n";
+        when(restTemplate.execute(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            ResponseExtractor<?> extractor = invocation.getArgument(3);
+            return extractor.extractData(new MockClientHttpResponse(sse.getBytes(), HttpStatus.OK));
+        });
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(new ArrayList<>());
+
+        List<String> events = new ArrayList<>();
+        Map<String, Object> result = geminiService.analyzeBloodReportStreaming(uploadIngestionService.ingest(file),
+                (event, data) -> events.add(event + ":" + data));
+
+        assertEquals(List.of("riskFactor:Risk 1", "lifestyleAdvice:Advice 1"), events);
+        assertArrayEquals(new String[] { "Advice 1" }, (String[]) result.get("lifestyleAdvice"));
+    }
+
+    private String chunk(String text) throws Exception {
+        return "{\"candidates\": [{\"content\": {\"parts\": [{\"text\": "
+                + objectMapper.writeValueAsString(text) + "}]}}]}";
+    }
+
+    @Test
+    void testAnalyzeBloodReport_RejectsUnsupportedContentRegardlessOfDeclaredType() throws Exception {
+        when(file.getContentType()).thenReturn("application/pdf");
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream("plain text".getBytes()));
+
+        UploadRejectedException e = assertThrows(UploadRejectedException.class,
+                () -> geminiService.analyzeBloodReport(file));
+
+        assertEquals(UploadRejectedException.Reason.UNSUPPORTED_TYPE, e.getReason());
+        verify(restTemplate, times(0)).postForObject(anyString(), any(), eq(String.class));
+    }
+
+    @Test
+    void testAnalyzeBloodReport_PdfPromptIsCompacted() throws Exception {
+        byte[] pdf = PdfTextExtractionServiceTest.pdfWithPages(
+                "Glucose 95 mg/dL   Confidential - City Lab", "Hemoglobin 14.2 g/dL",
+                "Glucose 95 mg/dL   Confidential - City Lab");
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(pdf));
+        when(file.getOriginalFilename()).thenReturn("report.pdf");
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class)))
+                .thenReturn("{\"candidates\": [{\"content\": {\"parts\": [{\"text\": \"ok\"}]}}]}");
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(new ArrayList<>());
+
+        geminiService.analyzeBloodReport(file);
+
+        verify(restTemplate).postForObject(anyString(), argThat(entity -> {
+            String body = String.valueOf(((org.springframework.http.HttpEntity<?>) entity).getBody());
+            int first = body.indexOf("Glucose 95");
+            return first >= 0 && body.indexOf("Glucose 95", first + 1) < 0 && body.contains("Hemoglobin 14.2");
+        }), eq(String.class));
+        assertEquals(1L, promptCompactor.getStats().get("requests"));
+    }
+
+    private void mockPanel() throws Exception {
+        byte[] pdf = PdfTextExtractionServiceTest.pdfWithPages("Hemoglobin 11.0 g/dL", "Glucose 95 mg/dL",
+                "Platelets 250 K/uL");
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(pdf));
+        when(file.getOriginalFilename()).thenReturn("panel.pdf");
+        when(metricExtractionService.extractMetrics(anyString(), anyList())).thenReturn(List.of(
+                new BloodMetric("Hemoglobin", 11.0, "g/dL", 12.0, 16.0),
+                new BloodMetric("Glucose", 95.0, "mg/dL", 70.0, 100.0),
+                new BloodMetric("Platelets", 250.0, "K/uL", 150.0, 400.0)));
+    }
+
+    @Test
+    void testAnalyzeBloodReport_LocalFastPathSkipsGemini() throws Exception {
+        mockPanel();
+
+        Map<String, Object> result = geminiService.analyzeBloodReport(file);
+
+        assertEquals(LocalAnalysisService.SOURCE_LOCAL, result.get("analysisSource"));
+        assertEquals(3, ((List<?>) result.get("metrics")).size());
+        assertTrue(((String[]) result.get("riskFactors"))[0].contains("hemoglobin"));
+        verify(restTemplate, times(0)).postForObject(anyString(), any(), eq(String.class));
+    }
+
+    @Test
+    void testAnalyzeBloodReport_FallsBackToLocalWhenGeminiUnavailable() throws Exception {
+        mockPanel();
+        ReflectionTestUtils.setField(geminiService, "localAnalysisService",
+                new LocalAnalysisService(true, 0.9, 10, true));
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class)))
+                .thenThrow(new ResourceAccessException("quota exhausted"));
+
+        Map<String, Object> result = geminiService.analyzeBloodReport(file);
+
+        assertEquals(LocalAnalysisService.SOURCE_LOCAL_FALLBACK, result.get("analysisSource"));
+        assertEquals(3, ((List<?>) result.get("metrics")).size());
+        assertEquals(0, analysisCache.size(), "Degraded answers are not cached");
+    }
+
+    @Test
+    void testAnalyzeBloodReport_SameFindingsReuseNarrative() throws Exception {
+        mockPanel();
+        // Default thresholds: three tests are too few to answer locally, enough to share a narrative
+        ReflectionTestUtils.setField(geminiService, "localAnalysisService",
+                new LocalAnalysisService(true, 0.9, 5, true));
+        String narrative = "RISK FACTORS:\n- Hemoglobin is a little low\n\nLIFESTYLE ADVICE:\n- Eat spinach\n";
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class))).thenReturn(chunk(narrative));
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(List.of(
+                new BloodMetric("Hemoglobin", 11.0, "g/dL", 12.0, 16.0),
+                new BloodMetric("Glucose", 95.0, "mg/dL", 70.0, 100.0)));
+
+        Map<String, Object> first = geminiService.analyzeBloodReport(file);
+
+        // Another report (different bytes, so no analysis cache hit) with the same findings
+        byte[] otherPdf = PdfTextExtractionServiceTest.pdfWithPages("Hemoglobin 11.4 g/dL", "Glucose 88 mg/dL",
+                "Platelets 310 K/uL");
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(otherPdf));
+        Map<String, Object> second = geminiService.analyzeBloodReport(file);
+
+        assertEquals(LocalAnalysisService.SOURCE_GEMINI, first.get("analysisSource"));
+        assertEquals(LocalAnalysisService.SOURCE_NARRATIVE_CACHE, second.get("analysisSource"));
+        assertArrayEquals(new String[] { "Hemoglobin is a little low" }, (String[]) second.get("riskFactors"));
+        assertArrayEquals(new String[] { "Eat spinach" }, (String[]) second.get("lifestyleAdvice"));
+        assertEquals(3, ((List<?>) second.get("metrics")).size());
+        verify(restTemplate, times(1)).postForObject(anyString(), any(), eq(String.class));
+        assertEquals(0.5, narrativeCache.getStats().get("hitRate"));
+    }
+
+    @Test
+    void testAnalyzeBloodReport_NarrativeNotSharedWhenGeminiReadOtherFindings() throws Exception {
+        mockPanel();
+        // Default thresholds: three tests are too few to answer locally, enough to share a narrative
+        ReflectionTestUtils.setField(geminiService, "localAnalysisService",
+                new LocalAnalysisService(true, 0.9, 5, true));
+        String narrative = "RISK FACTORS:\n- Glucose is high\n\nLIFESTYLE ADVICE:\n- Cut sugar\n";
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class))).thenReturn(chunk(narrative));
+        // Gemini read a high glucose that local extraction saw as normal
+        when(metricExtractionService.extractMetricsFromStructuredData(any(), any())).thenReturn(List.of(
+                new BloodMetric("Hemoglobin", 11.0, "g/dL", 12.0, 16.0),
+                new BloodMetric("Glucose", 195.0, "mg/dL", 70.0, 100.0)));
+
+        geminiService.analyzeBloodReport(file);
+
+        assertEquals(0, narrativeCache.getStats().get("size"));
+        assertEquals(1L, narrativeCache.getStats().get("mismatched"));
+    }
+
+    @Test
+    void testAnalyzeBloodReport_ClientOutOfQuotaDoesNotRefuseOthersUploadingSameFile() throws Exception {
+        when(file.getContentType()).thenReturn("image/jpeg");
+        String narrative = "RISK FACTORS:\n- None\n\nLIFESTYLE ADVICE:\n- Keep it up\n";
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class))).thenReturn(chunk(narrative));
+        CountDownLatch charging = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            IngestedUpload upload = invocation.getArgument(0);
+            if (!"10.0.0.1".equals(upload.getClientId())) {
+                return invocation.callRealMethod();
+            }
+            charging.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw new UploadRejectedException(UploadRejectedException.Reason.RATE_LIMITED, "no quota", 30);
+        }).when(documentCostCharger).charge(any(), any());
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Map<String, Object>> outOfQuota = pool.submit(
+                    () -> geminiService.analyzeBloodReport(file, "10.0.0.1"));
+            assertTrue(charging.await(5, TimeUnit.SECONDS));
+            // Same bytes from another client while the first analysis is in flight
+            Future<Map<String, Object>> other = pool.submit(() -> geminiService.analyzeBloodReport(file, "10.0.0.2"));
+            Thread.sleep(100);
+            release.countDown();
+
+            ExecutionException refused = assertThrows(ExecutionException.class,
+                    () -> outOfQuota.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(UploadRejectedException.class, refused.getCause());
+            assertEquals(LocalAnalysisService.SOURCE_GEMINI, other.get(5, TimeUnit.SECONDS).get("analysisSource"));
+        } finally {
+            pool.shutdownNow();
+        }
+        verify(restTemplate, times(1)).postForObject(anyString(), any(), eq(String.class));
+    }
+
+    @Test
+    void testAnalyzeBloodReport_RetriesGeminiUnavailable() throws Exception {
+        when(file.getContentType()).thenReturn("image/jpeg");
+        String narrative = "RISK FACTORS:\n- None\n\nLIFESTYLE ADVICE:\n- Keep it up\n";
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class)))
+                .thenThrow(HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "unavailable",
+                        new HttpHeaders(), null, null))
+                .thenReturn(chunk(narrative));
+
+        Map<String, Object> result = geminiService.analyzeBloodReport(file);
+
+        assertEquals(LocalAnalysisService.SOURCE_GEMINI, result.get("analysisSource"));
+        verify(restTemplate, times(2)).postForObject(anyString(), any(), eq(String.class));
+        assertEquals(1L, ((Map<?, ?>) geminiService.getResilienceStats().get("retries")).get("retries"));
+        for (String stage : new String[] { "ingest", "extract", "gemini", "parse", "metrics", "validation" }) {
+            assertEquals(1, meterRegistry.get(StageTimings.STAGE_TIMER).tag("stage", stage).timer().count(), stage);
+        }
+    }
+
+    @Test
+    void testAnalyzeBloodReport_OpenCircuitFailsFast() throws Exception {
+        when(file.getContentType()).thenReturn("image/jpeg");
+        geminiService.configureGeminiCircuitBreaker(0.5, 2, 2, Duration.ofMinutes(1), 1);
+        geminiService.configureGeminiRetries(1, Duration.ofMillis(1), Duration.ofMillis(10), 0.1, 10, false, 0.95,
+                20, 32);
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class)))
+                .thenThrow(new ResourceAccessException("timed out"));
+
+        assertThrows(ResourceAccessException.class, () -> geminiService.analyzeBloodReport(file));
+        assertThrows(ResourceAccessException.class, () -> geminiService.analyzeBloodReport(file));
+        assertThrows(CircuitOpenException.class, () -> geminiService.analyzeBloodReport(file));
+
+        verify(restTemplate, times(2)).postForObject(anyString(), any(), eq(String.class));
+        Map<?, ?> breaker = (Map<?, ?>) geminiService.getResilienceStats().get("circuitBreaker");
+        assertEquals("OPEN", breaker.get("state"));
+    }
+
+    @Test
+    void testCallGemini_LosingHedgeIsNotCountedAsOverload() throws Exception {
+        geminiService.configureGeminiRetries(1, Duration.ofMillis(1), Duration.ofMillis(10), 0.1, 10, true, 0.5,
+                5, 2);
+        // Typical latency 20ms, so the hedge goes out well after the first attempt started
+        for (int i = 0; i < 5; i++) {
+            ReflectionTestUtils.invokeMethod(geminiService, "callGemini", (Callable<String>) () -> {
+                Thread.sleep(20);
+                return "warm";
+            });
+        }
+        int limit = (int) geminiService.getConcurrencyStats().get("limit");
+        CountDownLatch aborted = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = ReflectionTestUtils.invokeMethod(geminiService, "callGemini", (Callable<String>) () -> {
+            if (attempts.incrementAndGet() == 1) {
+                // Like the HTTP client: the read blocks until the request is aborted, then fails
+                AttemptScope.register(aborted::countDown);
+                while (aborted.getCount() > 0) {
+                    Thread.onSpinWait();
+                }
+                throw new ResourceAccessException("Socket closed");
+            }
+            return "hedge";
+        });
+
+        assertEquals("hedge", result);
+        assertTrue(aborted.await(1, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((int) geminiService.getConcurrencyStats().get("inFlight") > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Map<?, ?> breaker = (Map<?, ?>) geminiService.getResilienceStats().get("circuitBreaker");
+        assertEquals(0L, breaker.get("failures"));
+        assertEquals(6L, breaker.get("successes"));
+        assertEquals(limit, geminiService.getConcurrencyStats().get("limit"));
+        assertEquals(0L, geminiService.getConcurrencyStats().get("overloads"));
+        assertEquals(0, geminiService.getConcurrencyStats().get("inFlight"));
+    }
+
+    @Test
+    void testAnalyzeBloodReport_GeminiFailureWithoutLocalMetricsPropagates() throws Exception {
+        when(file.getContentType()).thenReturn("image/jpeg");
+        when(restTemplate.postForObject(anyString(), any(), eq(String.class)))
+                .thenThrow(new ResourceAccessException("quota exhausted"));
+
+        assertThrows(ResourceAccessException.class, () -> geminiService.analyzeBloodReport(file));
+    }
+
+    @Test
+    void testAnalyzeBloodReport_LabTemplateSkipsRegexAndGemini() throws Exception {
+        LabTemplateRegistry registry = new LabTemplateRegistry(new ByteArrayResource(new byte[0]), true);
+        registry.register(objectMapper.readTree("""
+                [{"id": "plain", "header": "Hemoglobin",
+                  "fields": [{"test": "Hemoglobin", "value": [40, 80, 300, 20], "unit": "g/dL"}]}]
+                """));
+        pdfTextExtractionService.setTemplateRegistry(registry);
+        byte[] pdf = PdfTextExtractionServiceTest.pdfWithPages("Hemoglobin 11.0 g/dL");
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(pdf));
+        when(file.getOriginalFilename()).thenReturn("plain.pdf");
+        when(metricExtractionService.extractMetricsFromTable(anyList(), any())).thenReturn(List.of(
+                new BloodMetric("Hemoglobin", 11.0, "g/dL", 12.0, 16.0)));
+
+        Map<String, Object> result = geminiService.analyzeBloodReport(file);
+
+        assertEquals(LocalAnalysisService.SOURCE_TEMPLATE, result.get("analysisSource"));
+        assertEquals("plain", result.get("labTemplate"));
+        verify(metricExtractionService).extractMetricsFromTable(
+                argThat(rows -> rows.size() == 1 && rows.get(0).getValue() == 11.0), any());
+        verify(metricExtractionService, times(0)).extractMetrics(anyString(), anyList());
+        verify(restTemplate, times(0)).postForObject(anyString(), any(), eq(String.class));
+    }
 }
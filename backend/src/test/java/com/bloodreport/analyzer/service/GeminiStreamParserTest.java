@@ -0,0 +1,45 @@
+package com.bloodreport.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiStreamParserTest {
+
+    private final List<String> events = new ArrayList<>();
+    private final GeminiStreamParser parser = new GeminiStreamParser((event, data) -> events.add(event + ":" + data));
+
+    @Test
+    void testFeed_EmitsItemsAsLinesComplete() {
+        parser.feed("RISK FACTORS:\n- High chol");
+        assertTrue(events.isEmpty(), "Partial line should not be emitted yet");
+
+        parser.feed("esterol\n- Low vitamin D\n\nLIFESTYLE ");
+        assertEquals(List.of("riskFactor:High cholesterol", "riskFactor:Low vitamin D"), events);
+
+        parser.feed("ADVICE:\n• Walk every day\n");
+        assertEquals("lifestyleAdvice:Walk every day", events.get(2));
+    }
+
+    @Test
+    void testFeed_IgnoresMetricsBlock() {
+        parser.feed("LIFESTYLE ADVICE:\n- Sleep well\n###JSON_START###\n");
+        parser.feed("- not advice\n[{\"test\": \"Glucose\", \"value\": \"95\"}]\n###JSON_END###\n");
+
+        assertEquals(List.of("lifestyleAdvice:Sleep well"), events);
+    }
+
+    @Test
+    void testFinish_FlushesLastLineAndReturnsFullText() {
+        parser.feed("RISK FACTORS:\n");
+        parser.feed("- Last item");
+
+        String text = parser.finish();
+
+        assertEquals("RISK FACTORS:\n- Last item", text);
+        assertEquals(List.of("riskFactor:Last item"), events);
+    }
+}
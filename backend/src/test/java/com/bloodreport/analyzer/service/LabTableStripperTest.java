@@ -0,0 +1,132 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.LabTableRow;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LabTableStripperTest {
+
+    private static final float[] COLUMNS = { 50, 220, 300, 380 };
+
+    /**
+     * One page with each row's cells drawn at the column x positions, one line per row
+     */
+    static byte[] pdfTable(String[]... rows) throws IOException {
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                float y = 700;
+                for (String[] row : rows) {
+                    for (int column = 0; column < row.length; column++) {
+                        if (row[column].isEmpty()) {
+                            continue;
+                        }
+                        content.beginText();
+                        content.setFont(PDType1Font.HELVETICA, 10);
+                        content.newLineAtOffset(COLUMNS[column], y);
+                        content.showText(row[column]);
+                        content.endText();
+                    }
+                    y -= 16;
+                }
+            }
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static List<LabTableRow> rows(byte[] pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            LabTableStripper stripper = new LabTableStripper();
+            stripper.writeText(document, new StringWriter());
+            return stripper.takeRows();
+        }
+    }
+
+    @Test
+    void testRows_NameResultUnitAndPrintedRange() throws Exception {
+        byte[] pdf = pdfTable(
+                new String[] { "Test", "Result", "Units", "Reference Range" },
+                new String[] { "Haemoglobin", "11.2 L", "g/dL", "12.0 - 15.5" },
+                new String[] { "Total Cholesterol", "185", "mg/dL", "< 200" },
+                new String[] { "HDL Cholesterol", "38", "mg/dL", "> 40" },
+                new String[] { "Patient ID", "12345", "", "" });
+
+        List<LabTableRow> rows = rows(pdf);
+
+        assertEquals(3, rows.size());
+        LabTableRow hemoglobin = rows.get(0);
+        assertEquals("Haemoglobin", hemoglobin.getName());
+        assertEquals("hemoglobin", hemoglobin.getTestKey());
+        assertEquals(11.2, hemoglobin.getValue());
+        assertEquals("g/dL", hemoglobin.getUnit());
+        assertEquals(12.0, hemoglobin.getReferenceMin());
+        assertEquals(15.5, hemoglobin.getReferenceMax());
+
+        assertEquals(0.0, rows.get(1).getReferenceMin());
+        assertEquals(200.0, rows.get(1).getReferenceMax());
+        assertEquals("hdl", rows.get(2).getTestKey());
+        assertEquals(40.0, rows.get(2).getReferenceMin());
+        assertNull(rows.get(2).getReferenceMax());
+    }
+
+    @Test
+    void testRows_RangeBeforeResultIsNotTakenAsResult() throws Exception {
+        // Column order differs from the usual layout; the range cell must not be read as the value
+        byte[] pdf = pdfTable(
+                new String[] { "Glucose, Fasting", "70 - 100 mg/dL", "126", "H" },
+                new String[] { "Hemoglobin (HGB)", "14.1 g/dL", "", "" });
+
+        List<LabTableRow> rows = rows(pdf);
+
+        assertEquals(2, rows.size());
+        assertEquals("glucose", rows.get(0).getTestKey());
+        assertEquals(126.0, rows.get(0).getValue());
+        assertEquals("mg/dL", rows.get(0).getUnit());
+        assertEquals(100.0, rows.get(0).getReferenceMax());
+        assertEquals("hemoglobin", rows.get(1).getTestKey());
+        assertEquals("g/dL", rows.get(1).getUnit());
+        assertFalse(rows.get(1).hasReferenceRange());
+    }
+
+    @Test
+    void testRows_HeaderPicksResultColumnOverPreviousResult() throws Exception {
+        byte[] pdf = pdfTable(
+                new String[] { "Test", "Previous", "Result", "Reference Range" },
+                new String[] { "Creatinine", "0.9", "1.4", "0.6 - 1.2" });
+
+        List<LabTableRow> rows = rows(pdf);
+
+        assertEquals(1, rows.size());
+        assertEquals(1.4, rows.get(0).getValue());
+    }
+
+    @Test
+    void testRows_FlowingTextIsIgnored() throws Exception {
+        byte[] pdf = PdfTextExtractionServiceTest.pdfWithPages("Glucose 95 mg/dL, fasting sample");
+
+        assertTrue(rows(pdf).isEmpty());
+    }
+
+    @Test
+    void testParseRange() {
+        assertArrayEquals(new Double[] { 3.5, 5.1 }, LabTableStripper.parseRange("3.5-5.1"));
+        assertArrayEquals(new Double[] { 150.0, 400.0 }, LabTableStripper.parseRange("150 to 400 K/uL"));
+        assertArrayEquals(new Double[] { 0.0, 5.6 }, LabTableStripper.parseRange("<= 5.6"));
+        assertArrayEquals(new Double[] { 30.0, null }, LabTableStripper.parseRange("> 30"));
+        assertNull(LabTableStripper.parseRange("14.2"));
+        assertNull(LabTableStripper.parseRange("12/03/2024"));
+        assertNull(LabTableStripper.parseRange("16 - 12"));
+    }
+}
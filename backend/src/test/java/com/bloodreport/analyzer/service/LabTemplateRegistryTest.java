@@ -0,0 +1,154 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.LabTableRow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LabTemplateRegistryTest {
+
+    // Rows drawn by LabTableStripperTest.pdfTable sit 16pt apart, the first one 92pt from the top of the page
+    private static final String TEMPLATES = """
+            [
+              {
+                "id": "acme-cbc-v1",
+                "producer": "Acme LIS",
+                "header": "ACME DIAGNOSTICS",
+                "pageSize": [612, 792],
+                "fields": [
+                  { "test": "Hemoglobin", "value": [215, 96, 70, 16], "unit": "g/dL", "range": [375, 96, 150, 16] },
+                  { "test": "WBC", "value": [215, 112, 70, 16], "unitRegion": [295, 112, 70, 16] }
+                ]
+              }
+            ]
+            """;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static byte[] acmeReport(String producer, String header, String hemoglobin) throws IOException {
+        byte[] pdf = LabTableStripperTest.pdfTable(
+                new String[] { header, "", "", "" },
+                new String[] { "Haemoglobin", hemoglobin, "g/dL", "12.0 - 15.5" },
+                new String[] { "Leukocytes", "7.4", "K/uL", "4.0 - 11.0" });
+        try (PDDocument document = PDDocument.load(pdf); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            document.getDocumentInformation().setProducer(producer);
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private LabTemplateRegistry registry() throws IOException {
+        LabTemplateRegistry registry = new LabTemplateRegistry(new ByteArrayResource(new byte[0]), true);
+        registry.register(objectMapper.readTree(TEMPLATES));
+        return registry;
+    }
+
+    private static ExtractedReport extract(LabTemplateRegistry registry, byte[] pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            return registry.extract(document);
+        }
+    }
+
+    @Test
+    void testExtract_KnownLayoutReadsRegions() throws Exception {
+        LabTemplateRegistry registry = registry();
+
+        ExtractedReport report = extract(registry, acmeReport("Acme LIS 4.2", "ACME Diagnostics - Lab Report", "11.2"));
+
+        assertNotNull(report);
+        assertEquals("acme-cbc-v1", report.getTemplateId());
+        List<LabTableRow> rows = report.getTableRows();
+        assertEquals(2, rows.size());
+        assertEquals("hemoglobin", rows.get(0).getTestKey());
+        assertEquals(11.2, rows.get(0).getValue());
+        assertEquals("g/dL", rows.get(0).getUnit());
+        assertEquals(15.5, rows.get(0).getReferenceMax());
+        assertEquals(7.4, rows.get(1).getValue());
+        assertEquals("K/uL", rows.get(1).getUnit());
+        assertFalse(rows.get(1).hasReferenceRange());
+        assertEquals(1.0, registry.getStats().get("hitRatio"));
+    }
+
+    @Test
+    void testExtract_OtherProducerOrHeaderIsAMiss() throws Exception {
+        LabTemplateRegistry registry = registry();
+
+        assertNull(extract(registry, acmeReport("Other LIS", "ACME DIAGNOSTICS", "11.2")));
+        assertNull(extract(registry, acmeReport("Acme LIS", "City Hospital", "11.2")));
+
+        Map<String, Object> stats = registry.getStats();
+        assertEquals(2L, stats.get("documents"));
+        assertEquals(0L, stats.get("hits"));
+        assertEquals(0.0, stats.get("hitRatio"));
+    }
+
+    @Test
+    void testExtract_PageSizeWithinToleranceIsAMatch() throws Exception {
+        // The report is a 612x792 pt page; sizes that round differently must still be candidates
+        LabTemplateRegistry registry = new LabTemplateRegistry(new ByteArrayResource(new byte[0]), true);
+        registry.register(objectMapper.readTree(TEMPLATES.replace("[612, 792]", "[613.4, 791]")));
+        byte[] pdf = acmeReport("Acme LIS 4.2", "ACME Diagnostics - Lab Report", "11.2");
+
+        assertNotNull(extract(registry, pdf));
+
+        registry.register(objectMapper.readTree(TEMPLATES.replace("[612, 792]", "[614.5, 792]")));
+        assertNull(extract(registry, pdf));
+    }
+
+    @Test
+    void testExtract_MovedValuesAreAMiss() throws Exception {
+        LabTemplateRegistry registry = registry();
+        registry.register(objectMapper.readTree(TEMPLATES.replace("[215, 112, 70, 16]", "[215, 400, 70, 16]")
+                .replace("[215, 96, 70, 16]", "[215, 500, 70, 16]")));
+
+        assertNull(extract(registry, acmeReport("Acme LIS", "ACME DIAGNOSTICS", "11.2")));
+        assertEquals(1L, registry.getStats().get("incomplete"));
+    }
+
+    @Test
+    void testRegister_RejectsUnknownTests() {
+        LabTemplateRegistry registry = new LabTemplateRegistry(new ByteArrayResource(new byte[0]), true);
+
+        assertThrows(IllegalArgumentException.class, () -> registry.register(objectMapper.readTree(
+                "[{\"id\": \"x\", \"header\": \"X\", \"fields\": [{\"test\": \"Ferritin\", \"value\": [0, 0, 1, 1]}]}]")));
+    }
+
+    @Test
+    void testLoad_BadFileLeavesRegistryEmpty() {
+        LabTemplateRegistry registry = new LabTemplateRegistry(
+                new ByteArrayResource("{not json".getBytes(StandardCharsets.UTF_8)), true);
+
+        registry.load();
+
+        assertEquals(0, registry.getStats().get("templates"));
+    }
+
+    @Test
+    void testPdfExtraction_UsesTemplateBeforeTextExtraction() throws Exception {
+        PdfTextExtractionService service = new PdfTextExtractionService("mixed", DataSize.ofKilobytes(64), 10,
+                10_000, DataSize.ofMegabytes(8), Duration.ofSeconds(1));
+        service.setTemplateRegistry(registry());
+        byte[] pdf = acmeReport("Acme LIS", "ACME DIAGNOSTICS", "11.2");
+        UploadIngestionService ingestion = new UploadIngestionService(DataSize.ofMegabytes(10),
+                DataSize.ofKilobytes(256));
+
+        try (IngestedUpload upload = ingestion.ingest(new ByteArrayInputStream(pdf), "acme.pdf", pdf.length)) {
+            assertEquals("acme-cbc-v1", service.extract(upload).getTemplateId());
+            ExtractedReport fullText = service.extract(upload, false);
+            assertNull(fullText.getTemplateId());
+            assertTrue(fullText.getText().contains("Leukocytes"));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.BloodMetric;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalAnalysisServiceTest {
+
+    private final LocalAnalysisService service = new LocalAnalysisService(true, 0.8, 2, true);
+
+    private static final String PANEL = """
+            Test Result Units Reference Range
+            Hemoglobin 14.2 g/dL 12.0 - 16.0
+            Glucose 104 mg/dL 70 - 100
+            """;
+
+    private final List<BloodMetric> panelMetrics = List.of(
+            new BloodMetric("Hemoglobin", 14.2, "g/dL", 12.0, 16.0),
+            new BloodMetric("Glucose", 104.0, "mg/dL", 70.0, 100.0));
+
+    @Test
+    void testIsSufficient_FullCoverage() {
+        assertTrue(service.isSufficient(PANEL, panelMetrics));
+    }
+
+    @Test
+    void testIsSufficient_UnrecognizedRowsLowerCoverage() {
+        String report = PANEL + "Ferritin 45 ng/mL\nZinc 90 ug/dL\n";
+
+        assertEquals(0.5, LocalAnalysisService.coverage(report, 2));
+        assertFalse(service.isSufficient(report, panelMetrics));
+    }
+
+    @Test
+    void testIsSufficient_TooFewMetricsOrDisabled() {
+        assertFalse(service.isSufficient("Glucose 104 mg/dL", panelMetrics.subList(1, 2)));
+        assertFalse(new LocalAnalysisService(false, 0.8, 2, true).isSufficient(PANEL, panelMetrics));
+    }
+
+    @Test
+    void testAnalyze_UsesTemplatesForOutOfRangeMetrics() {
+        List<String> events = new ArrayList<>();
+
+        Map<String, Object> result = service.analyze(panelMetrics, false, (event, data) -> events.add(event));
+
+        String[] riskFactors = (String[]) result.get("riskFactors");
+        String[] advice = (String[]) result.get("lifestyleAdvice");
+        assertEquals(1, riskFactors.length);
+        assertTrue(riskFactors[0].contains("blood sugar"));
+        assertEquals(5, advice.length, "Topped up with general advice");
+        assertTrue(advice[0].contains("sugary drinks"));
+        assertEquals(LocalAnalysisService.SOURCE_LOCAL, result.get("analysisSource"));
+        assertEquals(6, events.size());
+    }
+
+    @Test
+    void testAnalyze_CriticalAndUnknownTests() {
+        List<BloodMetric> metrics = List.of(
+                new BloodMetric("Calcium", 14.0, "mg/dL", 8.5, 10.5),
+                new BloodMetric("Ferritin", 5.0, "ng/mL", 20.0, 250.0));
+
+        String[] riskFactors = (String[]) service.analyze(metrics, true, null).get("riskFactors");
+
+        assertEquals("critical", metrics.get(0).getStatus());
+        assertTrue(riskFactors[0].startsWith("Your calcium is higher than usual."));
+        assertTrue(riskFactors[0].contains("doctor"));
+        assertEquals("Your Ferritin is lower than the normal range.", riskFactors[1]);
+        assertEquals(1L, service.getStats().get("fallbackAnalyses"));
+    }
+
+    @Test
+    void testAnalyze_AllNormal() {
+        List<BloodMetric> metrics = List.of(new BloodMetric("Hemoglobin", 14.2, "g/dL", 12.0, 16.0));
+
+        String[] riskFactors = (String[]) service.analyze(metrics, false, null).get("riskFactors");
+
+        assertArrayEquals(new String[] { "Your blood report looks good! Keep up the healthy habits." }, riskFactors);
+    }
+}
@@ -0,0 +1,98 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.BloodMetric;
+import com.bloodreport.analyzer.model.MedicalReferenceRanges;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hand-written tokenizer vs the METRIC_PATTERN regex it replaced, on large
+ * synthetic reports where most lines are noise.
+ *
+ * Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class MetricExtractionBenchmarkTest {
+
+    private static final Pattern LEGACY_PATTERN = Pattern.compile(
+            "([A-Za-z][A-Za-z0-9\\s-]+?)\\s*[:=]?\\s*([0-9]+\\.?[0-9]*)\\s*([a-zA-Z/%μ]+)?",
+            Pattern.MULTILINE);
+
+    private static final String[] NOISE = {
+            "City Lab Diagnostics, 221 Baker Street, Springfield 55501",
+            "Collected 12/03/2024 10:30   Reported 12/03/2024 16:45",
+            "This report is confidential and intended for the named recipient only.",
+            "Specimen ID 88213-AX   Ordering physician Dr. Smith   Phone 555-1234",
+            "Results should be interpreted in the context of the clinical history of the patient.",
+            "Page 3 of 30" };
+
+    private static final String[] ROWS = {
+            "Hemoglobin 14.2 g/dL 12.0 - 16.0",
+            "Glucose: 95 mg/dL 70 - 100",
+            "Total Cholesterol 185 mg/dL < 200",
+            "Platelets 250 K/uL 150 - 400",
+            "Ferritin 45 ng/mL 20 - 250",
+            "Sodium 140 mEq/L 136 - 145" };
+
+    private static String report(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append(i % 3 == 0 ? ROWS[i % ROWS.length] : NOISE[i % NOISE.length]).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static List<BloodMetric> legacyExtract(String reportText) {
+        List<BloodMetric> metrics = new ArrayList<>();
+        Matcher matcher = LEGACY_PATTERN.matcher(reportText);
+        while (matcher.find()) {
+            String testName = matcher.group(1).trim();
+            String unit = matcher.group(3) != null ? matcher.group(3).trim() : "";
+            double value = Double.parseDouble(matcher.group(2));
+            MedicalReferenceRanges.ReferenceRange range = MedicalReferenceRanges.getRange(testName);
+            if (range != null) {
+                metrics.add(new BloodMetric(testName, value, unit.isEmpty() ? range.getUnit() : unit,
+                        range.getMin(), range.getMax()));
+            }
+        }
+        return metrics;
+    }
+
+    private static long timeMicros(Runnable extraction, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            extraction.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            extraction.run();
+        }
+        return (System.nanoTime() - start) / iterations / 1000;
+    }
+
+    @Test
+    void tokenizerVsRegex() {
+        MetricExtractionService service = new MetricExtractionService();
+
+        for (int lines : new int[] { 1_000, 10_000, 50_000 }) {
+            String text = report(lines);
+            int iterations = Math.max(2, 20_000 / lines);
+
+            int legacyFound = legacyExtract(text).size();
+            int found = service.extractMetrics(text).size();
+            long legacy = timeMicros(() -> legacyExtract(text), iterations);
+            long tokenizer = timeMicros(() -> service.extractMetrics(text), iterations);
+
+            System.out.printf("metric extraction lines=%d regex=%dus (%d metrics) tokenizer=%dus (%d metrics) "
+                    + "speedup=%.1fx%n", lines, legacy, legacyFound, tokenizer, found, (double) legacy / tokenizer);
+            assertTrue(found >= legacyFound);
+            assertTrue(tokenizer < legacy);
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.bloodreport.analyzer.service;
 
 import com.bloodreport.analyzer.model.BloodMetric;
+import com.bloodreport.analyzer.model.LabTableRow;
+import com.bloodreport.analyzer.model.MedicalReferenceRanges;
+import com.bloodreport.analyzer.model.ReferenceRangeTable;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringReader;
 import java.util.List;
 
 class MetricExtractionServiceTest {
@@ -53,4 +58,147 @@ class MetricExtractionServiceTest {
         // Should only extract tests that have reference ranges
         assertTrue(metrics.stream().allMatch(m -> m.getMinNormal() != null));
     }
+
+    @Test
+    void testExtractMetrics_ValuesUnitsAndNames() {
+        String reportText = "Glucose: 95 mg/dL\nHemoglobin = 14.5 g/dL\nWBC 7.2";
+
+        List<BloodMetric> metrics = service.extractMetrics(reportText);
+
+        assertEquals(3, metrics.size());
+        assertEquals("Glucose", metrics.get(0).getName());
+        assertEquals(95.0, metrics.get(0).getValue());
+        assertEquals("mg/dL", metrics.get(0).getUnit());
+        assertEquals("Hemoglobin", metrics.get(1).getName());
+        assertEquals(14.5, metrics.get(1).getValue());
+        assertEquals("WBC", metrics.get(2).getName());
+        assertEquals("K/μL", metrics.get(2).getUnit(), "Falls back to the reference unit");
+    }
+
+    @Test
+    void testExtractMetrics_QualifiedAndAlphanumericNames() {
+        String reportText = "Fasting Glucose 104 mg/dL\nHbA1c 5.4 %\nT3 120 ng/dL\nVitamin B12 450 pg/mL";
+
+        List<BloodMetric> metrics = service.extractMetrics(reportText);
+
+        // "Fasting Glucose" is an alias of glucose, so the printed name is kept whole
+        assertEquals(List.of("Fasting Glucose", "HbA1c", "T3", "Vitamin B12"),
+                metrics.stream().map(BloodMetric::getName).toList());
+        assertEquals(MedicalReferenceRanges.getRange("glucose").getMax(), metrics.get(0).getMaxNormal());
+        assertEquals(5.4, metrics.get(1).getValue());
+        assertEquals("%", metrics.get(1).getUnit());
+    }
+
+    @Test
+    void testExtractMetrics_UnitDoesNotSwallowNextRow() {
+        String reportText = "Glucose 95\nHemoglobin 14.5 g/dL";
+
+        List<BloodMetric> metrics = service.extractMetrics(reportText);
+
+        assertEquals(2, metrics.size());
+        assertEquals("mg/dL", metrics.get(0).getUnit());
+    }
+
+    @Test
+    void testExtractMetrics_IgnoresNumbersWithoutKnownName() {
+        String reportText = "Patient ID 12345\nCollected 12/03/2024\nReference 12.0 - 16.0";
+
+        assertTrue(service.extractMetrics(reportText).isEmpty());
+    }
+
+    @Test
+    void testExtractMetrics_Aliases() {
+        String reportText = "Haemoglobin 13.1 g/dL\nTotal Cholesterol 185 mg/dL\nSGPT 30 U/L";
+
+        List<BloodMetric> metrics = service.extractMetrics(reportText);
+
+        assertEquals(List.of("Haemoglobin", "Total Cholesterol", "SGPT"),
+                metrics.stream().map(BloodMetric::getName).toList());
+        assertEquals(200.0, metrics.get(1).getMaxNormal());
+    }
+
+    @Test
+    void testExtractMetrics_RangeForPatientSexAndAge() throws Exception {
+        MedicalReferenceRanges.install(ReferenceRangeTable.parse(new StringReader(
+                "hemoglobin,any,,,12.0,16.0,g/dL\nhemoglobin,male,18,,13.5,17.5,g/dL\n"), "test.csv"));
+        try {
+            List<BloodMetric> male = service.extractMetrics("Age/Sex: 45 Y / M\nHemoglobin 13.0 g/dL");
+            List<BloodMetric> unknown = service.extractMetrics("Hemoglobin 13.0 g/dL");
+
+            assertEquals(13.5, male.get(0).getMinNormal());
+            assertEquals(12.0, unknown.get(0).getMinNormal());
+            // Tests missing from the installed table are not reported
+            assertTrue(service.extractMetrics("Glucose 95 mg/dL").isEmpty());
+        } finally {
+            MedicalReferenceRanges.install(MedicalReferenceRanges.builtInTable());
+        }
+    }
+
+    @Test
+    void testExtractMetrics_TableRowsUsePrintedRange() {
+        List<LabTableRow> rows = List.of(
+                new LabTableRow("Hemoglobin", "hemoglobin", 12.5, "g/dL", 13.0, 17.0),
+                new LabTableRow("HDL", "hdl", 45.0, null, 40.0, null));
+        String reportText = "Hemoglobin 12.5 g/dL 13.0 - 17.0\nHDL 45 > 40\nGlucose 95 mg/dL";
+
+        List<BloodMetric> metrics = service.extractMetrics(reportText, rows);
+
+        assertEquals(List.of("Hemoglobin", "HDL", "Glucose"), metrics.stream().map(BloodMetric::getName).toList());
+        assertEquals("low", metrics.get(0).getStatus());
+        assertEquals(13.0, metrics.get(0).getMinNormal());
+        // Open upper end and missing unit come from the reference table
+        assertEquals(60.0, metrics.get(1).getMaxNormal());
+        assertEquals("mg/dL", metrics.get(1).getUnit());
+        assertEquals("normal", metrics.get(2).getStatus());
+    }
+
+    @Test
+    void testExtractMetrics_ConvertsToReferenceUnit() {
+        String reportText = "Glucose 5.4 mmol/L\nHemoglobin 145 g/L\nWBC 7.2 x10^9/L\nCreatinine 0.9 mg/dl";
+
+        List<BloodMetric> metrics = service.extractMetrics(reportText);
+
+        assertEquals(4, metrics.size());
+        BloodMetric glucose = metrics.get(0);
+        assertEquals(97.286, glucose.getValue());
+        assertEquals("mg/dL", glucose.getUnit());
+        assertEquals("normal", glucose.getStatus());
+        assertEquals(5.4, glucose.getOriginalValue());
+        assertEquals("mmol/L", glucose.getOriginalUnit());
+        assertEquals(14.5, metrics.get(1).getValue());
+        assertEquals("g/dL", metrics.get(1).getUnit());
+        // Same unit in another spelling is kept as printed
+        assertEquals(7.2, metrics.get(2).getValue());
+        assertEquals("x10^9/L", metrics.get(2).getUnit());
+        assertEquals("normal", metrics.get(2).getStatus());
+        assertEquals("mg/dl", metrics.get(3).getUnit());
+        assertNull(metrics.get(3).getOriginalUnit());
+    }
+
+    @Test
+    void testExtractMetrics_UnconvertibleUnitHasUnknownStatus() {
+        List<BloodMetric> metrics = service.extractMetrics("Glucose 5.4 %\nHemoglobin 14 furlongs");
+
+        assertEquals("unknown", metrics.get(0).getStatus());
+        assertEquals(5.4, metrics.get(0).getValue());
+        // Unrecognized units are compared as printed, as before
+        assertEquals("normal", metrics.get(1).getStatus());
+    }
+
+    @Test
+    void testExtractMetricsFromTable_OpenBoundInRowUnit() {
+        List<LabTableRow> rows = List.of(
+                new LabTableRow("HDL", "hdl", 1.2, "mmol/L", 1.0, null),
+                new LabTableRow("HbA1c", "hba1c", 48.0, "mmol/mol", null, null));
+
+        List<BloodMetric> metrics = service.extractMetricsFromTable(rows,
+                com.bloodreport.analyzer.model.Demographics.UNKNOWN);
+
+        assertEquals(1.552, metrics.get(0).getMaxNormal());
+        assertEquals("mmol/L", metrics.get(0).getUnit());
+        assertEquals(6.543, metrics.get(1).getValue());
+        assertEquals("%", metrics.get(1).getUnit());
+        assertEquals(48.0, metrics.get(1).getOriginalValue());
+        assertEquals("critical", metrics.get(1).getStatus());
+    }
 }
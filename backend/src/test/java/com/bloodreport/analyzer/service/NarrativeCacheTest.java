@@ -0,0 +1,121 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.BloodMetric;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NarrativeCacheTest {
+
+    private static final String REPORT = "LDL 110 mg/dL\nVitamin D 18 ng/mL\nGlucose 95 mg/dL\nFerritin 80 ng/mL";
+
+    private static final List<BloodMetric> METRICS = List.of(
+            new BloodMetric("LDL", 110.0, "mg/dL", 0.0, 100.0),
+            new BloodMetric("Vitamin D", 18.0, "ng/mL", 30.0, 100.0),
+            new BloodMetric("Glucose", 95.0, "mg/dL", 70.0, 100.0));
+
+    private static NarrativeCache cache(int maxEntries, Duration ttl, boolean includeNormal) {
+        return new NarrativeCache(new ValidationService(), true, maxEntries, ttl, 3, 0.5, includeNormal);
+    }
+
+    @Test
+    void testSignatureFor_NeedsEnoughCoverage() {
+        NarrativeCache cache = cache(10, Duration.ofMinutes(5), false);
+
+        assertEquals("ldl:high,vitamin_d:low", cache.signatureFor(REPORT, METRICS));
+        assertNull(cache.signatureFor(REPORT, METRICS.subList(0, 2)), "Too few recognized tests");
+        String longerReport = REPORT + "\nIron 90 ug/dL\nZinc 70 ug/dL\nCopper 100 ug/dL\nFolate 12 ng/mL";
+        assertNull(cache.signatureFor(longerReport, METRICS), "Too little of the report covered");
+        assertEquals(2L, cache.getStats().get("skipped"));
+        assertEquals("glucose:normal,ldl:high,vitamin_d:low",
+                cache(10, Duration.ofMinutes(5), true).signatureFor(REPORT, METRICS));
+    }
+
+    @Test
+    void testLookup_HitAfterStore() {
+        NarrativeCache cache = cache(10, Duration.ofMinutes(5), false);
+
+        assertNull(cache.lookup("ldl:high"));
+        cache.store("ldl:high", new String[] { "Risk" }, new String[] { "Advice" });
+        NarrativeCache.Narrative narrative = cache.lookup("ldl:high");
+
+        assertArrayEquals(new String[] { "Risk" }, narrative.getRiskFactors());
+        assertArrayEquals(new String[] { "Advice" }, narrative.getLifestyleAdvice());
+        assertEquals(0.5, cache.getStats().get("hitRate"));
+    }
+
+    @Test
+    void testStore_SkipsEmptyNarratives() {
+        NarrativeCache cache = cache(10, Duration.ofMinutes(5), false);
+
+        cache.store("ldl:high", new String[0], new String[] { "Advice" });
+        cache.store(null, new String[] { "Risk" }, new String[] { "Advice" });
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testStore_EvictsLeastRecentlyUsed() {
+        NarrativeCache cache = cache(2, Duration.ofMinutes(5), false);
+        String[] text = { "x" };
+
+        cache.store("a", text, text);
+        cache.store("b", text, text);
+        cache.lookup("a");
+        cache.store("c", text, text);
+
+        assertNotNull(cache.lookup("a"));
+        assertNull(cache.lookup("b"));
+        assertEquals(1L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    void testLookup_ExpiredEntryIsAMiss() throws Exception {
+        NarrativeCache cache = cache(10, Duration.ofMillis(1), false);
+
+        cache.store("a", new String[] { "x" }, new String[] { "y" });
+        Thread.sleep(5);
+
+        assertNull(cache.lookup("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testStore_OnlyWhenGeminiFindingsMatch() {
+        NarrativeCache cache = cache(10, Duration.ofMinutes(5), false);
+        String[] text = { "x" };
+
+        cache.store("ldl:high,vitamin_d:low", METRICS.subList(0, 1), text, text);
+        assertEquals(0, cache.size());
+        assertEquals(1L, cache.getStats().get("mismatched"));
+
+        cache.store("ldl:high,vitamin_d:low", METRICS, text, text);
+        assertNotNull(cache.lookup("ldl:high,vitamin_d:low"));
+    }
+
+    @Test
+    void testEmptySignature_NeverFormedOrStored() {
+        NarrativeCache cache = cache(10, Duration.ofMinutes(5), false);
+        List<BloodMetric> allNormal = List.of(
+                new BloodMetric("LDL", 80.0, "mg/dL", 0.0, 100.0),
+                new BloodMetric("Vitamin D", 40.0, "ng/mL", 30.0, 100.0),
+                new BloodMetric("Glucose", 95.0, "mg/dL", 70.0, 100.0));
+
+        assertNull(cache.signatureFor(REPORT, allNormal));
+        cache.store("", allNormal, new String[] { "x" }, new String[] { "y" });
+
+        assertEquals(0, cache.size());
+        assertNull(cache.lookup(""));
+    }
+
+    @Test
+    void testSignatureFor_Disabled() {
+        NarrativeCache cache = new NarrativeCache(new ValidationService(), false, 10, Duration.ofMinutes(5), 3, 0.5,
+                false);
+
+        assertNull(cache.signatureFor(REPORT, METRICS));
+    }
+}
@@ -0,0 +1,87 @@
+package com.bloodreport.analyzer.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sequential vs parallel extraction of a 30-page report.
+ *
+ * Run with: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+class PdfExtractionBenchmarkTest {
+
+    private static final int PAGES = 30;
+    private static final int ROWS_PER_PAGE = 40;
+    private static final int ITERATIONS = 20;
+
+    private static byte[] longReport() throws Exception {
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int p = 0; p < PAGES; p++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(40, 740);
+                    for (int row = 0; row < ROWS_PER_PAGE; row++) {
+                        content.showText("Analyte " + p + "-" + row + "   " + (50 + row) + ".5 mg/dL   (40 - 100)");
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private long run(PdfTextExtractionService service, byte[] pdf) throws Exception {
+        UploadIngestionService ingestion = new UploadIngestionService(DataSize.ofMegabytes(10),
+                DataSize.ofMegabytes(10));
+        // Warm up the JIT and font caches before measuring
+        for (int i = 0; i < 3; i++) {
+            try (IngestedUpload upload = ingestion.ingest(new ByteArrayInputStream(pdf), "r.pdf", pdf.length)) {
+                service.extractText(upload);
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            try (IngestedUpload upload = ingestion.ingest(new ByteArrayInputStream(pdf), "r.pdf", pdf.length)) {
+                assertFalse(service.extractText(upload).isEmpty());
+            }
+        }
+        return (System.nanoTime() - start) / ITERATIONS / 1_000_000;
+    }
+
+    @Test
+    void sequentialVsParallel() throws Exception {
+        byte[] pdf = longReport();
+        int cpus = Runtime.getRuntime().availableProcessors();
+
+        PdfTextExtractionService sequential = new PdfTextExtractionService("mixed", DataSize.ofMegabytes(4),
+                60, 1_000_000, DataSize.ofMegabytes(256), Duration.ofSeconds(10), 1, Integer.MAX_VALUE, 4);
+        PdfTextExtractionService parallel = new PdfTextExtractionService("mixed", DataSize.ofMegabytes(4),
+                60, 1_000_000, DataSize.ofMegabytes(256), Duration.ofSeconds(10), 0, 8, 4);
+        try {
+            long seq = run(sequential, pdf);
+            long par = run(parallel, pdf);
+            System.out.printf("pdf extraction pages=%d cpus=%d sequential=%dms parallel=%dms%n",
+                    PAGES, cpus, seq, par);
+        } finally {
+            parallel.shutdown();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.bloodreport.analyzer.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfTextExtractionServiceTest {
+
+    private final UploadIngestionService ingestion = new UploadIngestionService(DataSize.ofMegabytes(10),
+            DataSize.ofKilobytes(256));
+
+    private PdfTextExtractionService service(String mode, int maxPages, int maxTextChars) {
+        return new PdfTextExtractionService(mode, DataSize.ofKilobytes(64), maxPages, maxTextChars,
+                DataSize.ofMegabytes(8), Duration.ofSeconds(1));
+    }
+
+    static byte[] pdfWithPages(String... pageLines) throws IOException {
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (String line : pageLines) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(50, 700);
+                    content.showText(line);
+                    content.endText();
+                }
+            }
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private PdfTextExtractionService parallelService(int parallelism) {
+        return new PdfTextExtractionService("mixed", DataSize.ofKilobytes(64), 60, 100_000,
+                DataSize.ofMegabytes(8), Duration.ofSeconds(1), parallelism, 2, 2);
+    }
+
+    private IngestedUpload ingest(byte[] pdf) throws Exception {
+        return ingestion.ingest(new ByteArrayInputStream(pdf), "report.pdf", pdf.length);
+    }
+
+    @Test
+    void testExtractText_AllModes() throws Exception {
+        byte[] pdf = pdfWithPages("Glucose 95 mg/dL", "Hemoglobin 14.2 g/dL");
+
+        for (String mode : new String[] { "main-memory", "mixed", "scratch-file" }) {
+            try (IngestedUpload upload = ingest(pdf)) {
+                String text = service(mode, 10, 10_000).extractText(upload);
+                assertTrue(text.contains("Glucose 95 mg/dL"), mode);
+                assertTrue(text.contains("Hemoglobin 14.2 g/dL"), mode);
+            }
+        }
+    }
+
+    @Test
+    void testExtractText_RejectsTooManyPages() throws Exception {
+        byte[] pdf = pdfWithPages("one", "two", "three");
+
+        try (IngestedUpload upload = ingest(pdf)) {
+            UploadRejectedException e = assertThrows(UploadRejectedException.class,
+                    () -> service("mixed", 2, 10_000).extractText(upload));
+            assertEquals(UploadRejectedException.Reason.TOO_LARGE, e.getReason());
+        }
+    }
+
+    @Test
+    void testExtractText_TruncatesAtTextCap() throws Exception {
+        byte[] pdf = pdfWithPages("Glucose 95 mg/dL", "Hemoglobin 14.2 g/dL");
+
+        try (IngestedUpload upload = ingest(pdf)) {
+            String text = service("mixed", 10, 10).extractText(upload);
+            assertEquals(10, text.length());
+            assertTrue(text.startsWith("Glucose"));
+        }
+    }
+
+    @Test
+    void testExtractText_ReleasesBudget() throws Exception {
+        PdfTextExtractionService service = service("mixed", 10, 10_000);
+        byte[] pdf = pdfWithPages("Glucose 95 mg/dL");
+
+        try (IngestedUpload upload = ingest(pdf)) {
+            service.extractText(upload);
+        }
+
+        assertEquals(service.getStats().get("memoryBudgetKb"),
+                ((Integer) service.getStats().get("memoryBudgetAvailableKb")).longValue());
+    }
+
+    @Test
+    void testEstimateCost_ScratchModesAreBounded() {
+        PdfTextExtractionService mixed = service("mixed", 10, 10_000);
+        PdfTextExtractionService inMemory = service("main-memory", 10, 10_000);
+        long oneMb = 1024 * 1024;
+
+        assertEquals(4 * 1024, inMemory.estimateCostKb(oneMb));
+        assertEquals(64 + 1024, mixed.estimateCostKb(oneMb));
+        assertEquals(8 * 1024, inMemory.estimateCostKb(10 * oneMb), "Capped at the whole budget");
+    }
+
+    @Test
+    void testExtractText_ParallelKeepsPageOrder() throws Exception {
+        String[] pages = new String[12];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = "Analyte" + (char) ('A' + i) + " " + (100 + i) + " mg/dL";
+        }
+        byte[] pdf = pdfWithPages(pages);
+        PdfTextExtractionService service = parallelService(4);
+
+        try (IngestedUpload upload = ingest(pdf)) {
+            String text = service.extractText(upload);
+            int previous = -1;
+            for (String page : pages) {
+                int index = text.indexOf(page);
+                assertTrue(index > previous, page);
+                previous = index;
+            }
+        } finally {
+            service.shutdown();
+        }
+
+        assertEquals(1L, service.getStats().get("parallelDocuments"));
+        assertEquals(12L, service.getStats().get("pagesExtracted"));
+        assertEquals(service.getStats().get("memoryBudgetKb"),
+                ((Integer) service.getStats().get("memoryBudgetAvailableKb")).longValue());
+    }
+
+    @Test
+    void testExtractText_ParallelMatchesSequential() throws Exception {
+        byte[] pdf = pdfWithPages("Patient Report", "Glucose 95 mg/dL", "Hemoglobin 14.2 g/dL",
+                "Collected 12/03/2024 10:30", "Platelets 250 K/uL", "Signed by Dr. Smith");
+        PdfTextExtractionService parallel = parallelService(3);
+
+        try (IngestedUpload a = ingest(pdf); IngestedUpload b = ingest(pdf)) {
+            assertEquals(service("mixed", 60, 100_000).extractText(a), parallel.extractText(b));
+        } finally {
+            parallel.shutdown();
+        }
+    }
+
+    @Test
+    void testExtractText_SkipsPagesWithoutLabRows() throws Exception {
+        byte[] pdf = pdfWithPages("City Lab - Patient Report", "Glucose 95 mg/dL",
+                "Collected 12/03/2024 at 10:30, call 555-1234", "Electronically signed by Dr. Smith");
+        PdfTextExtractionService service = service("mixed", 10, 10_000);
+
+        try (IngestedUpload upload = ingest(pdf)) {
+            String text = service.extractText(upload);
+            assertTrue(text.contains("Glucose 95 mg/dL"));
+            assertFalse(text.contains("Patient Report"));
+            assertFalse(text.contains("555-1234"));
+            assertFalse(text.contains("signed"));
+        }
+        assertEquals(3L, service.getStats().get("pagesSkipped"));
+    }
+
+    @Test
+    void testExtractText_KeepsEverythingWhenNoPageLooksLikeLabResults() throws Exception {
+        byte[] pdf = pdfWithPages("Patient Report", "Results attached separately");
+
+        try (IngestedUpload upload = ingest(pdf)) {
+            String text = service("mixed", 10, 10_000).extractText(upload);
+            assertTrue(text.contains("Patient Report"));
+            assertTrue(text.contains("Results attached separately"));
+        }
+    }
+
+    @Test
+    void testLabPageClassifier() {
+        assertTrue(LabPageClassifier.isLabPage("Header\nHemoglobin 14.2 g/dL\n"));
+        assertTrue(LabPageClassifier.isLabPage("LDL Cholesterol: 130"));
+        assertFalse(LabPageClassifier.isLabPage("Report date 12/03/2024\nTime 10:30"));
+        assertFalse(LabPageClassifier.isLabPage("Phone 555-1234"));
+        assertFalse(LabPageClassifier.isLabPage("Page 1 of 3"), "Needs a word before the number");
+        assertFalse(LabPageClassifier.isLabPage(""));
+    }
+
+    @Test
+    void testExtract_ReturnsTableRows() throws Exception {
+        byte[] pdf = LabTableStripperTest.pdfTable(
+                new String[] { "Glucose", "95", "mg/dL", "70 - 100" },
+                new String[] { "Potassium", "4.1", "mmol/L", "3.5 - 5.1" });
+
+        try (IngestedUpload upload = ingest(pdf)) {
+            ExtractedReport report = service("mixed", 10, 10_000).extract(upload);
+
+            assertTrue(report.getText().contains("Glucose"));
+            assertEquals(2, report.getTableRows().size());
+            assertEquals(5.1, report.getTableRows().get(1).getReferenceMax());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.bloodreport.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptCompactorTest {
+
+    private static final String REPORT = """
+            City Lab Diagnostics
+            221 Baker Street, Springfield
+            Test   Result   Units   Reference Range
+            Hemoglobin   14.2   g/dL   12.0 - 16.0
+            Page 1 of 2
+            City Lab Diagnostics
+            Test   Result   Units   Reference Range
+            Fasting Glucose   95   mg/dL   70 - 100
+            ALT   30   U/L
+            This report is confidential and intended for the named recipient only.
+            Page 2 of 2
+            """;
+
+    @Test
+    void testCompact_DedupesAndDropsNonMetricLines() {
+        PromptCompactor compactor = new PromptCompactor(true, 4000);
+
+        String compacted = compactor.compact(REPORT);
+
+        assertEquals("""
+                Test Result Units Reference Range
+                Hemoglobin 14.2 g/dL 12.0 - 16.0
+                Fasting Glucose 95 mg/dL 70 - 100
+                ALT 30 U/L
+                """, compacted);
+        assertEquals(PromptCompactor.estimateTokens(REPORT), compactor.getStats().get("tokensBefore"));
+        assertEquals(PromptCompactor.estimateTokens(compacted), compactor.getStats().get("tokensAfter"));
+    }
+
+    @Test
+    void testCompact_EnforcesTokenBudget() {
+        PromptCompactor compactor = new PromptCompactor(true, 10);
+
+        String compacted = compactor.compact(REPORT);
+
+        assertTrue(compacted.length() <= 40);
+        assertTrue(compacted.startsWith("Test Result Units Reference Range"));
+        assertEquals(1L, compactor.getStats().get("truncated"));
+    }
+
+    @Test
+    void testCompact_KeepsOriginalWhenNothingLooksLikeMetrics() {
+        PromptCompactor compactor = new PromptCompactor(true, 4000);
+
+        assertEquals("Handwritten note, see attached", compactor.compact("Handwritten note, see attached"));
+    }
+
+    @Test
+    void testCompact_Disabled() {
+        assertEquals(REPORT, new PromptCompactor(false, 10).compact(REPORT));
+    }
+
+    @Test
+    void testIsMetricLike_ShortNamesMatchWholeWords() {
+        PromptCompactor compactor = new PromptCompactor(true, 4000);
+
+        assertTrue(compactor.isMetricLike("AST (SGOT)"));
+        assertFalse(compactor.isMetricLike("Please fast at least overnight"), "'fast'/'least' are not AST");
+        assertFalse(compactor.isMetricLike("Avoid salt"));
+    }
+}
@@ -0,0 +1,110 @@
+package com.bloodreport.analyzer.service;
+
+import com.bloodreport.analyzer.model.Demographics;
+import com.bloodreport.analyzer.model.MedicalReferenceRanges;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReferenceRangeLoaderTest {
+
+    private static final Demographics ADULT_MALE = new Demographics(Demographics.Sex.MALE, 40);
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void restoreBuiltInRanges() {
+        MedicalReferenceRanges.install(MedicalReferenceRanges.builtInTable());
+    }
+
+    @Test
+    void testBundledTableLoads() {
+        ReferenceRangeLoader loader = new ReferenceRangeLoader(new ClassPathResource("reference-ranges.csv"),
+                Duration.ZERO);
+
+        assertTrue(loader.reload());
+
+        // Same defaults as the built-in table, plus sex- and age-specific rows
+        for (String testName : MedicalReferenceRanges.getTestNames()) {
+            assertTrue(MedicalReferenceRanges.hasRange(testName), testName);
+        }
+        assertEquals(12.0, MedicalReferenceRanges.getRange("hemoglobin").getMin());
+        assertEquals(13.5, MedicalReferenceRanges.getRange("hemoglobin", ADULT_MALE).getMin());
+    }
+
+    @Test
+    void testReloadIfModified_SwapsTableAndKeepsItOnBadFile() throws Exception {
+        Path file = dir.resolve("ranges.csv");
+        Files.writeString(file, "glucose,any,,,70,100,mg/dL\n");
+        ReferenceRangeLoader loader = new ReferenceRangeLoader(new FileSystemResource(file), Duration.ZERO);
+        loader.start();
+
+        assertEquals(100.0, MedicalReferenceRanges.getRange("glucose").getMax());
+        assertFalse(MedicalReferenceRanges.hasRange("hemoglobin"));
+
+        // Unchanged file: nothing to do
+        loader.reloadIfModified();
+        assertEquals(1L, loader.getStats().get("reloads"));
+
+        Files.writeString(file, "glucose,any,,,65,99,mg/dL\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+        loader.reloadIfModified();
+        assertEquals(99.0, MedicalReferenceRanges.getRange("glucose").getMax());
+
+        Files.writeString(file, "glucose,any,,,65\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        loader.reloadIfModified();
+        assertEquals(99.0, MedicalReferenceRanges.getRange("glucose").getMax());
+
+        Map<String, Object> stats = loader.getStats();
+        assertEquals(2L, stats.get("reloads"));
+        assertEquals(1L, stats.get("failures"));
+        assertEquals(1, stats.get("rows"));
+        loader.shutdown();
+    }
+
+    @Test
+    void testReload_ClearsCachedResults() throws Exception {
+        Path file = dir.resolve("ranges.csv");
+        Files.writeString(file, "glucose,any,,,70,100,mg/dL\n");
+        AnalysisCache analysisCache = new AnalysisCache(10, Duration.ofMinutes(5));
+        NarrativeCache narrativeCache = mock(NarrativeCache.class);
+        analysisCache.getOrCompute("report", HashMap::new);
+        ReferenceRangeLoader loader = new ReferenceRangeLoader(new FileSystemResource(file), Duration.ZERO,
+                analysisCache, narrativeCache);
+
+        assertTrue(loader.reload());
+
+        assertEquals(0, analysisCache.size());
+        verify(narrativeCache).invalidateAll();
+
+        // A table that fails to parse changes nothing, so the caches stay
+        Files.writeString(file, "glucose,any,,,65\n");
+        analysisCache.getOrCompute("report", HashMap::new);
+        assertFalse(loader.reload());
+        assertEquals(1, analysisCache.size());
+        verify(narrativeCache, times(1)).invalidateAll();
+    }
+
+    @Test
+    void testMissingFileKeepsBuiltInRanges() {
+        ReferenceRangeLoader loader = new ReferenceRangeLoader(new FileSystemResource(dir.resolve("missing.csv")),
+                Duration.ZERO);
+
+        assertFalse(loader.reload());
+        assertEquals(70.0, MedicalReferenceRanges.getRange("glucose").getMin());
+    }
+}
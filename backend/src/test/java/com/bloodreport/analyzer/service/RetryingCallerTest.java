@@ -0,0 +1,160 @@
+package com.bloodreport.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryingCallerTest {
+
+    private static RetryingCaller caller(int maxAttempts, RetryBudget budget, boolean hedging) {
+        return new RetryingCaller("test", maxAttempts, Duration.ofMillis(1), Duration.ofMillis(50), budget, hedging,
+                0.5, 5, 2, e -> e instanceof HttpServerErrorException);
+    }
+
+    private static HttpServerErrorException unavailable(String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+        return HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "unavailable", headers, null, null);
+    }
+
+    @Test
+    void testCall_RetriesTransientFailures() throws Exception {
+        RetryingCaller caller = caller(3, new RetryBudget(0.1, 10), false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = caller.call(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw unavailable(null);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2L, caller.getStats().get("retries"));
+    }
+
+    @Test
+    void testCall_DoesNotRetryOtherFailures() {
+        RetryingCaller caller = caller(3, new RetryBudget(0.1, 10), false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalArgumentException.class, () -> caller.call(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException("400");
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void testCall_StopsWhenBudgetIsSpent() {
+        RetryingCaller caller = caller(5, new RetryBudget(0.0, 1), false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(HttpServerErrorException.class, () -> caller.call(() -> {
+            attempts.incrementAndGet();
+            throw unavailable(null);
+        }));
+
+        // One retry from the reserve, then the budget is empty
+        assertEquals(2, attempts.get());
+        assertEquals(1L, caller.getStats().get("retriesDenied"));
+    }
+
+    @Test
+    void testCall_RetryAfterBeyondMaxBackoffIsNotRetried() {
+        RetryingCaller caller = caller(3, new RetryBudget(0.1, 10), false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(HttpServerErrorException.class, () -> caller.call(() -> {
+            attempts.incrementAndGet();
+            throw unavailable("30");
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void testCall_HedgesSlowAttempt() throws Exception {
+        RetryingCaller caller = caller(1, new RetryBudget(0.1, 10), true);
+        try {
+            // Typical latency 20ms, so the hedge goes out well after the first attempt started
+            for (int i = 0; i < 5; i++) {
+                caller.call(() -> {
+                    Thread.sleep(20);
+                    return "warm";
+                });
+            }
+            CountDownLatch stuck = new CountDownLatch(1);
+            AtomicInteger attempts = new AtomicInteger();
+
+            String result = caller.call(() -> {
+                if (attempts.incrementAndGet() == 1) {
+                    // The first attempt's request blocks until it is aborted; interrupts do not stop it
+                    AttemptScope.register(stuck::countDown);
+                    while (!awaitUninterruptibly(stuck)) {
+                        Thread.onSpinWait();
+                    }
+                    return "slow";
+                }
+                return "hedge";
+            });
+
+            assertEquals("hedge", result);
+            assertEquals(1L, caller.getStats().get("hedges"));
+            assertEquals(1L, caller.getStats().get("hedgeWins"));
+            assertTrue(stuck.await(1, TimeUnit.SECONDS), "The losing attempt's request should be aborted");
+        } finally {
+            caller.shutdown();
+        }
+    }
+
+    @Test
+    void testCall_RunsUnhedgedWhenHedgeThreadsAreBusy() throws Exception {
+        RetryingCaller caller = caller(1, new RetryBudget(0.1, 10), true);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                caller.call(() -> "warm");
+            }
+            // Two slow calls take both hedge threads
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch started = new CountDownLatch(2);
+            for (int i = 0; i < 2; i++) {
+                callers.submit(() -> caller.call(() -> {
+                    started.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return "slow";
+                }));
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            String thread = caller.call(() -> Thread.currentThread().getName());
+
+            assertEquals(Thread.currentThread().getName(), thread);
+            release.countDown();
+        } finally {
+            callers.shutdownNow();
+            caller.shutdown();
+        }
+    }
+
+    private static boolean awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            return latch.await(10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+}
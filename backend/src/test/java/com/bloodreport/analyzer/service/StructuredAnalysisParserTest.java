@@ -0,0 +1,104 @@
+package com.bloodreport.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StructuredAnalysisParserTest {
+
+    private static final String PAYLOAD = """
+            {"riskFactors": ["High cholesterol", "Low vitamin D"],
+             "lifestyleAdvice": ["Walk every day"],
+             "notes": {"riskFactors": ["ignored"]},
+             "metrics": [{"test": "Glucose", "value": "95", "unit": "mg/dL"}, {"test": "WBC", "value": 7.2}]}
+            """;
+
+    private final List<String> events = new ArrayList<>();
+    private final StructuredAnalysisParser parser = new StructuredAnalysisParser(
+            (event, data) -> events.add(event + ":" + data));
+
+    @Test
+    void testFinish_ReadsTypedFields() {
+        parser.feed(PAYLOAD);
+
+        StructuredAnalysis analysis = parser.finish();
+
+        assertTrue(analysis.isComplete());
+        assertEquals(List.of("High cholesterol", "Low vitamin D"), analysis.getRiskFactors());
+        assertEquals(List.of("Walk every day"), analysis.getLifestyleAdvice());
+        assertEquals(List.of(Map.of("test", "Glucose", "value", "95", "unit", "mg/dL"),
+                Map.of("test", "WBC", "value", "7.2")), analysis.getMetrics());
+    }
+
+    @Test
+    void testFeed_EmitsItemsAsStringsComplete() {
+        parser.feed("{\"riskFactors\": [\"High chol");
+        assertTrue(events.isEmpty(), "Partial string should not be emitted yet");
+
+        parser.feed("esterol\", \"Low vitamin D\"], \"lifestyleAd");
+        assertEquals(List.of("riskFactor:High cholesterol", "riskFactor:Low vitamin D"), events);
+
+        parser.feed("vice\": [\"Sleep well — 8 hours\"]}");
+        assertEquals("lifestyleAdvice:Sleep well — 8 hours", events.get(2));
+        assertTrue(parser.finish().isComplete());
+    }
+
+    @Test
+    void testFeed_ByteAtATime() {
+        for (int i = 0; i < PAYLOAD.length(); i++) {
+            parser.feed(PAYLOAD.substring(i, i + 1));
+        }
+
+        assertEquals(2, parser.finish().getMetrics().size());
+        assertEquals(3, events.size());
+    }
+
+    @Test
+    void testFinish_MalformedKeepsItemsReadSoFar() {
+        parser.feed("{\"riskFactors\": [\"High cholesterol\"], \"lifestyleAdvice\": [oops]}");
+
+        StructuredAnalysis analysis = parser.finish();
+
+        assertFalse(analysis.isComplete());
+        assertEquals(List.of("High cholesterol"), analysis.getRiskFactors());
+        assertTrue(analysis.getLifestyleAdvice().isEmpty());
+    }
+
+    @Test
+    void testFinish_TruncatedIsIncomplete() {
+        parser.feed("{\"riskFactors\": [\"High cholesterol\"], \"metrics\": [{\"test\": \"Glu");
+
+        StructuredAnalysis analysis = parser.finish();
+
+        assertFalse(analysis.isComplete());
+        assertEquals(1, analysis.getRiskFactors().size());
+        assertTrue(analysis.getMetrics().isEmpty());
+    }
+
+    @Test
+    void testReadCandidateText_FirstCandidateParts() throws Exception {
+        String envelope = """
+                {"usageMetadata": {"totalTokenCount": 12},
+                 "candidates": [
+                   {"finishReason": "STOP", "content": {"role": "model",
+                     "parts": [{"text": "first "}, {"thought": true}, {"text": "second"}]}},
+                   {"content": {"parts": [{"text": "other candidate"}]}}],
+                 "modelVersion": "x"}
+                """;
+        StringBuilder text = new StringBuilder();
+
+        StructuredAnalysisParser.readCandidateText(envelope, text::append);
+
+        assertEquals("first second", text.toString());
+    }
+
+    @Test
+    void testReadCandidateText_NotAnObject() {
+        assertThrows(java.io.IOException.class, () -> StructuredAnalysisParser.readCandidateText("[1]", text -> {
+        }));
+    }
+}
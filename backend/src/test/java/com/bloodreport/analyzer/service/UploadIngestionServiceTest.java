@@ -0,0 +1,123 @@
+package com.bloodreport.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadIngestionServiceTest {
+
+    private final UploadIngestionService service = new UploadIngestionService(DataSize.ofKilobytes(64),
+            DataSize.ofKilobytes(4));
+
+    private static byte[] pdf(int size) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) 'x');
+        System.arraycopy("%PDF-1.4".getBytes(), 0, content, 0, 8);
+        return content;
+    }
+
+    @Test
+    void testIngest_SmallPdfStaysInMemory() throws Exception {
+        byte[] content = pdf(1024);
+
+        try (IngestedUpload upload = service.ingest(new ByteArrayInputStream(content), "report.pdf", content.length)) {
+            assertEquals(IngestedUpload.PDF, upload.getContentType());
+            assertEquals(1024, upload.getSize());
+            assertArrayEquals(content, upload.getContent());
+            assertNull(upload.getSpoolFile());
+            assertEquals(AnalysisCache.keyFor(content), upload.getContentHash());
+        }
+    }
+
+    @Test
+    void testIngest_LargePdfIsSpooledAndDeletedOnClose() throws Exception {
+        byte[] content = pdf(20 * 1024);
+        Path spool;
+
+        try (IngestedUpload upload = service.ingest(new ByteArrayInputStream(content), "report.pdf", -1)) {
+            assertNull(upload.getContent());
+            spool = upload.getSpoolFile();
+            assertArrayEquals(content, Files.readAllBytes(spool));
+            assertEquals(AnalysisCache.keyFor(content), upload.getContentHash());
+        }
+
+        assertFalse(Files.exists(spool));
+    }
+
+    @Test
+    void testIngest_SniffsImages() throws Exception {
+        byte[] png = { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0 };
+        byte[] jpeg = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0 };
+
+        assertEquals(IngestedUpload.PNG, service.ingest(new ByteArrayInputStream(png), "a.png", -1).getContentType());
+        assertEquals(IngestedUpload.JPEG, service.ingest(new ByteArrayInputStream(jpeg), "a.jpg", -1).getContentType());
+    }
+
+    @Test
+    void testIngest_RejectsUnknownTypeAfterFirstBytes() {
+        CountingStream in = new CountingStream(new ByteArrayInputStream(new byte[32 * 1024]));
+
+        UploadRejectedException e = assertThrows(UploadRejectedException.class,
+                () -> service.ingest(in, "report.pdf", -1));
+
+        assertEquals(UploadRejectedException.Reason.UNSUPPORTED_TYPE, e.getReason());
+        assertTrue(in.bytesRead <= 8, "Only the magic bytes should have been read");
+    }
+
+    @Test
+    void testIngest_RejectsDeclaredOversizeWithoutReading() {
+        CountingStream in = new CountingStream(new ByteArrayInputStream(pdf(1024)));
+
+        UploadRejectedException e = assertThrows(UploadRejectedException.class,
+                () -> service.ingest(in, "report.pdf", 65 * 1024));
+
+        assertEquals(UploadRejectedException.Reason.TOO_LARGE, e.getReason());
+        assertEquals(0, in.bytesRead);
+    }
+
+    @Test
+    void testIngest_RejectsOversizeBodyOnceCapIsCrossed() {
+        CountingStream in = new CountingStream(new ByteArrayInputStream(pdf(1024 * 1024)));
+
+        UploadRejectedException e = assertThrows(UploadRejectedException.class,
+                () -> service.ingest(in, "report.pdf", -1));
+
+        assertEquals(UploadRejectedException.Reason.TOO_LARGE, e.getReason());
+        assertTrue(in.bytesRead < 80 * 1024, "Reading should stop shortly after the 64KB cap");
+    }
+
+    private static class CountingStream extends InputStream {
+        private final InputStream delegate;
+        private long bytesRead;
+
+        CountingStream(InputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = delegate.read();
+            if (b != -1) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = delegate.read(b, off, len);
+            if (n > 0) {
+                bytesRead += n;
+            }
+            return n;
+        }
+    }
+}
@@ -1,7 +1,16 @@
 package com.bloodreport.analyzer.service;
 
+import com.bloodreport.analyzer.cluster.InProcessLeaseStore;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class UploadManagerTest {
@@ -67,4 +76,130 @@ class UploadManagerTest {
         assertTrue(uploadManager.isUploadInProgress("user1"));
         assertTrue(uploadManager.isUploadInProgress("user2"));
     }
+
+    private static UploadManager queue(int perClientLimit, int slots, int maxQueued) {
+        return new UploadManager(new InProcessLeaseStore(), Duration.ofMinutes(10), perClientLimit, slots,
+                maxQueued, Duration.ofSeconds(5), "paid-key, other-key");
+    }
+
+    @Test
+    void testPerClientLimit() {
+        UploadManager manager = queue(2, 4, 10);
+
+        assertTrue(manager.startUpload("user1", "request1"));
+        assertTrue(manager.startUpload("user1", "request2"));
+        assertFalse(manager.startUpload("user1", "request3"));
+
+        manager.completeUpload("user1", "request2");
+        assertTrue(manager.startUpload("user1", "request3"));
+        assertEquals("request1", manager.getActiveRequestId("user1"));
+    }
+
+    @Test
+    void testEnqueue_ServesClientsRoundRobin() {
+        UploadManager manager = queue(4, 1, 10);
+        UploadTicket a1 = manager.enqueue("a", "a1", UploadManager.Lane.STANDARD);
+        UploadTicket a2 = manager.enqueue("a", "a2", UploadManager.Lane.STANDARD);
+        UploadTicket a3 = manager.enqueue("a", "a3", UploadManager.Lane.STANDARD);
+        UploadTicket b1 = manager.enqueue("b", "b1", UploadManager.Lane.STANDARD);
+
+        assertTrue(a1.isGranted());
+        assertEquals(0, a1.getPosition());
+        // b1 is served after a's next upload, not after all of them
+        assertEquals(1, a2.getPosition());
+        assertEquals(2, b1.getPosition());
+        assertEquals(3, a3.getPosition());
+
+        manager.release(a1);
+        assertTrue(a2.isGranted());
+        manager.release(a2);
+        assertTrue(b1.isGranted());
+        assertFalse(a3.isGranted());
+        manager.release(b1);
+        assertTrue(a3.isGranted());
+        assertEquals(0, manager.getStats().get("queued"));
+    }
+
+    @Test
+    void testEnqueue_PriorityLaneGoesFirst() {
+        UploadManager manager = queue(4, 1, 10);
+        UploadTicket running = manager.enqueue("a", "a1", UploadManager.Lane.STANDARD);
+        UploadTicket standard = manager.enqueue("b", "b1", manager.laneFor(null));
+        UploadTicket priority = manager.enqueue("c", "c1", manager.laneFor("paid-key"));
+
+        assertEquals(UploadManager.Lane.PRIORITY, priority.getLane());
+        assertEquals(1, priority.getPosition());
+        assertEquals(2, standard.getPosition());
+
+        manager.release(running);
+        assertTrue(priority.isGranted());
+        assertFalse(standard.isGranted());
+    }
+
+    @Test
+    void testEnqueue_ShedsWhenQueueIsFull() {
+        UploadManager manager = queue(4, 1, 1);
+        manager.enqueue("a", "a1", UploadManager.Lane.STANDARD);
+        manager.enqueue("b", "b1", UploadManager.Lane.STANDARD);
+
+        assertThrows(LoadShedException.class, () -> manager.enqueue("c", "c1", UploadManager.Lane.STANDARD));
+        assertEquals(1L, manager.getStats().get("shed"));
+    }
+
+    @Test
+    void testAwaitSlot_TimeoutLeavesQueue() {
+        UploadManager manager = queue(4, 1, 10);
+        manager.enqueue("a", "a1", UploadManager.Lane.STANDARD);
+        UploadTicket waiting = manager.enqueue("b", "b1", UploadManager.Lane.STANDARD);
+
+        assertThrows(LoadShedException.class, () -> waiting.awaitSlot(Duration.ofMillis(20)));
+        assertEquals(0, manager.getStats().get("queued"));
+        assertTrue(manager.queueStatus("b").isEmpty());
+    }
+
+    @Test
+    void testAwaitSlot_InterruptLeavesQueue() {
+        UploadManager manager = queue(4, 1, 10);
+        manager.enqueue("a", "a1", UploadManager.Lane.STANDARD);
+        UploadTicket waiting = manager.enqueue("b", "b1", UploadManager.Lane.STANDARD);
+
+        Thread.currentThread().interrupt();
+        assertThrows(InterruptedException.class, () -> waiting.awaitSlot(Duration.ofSeconds(5)));
+        assertEquals(0, manager.getStats().get("queued"));
+    }
+
+    @Test
+    void testWhenGranted_TimeoutLeavesQueueWithoutRunningAction() throws Exception {
+        UploadManager manager = queue(4, 1, 10);
+        UploadTicket running = manager.enqueue("a", "a1", UploadManager.Lane.STANDARD);
+        UploadTicket waiting = manager.enqueue("b", "b1", UploadManager.Lane.STANDARD);
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<LoadShedException> shed = new CompletableFuture<>();
+
+        waiting.whenGranted(Duration.ofMillis(20), () -> ran.set(true), shed::complete);
+
+        assertNotNull(shed.get(5, TimeUnit.SECONDS));
+        assertEquals(0, manager.getStats().get("queued"));
+        manager.release(running);
+        assertFalse(ran.get());
+        assertEquals(0, manager.getStats().get("busySlots"));
+    }
+
+    @Test
+    void testQueueStatus_ReportsPositionAndEstimate() throws Exception {
+        UploadManager manager = queue(4, 1, 10);
+        UploadTicket first = manager.enqueue("a", "a1", UploadManager.Lane.STANDARD);
+        Thread.sleep(20);
+        manager.release(first);
+        UploadTicket running = manager.enqueue("a", "a2", UploadManager.Lane.STANDARD);
+        manager.enqueue("b", "b1", UploadManager.Lane.STANDARD);
+
+        List<Map<String, Object>> status = manager.queueStatus("b");
+
+        assertTrue(running.isGranted());
+        assertEquals(1, status.size());
+        assertEquals("b1", status.get(0).get("requestId"));
+        assertEquals(1, status.get(0).get("queuePosition"));
+        assertTrue((Long) status.get(0).get("estimatedWaitSeconds") >= 1);
+    }
 }
@@ -67,4 +67,21 @@ class ValidationServiceTest {
 
         assertEquals(2, criticalCount);
     }
+
+    @Test
+    void testSignature_CanonicalAndOrderIndependent() {
+        var first = java.util.List.of(
+                new com.bloodreport.analyzer.model.BloodMetric("Vitamin D", 18.0, "ng/mL", 30.0, 100.0),
+                new com.bloodreport.analyzer.model.BloodMetric("LDL Cholesterol", 110.0, "mg/dL", 0.0, 100.0),
+                new com.bloodreport.analyzer.model.BloodMetric("Glucose", 95.0, "mg/dL", 70.0, 100.0));
+        var second = java.util.List.of(
+                new com.bloodreport.analyzer.model.BloodMetric("LDL", 115.0, "mg/dL", 0.0, 100.0),
+                new com.bloodreport.analyzer.model.BloodMetric("25-OH Vitamin D", 20.0, "ng/mL", 30.0, 100.0),
+                new com.bloodreport.analyzer.model.BloodMetric("Glucose", 5.4, "%", null, null));
+
+        assertEquals("ldl:high,vitamin_d:low", validationService.signature(first, false));
+        assertEquals(validationService.signature(first, false), validationService.signature(second, false));
+        assertEquals("glucose:normal,ldl:high,vitamin_d:low", validationService.signature(first, true));
+        assertEquals("ldl:high,vitamin_d:low", validationService.signature(second, true));
+    }
 }